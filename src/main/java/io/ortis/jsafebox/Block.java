@@ -17,8 +17,6 @@
 
 package io.ortis.jsafebox;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class Block implements SafeFile
@@ -29,8 +27,13 @@ public class Block implements SafeFile
 	public final static String MIME_LABEL = "content-type";
 
 
+	/**
+	 * <code>null</code> when the path is derived from the parent {@link Folder}
+	 */
 	private final String path;
 	private final String comparablePath;
+	private final String name;
+	private final String comparableName;
 	private final long offset;
 	private final long length;
 
@@ -47,7 +50,6 @@ public class Block implements SafeFile
 	public Block(final String path, final Map<String, String> properties, final long offset, final long length, final long metaOffset, final long metaLength, final long dataOffset,
 			final long dataLength,  final Folder parent)
 	{
-		this.path = path;
 		this.comparablePath = Environment.comparableString(path);
 		this.offset = offset;
 		this.length = length;
@@ -57,21 +59,19 @@ public class Block implements SafeFile
 		this.dataOffset = dataOffset;
 		this.dataLength = dataLength;
 
-	
-		final Map<String, String> props = new LinkedHashMap<>();
-		props.putAll(properties);
-
 		final String name = SafeFiles.getName(path);
 
 		if (name == null)
 			throw new IllegalArgumentException("Path '" + path + "' is not valid");
 
-		props.put(PATH_LABEL, path);
-		props.put(NAME_LABEL, name);
-
-		this.properties = Collections.unmodifiableMap(props);
+		this.name = name;
+		this.comparableName = Environment.comparableString(name);
 
 		this.parent = parent;
+		// most blocks are stored under a folder with the same path, the parent then holds the shared prefix
+		this.path = parent != null && path.length() == parent.getPath().length() + 1 + name.length() && path.startsWith(parent.getPath()) && path.charAt(
+				parent.getPath().length()) == Folder.DELIMITER && path.endsWith(name) ? null : path;
+		this.properties = new BlockProperties(this, properties);
 	}
 
 	@Override
@@ -95,7 +95,10 @@ public class Block implements SafeFile
 
 	public String getPath()
 	{
-		return path;
+		if (this.path == null)
+			return this.parent.getPath() + Folder.DELIMITER + this.name;
+
+		return this.path;
 	}
 
 	public long getOffset()
@@ -115,14 +118,12 @@ public class Block implements SafeFile
 
 	public String getName()
 	{
-		return this.properties.get(NAME_LABEL);
-
+		return this.name;
 	}
 
 	public String getComparableName()
 	{
-		return this.properties.get(NAME_LABEL).toUpperCase();
-
+		return this.comparableName;
 	}
 
 	public long getMetaOffset()
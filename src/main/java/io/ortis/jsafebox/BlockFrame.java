@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Framing of a block: [ IV | metadata length | metadata | data length | data ]. The frame is everything but the data. Frames are read with positional reads of a {@link FileChannel} into a
+ * buffer, so the IV, the lengths and the metadata of a block usually come from a single read. Frames are encoded in memory and written with a single write instead of writing each field and
+ * seeking back to patch the lengths
+ */
+public class BlockFrame
+{
+	public final static int DEFAULT_READ_SIZE = 4096;
+
+	private final long offset;
+	private final byte[] iv;
+	private final byte[] metadata;
+	private final long dataLength;
+
+	public BlockFrame(final long offset, final byte[] iv, final byte[] metadata, final long dataLength)
+	{
+		this.offset = offset;
+		this.iv = iv;
+		this.metadata = metadata;
+		this.dataLength = dataLength;
+	}
+
+	/**
+	 * Read the frame of the block starting at <code>offset</code>. The position of the channel is not modified
+	 *
+	 * @param channel
+	 * @param offset:   offset of the block
+	 * @param end:      end of the readable region
+	 * @param ivLength: length of the IV, 0 for the header
+	 * @param buffer:   read buffer. Frames longer than the buffer need additional reads
+	 * @return
+	 * @throws IOException if the frame is out of the readable region
+	 */
+	public static BlockFrame read(final FileChannel channel, final long offset, final long end, final int ivLength, final ByteBuffer buffer) throws IOException
+	{
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+		if(buffer.limit() < ivLength + Long.BYTES)
+			throw new EOFException("Block starting at " + offset + " is truncated");
+		SafeIO.readFully(channel, offset, buffer);
+		buffer.flip();
+
+		final byte[] iv = new byte[ivLength];
+		buffer.get(iv);
+
+		final long metaLength = buffer.getLong();
+		final long metaOffset = offset + ivLength + Long.BYTES;
+		if(metaLength < 0 || metaLength > Integer.MAX_VALUE || metaOffset + metaLength + Long.BYTES > end)
+			throw new IOException("Metadata length " + metaLength + " of block starting at " + offset + " is out of bound");
+
+		final byte[] metadata = new byte[(int) metaLength];
+		final long dataLength;
+		if(buffer.remaining() >= metaLength + Long.BYTES)
+		{
+			buffer.get(metadata);
+			dataLength = buffer.getLong();
+		}
+		else
+		{
+			// the frame is longer than the buffer
+			final int buffered = Math.min(buffer.remaining(), metadata.length);
+			buffer.get(metadata, 0, buffered);
+			SafeIO.readFully(channel, metaOffset + buffered, ByteBuffer.wrap(metadata, buffered, metadata.length - buffered));
+			final ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+			SafeIO.readFully(channel, metaOffset + metaLength, length);
+			dataLength = length.getLong(0);
+		}
+
+		final BlockFrame frame = new BlockFrame(offset, iv, metadata, dataLength);
+		if(dataLength < 0 || frame.getDataOffset() + dataLength > end)
+			throw new IOException("Data length " + dataLength + " of block starting at " + offset + " is out of bound");
+
+		return frame;
+	}
+
+	/**
+	 * Encode the frame
+	 *
+	 * @return a buffer ready to be written
+	 */
+	public ByteBuffer encode()
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate((int) getFrameLength());
+		buffer.put(this.iv);
+		buffer.putLong(this.metadata.length);
+		buffer.put(this.metadata);
+		buffer.putLong(this.dataLength);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Write the frame at the current position of <code>destination</code> with a single write
+	 *
+	 * @param destination
+	 * @throws IOException
+	 */
+	public void write(final RandomAccessFile destination) throws IOException
+	{
+		final ByteBuffer encoded = encode();
+		destination.write(encoded.array(), 0, encoded.limit());
+	}
+
+	/**
+	 * Overwrite the data length of the frame written at {@link BlockFrame#getOffset()}. The position of the channel is not modified
+	 *
+	 * @param channel
+	 * @param dataLength
+	 * @throws IOException
+	 */
+	public void writeDataLength(final FileChannel channel, final long dataLength) throws IOException
+	{
+		final ByteBuffer length = ByteBuffer.allocate(Long.BYTES).putLong(0, dataLength);
+		long position = getDataOffset() - Long.BYTES;
+		while(length.hasRemaining())
+			position += channel.write(length, position);
+	}
+
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	public byte[] getIV()
+	{
+		return iv;
+	}
+
+	/**
+	 * Get the metadata as stored: encrypted for every block but the header
+	 *
+	 * @return
+	 */
+	public byte[] getMetadata()
+	{
+		return metadata;
+	}
+
+	public long getMetaOffset()
+	{
+		return this.offset + this.iv.length + Long.BYTES;
+	}
+
+	public long getMetaLength()
+	{
+		return this.metadata.length;
+	}
+
+	public long getDataOffset()
+	{
+		return getMetaOffset() + this.metadata.length + Long.BYTES;
+	}
+
+	public long getDataLength()
+	{
+		return dataLength;
+	}
+
+	/**
+	 * Get the length of the frame, that is the length of the block without its data
+	 *
+	 * @return
+	 */
+	public long getFrameLength()
+	{
+		return getDataOffset() - this.offset;
+	}
+
+	/**
+	 * Get the length of the block
+	 *
+	 * @return
+	 */
+	public long getLength()
+	{
+		return getFrameLength() + this.dataLength;
+	}
+}
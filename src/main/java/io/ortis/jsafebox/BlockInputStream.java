@@ -0,0 +1,495 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Locale;
+
+/**
+ * {@link InputStream} decrypting the data of a {@link Block} on demand. Only <code>bufferSize</code> bytes of ciphertext (or a single chunk for {@link ChunkedData}) are read at a time. When the
+ * block is chunked, {@link BlockInputStream#skip(long)} seeks directly to the chunk containing the target position. When the block is encrypted in CBC mode, it seeks to the cipher block
+ * containing the target position and uses the previous ciphertext block as IV. When the block is {@link Compression compressed}, the stream is decompressed transparently: positions and
+ * length are in the decompressed data and seeking backward restarts the decompression
+ */
+public class BlockInputStream extends InputStream
+{
+	private final Safe safe;
+	private final boolean temp;
+	/**
+	 * <code>null</code> once the stream is closed
+	 */
+	private Cipher cipher;
+	private final Key key;
+	private final byte[] iv;
+	private final long dataOffset;
+	private final long dataLength;
+	private final boolean seekable;
+	private final int blockSize;
+
+	private final int chunkSize;
+	private final Key chunkKey;
+	private final long chunkCount;
+	private long chunkIndex;
+
+	private final byte[] bufferEncrypted;
+	private final byte[] bufferDecrypted;
+	private int bufferPosition;
+	private int bufferLength;
+
+	private long cipherPosition;
+	private long position;
+	private long length = -1;
+	private boolean finished;
+
+	private final Compression.Codec codec;
+	private InputStream decompressed;
+	private long clearPosition;
+	private long clearLength = -1;
+	/**
+	 * Destination of the single byte reads of compressed data
+	 */
+	private final byte[] single = new byte[1];
+
+	private boolean closed;
+
+	/**
+	 * @param safe:       safe containing the block
+	 * @param block:      the block to read
+	 * @param temp:       the block is stored in the temporary safe file
+	 * @param cipher:     cipher of the safe from {@link Ciphers#acquire(String)}, not initialized. It is released by the stream through {@link Safe#release(Cipher)}
+	 * @param key:        encryption key
+	 * @param iv:         IV of the block
+	 * @param bufferSize: number of ciphertext bytes read at a time
+	 * @throws Exception
+	 */
+	BlockInputStream(final Safe safe, final Block block, final boolean temp, final Cipher cipher, final Key key, final byte[] iv, final int bufferSize) throws Exception
+	{
+		this.safe = safe;
+		this.temp = temp;
+		this.key = key;
+		this.iv = iv;
+		this.dataOffset = block.getDataOffset();
+		this.dataLength = block.getDataLength();
+		this.codec = Compression.getBlockCodec(block.getProperties());
+
+		if(ChunkedData.isChunked(block.getProperties()))
+		{
+			this.chunkSize = ChunkedData.getChunkSize(block.getProperties());
+			this.chunkKey = ChunkedData.deriveKey(key, iv);
+			this.chunkCount = ChunkedData.getChunkCount(this.dataLength, this.chunkSize);
+			this.length = ChunkedData.getClearLength(this.dataLength, this.chunkSize);
+			// chunks have their own cipher
+			safe.release(cipher);
+			this.cipher = Ciphers.acquire(ChunkedData.CHUNK_ENCRYPTION);
+			this.blockSize = this.chunkSize;
+			this.seekable = true;
+
+			this.bufferEncrypted = new byte[this.chunkSize + ChunkedData.TAG_LENGTH];
+			this.bufferDecrypted = new byte[this.chunkSize];
+		}
+		else
+		{
+			this.chunkSize = 0;
+			this.chunkKey = null;
+			this.chunkCount = 0;
+			this.cipher = cipher;
+			this.blockSize = cipher.getBlockSize();
+			this.seekable = this.blockSize > 0 && cipher.getAlgorithm().toUpperCase(Locale.ENGLISH).contains("/CBC/");
+
+			this.bufferEncrypted = new byte[bufferSize];
+			this.bufferDecrypted = new byte[bufferSize + 2 * Math.max(this.blockSize, 1)];
+
+			this.cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+		}
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		ensureOpen();
+		if(this.codec != null)
+			return read(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xFF;
+
+		if(!fill())
+			return -1;
+
+		this.position++;
+		return this.bufferDecrypted[this.bufferPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		ensureOpen();
+		if(off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+
+		if(len == 0)
+			return 0;
+
+		if(this.codec == null)
+			return readStored(b, off, len);
+
+		final int read = decompressed().read(b, off, len);
+		if(read < 0)
+			this.clearLength = this.clearPosition;
+		else
+			this.clearPosition += read;
+
+		return read;
+	}
+
+	/**
+	 * Read the stored (possibly compressed) data
+	 */
+	private int readStored(final byte[] b, final int off, final int len) throws IOException
+	{
+		if(!fill())
+			return -1;
+
+		final int read = Math.min(len, this.bufferLength - this.bufferPosition);
+		System.arraycopy(this.bufferDecrypted, this.bufferPosition, b, off, read);
+		this.bufferPosition += read;
+		this.position += read;
+
+		return read;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException
+	{
+		ensureOpen();
+		if(n <= 0)
+			return 0;
+
+		if(this.codec != null)
+			return discard(n);
+
+		if(!this.seekable)
+			return super.skip(n);
+
+		final long start = this.position;
+		final long target = Math.min(start + n, length());
+
+		if(target - start <= this.bufferLength - this.bufferPosition)
+		{
+			this.bufferPosition += (int) (target - start);
+			this.position = target;
+		}
+		else
+			seek(target);
+
+		return this.position - start;
+	}
+
+	@Override
+	public int available()
+	{
+		return this.codec == null && !this.closed ? this.bufferLength - this.bufferPosition : 0;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(this.closed)
+			return;
+
+		this.closed = true;
+		if(this.decompressed != null)
+			this.decompressed.close();
+		this.decompressed = null;
+		// the cipher goes back to the cache of the thread and may be used by another operation
+		if(this.chunkSize > 0)
+			ChunkedData.release(this.cipher);
+		else
+			this.safe.release(this.cipher);
+		this.cipher = null;
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if(this.closed)
+			throw new IOException("Stream closed");
+	}
+
+	/**
+	 * Move to the clear data position <code>target</code>. Only supported for chunked or CBC encrypted blocks
+	 *
+	 * @param target: position in the clear data
+	 * @throws IOException
+	 */
+	public void seek(final long target) throws IOException
+	{
+		ensureOpen();
+		if(this.codec != null)
+		{
+			if(target < 0)
+				throw new IllegalArgumentException("Position " + target + " is out of bound");
+
+			if(target < this.clearPosition)
+				restart();
+
+			if(discard(target - this.clearPosition) < target - this.clearPosition)
+				throw new IllegalArgumentException("Position " + target + " is out of bound");
+			return;
+		}
+
+		if(!this.seekable)
+			throw new UnsupportedOperationException("Seek is only supported for chunked or CBC encrypted blocks");
+
+		if(target < 0 || target > length())
+			throw new IllegalArgumentException("Position " + target + " is out of bound");
+
+		final long cipherBlock = target / this.blockSize * this.blockSize;
+		init(cipherBlock);
+		this.position = cipherBlock;
+
+		while(this.position < target)
+		{
+			if(!fill())
+				break;
+
+			final int skipped = (int) Math.min(target - this.position, this.bufferLength - this.bufferPosition);
+			this.bufferPosition += skipped;
+			this.position += skipped;
+		}
+	}
+
+	/**
+	 * Get the position in the clear data
+	 *
+	 * @return
+	 */
+	public long getPosition()
+	{
+		return this.codec == null ? this.position : this.clearPosition;
+	}
+
+	/**
+	 * Get the length of the clear data. In CBC mode, only the last cipher block is decrypted to compute the length. The length of chunked blocks is known without decryption. The
+	 * length of compressed blocks is only known once decompressed
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public long length() throws IOException
+	{
+		ensureOpen();
+		if(this.codec != null)
+		{
+			if(this.clearLength < 0)
+			{
+				// decompress up to the end then come back
+				final long position = this.clearPosition;
+				discard(Long.MAX_VALUE);
+				seek(position);
+			}
+			return this.clearLength;
+		}
+
+		if(this.length >= 0)
+			return this.length;
+
+		if(!this.seekable)
+			throw new UnsupportedOperationException("Length is only known for chunked or CBC encrypted blocks");
+
+		if(this.dataLength == 0)
+			return this.length = 0;
+
+		try
+		{
+			final long lastBlock = this.dataLength - this.blockSize;
+			final Cipher cipher = Ciphers.acquire(this.cipher.getAlgorithm());
+			try
+			{
+				cipher.init(Cipher.DECRYPT_MODE, this.key, new IvParameterSpec(readIV(lastBlock)));
+
+				final byte[] encrypted = new byte[this.blockSize];
+				this.safe.read(this.temp, this.dataOffset + lastBlock, ByteBuffer.wrap(encrypted));
+
+				return this.length = lastBlock + cipher.doFinal(encrypted).length;
+			} finally
+			{
+				this.safe.release(cipher);
+			}
+		} catch(final GeneralSecurityException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Stream decompressing the stored data
+	 */
+	private InputStream decompressed()
+	{
+		if(this.decompressed == null)
+			this.decompressed = this.codec.decompress(new InputStream()
+			{
+				private final byte[] single = new byte[1];
+
+				@Override
+				public int read() throws IOException
+				{
+					return readStored(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xFF;
+				}
+
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException
+				{
+					return len == 0 ? 0 : readStored(b, off, len);
+				}
+			});
+
+		return this.decompressed;
+	}
+
+	/**
+	 * Read and drop up to <code>n</code> bytes of decompressed data
+	 *
+	 * @return the number of dropped bytes
+	 */
+	private long discard(final long n) throws IOException
+	{
+		final byte[] buffer = new byte[Math.max(this.bufferDecrypted.length, 1024)];
+		long done = 0;
+		while(done < n)
+		{
+			final int read = read(buffer, 0, (int) Math.min(buffer.length, n - done));
+			if(read < 0)
+				break;
+			done += read;
+		}
+		return done;
+	}
+
+	/**
+	 * Restart the decompression from the beginning of the stored data
+	 */
+	private void restart() throws IOException
+	{
+		if(this.decompressed != null)
+			this.decompressed.close();
+		this.decompressed = null;
+		this.clearPosition = 0;
+
+		init(0);
+		this.position = 0;
+	}
+
+	/**
+	 * Make sure decrypted bytes are available
+	 *
+	 * @return <code>false</code> if the end of the stream has been reached
+	 */
+	private boolean fill() throws IOException
+	{
+		ensureOpen();
+		try
+		{
+			while(this.bufferPosition == this.bufferLength)
+			{
+				if(this.finished)
+					return false;
+
+				this.bufferPosition = 0;
+				if(this.chunkSize > 0)
+				{
+					// decrypt and authenticate the next chunk
+					final boolean last = this.chunkIndex == this.chunkCount - 1;
+					final int read = (int) Math.min(this.bufferEncrypted.length, this.dataLength - this.cipherPosition);
+					this.safe.read(this.temp, this.dataOffset + this.cipherPosition, ByteBuffer.wrap(this.bufferEncrypted, 0, read));
+					this.bufferLength = ChunkedData.decrypt(this.cipher, this.chunkKey, this.chunkIndex, last, this.bufferEncrypted, read, this.bufferDecrypted);
+					this.cipherPosition += read;
+					this.chunkIndex++;
+					this.finished = last;
+					continue;
+				}
+
+				final long remaining = this.dataLength - this.cipherPosition;
+				if(remaining == 0)
+				{
+					this.bufferLength = this.cipher.doFinal(this.bufferDecrypted, 0);
+					this.finished = true;
+					this.length = this.position + this.bufferLength;
+				}
+				else
+				{
+					final int read = (int) Math.min(remaining, this.bufferEncrypted.length);
+					this.safe.read(this.temp, this.dataOffset + this.cipherPosition, ByteBuffer.wrap(this.bufferEncrypted, 0, read));
+					this.cipherPosition += read;
+					this.bufferLength = this.cipher.update(this.bufferEncrypted, 0, read, this.bufferDecrypted, 0);
+				}
+			}
+
+			return true;
+		} catch(final IOException e)
+		{
+			throw e;
+		} catch(final Exception e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Restart the decryption at the cipher block (or chunk) starting at <code>cipherBlock</code>
+	 */
+	private void init(final long cipherBlock) throws IOException
+	{
+		ensureOpen();
+		this.cipherPosition = cipherBlock;
+		this.bufferPosition = 0;
+		this.bufferLength = 0;
+		this.finished = false;
+
+		if(this.chunkSize > 0)
+		{
+			this.chunkIndex = cipherBlock / this.chunkSize;
+			this.cipherPosition = this.chunkIndex * (this.chunkSize + ChunkedData.TAG_LENGTH);
+			return;
+		}
+
+		try
+		{
+			this.cipher.init(Cipher.DECRYPT_MODE, this.key, new IvParameterSpec(readIV(cipherBlock)));
+		} catch(final GeneralSecurityException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * In CBC mode, the IV of a cipher block is the previous ciphertext block
+	 */
+	private byte[] readIV(final long cipherBlock) throws IOException
+	{
+		if(cipherBlock == 0)
+			return this.iv;
+
+		final byte[] iv = new byte[this.blockSize];
+		this.safe.read(this.temp, this.dataOffset + cipherBlock - this.blockSize, ByteBuffer.wrap(iv));
+		return iv;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable properties of a {@link Block}, in insertion order. The entries are stored in a single array instead of a map of entry objects. The keys matching a label of the protocol are
+ * replaced by the label constant, other keys are stored as is. The values of the labels with few distinct values ({@link Block#MIME_LABEL}, {@link Compression#COMPRESSION_LABEL},
+ * {@link ChunkedData#CHUNK_SIZE_LABEL}, {@link ChunkedData#CHUNK_ENCRYPTION_LABEL}) are shared by all the blocks, up to a bounded number of distinct values. The {@link Block#PATH_LABEL} and
+ * {@link Block#NAME_LABEL} values are not stored but read from the {@link Block}
+ */
+class BlockProperties extends AbstractMap<String, String>
+{
+	private final static Set<String> SHARED_VALUE_LABELS = new HashSet<>(
+			Arrays.asList(Block.MIME_LABEL, Compression.COMPRESSION_LABEL, ChunkedData.CHUNK_SIZE_LABEL, ChunkedData.CHUNK_ENCRYPTION_LABEL));
+	private final static Map<String, String> LABELS = constants(Block.PATH_LABEL, Block.NAME_LABEL, Block.MIME_LABEL, ChunkedData.CHUNK_SIZE_LABEL, ChunkedData.CHUNK_ENCRYPTION_LABEL,
+			Compression.COMPRESSION_LABEL, Deduplication.DEDUPLICATION_LABEL, Deduplication.CONTENT_HASH_LABEL, Deduplication.CONTENT_REFERENCE_LABEL);
+	/**
+	 * Maximum number of distinct values shared, the values read once the limit is reached are stored as is
+	 */
+	private final static int MAX_SHARED_VALUES = 1024;
+	private final static Map<String, String> SHARED_VALUES = new ConcurrentHashMap<>(constants(Compression.DEFLATE, ChunkedData.CHUNK_ENCRYPTION));
+
+	private final Block block;
+	/**
+	 * Keys at even indexes, values at odd indexes
+	 */
+	private final String[] entries;
+
+	private EntrySet entrySet;
+
+	BlockProperties(final Block block, final Map<String, String> properties)
+	{
+		this.block = block;
+
+		int size = properties.size();
+		if(!properties.containsKey(Block.PATH_LABEL))
+			size++;
+		if(!properties.containsKey(Block.NAME_LABEL))
+			size++;
+
+		this.entries = new String[size * 2];
+		int index = 0;
+		for(final Map.Entry<String, String> entry : properties.entrySet())
+		{
+			final String key = entry.getKey();
+			final String label = key == null ? null : LABELS.get(key);
+			this.entries[index++] = label == null ? key : label;
+			this.entries[index++] = isDerived(key) ? null : SHARED_VALUE_LABELS.contains(key) ? share(entry.getValue()) : entry.getValue();
+		}
+
+		if(!properties.containsKey(Block.PATH_LABEL))
+		{
+			this.entries[index] = Block.PATH_LABEL;
+			index += 2;
+		}
+		if(!properties.containsKey(Block.NAME_LABEL))
+			this.entries[index] = Block.NAME_LABEL;
+	}
+
+	@Override
+	public String get(final Object key)
+	{
+		final int index = indexOf(key);
+		return index < 0 ? null : getValue(index);
+	}
+
+	@Override
+	public boolean containsKey(final Object key)
+	{
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return this.entries.length / 2;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet()
+	{
+		if(this.entrySet == null)
+			this.entrySet = new EntrySet();
+		return this.entrySet;
+	}
+
+	private int indexOf(final Object key)
+	{
+		for(int i = 0; i < this.entries.length; i += 2)
+			if(key == null ? this.entries[i] == null : key.equals(this.entries[i]))
+				return i;
+		return -1;
+	}
+
+	private String getValue(final int index)
+	{
+		final String key = this.entries[index];
+		if(Block.PATH_LABEL.equals(key))
+			return this.block.getPath();
+		if(Block.NAME_LABEL.equals(key))
+			return this.block.getName();
+		return this.entries[index + 1];
+	}
+
+	private static boolean isDerived(final String key)
+	{
+		return Block.PATH_LABEL.equals(key) || Block.NAME_LABEL.equals(key);
+	}
+
+	private static String share(final String value)
+	{
+		if(value == null)
+			return null;
+
+		String shared = SHARED_VALUES.get(value);
+		if(shared == null && SHARED_VALUES.size() < MAX_SHARED_VALUES)
+			shared = SHARED_VALUES.putIfAbsent(value, value);
+		return shared == null ? value : shared;
+	}
+
+	private static Map<String, String> constants(final String... constants)
+	{
+		final Map<String, String> map = new HashMap<>();
+		for(final String constant : constants)
+			map.put(constant, constant);
+		return Collections.unmodifiableMap(map);
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<String, String>>
+	{
+		@Override
+		public Iterator<Map.Entry<String, String>> iterator()
+		{
+			return new Iterator<Map.Entry<String, String>>()
+			{
+				private int index = 0;
+
+				@Override
+				public boolean hasNext()
+				{
+					return this.index < entries.length;
+				}
+
+				@Override
+				public Map.Entry<String, String> next()
+				{
+					if(!hasNext())
+						throw new NoSuchElementException();
+
+					final Map.Entry<String, String> entry = new SimpleImmutableEntry<>(entries[this.index], getValue(this.index));
+					this.index += 2;
+					return entry;
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return BlockProperties.this.size();
+		}
+	}
+}
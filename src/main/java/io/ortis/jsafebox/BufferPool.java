@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the io buffers of the {@link Safe}. Buffers are pooled by length and shared by all threads. The memory held by idle buffers is bounded by the capacity of the pool: a buffer released
+ * while the pool is full is left to the garbage collector. Released buffers are wiped since they may hold clear data. The pool does not bound the buffers in use: an operation always gets the
+ * buffers it needs to make progress. The buffers an operation keeps in flight to work in parallel are taken from the budget of the pool with {@link BufferPool#reserve(long, int)}, so that
+ * concurrent operations share the budget and degrade to fewer buffers in flight instead of multiplying their memory. Buffers are only reused by requests of the same length, callers keep their
+ * lengths stable (see {@link SafeIO}) so that the idle buffers are not filled with lengths nobody asks for
+ */
+public class BufferPool
+{
+	public final static long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+	public final static long DEFAULT_BUDGET = 128 * 1024 * 1024;
+	public final static BufferPool DEFAULT = new BufferPool(Long.getLong("jsafebox.buffer.pool", DEFAULT_CAPACITY), Long.getLong("jsafebox.buffer.budget", DEFAULT_BUDGET));
+
+	private final long capacity;
+	private final long budget;
+	private final AtomicLong reserved = new AtomicLong();
+	private final Map<Integer, Deque<byte[]>> buffers = new ConcurrentHashMap<>();
+	private final AtomicLong pooled = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong drops = new AtomicLong();
+
+	/**
+	 * @param capacity: maximum number of bytes held by idle buffers
+	 */
+	public BufferPool(final long capacity)
+	{
+		this(capacity, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param capacity: maximum number of bytes held by idle buffers
+	 * @param budget:   maximum number of bytes reserved by the buffers kept in flight for parallel work
+	 */
+	public BufferPool(final long capacity, final long budget)
+	{
+		if(capacity < 0)
+			throw new IllegalArgumentException("Capacity " + capacity + " is negative");
+		if(budget < 0)
+			throw new IllegalArgumentException("Budget " + budget + " is negative");
+
+		this.capacity = capacity;
+		this.budget = budget;
+	}
+
+	/**
+	 * Get a buffer of <code>length</code> bytes. The buffer is not shared until given back with {@link BufferPool#release(byte[])}
+	 *
+	 * @param length
+	 * @return
+	 */
+	public byte[] acquire(final int length)
+	{
+		final Deque<byte[]> free = this.buffers.get(length);
+		final byte[] buffer = free == null ? null : free.pollFirst();
+		if(buffer == null)
+		{
+			this.misses.incrementAndGet();
+			return new byte[length];
+		}
+
+		this.pooled.addAndGet(-length);
+		this.hits.incrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Give back a buffer. The buffer must not be used afterward
+	 *
+	 * @param buffer: buffer obtained from {@link BufferPool#acquire(int)}. Ignored if <code>null</code>
+	 */
+	public void release(final byte[] buffer)
+	{
+		if(buffer == null)
+			return;
+
+		Arrays.fill(buffer, (byte) 0);
+
+		long current;
+		do
+		{
+			current = this.pooled.get();
+			if(current + buffer.length > this.capacity)
+			{
+				this.drops.incrementAndGet();
+				return;
+			}
+		} while(!this.pooled.compareAndSet(current, current + buffer.length));
+
+		this.buffers.computeIfAbsent(buffer.length, length -> new ConcurrentLinkedDeque<>()).addFirst(buffer);
+	}
+
+	/**
+	 * Reserve up to <code>count</code> slots of <code>length</code> bytes from the budget. The slots must be given back with {@link BufferPool#unreserve(long, int)} once the buffers are
+	 * released. An operation reserves the slots it keeps in flight beyond the one it needs to make progress, so it never waits for the budget
+	 *
+	 * @param length: number of bytes of a slot
+	 * @param count:  number of slots wanted
+	 * @return the number of reserved slots, between 0 and <code>count</code>
+	 */
+	public int reserve(final long length, final int count)
+	{
+		if(length <= 0 || count <= 0)
+			return 0;
+
+		long current;
+		int slots;
+		do
+		{
+			current = this.reserved.get();
+			slots = (int) Math.min(count, Math.max(0, this.budget - current) / length);
+			if(slots == 0)
+				return 0;
+		} while(!this.reserved.compareAndSet(current, current + slots * length));
+
+		return slots;
+	}
+
+	/**
+	 * Give back slots reserved with {@link BufferPool#reserve(long, int)}
+	 *
+	 * @param length: number of bytes of a slot
+	 * @param count:  number of reserved slots
+	 */
+	public void unreserve(final long length, final int count)
+	{
+		if(length > 0 && count > 0)
+			this.reserved.addAndGet(-count * length);
+	}
+
+	/**
+	 * Get the maximum number of bytes held by idle buffers
+	 *
+	 * @return
+	 */
+	public long getCapacity()
+	{
+		return this.capacity;
+	}
+
+	/**
+	 * Get the maximum number of bytes reserved by the buffers kept in flight for parallel work
+	 *
+	 * @return
+	 */
+	public long getBudget()
+	{
+		return this.budget;
+	}
+
+	/**
+	 * Get the number of bytes currently reserved from the budget
+	 *
+	 * @return
+	 */
+	public long getReservedBytes()
+	{
+		return this.reserved.get();
+	}
+
+	/**
+	 * Get the number of bytes currently held by idle buffers
+	 *
+	 * @return
+	 */
+	public long getPooledBytes()
+	{
+		return this.pooled.get();
+	}
+
+	/**
+	 * Get the number of acquisitions served by a pooled buffer
+	 *
+	 * @return
+	 */
+	public long getHits()
+	{
+		return this.hits.get();
+	}
+
+	/**
+	 * Get the number of acquisitions that allocated a new buffer
+	 *
+	 * @return
+	 */
+	public long getMisses()
+	{
+		return this.misses.get();
+	}
+
+	/**
+	 * Get the number of released buffers left to the garbage collector because the pool was full
+	 *
+	 * @return
+	 */
+	public long getDrops()
+	{
+		return this.drops.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return BufferPool.class.getSimpleName() + " [pooled=" + Utils.humanReadableByteCount(getPooledBytes()) + "/" + Utils.humanReadableByteCount(this.capacity) + ", reserved="
+				+ Utils.humanReadableByteCount(getReservedBytes()) + "/" + Utils.humanReadableByteCount(this.budget) + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", drops=" + getDrops() + "]";
+	}
+}
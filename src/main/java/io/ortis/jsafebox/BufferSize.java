@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+
+/**
+ * Sizing of io buffers. A buffer is sized per operation from the number of bytes to process: the smallest power of two multiple of the file system block size holding them, bounded by an upper
+ * bound. Small blocks get small buffers while large blocks are processed with few reads and few {@link javax.crypto.Cipher} updates. Sizes being powers of two, the {@link BufferPool} only holds a
+ * few distinct lengths
+ */
+public abstract class BufferSize
+{
+	public final static int DEFAULT_UPPER_BOUND = 256 * 1024;
+	public final static int DEFAULT_FILE_SYSTEM_BLOCK_SIZE = 4096;
+
+	private final static int MIN_FILE_SYSTEM_BLOCK_SIZE = 512;
+	private final static int MAX_FILE_SYSTEM_BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * Get the size of the buffer processing <code>length</code> bytes
+	 *
+	 * @param length:              number of bytes to process. {@link Long#MAX_VALUE} if unknown
+	 * @param fileSystemBlockSize: block size of the file system, must be a power of two
+	 * @param upperBound:          maximum size of the buffer. {@link BufferSize#DEFAULT_UPPER_BOUND} if not positive
+	 * @return
+	 */
+	public static int get(final long length, final int fileSystemBlockSize, final int upperBound)
+	{
+		final int bound = upperBound > 0 ? upperBound : DEFAULT_UPPER_BOUND;
+
+		long size = fileSystemBlockSize;
+		while(size < length && size < bound)
+			size <<= 1;
+
+		return (int) Math.min(size, bound);
+	}
+
+	/**
+	 * Get the block size of the file system holding <code>file</code>. The block size is only exposed since Java 10: {@link BufferSize#DEFAULT_FILE_SYSTEM_BLOCK_SIZE} is returned on older
+	 * runtimes, or if the file system does not report a power of two
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static int getFileSystemBlockSize(final File file)
+	{
+		try
+		{
+			final FileStore store = Files.getFileStore(file.toPath());
+			final Method getBlockSize = FileStore.class.getMethod("getBlockSize");
+			final long blockSize = (long) getBlockSize.invoke(store);
+			if(blockSize >= MIN_FILE_SYSTEM_BLOCK_SIZE && blockSize <= MAX_FILE_SYSTEM_BLOCK_SIZE && Long.bitCount(blockSize) == 1)
+				return (int) blockSize;
+		} catch(final Exception e)
+		{
+			// not exposed by the runtime or the file system
+		}
+
+		return DEFAULT_FILE_SYSTEM_BLOCK_SIZE;
+	}
+}
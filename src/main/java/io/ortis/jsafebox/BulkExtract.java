@@ -0,0 +1,284 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.task.TaskProbe;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent extraction of many {@link SafeFile} from a {@link Safe}. The extraction is planned up front: directories are created and blocks are sorted by file then by offset, so that workers
+ * taking the blocks in order sweep the safe file forward instead of seeking back and forth. Each worker streams its block to the destination file, the memory used is bounded by the IO buffers of
+ * the workers
+ */
+public abstract class BulkExtract
+{
+	/**
+	 * {@link Block} to extract and its destination
+	 */
+	public static class Entry
+	{
+		private final Block block;
+		private final boolean temp;
+		private final File destination;
+
+		public Entry(final Block block, final boolean temp, final File destination)
+		{
+			this.block = block;
+			this.temp = temp;
+			this.destination = destination;
+		}
+
+		public Block getBlock()
+		{
+			return block;
+		}
+
+		/**
+		 * @return <code>true</code> if the {@link Block} is stored in the temporary safe file
+		 */
+		public boolean isTemp()
+		{
+			return temp;
+		}
+
+		public File getDestination()
+		{
+			return destination;
+		}
+	}
+
+	/**
+	 * Plan the extraction of <code>safeFiles</code> into <code>directory</code>. Folders are extracted recursively and the directories are created. When several blocks have the same
+	 * destination, only the last one is extracted, which is the file a sequential extraction would leave
+	 *
+	 * @param safe
+	 * @param safeFiles: files and folders to extract
+	 * @param directory: destination directory
+	 * @param probe
+	 * @return the blocks to extract, sorted by location in the safe
+	 * @throws Exception
+	 */
+	public static List<Entry> plan(final Safe safe, final Collection<? extends SafeFile> safeFiles, final File directory, final TaskProbe probe) throws Exception
+	{
+		if(!directory.isDirectory())
+			throw new Exception("Destination must be a directory");
+
+		final List<Entry> planned = new ArrayList<>();
+		for(final SafeFile safeFile : safeFiles)
+			plan(safe, safeFile, directory, planned, probe);
+
+		// workers must never write the same file concurrently
+		final Map<File, Entry> destinations = new LinkedHashMap<>();
+		for(final Entry entry : planned)
+		{
+			final Entry previous = destinations.put(entry.getDestination().getAbsoluteFile(), entry);
+			if(previous != null)
+				probe.fireMessage("Block " + previous.getBlock().getPath() + " is overwritten by block " + entry.getBlock().getPath() + " in " + entry.getDestination()
+						.getAbsolutePath());
+		}
+
+		final List<Entry> entries = new ArrayList<>(destinations.values());
+		entries.sort(Comparator.comparing(Entry::isTemp).thenComparingLong(entry -> entry.getBlock().getOffset()));
+
+		return entries;
+	}
+
+	private static void plan(final Safe safe, final SafeFile safeFile, final File directory, final List<Entry> entries, final TaskProbe probe) throws Exception
+	{
+		if(safeFile.isFolder())
+		{
+			final File targetDirectory = new File(directory, safeFile.getName());
+			if(!targetDirectory.exists())
+			{
+				probe.fireMessage("Creating directory " + targetDirectory.getAbsolutePath());
+				if(!targetDirectory.mkdirs())
+					throw new IOException("Could not create directory " + targetDirectory);
+			}
+
+			for(final SafeFile sf : ((Folder) safeFile).listFiles())
+				plan(safe, sf, targetDirectory, entries, probe);
+		}
+		else
+		{
+			final Block block = (Block) safeFile;
+			entries.add(new Entry(block, safe.getTempBlocks().get(block.getComparablePath()) == block, new File(directory, safeFile.getName())));
+		}
+	}
+
+	/**
+	 * Extract <code>safeFiles</code> into <code>directory</code> using <code>threads</code> workers
+	 *
+	 * @param safe
+	 * @param safeFiles: files and folders to extract
+	 * @param directory: destination directory
+	 * @param threads:   number of workers
+	 * @param probe:     progress is reported as the ratio of extracted bytes
+	 * @throws Exception
+	 */
+	public static void extract(final Safe safe, final Collection<? extends SafeFile> safeFiles, final File directory, final int threads, TaskProbe probe) throws Exception
+	{
+		if(probe == null)
+			probe = TaskProbe.DULL_PROBE;
+
+		try
+		{
+			probe.checkCancel();
+			probe.fireProgress(Double.NaN);
+
+			final List<Entry> entries = plan(safe, safeFiles, directory, probe);
+			if(entries.isEmpty())
+				return;
+
+			long total = 0;
+			for(final Entry entry : entries)
+				total += entry.getBlock().getDataLength();
+
+			final int workerCount = Math.max(1, Math.min(threads, entries.size()));
+			final AtomicInteger next = new AtomicInteger();
+			final AtomicBoolean stop = new AtomicBoolean();
+			final BlockingQueue<Entry> extracteds = new LinkedBlockingQueue<>();
+			// stops the blocks being decrypted by the workers as soon as the extraction is stopped
+			final TaskProbe workerProbe = new TaskProbe()
+			{
+				@Override
+				public boolean isCancelRequested()
+				{
+					return stop.get();
+				}
+
+				@Override
+				public void fireProgress(final double progress)
+				{
+				}
+
+				@Override
+				public void fireMessage(final String message)
+				{
+				}
+
+				@Override
+				public void fireCanceled()
+				{
+				}
+
+				@Override
+				public void fireException(final Exception exception)
+				{
+				}
+
+				@Override
+				public void fireTerminated()
+				{
+				}
+			};
+			final ExecutorService executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+				final Thread thread = new Thread(runnable, "jsafebox-extract");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+			try
+			{
+				final List<Future<Void>> workers = new ArrayList<>(workerCount);
+				for(int i = 0; i < workerCount; i++)
+					workers.add(executor.submit(() -> {
+						int index;
+						while(!stop.get() && (index = next.getAndIncrement()) < entries.size())
+						{
+							final Entry entry = entries.get(index);
+							try(final FileOutputStream fos = new FileOutputStream(entry.getDestination()))
+							{
+								safe.extract(entry.getBlock().getPath(), entry.isTemp(), fos, workerProbe);
+							} catch(final Exception e)
+							{
+								// do not leave a truncated file behind
+								entry.getDestination().delete();
+								throw e;
+							}
+							extracteds.put(entry);
+						}
+						return null;
+					}));
+
+				long done = 0;
+				for(int count = 0; count < entries.size(); )
+				{
+					final Entry entry = extracteds.poll(100, TimeUnit.MILLISECONDS);
+					if(entry != null)
+					{
+						count++;
+						done += entry.getBlock().getDataLength();
+						probe.fireMessage("Extracted block " + entry.getBlock().getName() + " to " + entry.getDestination().getAbsolutePath());
+						probe.fireProgress(total == 0 ? count / (double) entries.size() : done / (double) total);
+					}
+					else
+						for(final Future<Void> worker : workers)
+							if(worker.isDone())
+								try
+								{
+									worker.get();
+								} catch(final ExecutionException e)
+								{
+									if(e.getCause() instanceof Exception)
+										throw (Exception) e.getCause();
+									throw e;
+								}
+
+					probe.checkCancel();
+				}
+			} finally
+			{
+				// workers must be done with the safe before returning
+				stop.set(true);
+				executor.shutdown();
+				while(!executor.awaitTermination(1, TimeUnit.SECONDS))
+					;
+			}
+		} catch(final CancellationException e)
+		{
+			probe.fireCanceled();
+			throw e;
+		} catch(final Exception e)
+		{
+			probe.fireException(e);
+			throw e;
+		} finally
+		{
+			probe.fireTerminated();
+		}
+	}
+}
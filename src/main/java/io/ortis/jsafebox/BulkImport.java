@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.task.TaskProbe;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent import of many files into a {@link Safe}. Workers encrypt the files in parallel, each one into its own temporary segment file. Once a segment holds a batch of blocks, the worker
+ * appends it to the temporary safe file and links the blocks into the {@link Folder} tree under the write lock of the {@link Safe}. The calling thread reports the progress, counted by the
+ * workers as they read the files, and handles the cancellation
+ */
+public abstract class BulkImport
+{
+	/**
+	 * Maximum number of blocks linked per batch
+	 */
+	public final static int BATCH_COUNT = 256;
+	/**
+	 * Maximum length of a segment before its blocks are linked
+	 */
+	public final static long BATCH_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * File to import and the metadata of its {@link Block}. Override {@link #openInputStream()} and {@link #getLength()} to import data not stored in a file
+	 */
+	public static class Entry
+	{
+		private final File source;
+		private final Map<String, String> properties;
+
+		public Entry(final File source, final Map<String, String> properties)
+		{
+			this.source = source;
+			this.properties = properties;
+		}
+
+		public File getSource()
+		{
+			return source;
+		}
+
+		public Map<String, String> getProperties()
+		{
+			return properties;
+		}
+
+		/**
+		 * Open the data to import
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public InputStream openInputStream() throws IOException
+		{
+			return new FileInputStream(this.source);
+		}
+
+		/**
+		 * Get the length of the data to import
+		 *
+		 * @return
+		 */
+		public long getLength()
+		{
+			return this.source.length();
+		}
+	}
+
+	/**
+	 * Import <code>entries</code> into the temporary safe file of <code>safe</code>. Destinations are checked before any encryption. If the import fails or is cancelled, the blocks linked so far
+	 * remain in the {@link Safe} and can be dropped with {@link Safe#discardChanges()}
+	 *
+	 * @param safe
+	 * @param entries: files to import
+	 * @param threads: number of workers
+	 * @param probe:   progress is reported as the ratio of bytes read from the files (of files if they are all empty)
+	 * @return the imported blocks, in order of completion
+	 * @throws Exception
+	 */
+	public static List<Block> add(final Safe safe, final List<Entry> entries, final int threads, TaskProbe probe) throws Exception
+	{
+		if(probe == null)
+			probe = TaskProbe.DULL_PROBE;
+
+		try
+		{
+			final Set<String> paths = new HashSet<>();
+			long totalLength = 0;
+			for(final Entry entry : entries)
+			{
+				safe.getDestinationFolder(entry.getProperties());
+				final String path = entry.getProperties().get(Block.PATH_LABEL);
+				if(!paths.add(Environment.comparableString(path)))
+					throw new Exception("Block path " + path + " is imported twice");
+				totalLength += entry.getLength();
+			}
+
+			final List<Block> blocks = new ArrayList<>(entries.size());
+			if(entries.isEmpty())
+				return blocks;
+
+			final int workerCount = Math.max(1, Math.min(threads, entries.size()));
+			final AtomicInteger next = new AtomicInteger();
+			final AtomicBoolean stop = new AtomicBoolean();
+			final AtomicInteger encryptedFiles = new AtomicInteger();
+			final AtomicLong encryptedBytes = new AtomicLong();
+			final BlockingQueue<Block> linkeds = new LinkedBlockingQueue<>();
+			final ExecutorService executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+				final Thread thread = new Thread(runnable, "jsafebox-import");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+			try
+			{
+				final List<Future<Void>> workers = new ArrayList<>(workerCount);
+				for(int i = 0; i < workerCount; i++)
+					workers.add(executor.submit(() -> {
+						work(safe, entries, next, stop, linkeds, encryptedFiles, encryptedBytes);
+						return null;
+					}));
+
+				int reportedFiles = 0;
+				long reportedBytes = 0;
+				while(blocks.size() < entries.size())
+				{
+					final Block block = linkeds.poll(100, TimeUnit.MILLISECONDS);
+					if(block != null)
+					{
+						blocks.add(block);
+						linkeds.drainTo(blocks);
+					}
+					else
+						for(final Future<Void> worker : workers)
+							if(worker.isDone())
+								try
+								{
+									worker.get();
+								} catch(final ExecutionException e)
+								{
+									if(e.getCause() instanceof Exception)
+										throw (Exception) e.getCause();
+									throw e;
+								}
+
+					// blocks are linked by batch, the progress follows the encryption instead
+					final int files = encryptedFiles.get();
+					final long bytes = encryptedBytes.get();
+					if(files != reportedFiles || bytes != reportedBytes)
+					{
+						reportedFiles = files;
+						reportedBytes = bytes;
+						probe.fireMessage("Encrypted " + files + "/" + entries.size() + " file(s)");
+						probe.fireProgress(Math.min(1, totalLength > 0 ? bytes / (double) totalLength : files / (double) entries.size()));
+					}
+
+					probe.checkCancel();
+				}
+
+				return blocks;
+			} finally
+			{
+				// workers must be done with the safe and their segment before returning
+				stop.set(true);
+				executor.shutdown();
+				while(!executor.awaitTermination(1, TimeUnit.SECONDS))
+					;
+			}
+		} catch(final CancellationException e)
+		{
+			throw e;
+		} catch(final Exception e)
+		{
+			probe.fireException(e);
+			throw e;
+		} finally
+		{
+			probe.fireTerminated();
+		}
+	}
+
+	private static void work(final Safe safe, final List<Entry> entries, final AtomicInteger next, final AtomicBoolean stop, final BlockingQueue<Block> linkeds,
+			final AtomicInteger encryptedFiles, final AtomicLong encryptedBytes) throws Exception
+	{
+		final TaskProbe probe = new TaskProbe()
+		{
+			@Override
+			public boolean isCancelRequested()
+			{
+				return stop.get();
+			}
+
+			@Override
+			public void fireProgress(final double progress)
+			{
+			}
+
+			@Override
+			public void fireMessage(final String message)
+			{
+			}
+
+			@Override
+			public void fireCanceled()
+			{
+			}
+
+			@Override
+			public void fireException(final Exception exception)
+			{
+			}
+
+			@Override
+			public void fireTerminated()
+			{
+			}
+		};
+
+		final File segmentFile = Files.createTempFile(null, null).toFile();
+		try(final RandomAccessFile segment = new RandomAccessFile(segmentFile, "rw"))
+		{
+			final List<Block> batch = new ArrayList<>();
+			int index;
+			while(!stop.get() && (index = next.getAndIncrement()) < entries.size())
+			{
+				final Entry entry = entries.get(index);
+				try(final InputStream is = new CountingInputStream(entry.openInputStream(), encryptedBytes))
+				{
+					// files are already encrypted in parallel
+					batch.add(safe.write(entry.getProperties(), is, entry.getLength(), segment, 1, null, probe));
+				}
+				encryptedFiles.incrementAndGet();
+
+				if(batch.size() >= BATCH_COUNT || segment.length() >= BATCH_LENGTH)
+					commit(safe, batch, segment, linkeds);
+			}
+
+			if(!stop.get())
+				commit(safe, batch, segment, linkeds);
+		} finally
+		{
+			segmentFile.delete();
+		}
+	}
+
+	private static void commit(final Safe safe, final List<Block> batch, final RandomAccessFile segment, final BlockingQueue<Block> linkeds) throws Exception
+	{
+		if(batch.isEmpty())
+			return;
+
+		linkeds.addAll(safe.link(batch, segment));
+		batch.clear();
+		segment.setLength(0);
+	}
+
+	/**
+	 * {@link InputStream} adding the number of bytes read through it to a shared counter
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private final AtomicLong count;
+
+		private CountingInputStream(final InputStream in, final AtomicLong count)
+		{
+			super(in);
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if(b >= 0)
+				this.count.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			final int read = super.read(b, off, len);
+			if(read > 0)
+				this.count.addAndGet(read);
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException
+		{
+			final long skipped = super.skip(n);
+			this.count.addAndGet(skipped);
+			return skipped;
+		}
+	}
+}
@@ -16,6 +16,7 @@
  */
 package io.ortis.jsafebox;
 
+import java.io.PrintStream;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 
@@ -28,11 +29,25 @@ import java.util.logging.LogRecord;
  */
 public class CLIHandler extends Handler
 {
+	private final PrintStream out;
+
+	public CLIHandler()
+	{
+		this(System.out);
+	}
+
+	/**
+	 * @param out: destination of the messages
+	 */
+	public CLIHandler(final PrintStream out)
+	{
+		this.out = out;
+	}
 
 	@Override
 	public synchronized void publish(final LogRecord record)
 	{
-		System.out.println(record.getMessage());
+		this.out.println(record.getMessage());
 	}
 
 	@Override
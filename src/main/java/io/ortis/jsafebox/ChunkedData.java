@@ -0,0 +1,470 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.task.TaskProbe;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Utility class for the chunked layout of the data of a {@link Block}. The clear data is split into chunks of 'chunk size' bytes, the last chunk being always shorter (possibly empty). Each
+ * chunk is encrypted with AES/GCM using a key derived from the encryption key and the IV of the block (HMAC-SHA256(key, "jsafebox chunk" | IV) truncated to the length of the key). The nonce of a
+ * chunk is its index (12 bytes big-endian) and the additional authenticated data is a single byte set to 1 for the last chunk and 0 otherwise, so reordered or truncated chunks are detected. The
+ * encrypted data is [ chunk 0 | tag 0 | chunk 1 | tag 1 | ... ] which allows to locate and authenticate any chunk without reading the previous ones
+ */
+public abstract class ChunkedData
+{
+	public final static String CHUNK_SIZE_LABEL = "chunk size";
+	public final static String CHUNK_ENCRYPTION_LABEL = "chunk encryption";
+	public final static String CHUNK_ENCRYPTION = "AES/GCM/NoPadding";
+	public final static int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	public final static int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+	public final static int TAG_LENGTH = 16;
+	public final static int NONCE_LENGTH = 12;
+
+	private final static String KEY_DERIVATION = "HmacSHA256";
+	private final static byte[] KEY_DERIVATION_CONTEXT = "jsafebox chunk".getBytes(StandardCharsets.UTF_8);
+	private final static Key BLANK_KEY = new SecretKeySpec(new byte[16], "AES");
+
+	/**
+	 * Clear and encrypted buffers of a chunk
+	 */
+	private static class Chunk
+	{
+		private final byte[] clear;
+		private final byte[] encrypted;
+		private long index;
+		private int length;
+		private boolean last;
+		private int encryptedLength;
+
+		private Chunk(final int chunkSize)
+		{
+			this.clear = BufferPool.DEFAULT.acquire(chunkSize);
+			this.encrypted = BufferPool.DEFAULT.acquire(chunkSize + TAG_LENGTH);
+		}
+
+		private void release()
+		{
+			BufferPool.DEFAULT.release(this.clear);
+			BufferPool.DEFAULT.release(this.encrypted);
+		}
+
+		private void read(final InputStream data, final long index) throws IOException
+		{
+			this.index = index;
+			this.length = 0;
+			int read;
+			while(this.length < this.clear.length && (read = data.read(this.clear, this.length, this.clear.length - this.length)) >= 0)
+				this.length += read;
+
+			// the last chunk is always shorter than the chunk size
+			this.last = this.length < this.clear.length;
+		}
+
+		private void encrypt(final Cipher cipher, final Key key) throws Exception
+		{
+			init(cipher, Cipher.ENCRYPT_MODE, key, this.index, this.last);
+			this.encryptedLength = cipher.doFinal(this.clear, 0, this.length, this.encrypted, 0);
+		}
+	}
+
+	/**
+	 * Check if the metadata of a block declare a chunked layout
+	 *
+	 * @param metadata
+	 * @return
+	 */
+	public static boolean isChunked(final Map<String, String> metadata)
+	{
+		return metadata != null && metadata.containsKey(CHUNK_SIZE_LABEL);
+	}
+
+	/**
+	 * Get the chunk size declared in metadata
+	 *
+	 * @param metadata
+	 * @return
+	 */
+	public static int getChunkSize(final Map<String, String> metadata)
+	{
+		final String encryption = metadata.get(CHUNK_ENCRYPTION_LABEL);
+		if(!CHUNK_ENCRYPTION.equals(encryption))
+			throw new IllegalArgumentException("Unsupported chunk encryption '" + encryption + "'");
+
+		return parseChunkSize(metadata.get(CHUNK_SIZE_LABEL));
+	}
+
+	public static int parseChunkSize(final String chunkSize)
+	{
+		final int size = Integer.parseInt(chunkSize.trim());
+		if(size <= 0 || size > MAX_CHUNK_SIZE)
+			throw new IllegalArgumentException("Chunk size " + size + " is out of bound");
+
+		return size;
+	}
+
+	/**
+	 * Declare the chunked layout in the metadata of a block
+	 *
+	 * @param metadata
+	 * @param chunkSize
+	 */
+	public static void setChunked(final Map<String, String> metadata, final int chunkSize)
+	{
+		metadata.put(CHUNK_SIZE_LABEL, Integer.toString(chunkSize));
+		metadata.put(CHUNK_ENCRYPTION_LABEL, CHUNK_ENCRYPTION);
+	}
+
+	/**
+	 * Derive the key of the chunks of a block
+	 *
+	 * @param key: encryption key of the safe
+	 * @param iv:  IV of the block
+	 * @return
+	 * @throws Exception
+	 */
+	public static SecretKey deriveKey(final Key key, final byte[] iv) throws Exception
+	{
+		final byte[] encoded = key.getEncoded();
+		final byte[] derived;
+		final Mac mac = Ciphers.acquireMac(KEY_DERIVATION);
+		try
+		{
+			mac.init(new SecretKeySpec(encoded, KEY_DERIVATION));
+			mac.update(KEY_DERIVATION_CONTEXT);
+			derived = mac.doFinal(iv);
+		} finally
+		{
+			Ciphers.release(mac, key);
+		}
+
+		try
+		{
+			return new SecretKeySpec(derived, 0, encoded.length, key.getAlgorithm());
+		} finally
+		{
+			Arrays.fill(encoded, (byte) 0);
+			Arrays.fill(derived, (byte) 0);
+		}
+	}
+
+	/**
+	 * Get the number of chunks of encrypted data
+	 *
+	 * @param dataLength: length of the encrypted data
+	 * @param chunkSize
+	 * @return
+	 */
+	public static long getChunkCount(final long dataLength, final int chunkSize)
+	{
+		return dataLength / (chunkSize + TAG_LENGTH) + 1;
+	}
+
+	/**
+	 * Get the length of the clear data
+	 *
+	 * @param dataLength: length of the encrypted data
+	 * @param chunkSize
+	 * @return
+	 */
+	public static long getClearLength(final long dataLength, final int chunkSize)
+	{
+		return dataLength - getChunkCount(dataLength, chunkSize) * TAG_LENGTH;
+	}
+
+	/**
+	 * Get the length of the encrypted data
+	 *
+	 * @param clearLength: length of the clear data
+	 * @param chunkSize
+	 * @return
+	 */
+	public static long getEncryptedLength(final long clearLength, final int chunkSize)
+	{
+		return clearLength + (clearLength / chunkSize + 1) * TAG_LENGTH;
+	}
+
+	/**
+	 * Encrypt <code>data</code> into chunks written at the current position of <code>destination</code>. Unless the data fits in a single chunk, the work is pipelined: a reader fills recycled
+	 * chunk buffers, <code>threads</code> workers encrypt the chunks independently and the calling thread writes them in order. At most 2 * <code>threads</code> chunks are in flight, the chunks beyond
+	 * the first one being reserved from the budget of {@link BufferPool#DEFAULT}
+	 *
+	 * @param data:        clear data
+	 * @param dataLength:  length of the clear data if known (used for progress), negative otherwise
+	 * @param key:         chunk key of the block (see {@link ChunkedData#deriveKey(Key, byte[])})
+	 * @param chunkSize
+	 * @param destination
+	 * @param threads:     number of encryption workers
+	 * @param probe:       progress is reported as the ratio of written clear bytes when <code>dataLength</code> is known
+	 * @return the length of the encrypted data
+	 * @throws Exception
+	 */
+	public static long encrypt(final InputStream data, final long dataLength, final Key key, final int chunkSize, final RandomAccessFile destination, final int threads,
+			final TaskProbe probe) throws Exception
+	{
+		final Chunk first = new Chunk(chunkSize);
+		first.read(data, 0);
+
+		if(first.last || threads <= 1)
+		{
+			// GCM refuses to encrypt twice with the same key and nonce on one instance, so encryption instances are not cached
+			final Cipher cipher = Cipher.getInstance(CHUNK_ENCRYPTION);
+			try
+			{
+				long total = 0;
+				long clear = 0;
+				for(long index = 1; ; index++)
+				{
+					first.encrypt(cipher, key);
+					destination.write(first.encrypted, 0, first.encryptedLength);
+					total += first.encryptedLength;
+					clear += first.length;
+					fireProgress(probe, clear, dataLength);
+
+					probe.checkCancel();
+
+					if(first.last)
+						return total;
+
+					first.read(data, index);
+				}
+			} finally
+			{
+				first.release();
+			}
+		}
+
+		final long slot = 2L * chunkSize + TAG_LENGTH;
+		final int reserved = BufferPool.DEFAULT.reserve(slot, 2 * threads - 1);
+		final int slots = 1 + reserved;
+		final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(slots);
+		final BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<>(slots);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads + 1, runnable -> {
+			final Thread thread = new Thread(runnable, "jsafebox-chunk-encryption");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+
+		try
+		{
+			// reader
+			executor.submit(() -> {
+				try
+				{
+					Chunk chunk = first;
+					int allocated = 1;
+					for(long index = 1; ; index++)
+					{
+						final Chunk current = chunk;
+						pending.put(executor.submit(() -> {
+							Cipher cipher = ciphers.get();
+							if(cipher == null)
+							{
+								cipher = Cipher.getInstance(CHUNK_ENCRYPTION);
+								ciphers.set(cipher);
+							}
+							current.encrypt(cipher, key);
+							return current;
+						}));
+
+						if(current.last)
+							return null;
+
+						// recycle buffers once written
+						chunk = free.poll();
+						if(chunk == null)
+							if(allocated < slots)
+							{
+								chunk = new Chunk(chunkSize);
+								allocated++;
+							}
+							else
+								chunk = free.take();
+
+						chunk.read(data, index);
+					}
+				} catch(final InterruptedException e)
+				{
+					return null;
+				} catch(final Exception e)
+				{
+					final CompletableFuture<Chunk> failure = new CompletableFuture<>();
+					failure.completeExceptionally(e);
+					pending.put(failure);
+					return null;
+				}
+			});
+
+			// ordered writer
+			long total = 0;
+			long clear = 0;
+			while(true)
+			{
+				final Chunk chunk;
+				try
+				{
+					chunk = pending.take().get();
+				} catch(final ExecutionException e)
+				{
+					if(e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+
+				destination.write(chunk.encrypted, 0, chunk.encryptedLength);
+				total += chunk.encryptedLength;
+				clear += chunk.length;
+				fireProgress(probe, clear, dataLength);
+
+				if(chunk.last)
+				{
+					// every task is done once the last chunk is written
+					chunk.release();
+					for(final Chunk recycled : free)
+						recycled.release();
+					return total;
+				}
+
+				free.put(chunk);
+
+				probe.checkCancel();
+			}
+		} finally
+		{
+			executor.shutdownNow();
+			BufferPool.DEFAULT.unreserve(slot, reserved);
+		}
+	}
+
+	private static void fireProgress(final TaskProbe probe, final long clear, final long dataLength)
+	{
+		if(dataLength > 0)
+			probe.fireProgress(Math.min(1, clear / (double) dataLength));
+	}
+
+	/**
+	 * Decrypt a single chunk
+	 *
+	 * @param cipher:      a {@link ChunkedData#CHUNK_ENCRYPTION} cipher
+	 * @param key:         chunk key of the block
+	 * @param index:       index of the chunk
+	 * @param last:        the chunk is the last one
+	 * @param encrypted:   encrypted chunk, including the tag
+	 * @param length:      length of the encrypted chunk
+	 * @param destination: destination of the clear chunk
+	 * @return the length of the clear chunk
+	 * @throws Exception if the chunk cannot be authenticated
+	 */
+	public static int decrypt(final Cipher cipher, final Key key, final long index, final boolean last, final byte[] encrypted, final int length, final byte[] destination)
+			throws Exception
+	{
+		init(cipher, Cipher.DECRYPT_MODE, key, index, last);
+		return cipher.doFinal(encrypted, 0, length, destination, 0);
+	}
+
+	/**
+	 * Decrypt <code>length</code> bytes of chunked data starting at <code>position</code>
+	 *
+	 * @return the length of the clear data
+	 * @throws Exception
+	 */
+	public static long decrypt(final SafeIO.Source source, final long position, final long length, final Key key, final int chunkSize, final OutputStream destination,
+			final TaskProbe probe) throws Exception
+	{
+		final long count = getChunkCount(length, chunkSize);
+
+		final byte[] encrypted = BufferPool.DEFAULT.acquire(chunkSize + TAG_LENGTH);
+		final byte[] clear = BufferPool.DEFAULT.acquire(chunkSize);
+		final Cipher cipher = Ciphers.acquire(CHUNK_ENCRYPTION);
+		try
+		{
+			long total = 0;
+			long offset = 0;
+			for(long index = 0; index < count; index++)
+			{
+				final int encryptedLength = (int) Math.min(encrypted.length, length - offset);
+				source.read(position + offset, ByteBuffer.wrap(encrypted, 0, encryptedLength));
+				offset += encryptedLength;
+
+				final int read = decrypt(cipher, key, index, index == count - 1, encrypted, encryptedLength, clear);
+				destination.write(clear, 0, read);
+				total += read;
+
+				probe.checkCancel();
+			}
+
+			return total;
+		} finally
+		{
+			release(cipher);
+			BufferPool.DEFAULT.release(encrypted);
+			BufferPool.DEFAULT.release(clear);
+		}
+	}
+
+	/**
+	 * Give back a decryption {@link Cipher} obtained from {@link Ciphers#acquire(String)}. The chunk key of a block is never used again for another block, so the cipher is initialized with
+	 * a blank key before being cached instead of keeping the chunk key
+	 *
+	 * @param cipher
+	 */
+	static void release(final Cipher cipher)
+	{
+		if(cipher == null)
+			return;
+
+		try
+		{
+			cipher.init(Cipher.DECRYPT_MODE, BLANK_KEY, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, new byte[NONCE_LENGTH]));
+			Ciphers.release(cipher);
+		} catch(final GeneralSecurityException e)
+		{
+			// the cipher is simply not reused
+		}
+	}
+
+	private static void init(final Cipher cipher, final int mode, final Key key, final long index, final boolean last) throws Exception
+	{
+		final byte[] nonce = ByteBuffer.allocate(NONCE_LENGTH).putLong(NONCE_LENGTH - Long.BYTES, index).array();
+		cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, nonce));
+		cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+	}
+}
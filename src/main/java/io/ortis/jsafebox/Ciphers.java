@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-thread cache of {@link Cipher}, {@link Mac} and {@link SecureRandom} instances. Looking up a provider costs more than encrypting a small block, so instances are reused instead. A cached
+ * instance also keeps its key schedule when it is initialized again with the same key. An instance is removed from the cache while in use and is put back by the matching release: a nested
+ * operation of the same thread never gets an instance in use and an instance that is not released is simply not reused. Cached instances keep the key they were last initialized with: an
+ * instance keyed by the key of a safe is released with this key and {@link Ciphers#clear(Key)} drops it from the caches of every thread once the safe is closed
+ */
+public abstract class Ciphers
+{
+	/**
+	 * Caches of the live threads, so they can be cleared from any thread. The cache of a dead thread is collected with it
+	 */
+	private static final Set<Cache> CACHES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+	private static final ThreadLocal<Cache> CACHE = ThreadLocal.withInitial(() -> {
+		final Cache cache = new Cache();
+		CACHES.add(cache);
+		return cache;
+	});
+	private static final ThreadLocal<SecureRandom> SECURE_RANDOMS = ThreadLocal.withInitial(SecureRandom::new);
+
+	/**
+	 * Instances cached for a thread. The maps are only filled by their thread but can be cleared by any thread
+	 */
+	private static final class Cache
+	{
+		private final Map<String, Cached<Cipher>> ciphers = new ConcurrentHashMap<>();
+		private final Map<String, Cached<Mac>> macs = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Cached instance and the key of the safe it holds, if any
+	 */
+	private static final class Cached<T>
+	{
+		private final T instance;
+		private final Key key;
+
+		private Cached(final T instance, final Key key)
+		{
+			this.instance = instance;
+			this.key = key;
+		}
+
+		private boolean isKeyedBy(final Key key)
+		{
+			return this.key != null && this.key.equals(key);
+		}
+	}
+
+	/**
+	 * Get a {@link Cipher} for the current thread. The cipher must be initialized before use and given back with {@link Ciphers#release(Cipher)} once done
+	 *
+	 * @param transformation
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public static Cipher acquire(final String transformation) throws GeneralSecurityException
+	{
+		final Cached<Cipher> cached = CACHE.get().ciphers.remove(transformation);
+		return cached == null ? Cipher.getInstance(transformation) : cached.instance;
+	}
+
+	/**
+	 * Give back a {@link Cipher} obtained from {@link Ciphers#acquire(String)} that does not hold the key of a safe. The cipher must not be used afterward
+	 *
+	 * @param cipher
+	 */
+	public static void release(final Cipher cipher)
+	{
+		release(cipher, null);
+	}
+
+	/**
+	 * Give back a {@link Cipher} obtained from {@link Ciphers#acquire(String)}. The cipher must not be used afterward
+	 *
+	 * @param cipher
+	 * @param key:    key of the safe the cipher was initialized with, <code>null</code> if none
+	 */
+	public static void release(final Cipher cipher, final Key key)
+	{
+		if(cipher != null)
+			CACHE.get().ciphers.put(cipher.getAlgorithm(), new Cached<>(cipher, key));
+	}
+
+	/**
+	 * Get a {@link Mac} for the current thread. The mac must be initialized before use and given back with {@link Ciphers#release(Mac)} once done
+	 *
+	 * @param algorithm
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public static Mac acquireMac(final String algorithm) throws GeneralSecurityException
+	{
+		final Cached<Mac> cached = CACHE.get().macs.remove(algorithm);
+		return cached == null ? Mac.getInstance(algorithm) : cached.instance;
+	}
+
+	/**
+	 * Give back a {@link Mac} obtained from {@link Ciphers#acquireMac(String)} that does not hold the key of a safe. The mac must not be used afterward
+	 *
+	 * @param mac
+	 */
+	public static void release(final Mac mac)
+	{
+		release(mac, null);
+	}
+
+	/**
+	 * Give back a {@link Mac} obtained from {@link Ciphers#acquireMac(String)}. The mac must not be used afterward
+	 *
+	 * @param mac
+	 * @param key: key of the safe the mac was initialized with or derived from, <code>null</code> if none
+	 */
+	public static void release(final Mac mac, final Key key)
+	{
+		if(mac != null)
+			CACHE.get().macs.put(mac.getAlgorithm(), new Cached<>(mac, key));
+	}
+
+	/**
+	 * Drop the {@link Cipher} and {@link Mac} instances released with <code>key</code> from the caches of every thread. Instances in use are not affected
+	 *
+	 * @param key: key of the safe
+	 */
+	public static void clear(final Key key)
+	{
+		synchronized(CACHES)
+		{
+			for(final Cache cache : CACHES)
+			{
+				cache.ciphers.values().removeIf(cached -> cached.isKeyedBy(key));
+				cache.macs.values().removeIf(cached -> cached.isKeyedBy(key));
+			}
+		}
+	}
+
+	/**
+	 * Drop the {@link Cipher} and {@link Mac} instances cached by every thread, along with the keys they were initialized with. Instances in use are not affected and are cached again when
+	 * released
+	 */
+	public static void clear()
+	{
+		synchronized(CACHES)
+		{
+			for(final Cache cache : CACHES)
+			{
+				cache.ciphers.clear();
+				cache.macs.clear();
+			}
+		}
+	}
+
+	/**
+	 * Count the {@link Cipher} and {@link Mac} instances cached by every thread
+	 *
+	 * @return
+	 */
+	static int size()
+	{
+		return size(null);
+	}
+
+	/**
+	 * Count the {@link Cipher} and {@link Mac} instances released with <code>key</code> and cached by every thread
+	 *
+	 * @param key: key of the safe, <code>null</code> to count every instance
+	 * @return
+	 */
+	static int size(final Key key)
+	{
+		int size = 0;
+		synchronized(CACHES)
+		{
+			for(final Cache cache : CACHES)
+				for(final Map<String, ? extends Cached<?>> map : Arrays.asList(cache.ciphers, cache.macs))
+					for(final Cached<?> cached : map.values())
+						if(key == null || cached.isKeyedBy(key))
+							size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Get the {@link SecureRandom} of the current thread
+	 *
+	 * @return
+	 */
+	public static SecureRandom getSecureRandom()
+	{
+		return SECURE_RANDOMS.get();
+	}
+}
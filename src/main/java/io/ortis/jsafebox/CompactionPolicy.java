@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.task.TaskProbe;
+
+/**
+ * Decide when the dead bytes of a {@link Safe} are worth a {@link Safe#compact(TaskProbe)}
+ */
+public class CompactionPolicy
+{
+	public final static double DEFAULT_DEAD_RATIO = 0.3;
+	public final static long DEFAULT_MIN_DEAD_LENGTH = 1024 * 1024;
+
+	public final static CompactionPolicy DEFAULT = new CompactionPolicy(DEFAULT_DEAD_RATIO, DEFAULT_MIN_DEAD_LENGTH);
+	public final static CompactionPolicy NEVER = new CompactionPolicy(Double.POSITIVE_INFINITY, Long.MAX_VALUE);
+
+	private final double deadRatio;
+	private final long minDeadLength;
+
+	/**
+	 * @param deadRatio:     ratio of dead bytes above which compaction is required
+	 * @param minDeadLength: number of dead bytes under which compaction is never required
+	 */
+	public CompactionPolicy(final double deadRatio, final long minDeadLength)
+	{
+		if(Double.isNaN(deadRatio) || deadRatio < 0)
+			throw new IllegalArgumentException("Dead ratio must be positive");
+
+		if(minDeadLength < 0)
+			throw new IllegalArgumentException("Minimum dead length must be positive");
+
+		this.deadRatio = deadRatio;
+		this.minDeadLength = minDeadLength;
+	}
+
+	public boolean isCompactionRequired(final Safe safe)
+	{
+		return safe.isTableOfContentsLoaded() && safe.getDeadLength() >= this.minDeadLength && safe.getDeadRatio() >= this.deadRatio;
+	}
+
+	/**
+	 * Compact the {@link Safe} if required
+	 *
+	 * @param safe
+	 * @param probe
+	 * @return the compacted {@link Safe} or <code>safe</code> if compaction was not required
+	 * @throws Exception
+	 */
+	public Safe apply(final Safe safe, final TaskProbe probe) throws Exception
+	{
+		if(!isCompactionRequired(safe))
+			return safe;
+
+		return safe.compact(probe);
+	}
+
+	public double getDeadRatio()
+	{
+		return deadRatio;
+	}
+
+	public long getMinDeadLength()
+	{
+		return minDeadLength;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + " [dead ratio=" + this.deadRatio + ", min dead length=" + this.minDeadLength + "]";
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Utility class for the optional compression of the data of a {@link Block}. When the public header contains the {@link Compression#COMPRESSION_LABEL} entry, new blocks are compressed with
+ * the named {@link Codec} before encryption and the codec is recorded in the metadata of the block. An empty value disables the compression. Data that is already compressed is stored as is: it is detected by its MIME type or by
+ * compressing the first {@link Compression#PROBE_LENGTH} bytes
+ */
+public abstract class Compression
+{
+	public final static String COMPRESSION_LABEL = "compression";
+	public final static String DEFLATE = "deflate";
+
+	/**
+	 * Number of bytes compressed to probe the data
+	 */
+	public final static int PROBE_LENGTH = 64 * 1024;
+	/**
+	 * Maximum compressed to clear length ratio of the probe for the data to be compressed
+	 */
+	public final static double PROBE_RATIO = 0.9;
+
+	private final static String[] COMPRESSED_MIME_PREFIXES = {"image/", "audio/", "video/", "application/zip", "application/x-zip", "application/gzip", "application/x-gzip",
+			"application/x-rar", "application/x-7z", "application/x-bzip", "application/x-xz", "application/java-archive", "application/pdf", "application/vnd.openxmlformats",
+			"application/epub"};
+	private final static String[] UNCOMPRESSED_MIME_PREFIXES = {"image/bmp", "image/x-ms-bmp", "image/svg", "image/tiff", "audio/wav", "audio/x-wav"};
+
+	private final static Map<String, Codec> CODECS = new ConcurrentHashMap<>();
+
+	/**
+	 * Compression algorithm. Streams returned by a codec release its resources when closed but never close the underlying stream
+	 */
+	public interface Codec
+	{
+		/**
+		 * Name of the codec, as recorded in the metadata of the blocks
+		 */
+		String getName();
+
+		InputStream compress(InputStream data);
+
+		InputStream decompress(InputStream data);
+
+		/**
+		 * @return a stream writing the decompressed data into <code>destination</code>. Closing the stream writes the remaining data
+		 */
+		OutputStream decompress(OutputStream destination);
+	}
+
+	/**
+	 * {@link Codec} using the JDK {@link Deflater} and {@link Inflater}
+	 */
+	public static class DeflateCodec implements Codec
+	{
+		private final int level;
+
+		public DeflateCodec(final int level)
+		{
+			this.level = level;
+		}
+
+		@Override
+		public String getName()
+		{
+			return DEFLATE;
+		}
+
+		@Override
+		public InputStream compress(final InputStream data)
+		{
+			final Deflater deflater = new Deflater(this.level);
+			return new DeflaterInputStream(data, deflater)
+			{
+				@Override
+				public void close()
+				{
+					deflater.end();
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(final InputStream data)
+		{
+			final Inflater inflater = new Inflater();
+			return new InflaterInputStream(data, inflater)
+			{
+				@Override
+				public void close()
+				{
+					inflater.end();
+				}
+			};
+		}
+
+		@Override
+		public OutputStream decompress(final OutputStream destination)
+		{
+			final Inflater inflater = new Inflater();
+			return new InflaterOutputStream(destination, inflater)
+			{
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						finish();
+					} finally
+					{
+						inflater.end();
+					}
+				}
+			};
+		}
+	}
+
+	static
+	{
+		register(new DeflateCodec(Deflater.DEFAULT_COMPRESSION));
+	}
+
+	/**
+	 * Register a {@link Codec}, replacing any codec with the same name
+	 *
+	 * @param codec
+	 */
+	public static void register(final Codec codec)
+	{
+		CODECS.put(codec.getName(), codec);
+	}
+
+	/**
+	 * Get a registered {@link Codec}
+	 *
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException if no codec is registered under <code>name</code>
+	 */
+	public static Codec getCodec(final String name)
+	{
+		final Codec codec = CODECS.get(name);
+		if(codec == null)
+			throw new IllegalArgumentException("Compression codec '" + name + "' is not supported");
+		return codec;
+	}
+
+	/**
+	 * Get the {@link Codec} of a block
+	 *
+	 * @param properties: metadata of the block
+	 * @return the codec or <code>null</code> if the block is not compressed
+	 */
+	public static Codec getBlockCodec(final Map<String, String> properties)
+	{
+		final String name = properties == null ? null : properties.get(COMPRESSION_LABEL);
+		return name == null ? null : getCodec(name);
+	}
+
+	public static boolean isCompressed(final Map<String, String> properties)
+	{
+		return properties != null && properties.containsKey(COMPRESSION_LABEL);
+	}
+
+	/**
+	 * Check if data of type <code>mime</code> is usually already compressed
+	 *
+	 * @param mime
+	 * @return
+	 */
+	public static boolean isCompressedType(final String mime)
+	{
+		if(mime == null)
+			return false;
+
+		final String type = mime.toLowerCase(Locale.ENGLISH);
+		for(final String prefix : UNCOMPRESSED_MIME_PREFIXES)
+			if(type.startsWith(prefix))
+				return false;
+
+		for(final String prefix : COMPRESSED_MIME_PREFIXES)
+			if(type.startsWith(prefix))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Check if the data starting with <code>probe</code> is worth compressing
+	 *
+	 * @param probe:  first bytes of the data
+	 * @param length: number of bytes in <code>probe</code>
+	 * @return
+	 */
+	public static boolean isCompressible(final byte[] probe, final int length)
+	{
+		if(length == 0)
+			return false;
+
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try
+		{
+			deflater.setInput(probe, 0, length);
+			deflater.finish();
+
+			final byte[] buffer = new byte[4096];
+			final long limit = (long) (length * PROBE_RATIO);
+			while(!deflater.finished())
+			{
+				deflater.deflate(buffer);
+				if(deflater.getBytesWritten() > limit)
+					return false;
+			}
+
+			return true;
+		} finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Prepare the data of a new block. If the data is compressible, <code>metadata</code> is updated with the codec and the returned stream is compressed, it must then be closed once read.
+	 * Otherwise, the returned stream is the clear data and must not be closed
+	 *
+	 * @param data:     clear data
+	 * @param codec:    codec of the safe
+	 * @param metadata: metadata of the block
+	 * @return the data to encrypt
+	 * @throws IOException
+	 */
+	public static InputStream compress(final InputStream data, final Codec codec, final Map<String, String> metadata) throws IOException
+	{
+		metadata.remove(COMPRESSION_LABEL);
+
+		if(isCompressedType(metadata.get(Block.MIME_LABEL)))
+			return data;
+
+		final byte[] probe = new byte[PROBE_LENGTH];
+		int length = 0;
+		int read;
+		while(length < probe.length && (read = data.read(probe, length, probe.length - length)) > -1)
+			length += read;
+
+		final InputStream source = new SequenceInputStream(new ByteArrayInputStream(probe, 0, length), data);
+		if(!isCompressible(probe, length))
+			return source;
+
+		metadata.put(COMPRESSION_LABEL, codec.getName());
+		return codec.compress(source);
+	}
+}
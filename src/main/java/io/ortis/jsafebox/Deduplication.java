@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Utility class for the content-addressed deduplication of the data of the {@link Block}. When the public header contains the {@link Deduplication#DEDUPLICATION_LABEL} entry, the clear data
+ * of a new block is authenticated with HMAC-SHA256 using a key derived from the encryption key (HMAC-SHA256(key, "jsafebox content")), so the content hash leaks nothing without the password.
+ * The first block holding a content records its hash in the {@link Deduplication#CONTENT_HASH_LABEL} entry of its metadata. Blocks added later with the same content only store the
+ * {@link Deduplication#CONTENT_REFERENCE_LABEL} entry and an empty data: reading them reads the data of the block holding the content. When the last block holding a content is deleted, the
+ * next save copies the content into one of the blocks referencing it
+ */
+public abstract class Deduplication
+{
+	public final static String DEDUPLICATION_LABEL = "deduplication";
+	public final static String CONTENT_HASH_LABEL = "content hash";
+	public final static String CONTENT_REFERENCE_LABEL = "content reference";
+	public final static String CONTENT_HASH = "HmacSHA256";
+
+	/**
+	 * Number of hexadecimal characters of a content hash
+	 */
+	public final static int CONTENT_HASH_LENGTH = 64;
+
+	private final static byte[] KEY_DERIVATION_CONTEXT = "jsafebox content".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * {@link InputStream} computing the content hash of the data read through it
+	 */
+	public static class ContentHashInputStream extends FilterInputStream
+	{
+		private final Mac mac;
+		/**
+		 * Key of the safe the content key is derived from
+		 */
+		private final Key key;
+		private String contentHash;
+
+		private ContentHashInputStream(final InputStream in, final Mac mac, final Key key)
+		{
+			super(in);
+			this.mac = mac;
+			this.key = key;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			ensureHashing();
+			final int b = super.read();
+			if(b >= 0)
+				this.mac.update((byte) b);
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			ensureHashing();
+			final int read = super.read(b, off, len);
+			if(read > 0)
+				this.mac.update(b, off, read);
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException
+		{
+			// skipped bytes are part of the content
+			final byte[] buffer = new byte[(int) Math.max(0, Math.min(n, 8192))];
+			long done = 0;
+			int read;
+			while(done < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - done))) > 0)
+				done += read;
+			return done;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close()
+		{
+			// the data stream belongs to the caller
+		}
+
+		private void ensureHashing() throws IOException
+		{
+			// the mac has been given back
+			if(this.contentHash != null)
+				throw new IOException("Content hash already computed");
+		}
+
+		/**
+		 * Get the hash of the data. The hash is computed once: the data must be fully read and the {@link Mac} is given back to the {@link Ciphers} cache
+		 *
+		 * @return
+		 */
+		public String getContentHash()
+		{
+			if(this.contentHash == null)
+			{
+				this.contentHash = Utils.bytesToHex(this.mac.doFinal()).toLowerCase();
+				Ciphers.release(this.mac, this.key);
+			}
+			return this.contentHash;
+		}
+	}
+
+	/**
+	 * Check if the public header enables the deduplication
+	 *
+	 * @param header
+	 * @return
+	 */
+	public static boolean isEnabled(final Map<String, String> header)
+	{
+		final String algorithm = header.get(DEDUPLICATION_LABEL);
+		if(algorithm == null || algorithm.isEmpty())
+			return false;
+
+		if(!CONTENT_HASH.equals(algorithm))
+			throw new IllegalArgumentException("Unsupported deduplication '" + algorithm + "'");
+
+		return true;
+	}
+
+	/**
+	 * Get the content hash of a block holding its content
+	 *
+	 * @param metadata
+	 * @return the hash or <code>null</code> if the block does not declare its content
+	 */
+	public static String getContentHash(final Map<String, String> metadata)
+	{
+		return metadata == null ? null : metadata.get(CONTENT_HASH_LABEL);
+	}
+
+	/**
+	 * Get the content hash referenced by a block
+	 *
+	 * @param metadata
+	 * @return the hash or <code>null</code> if the block holds its own data
+	 */
+	public static String getContentReference(final Map<String, String> metadata)
+	{
+		return metadata == null ? null : metadata.get(CONTENT_REFERENCE_LABEL);
+	}
+
+	public static boolean isReference(final Map<String, String> metadata)
+	{
+		return getContentReference(metadata) != null;
+	}
+
+	/**
+	 * Placeholder of the content hash written in the metadata until the data has been read. It has the length of a real hash, so the encrypted metadata keeps the same length once updated
+	 *
+	 * @return
+	 */
+	public static String getPlaceholder()
+	{
+		final char[] placeholder = new char[CONTENT_HASH_LENGTH];
+		Arrays.fill(placeholder, '0');
+		return new String(placeholder);
+	}
+
+	/**
+	 * Wrap <code>data</code> to compute its content hash
+	 *
+	 * @param data
+	 * @param key: encryption key of the safe
+	 * @return
+	 * @throws Exception
+	 */
+	public static ContentHashInputStream hash(final InputStream data, final Key key) throws Exception
+	{
+		final byte[] encoded = key.getEncoded();
+		byte[] contentKey = null;
+		final Mac derivation = Ciphers.acquireMac(CONTENT_HASH);
+		try
+		{
+			derivation.init(new SecretKeySpec(encoded, CONTENT_HASH));
+			contentKey = derivation.doFinal(KEY_DERIVATION_CONTEXT);
+		} finally
+		{
+			Ciphers.release(derivation, key);
+			Arrays.fill(encoded, (byte) 0);
+		}
+
+		// the derivation mac is given back before the content mac is acquired: both use the same algorithm
+		final Mac mac = Ciphers.acquireMac(CONTENT_HASH);
+		try
+		{
+			mac.init(new SecretKeySpec(contentKey, CONTENT_HASH));
+		} catch(final Exception e)
+		{
+			Ciphers.release(mac, key);
+			throw e;
+		} finally
+		{
+			Arrays.fill(contentKey, (byte) 0);
+		}
+
+		return new ContentHashInputStream(data, mac, key);
+	}
+}
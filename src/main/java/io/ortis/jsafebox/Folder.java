@@ -20,10 +20,13 @@ package io.ortis.jsafebox;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Representation of a directory of {@link SafeFile} inside the {@link Safe}
+ * Representation of a directory of {@link SafeFile} inside the {@link Safe}. Children are indexed by comparable name so lookup, insertion and removal do not depend on the number of children.
+ * The sorted list of children is only built when requested after a modification
  * 
  * @author Ortis <br>
  *         2018 Apr 26 7:53:33 PM <br>
@@ -62,10 +65,12 @@ public class Folder implements SafeFile
 	private final String comparablePath;
 	private final String [] comparableTokens;
 
-	private final List<Folder> folders;
-	private final List<Block> blocks;
-	private final List<SafeFile> files;
-	private final List<SafeFile> roFiles;
+	private final Map<String, Folder> folders;
+	private final Map<String, Block> blocks;
+	/**
+	 * Sorted children, <code>null</code> until rebuilt after a modification
+	 */
+	private volatile List<SafeFile> roFiles;
 
 	public Folder(final Folder parent, final String name)
 	{
@@ -74,10 +79,8 @@ public class Folder implements SafeFile
 		this.name = name;
 		this.comparableName = Environment.comparableString(this.name);
 
-		this.folders = new ArrayList<>();
-		this.blocks = new ArrayList<>();
-		this.files = new ArrayList<>();
-		this.roFiles = Collections.unmodifiableList(this.files);
+		this.folders = new HashMap<>();
+		this.blocks = new HashMap<>();
 
 		final List<Folder> above = new ArrayList<>();
 
@@ -117,17 +120,10 @@ public class Folder implements SafeFile
 			if (!this.comparableTokens[i].equals(tokens[i]))
 				throw new Exception("Block path '" + block.getPath() + " does not match folder path '" + this.path + "'");
 
-		final String name = block.getProperties().get(Block.NAME_LABEL);
-
-		for (final Block b : this.blocks)
-
-			if (b.getProperties().get(Block.NAME_LABEL).equals(name))
-				throw new Exception("Block " + block + " already exist");
+		if (this.blocks.putIfAbsent(block.getComparableName(), block) != null)
+			throw new Exception("Block " + block + " already exist");
 
-		this.blocks.add(block);
-
-		this.files.add(block);
-		this.files.sort(SAFE_FILE_COMPARATOR);
+		this.roFiles = null;
 	}
 
 	/**
@@ -158,22 +154,16 @@ public class Folder implements SafeFile
 		if (start == tokens.length - 1)
 		{
 			final String comparableToken = Environment.comparableString(tokens[start]);
-			for (final Folder folder : this.folders)
-				if (comparableToken.equals(folder.getComparableName()))
-					return folder;
-
-			for (final Block block : this.blocks)
-				if (comparableToken.equals(block.getComparableName()))
-					return block;
+			final Folder folder = this.folders.get(comparableToken);
+			if (folder != null)
+				return folder;
 
-			return null;
+			return this.blocks.get(comparableToken);
 		}
 
-		final String name = tokens[start].toUpperCase(Environment.getLocale());
-
-		for (final Folder folder : this.folders)
-			if (name.equals(folder.getComparableName()))
-				return folder.unsafeGet(tokens, start + 1, end);
+		final Folder folder = this.folders.get(tokens[start].toUpperCase(Environment.getLocale()));
+		if (folder != null)
+			return folder.unsafeGet(tokens, start + 1, end);
 
 		return null;
 	}
@@ -190,45 +180,45 @@ public class Folder implements SafeFile
 	{
 		name = name.toUpperCase(Environment.getLocale());
 
-		for (final SafeFile sf : this.files)
-			if (sf.getComparableName().equals(name))
-				return sf;
+		final Folder folder = this.folders.get(name);
+		if (folder != null)
+			return folder;
 
-		return null;
+		return this.blocks.get(name);
+	}
+
+	/**
+	 * Get the child {@link Folder} with the comparable name
+	 * 
+	 * @param comparableName
+	 * @return
+	 */
+	Folder getFolder(final String comparableName)
+	{
+		return this.folders.get(comparableName);
+	}
+
+	/**
+	 * Get the child {@link Block} with the comparable name
+	 * 
+	 * @param comparableName
+	 * @return
+	 */
+	Block getBlock(final String comparableName)
+	{
+		return this.blocks.get(comparableName);
 	}
 
 	public boolean remove(String name)
 	{
 		name = name.toUpperCase(Environment.getLocale());
 
-		for (int i = 0; i < this.files.size(); i++)
-		{
-			final SafeFile safeFile = this.files.get(i);
-			if (safeFile.getComparableName().equals(name))
-			{
-				this.files.remove(i);
-
-				if (safeFile.isFolder())
-				{
-					for (int j = 0; j < this.folders.size(); j++)
-						if (this.folders.get(j).getComparableName().equals(name))
-						{
-							this.folders.remove(j);
-							break;
-						}
-				} else
-					for (int j = 0; j < this.blocks.size(); j++)
-						if (this.blocks.get(j).getComparableName().equals(name))
-						{
-							this.blocks.remove(j);
-							break;
-						}
-
-				return true;
-			}
-		}
+		// a folder hides a block with the same name
+		if (this.folders.remove(name) == null && this.blocks.remove(name) == null)
+			return false;
 
-		return false;
+		this.roFiles = null;
+		return true;
 	}
 
 	/**
@@ -244,14 +234,12 @@ public class Folder implements SafeFile
 			throw new Exception("Folder name length must be greater than 0");
 
 		final String comparableName = name.toUpperCase(Environment.getLocale());
-		for (final Folder f : this.folders)
-			if (f.getComparableName().equals(comparableName))
-				throw new Exception("Folder " + name + " already exist");
+		if (this.folders.containsKey(comparableName))
+			throw new Exception("Folder " + name + " already exist");
 
 		final Folder folder = new Folder(this, name);
-		this.folders.add(folder);
-		this.files.add(folder);
-		this.files.sort(SAFE_FILE_COMPARATOR);
+		this.folders.put(comparableName, folder);
+		this.roFiles = null;
 		return folder;
 	}
 
@@ -340,14 +328,25 @@ public class Folder implements SafeFile
 	 */
 
 	/**
-	 * Get all {@link SafeFile} within the {@link Folder}
+	 * Get all {@link SafeFile} within the {@link Folder}, folders first then by name. The returned list is not modified by later changes of the {@link Folder}
 	 * 
 	 * @return
 	 */
 	public List<SafeFile> listFiles()
 	{
+		List<SafeFile> files = this.roFiles;
+		if (files == null)
+		{
+			// may be rebuilt concurrently by readers of the safe, each one getting the same content
+			final List<SafeFile> sorted = new ArrayList<>(this.folders.size() + this.blocks.size());
+			sorted.addAll(this.folders.values());
+			sorted.addAll(this.blocks.values());
+			sorted.sort(SAFE_FILE_COMPARATOR);
+			files = Collections.unmodifiableList(sorted);
+			this.roFiles = files;
+		}
 
-		return this.roFiles;
+		return files;
 	}
 
 	@Override
@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Path pattern compiled once and matched by walking the {@link Folder} tree. Each token of the path matches the comparable name of a child: {@link Folder#WILDCARD} matches any sequence of
+ * characters and a {@link #DEEP_WILDCARD} token matches any number of nested folders. A trailing {@link #DEEP_WILDCARD} matches the children of the folder only: the descendants are
+ * reached through their matched folder and are not listed again, so a command never processes them twice. Tokens without wildcard are looked up in the index of the {@link Folder}, and only folders are visited
+ * before the last token, so the branches that cannot match are skipped
+ */
+public class Glob
+{
+	public final static String DEEP_WILDCARD = "**";
+
+	private final Segment[] segments;
+
+	/**
+	 * Compile a tokenized path
+	 *
+	 * @param comparableTokens: tokens of the comparable path
+	 * @param from:             index of the first token to match
+	 */
+	public Glob(final String[] comparableTokens, final int from)
+	{
+		this.segments = new Segment[Math.max(0, comparableTokens.length - from)];
+		for(int i = 0; i < this.segments.length; i++)
+			this.segments[i] = new Segment(comparableTokens[from + i]);
+	}
+
+	/**
+	 * Add the {@link SafeFile}s under <code>folder</code> matching the pattern. A {@link SafeFile} already in <code>destination</code> is not added again
+	 *
+	 * @param folder:      folder the pattern is relative to
+	 * @param destination: receive the matches, in the order of {@link Folder#listFiles()}
+	 * @return <code>destination</code>
+	 */
+	public <D extends Collection<SafeFile>> D match(final Folder folder, final D destination)
+	{
+		if(this.segments.length == 0)
+			return destination;
+
+		final Set<SafeFile> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+		matches.addAll(destination);
+		match(folder, 0, matches, destination);
+		return destination;
+	}
+
+	private void match(final Folder folder, final int index, final Set<SafeFile> matches, final Collection<SafeFile> destination)
+	{
+		final Segment segment = this.segments[index];
+		final boolean last = index == this.segments.length - 1;
+
+		if(segment.deep)
+		{
+			if(last)
+			{
+				// the descendants belong to the matched folders
+				for(final SafeFile sf : folder.listFiles())
+					add(sf, matches, destination);
+				return;
+			}
+
+			// no folder
+			match(folder, index + 1, matches, destination);
+			// one folder or more
+			for(final SafeFile sf : folder.listFiles())
+			{
+				if(!sf.isFolder())
+					break;
+				match((Folder) sf, index, matches, destination);
+			}
+		}
+		else if(segment.literal != null)
+		{
+			final Folder child = folder.getFolder(segment.literal);
+			if(last)
+			{
+				add(child, matches, destination);
+				add(folder.getBlock(segment.literal), matches, destination);
+			}
+			else if(child != null)
+				match(child, index + 1, matches, destination);
+		}
+		else
+			for(final SafeFile sf : folder.listFiles())
+			{
+				// folders are listed first
+				if(!last && !sf.isFolder())
+					break;
+
+				if(segment.matches(sf.getComparableName()))
+				{
+					if(last)
+						add(sf, matches, destination);
+					else
+						match((Folder) sf, index + 1, matches, destination);
+				}
+			}
+	}
+
+	private static void add(final SafeFile safeFile, final Set<SafeFile> matches, final Collection<SafeFile> destination)
+	{
+		if(safeFile != null && matches.add(safeFile))
+			destination.add(safeFile);
+	}
+
+	/**
+	 * Check if a name matches a token containing {@link Folder#WILDCARD}
+	 *
+	 * @param token: comparable token
+	 * @param name:  comparable name
+	 * @return
+	 */
+	public static boolean matches(final String token, final String name)
+	{
+		return new Segment(token).matches(name);
+	}
+
+	/**
+	 * Compiled token of the path
+	 */
+	private static class Segment
+	{
+		private final boolean deep;
+		/**
+		 * Token without wildcard, <code>null</code> otherwise
+		 */
+		private final String literal;
+		/**
+		 * Parts of the token between wildcards
+		 */
+		private final String[] parts;
+		private final int minLength;
+
+		private Segment(final String token)
+		{
+			this.deep = token.equals(DEEP_WILDCARD);
+			this.literal = token.contains(Folder.WILDCARD) ? null : token;
+			this.parts = this.literal == null ? token.split("\\" + Folder.WILDCARD, -1) : new String[]{token};
+
+			int minLength = 0;
+			for(final String part : this.parts)
+				minLength += part.length();
+			this.minLength = minLength;
+		}
+
+		private boolean matches(final String name)
+		{
+			if(this.literal != null)
+				return this.literal.equals(name);
+
+			if(name.length() < this.minLength)
+				return false;
+
+			final String prefix = this.parts[0];
+			final String suffix = this.parts[this.parts.length - 1];
+			final int end = name.length() - suffix.length();
+			if(!name.startsWith(prefix) || !name.startsWith(suffix, end))
+				return false;
+
+			// the leftmost occurrence of each part leaves the most room to the next ones
+			int position = prefix.length();
+			for(int i = 1; i < this.parts.length - 1; i++)
+			{
+				final String part = this.parts[i];
+				final int found = name.indexOf(part, position);
+				if(found < 0 || found + part.length() > end)
+					return false;
+				position = found + part.length();
+			}
+
+			return true;
+		}
+	}
+}
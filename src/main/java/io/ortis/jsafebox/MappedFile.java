@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only memory mapping of the beginning of a file. As a single {@link MappedByteBuffer} cannot exceed 2 GB, the file is mapped in consecutive segments
+ */
+public class MappedFile
+{
+	public final static int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+	private final long length;
+	private final int segmentSize;
+	private final List<MappedByteBuffer> segments;
+
+	public MappedFile(final FileChannel channel, final long length) throws IOException
+	{
+		this(channel, length, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param channel:     channel of the file to map
+	 * @param length:      number of bytes to map from the beginning of the file
+	 * @param segmentSize: maximum size of a mapped segment
+	 * @throws IOException
+	 */
+	public MappedFile(final FileChannel channel, final long length, final int segmentSize) throws IOException
+	{
+		if(segmentSize <= 0)
+			throw new IllegalArgumentException("Segment size must be positive");
+
+		this.length = length;
+		this.segmentSize = segmentSize;
+
+		final List<MappedByteBuffer> segments = new ArrayList<>();
+		for(long position = 0; position < length; position += segmentSize)
+			segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, length - position)));
+
+		this.segments = segments;
+	}
+
+	/**
+	 * Get a view of <code>length</code> bytes starting at <code>position</code>. The view is truncated at the end of the segment containing <code>position</code>
+	 *
+	 * @param position: position in the file
+	 * @param length:   maximum length of the view
+	 * @return an independent view that can be consumed by the caller
+	 */
+	public ByteBuffer slice(final long position, final int length)
+	{
+		if(position < 0 || length < 0 || position + length > this.length)
+			throw new IndexOutOfBoundsException("Range " + position + "+" + length + " is not mapped (mapped length " + this.length + ")");
+
+		final ByteBuffer segment = this.segments.get((int) (position / this.segmentSize)).duplicate();
+		final int offset = (int) (position % this.segmentSize);
+		segment.position(offset);
+		segment.limit(offset + Math.min(length, segment.capacity() - offset));
+
+		return segment.slice();
+	}
+
+	/**
+	 * Copy <code>destination.remaining()</code> bytes starting at <code>position</code> into <code>destination</code>
+	 */
+	public void read(long position, final ByteBuffer destination)
+	{
+		while(destination.hasRemaining())
+		{
+			final ByteBuffer slice = slice(position, destination.remaining());
+			position += slice.remaining();
+			destination.put(slice);
+		}
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	public int getSegmentSize()
+	{
+		return segmentSize;
+	}
+}
@@ -32,12 +32,17 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.Key;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 /**
@@ -61,7 +66,8 @@ public class Safe implements Closeable
 	public static final String PBKDF2_SALT_LABEL = "pbkdf2 salt";
 	public static final String PBKDF2_ITERATION_LABEL = "pbkdf2 iteration";
 	public static final int PBKDF2_DEFAULT_ITERATIONS = 100000;
-	public static final String PROTOCOL_SPEC = "JSafebox is using a simple protocol so encrypted files can be easily read by another program, as long as the password is known. The encryption key is derived from the password using PBKDF2 hashing. A JSafebox file contains a SHA256 integrity hash followed by blocks: [ integrity hash | block 0 | block 1 | ... | block N ]. Each block is stored as followed: [ IV | metadata length | metadata | data length | data ] where 'IV' is the Initialization_vector of the encryption (16 bytes), 'metadata' is a JSON string and 'length' are 64 bits (8 bytes) integer. The first block 'block 0' is the 'header' and is the only block not encrypted and therefore, the only block without IV. The 'header' only have metadata ('data length' is 0) and contains text entries specified by the user and various additional entries including a protocol explanation, the type of encoding and the parameters of the encryption. The 'header's metadata is stored as JSON string and can be seen by opening the safe file with a basic text editor. The second block 'block 1' is the 'properties'. It is similar to the 'header' except that it is encrypted and have an IV. The 'properties' contains text entries specified by the user and stored in JSON. The following blocks (from 2 to N) are the encrypted files. (Full manual at https://github.com/0rtis/jsafebox)";
+	public static final String TOC_OFFSET_LABEL = "toc offset";
+	public static final String PROTOCOL_SPEC = "JSafebox is using a simple protocol so encrypted files can be easily read by another program, as long as the password is known. The encryption key is derived from the password using PBKDF2 hashing. A JSafebox file contains a SHA256 integrity hash followed by blocks: [ integrity hash | block 0 | block 1 | ... | block N ]. An integrity hash made of zeros is pending: a save was interrupted after committing its table of contents. Each block is stored as followed: [ IV | metadata length | metadata | data length | data ] where 'IV' is the Initialization_vector of the encryption (16 bytes), 'metadata' is a JSON string and 'length' are 64 bits (8 bytes) integer. The first block 'block 0' is the 'header' and is the only block not encrypted and therefore, the only block without IV. The 'header' only have metadata ('data length' is 0) and contains text entries specified by the user and various additional entries including a protocol explanation, the type of encoding and the parameters of the encryption. The 'header's metadata is stored as JSON string and can be seen by opening the safe file with a basic text editor. The second block 'block 1' is the 'properties'. It is similar to the 'header' except that it is encrypted and have an IV. The 'properties' contains text entries specified by the user and stored in JSON. The following blocks (from 2 to N) are the encrypted files. If the 'header' contains a 'toc offset' entry, the block starting at this offset is the encrypted table of contents: its metadata only contains a 'table of contents' entry and its data is a JSON list of the location and metadata of every live block. Anything written after the table of contents belongs to an interrupted save and must be ignored. Blocks whose metadata only contains a 'deleted' entry are tombstones: the block with this path written before the tombstone has been deleted. Older tables of contents found while reading the file sequentially must be skipped. If the metadata of a block contains a 'chunk size' entry, its data is split into chunks of 'chunk size' clear bytes (the last chunk being always shorter) and each chunk is stored as [ encrypted chunk | tag ] using AES/GCM with the key HMAC-SHA256(key, 'jsafebox chunk' | IV) truncated to the key length, the chunk index as 12 bytes big-endian nonce and a single byte set to 1 for the last chunk (0 otherwise) as additional authenticated data. New blocks are chunked when the 'header' contains a 'chunk size' entry. If the metadata of a block contains a 'compression' entry, the clear data is compressed with the named codec ('deflate' being the zlib format of RFC 1950). New blocks are compressed when the 'header' contains a non empty 'compression' entry. If the metadata of a block contains a 'content hash' entry, it is the lowercase hexadecimal HMAC-SHA256 of the clear data with the key HMAC-SHA256(key, 'jsafebox content'). A block whose metadata contains a 'content reference' entry has no data of its own: its data is the one of the block whose 'content hash' is equal to the reference. New blocks are deduplicated when the 'header' contains a 'deduplication' entry. (Full manual at https://github.com/0rtis/jsafebox)";
 	private static final Type MAP_STRING_STRING_TYPE = new TypeToken<Map<String, String>>()
 	{
 	}.getType();
@@ -75,6 +81,16 @@ public class Safe implements Closeable
 	private final File tempFile;
 	private final RandomAccessFile temp;
 
+	/**
+	 * Mapping of the committed data when opened in memory-mapped mode, <code>null</code> otherwise
+	 */
+	private final MappedFile mapped;
+
+	/**
+	 * Readers (extraction, metadata, hash) share the read lock and only use positional reads. Modifications of the safe require the write lock
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
 	private final byte[] hash;
 
 	private final Map<String, String> publicHeader;
@@ -84,24 +100,53 @@ public class Safe implements Closeable
 	private final Map<String, Block> tempBlocks;
 	private final Map<String, Block> deletedBlocks;
 
+	/**
+	 * Blocks holding a content, by content hash. Deleted blocks stay indexed until the next save since references can still read their data. Guarded by {@link #lock}: built on demand under
+	 * the read lock, updated and invalidated under the write lock. Readers may build it concurrently, they then publish identical indexes since the blocks cannot change meanwhile
+	 */
+	private volatile Map<String, Block> contents;
+
+	/**
+	 * Upper bound of the io buffers, buffers are sized per operation by {@link BufferSize}
+	 */
 	private final int bufferSize;
+	private final int fileSystemBlockSize;
 
 	private final Folder root;
 
+	private final boolean tableOfContentsLoaded;
+	private final long blocksOffset;
+	private final long tableOfContentsLength;
+	private final long committedLength;
+
 	/**
 	 * Create an instance of {@link Safe}
 	 *
 	 * @param file:       the safe file
 	 * @param key:        cipher key
-	 * @param bufferSize: size of the <code>byte</code> buffer to be used in IO operation
+	 * @param bufferSize: upper bound of the size of the <code>byte</code> buffers to be used in IO operation
 	 * @throws Exception
 	 */
 	public Safe(final File file, final SecretKey key, final int bufferSize) throws Exception
+	{
+		this(file, key, bufferSize, false);
+	}
+
+	/**
+	 * @param file:         the safe file
+	 * @param key:          the encryption key
+	 * @param bufferSize:   upper bound of the size of IO buffers
+	 * @param memoryMapped: memory map the committed data of the safe file and extract blocks from the mapping. On some platforms, the mapping is only released once garbage collected and
+	 *                      may prevent the safe file from being renamed or truncated: this mode is intended for read-heavy uses
+	 * @throws Exception
+	 */
+	public Safe(final File file, final SecretKey key, final int bufferSize, final boolean memoryMapped) throws Exception
 	{
 		// Initialize variables
 		this.originalFile = file.getAbsoluteFile();
 		this.encryptionKey = key;
 		this.bufferSize = bufferSize;
+		this.fileSystemBlockSize = BufferSize.getFileSystemBlockSize(this.originalFile);
 		this.original = new RandomAccessFile(file, "rw");
 		this.tempFile = Files.createTempFile(null, null).toFile();
 		this.temp = new RandomAccessFile(this.tempFile, "rw");
@@ -115,88 +160,169 @@ public class Safe implements Closeable
 		this.deletedBlocks = new LinkedHashMap<>();
 		this.root = new Folder(null, Folder.ROOT_NAME);
 
-		final byte[] buffer = new byte[bufferSize];
-		final byte[] bufferDecrypted = new byte[bufferSize];// Hold decrypted data
+		final int headerBufferSize = getBufferSize(this.original.length());
+		final byte[] buffer = BufferPool.DEFAULT.acquire(headerBufferSize);
+		final byte[] bufferDecrypted = BufferPool.DEFAULT.acquire(headerBufferSize);// Hold decrypted data
+		try
+		{
+			this.original.read(buffer, 0, HASHER.getHashLength());
+			this.hash = new byte[HASHER.getHashLength()];
+			System.arraycopy(buffer, 0, this.hash, 0, this.hash.length);
 
-		this.original.read(buffer, 0, HASHER.getHashLength());
-		this.hash = new byte[HASHER.getHashLength()];
-		System.arraycopy(buffer, 0, this.hash, 0, this.hash.length);
+			final TaskProbe probe = TaskProbe.DULL_PROBE;
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(buffer.length);
 
-		final TaskProbe probe = TaskProbe.DULL_PROBE;
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream(buffer.length);
+			// Read header
+			SafeIO.copy(this.original, this.original.readLong(), baos, buffer, probe);
+			String json = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+			publicProps.putAll(GSON.fromJson(json, MAP_STRING_STRING_TYPE));
+			this.original.readLong();// skip data length 0
 
-		// Read header
-		SafeIO.copy(this.original, this.original.readLong(), baos, buffer, probe);
-		String json = new String(baos.toByteArray(), StandardCharsets.UTF_8);
-		publicProps.putAll(GSON.fromJson(json, MAP_STRING_STRING_TYPE));
-		this.original.readLong();// skip data length 0
+			// Initialize cipher
+			this.ivLength = Integer.parseInt(this.publicHeader.get(ENCRYPTION_IV_LENGTH_LABEL));
+			final Cipher cipher = getCipher();
+			try
+			{
+				// Read private properties
+				this.original.read(buffer, 0, this.ivLength);// read properties iv
+				IvParameterSpec iv = new IvParameterSpec(Arrays.copyOf(buffer, this.ivLength));
+				cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, iv);
+				baos.reset();
+				SafeIO.decrypt(this.original, this.original.readLong(), cipher, baos, buffer, bufferDecrypted);
+				json = new String(baos.toByteArray());
+				props.putAll(GSON.fromJson(json, MAP_STRING_STRING_TYPE));
+				this.original.readLong();// data length 0
+
+				// Read blocks
+				final long blocksOffset = this.original.getFilePointer();
+				this.blocksOffset = blocksOffset;
+				final List<TableOfContents.Entry> entries = readTableOfContents(blocksOffset, cipher, buffer, bufferDecrypted);
+				this.tableOfContentsLoaded = entries != null;
+
+				if(entries != null)
+				{
+					this.committedLength = this.original.getFilePointer();
+					this.tableOfContentsLength = this.committedLength - Long.parseLong(this.publicHeader.get(TOC_OFFSET_LABEL).trim());
 
-		// Initialize cipher
-		this.ivLength = Integer.parseInt(this.publicHeader.get(ENCRYPTION_IV_LENGTH_LABEL));
-		final Cipher cipher = getCipher();
+					for(final TableOfContents.Entry entry : entries)
+						mount(entry.getPath(), entry.getProperties(), entry.getOffset(), entry.getLength(), entry.getMetaOffset(), entry.getMetaLength(), entry.getDataOffset(),
+								entry.getDataLength());
+				}
+				else
+				{
+					this.committedLength = this.original.length();
+					this.tableOfContentsLength = 0;
+
+					// No usable table of contents, scan the whole file
+					final FileChannel channel = this.original.getChannel();
+					final ByteBuffer frameBuffer = ByteBuffer.allocate(BlockFrame.DEFAULT_READ_SIZE);
+					long offset = blocksOffset;
+					while(offset < this.committedLength)
+					{
+						final BlockFrame frame = BlockFrame.read(channel, offset, this.committedLength, this.ivLength, frameBuffer);
+						cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, new IvParameterSpec(frame.getIV()));
+						json = new String(cipher.doFinal(frame.getMetadata()));
 
-		// Read private properties
-		this.original.read(buffer, 0, this.ivLength);// read properties iv
-		IvParameterSpec iv = new IvParameterSpec(Arrays.copyOf(buffer, this.ivLength));
-		cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, iv);
-		baos.reset();
-		SafeIO.decrypt(this.original, this.original.readLong(), cipher, baos, buffer, bufferDecrypted);
-		json = new String(baos.toByteArray());
-		props.putAll(GSON.fromJson(json, MAP_STRING_STRING_TYPE));
-		this.original.readLong();// data length 0
-
-		// Read blocks
-		while(this.original.getFilePointer() < this.original.length())
+						final Map<String, String> properties = new HashMap<>(GSON.fromJson(json, MAP_STRING_STRING_TYPE));
+
+						if(TableOfContents.isTombstone(properties))
+							unmount(properties.get(TableOfContents.TOMBSTONE_LABEL));
+						else if(!TableOfContents.isTableOfContents(properties))
+						{
+							final String path = properties.get(Block.PATH_LABEL);
+							if(path == null)
+								throw new IllegalStateException("Path of block starting at " + offset + " is not set");
+
+							mount(path, properties, offset, frame.getLength(), frame.getMetaOffset(), frame.getMetaLength(), frame.getDataOffset(), frame.getDataLength());
+						}
+
+						offset += frame.getLength();
+					}
+					this.original.seek(offset);
+				}
+			} finally
+			{
+				release(cipher);
+			}
+		} finally
 		{
-			baos.reset();
+			BufferPool.DEFAULT.release(buffer);
+			BufferPool.DEFAULT.release(bufferDecrypted);
+		}
 
-			final long offset = this.original.getFilePointer();
+		this.mapped = memoryMapped ? new MappedFile(this.original.getChannel(), this.committedLength) : null;
+	}
 
-			this.original.read(buffer, 0, this.ivLength);// read properties iv
-			iv = new IvParameterSpec(Arrays.copyOf(buffer, this.ivLength));
-			cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, iv);
+	/**
+	 * Read the table of contents of the {@link Safe} file
+	 *
+	 * @return the entries of the table of contents or <code>null</code> if there is no usable table of contents
+	 */
+	private List<TableOfContents.Entry> readTableOfContents(final long blocksOffset, final Cipher cipher, final byte[] buffer, final byte[] bufferDecrypted)
+	{
+		final String tocOffset = this.publicHeader.get(TOC_OFFSET_LABEL);
+		if(tocOffset == null)
+			return null;
 
-			final long metaLength = this.original.readLong();
-			final long metaOffset = this.original.getFilePointer();
+		try
+		{
+			final long offset = Long.parseLong(tocOffset.trim());
+			if(offset <= 0)
+				return null;
 
-			SafeIO.decrypt(this.original, metaLength, cipher, baos, buffer, bufferDecrypted);
-			json = new String(baos.toByteArray());
+			return TableOfContents.read(this.original, offset, blocksOffset, cipher, this.encryptionKey, this.ivLength, buffer, bufferDecrypted);
+		} catch(final Exception e)
+		{
+			// missing or stale table of contents
+			return null;
+		}
+	}
 
-			final Map<String, String> properties = new HashMap<>(GSON.fromJson(json, MAP_STRING_STRING_TYPE));
-			final String path = properties.get(Block.PATH_LABEL);
-			if(path == null)
-				throw new IllegalStateException("Path of block starting at " + offset + " is not set");
+	/**
+	 * Insert a {@link Block} of the safe file into the {@link Folder} tree
+	 */
+	private Block mount(final String path, final Map<String, String> properties, final long offset, final long length, final long metaOffset, final long metaLength,
+			final long dataOffset, final long dataLength) throws Exception
+	{
+		if(this.blocks.containsKey(path.toUpperCase(Environment.getLocale())))
+			throw new IllegalStateException("Block path " + path + " already exist");
 
-			if(this.blocks.containsKey(path.toUpperCase(Environment.getLocale())))
-				throw new IllegalStateException("Block path " + path + " already exist");
+		final String[] tokens = path.split(Folder.REGEX_DELIMITER);
+		this.root.mkdir(tokens, 1, true);
 
-			final long dataLength = this.original.readLong();
-			final long dataOffset = this.original.getFilePointer();
-			final long blockLength = this.original.getFilePointer() - offset + dataLength;
+		final SafeFile dstFile;
 
-			final String[] tokens = path.split(Folder.REGEX_DELIMITER);
-			this.root.mkdir(tokens, 1, true);
+		if(tokens.length == 2)
+			dstFile = this.root;
+		else
+			dstFile = this.root.get(tokens, 1, tokens.length - 1);
 
-			final SafeFile dstFile;
+		if(dstFile == null)
+			throw new Exception("Could not find destination folder for block path " + path);
 
-			if(tokens.length == 2)
-				dstFile = this.root;
-			else
-				dstFile = this.root.get(tokens, 1, tokens.length - 1);
+		if(!dstFile.isFolder())
+			throw new Exception("Destination folder " + dstFile + " is a block");
 
-			if(dstFile == null)
-				throw new Exception("Could not find destination folder for block path " + path);
+		final Folder destinationFolder = ((Folder) dstFile);
+		final Block block = new Block(path, properties, offset, length, metaOffset, metaLength, dataOffset, dataLength, destinationFolder);
+		destinationFolder.add(block);
 
-			if(!dstFile.isFolder())
-				throw new Exception("Destination folder " + dstFile + " is a block");
+		this.blocks.put(block.getComparablePath(), block);
 
-			final Folder destinationFolder = ((Folder) dstFile);
-			final Block block = new Block(path, properties, offset, blockLength, metaOffset, metaLength, dataOffset, dataLength, destinationFolder);
-			destinationFolder.add(block);
+		return block;
+	}
 
-			this.blocks.put(block.getComparablePath(), block);
-			this.original.seek(block.getOffset() + block.getLength());
-		}
+	/**
+	 * Remove a {@link Block} of the safe file from the {@link Folder} tree
+	 */
+	private void unmount(final String path)
+	{
+		if(path == null)
+			return;
+
+		final Block block = this.blocks.remove(Environment.comparableString(path));
+		if(block != null)
+			block.getParent().remove(block.getName());
 	}
 
 	/**
@@ -207,14 +333,72 @@ public class Safe implements Closeable
 	 * @return
 	 * @throws Exception
 	 */
-	public synchronized Block add(final Map<String, String> properties, final InputStream data, TaskProbe probe) throws Exception
+	public Block add(final Map<String, String> properties, final InputStream data, TaskProbe probe) throws Exception
 	{
-		if(probe == null)
-			probe = TaskProbe.DULL_PROBE;
+		return add(properties, data, -1, probe);
+	}
+
+	/**
+	 * Add data into the {@link Safe}. <b>Note that the data will be stored into the temporary safe file</b>. Use {@link Safe#save()} to save all temporary data. Chunked data is encrypted in
+	 * parallel on the available cores
+	 *
+	 * @param properties:  metadata
+	 * @param data:        data to encrypt
+	 * @param clearLength: length of <code>data</code> if known, negative otherwise. Used to report the progress in bytes
+	 * @return
+	 * @throws Exception
+	 */
+	public Block add(final Map<String, String> properties, final InputStream data, final long clearLength, TaskProbe probe) throws Exception
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			if(probe == null)
+				probe = TaskProbe.DULL_PROBE;
+
+			try
+			{
+				final Folder destinationFolder = getDestinationFolder(properties);
+
+				probe.checkCancel();
+
+				final Block block = write(properties, data, clearLength, getTemp(), Runtime.getRuntime().availableProcessors(), destinationFolder, probe);
+				this.tempBlocks.put(block.getComparablePath(), block);
+				indexContent(block);
+
+				destinationFolder.add(block);
+
+				return block;
+
+			} catch(final CancellationException e)
+			{
+				throw e;
+			} catch(final Exception e)
+			{
+				probe.fireException(e);
+				throw e;
+			} finally
+			{
+				probe.fireTerminated();
+			}
+		} finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
 
+	/**
+	 * Check that a {@link Block} with <code>properties</code> can be added and get its destination {@link Folder}
+	 *
+	 * @param properties: metadata of the block
+	 * @return
+	 * @throws Exception if the path is already used or the destination folder does not exist
+	 */
+	Folder getDestinationFolder(final Map<String, String> properties) throws Exception
+	{
+		this.lock.readLock().lock();
 		try
 		{
-			// Check inputs
 			final String path = properties.get(Block.PATH_LABEL);
 
 			if(path == null)
@@ -240,106 +424,439 @@ public class Safe implements Closeable
 			if(!destinationFile.isFolder())
 				throw new Exception("Destination " + destinationFile + " is not a folder");
 
-			final Folder destinationFolder = (Folder) destinationFile;
-
 			if(this.roBlocks.containsKey(path) || this.tempBlocks.containsKey(path))
 				throw new Exception("Block path " + path + " already exist");
 
-			final String name = properties.get(Block.NAME_LABEL);
-
-			if(name == null)
+			if(properties.get(Block.NAME_LABEL) == null)
 				throw new IllegalArgumentException("Property " + Block.NAME_LABEL + " is missing");
 
-			probe.checkCancel();
+			return (Folder) destinationFile;
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
 
-			// Initialize Cipher, io buffers and temporary file
-			final Cipher cipher = getCipher();
-			cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
+	/**
+	 * Encrypt a block at the current position of <code>destination</code>: [ IV | metadata length | metadata | data length | data ]. The block is neither checked nor linked into the
+	 * {@link Safe}
+	 *
+	 * @param properties:  metadata
+	 * @param data:        data to encrypt
+	 * @param clearLength: length of <code>data</code> if known, negative otherwise
+	 * @param destination: file receiving the block
+	 * @param threads:     number of threads encrypting chunked data
+	 * @param parent:      parent folder of the returned {@link Block}
+	 * @return the {@link Block}, located in <code>destination</code>
+	 * @throws Exception
+	 */
+	Block write(final Map<String, String> properties, final InputStream data, final long clearLength, final RandomAccessFile destination, final int threads, final Folder parent,
+			final TaskProbe probe) throws Exception
+	{
+		return write(properties, data, clearLength, destination, threads, parent, Deduplication.isEnabled(this.publicHeader), probe);
+	}
 
-			final byte[] buffer = new byte[this.bufferSize];
-			final byte[] bufferDecrypted = new byte[this.bufferSize];
+	/**
+	 * @param deduplicate: compute the content hash of the data and write a reference instead if a live block already holds the same content
+	 */
+	private Block write(final Map<String, String> properties, final InputStream data, final long clearLength, final RandomAccessFile destination, final int threads,
+			final Folder parent, final boolean deduplicate, final TaskProbe probe) throws Exception
+	{
+		// Declare the layout of the data
+		final Map<String, String> metadata = new LinkedHashMap<>(properties);
+		metadata.remove(ChunkedData.CHUNK_SIZE_LABEL);
+		metadata.remove(ChunkedData.CHUNK_ENCRYPTION_LABEL);
+		metadata.remove(Deduplication.CONTENT_HASH_LABEL);
+		metadata.remove(Deduplication.CONTENT_REFERENCE_LABEL);
+		final String chunkSize = this.publicHeader.get(ChunkedData.CHUNK_SIZE_LABEL);
+		if(chunkSize != null)
+			ChunkedData.setChunked(metadata, ChunkedData.parseChunkSize(chunkSize));
+
+		// The content hash is only known once the data has been read
+		final Deduplication.ContentHashInputStream hashed = deduplicate ? Deduplication.hash(data, this.encryptionKey) : null;
+		if(hashed != null)
+			metadata.put(Deduplication.CONTENT_HASH_LABEL, Deduplication.getPlaceholder());
+
+		// Compress the data before encryption unless it is already compressed
+		metadata.remove(Compression.COMPRESSION_LABEL);
+		final String codec = this.publicHeader.get(Compression.COMPRESSION_LABEL);
+		final InputStream clear = hashed == null ? data : hashed;
+		final InputStream source = codec == null || codec.isEmpty() ? clear : Compression.compress(clear, Compression.getCodec(codec), metadata);
+		final boolean compressed = Compression.isCompressed(metadata);
+		final Block block;
+		try
+		{
+			block = encrypt(metadata, source, compressed ? -1 : clearLength, destination, threads, parent, probe);
+		} finally
+		{
+			if(compressed)
+				source.close();
+		}
 
-			final RandomAccessFile temp = getTemp();
+		if(hashed == null)
+			return block;
 
-			final long offset = temp.getFilePointer();
+		final String contentHash = hashed.getContentHash();
+		final Block owner = getContentOwner(contentHash);
+		if(owner != null)
+		{
+			// drop the copy and reference the live block holding the same content
+			destination.setLength(block.getOffset());
+			destination.seek(block.getOffset());
+
+			final Map<String, String> reference = new LinkedHashMap<>(metadata);
+			reference.remove(Deduplication.CONTENT_HASH_LABEL);
+			reference.remove(Compression.COMPRESSION_LABEL);
+			reference.put(Deduplication.CONTENT_REFERENCE_LABEL, contentHash);
+			return encrypt(reference, new ByteArrayInputStream(new byte[0]), 0, destination, threads, parent, probe);
+		}
 
-			temp.write(cipher.getIV());
+		// replace the placeholder, the encrypted metadata keeps the same length
+		metadata.put(Deduplication.CONTENT_HASH_LABEL, contentHash);
+		final FileChannel channel = destination.getChannel();
+		final ByteBuffer iv = ByteBuffer.allocate(this.ivLength);
+		SafeIO.readFully(channel, block.getOffset(), iv);
+		final ByteBuffer encryptedMetadata;
+		final Cipher cipher = getCipher();
+		try
+		{
+			cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, new IvParameterSpec(iv.array()));
+			encryptedMetadata = ByteBuffer.wrap(cipher.doFinal(GSON.toJson(metadata).getBytes()));
+		} finally
+		{
+			release(cipher);
+		}
+		if(encryptedMetadata.remaining() != block.getMetaLength())
+			throw new IllegalStateException("Metadata length of block " + block.getPath() + " changed from " + block.getMetaLength() + " to " + encryptedMetadata.remaining());
+		long position = block.getMetaOffset();
+		while(encryptedMetadata.hasRemaining())
+			position += channel.write(encryptedMetadata, position);
+
+		return new Block(block.getPath(), metadata, block.getOffset(), block.getLength(), block.getMetaOffset(), block.getMetaLength(), block.getDataOffset(), block.getDataLength(),
+				parent);
+	}
 
-			// Write block's metadata
-			temp.writeLong(0);
-			final String metadataserial = GSON.toJson(properties);
-			final byte[] metaBuffer = metadataserial.getBytes();
-			final long metaOffset = temp.getFilePointer();
-			final long metaLength = SafeIO.encrypt(new ByteArrayInputStream(metaBuffer), cipher, temp, buffer, bufferDecrypted, probe);
-			long position = temp.getFilePointer();
+	/**
+	 * Encrypt <code>metadata</code> and <code>data</code> at the current position of <code>destination</code>
+	 */
+	private Block encrypt(final Map<String, String> metadata, final InputStream data, final long clearLength, final RandomAccessFile destination, final int threads,
+			final Folder parent, final TaskProbe probe) throws Exception
+	{
+		// Initialize Cipher and io buffers
+		final Cipher cipher = getCipher();
+		final int bufferSize = getBufferSize(clearLength < 0 ? Long.MAX_VALUE : clearLength);
+		final byte[] buffer = BufferPool.DEFAULT.acquire(bufferSize);
+		final byte[] bufferDecrypted = BufferPool.DEFAULT.acquire(bufferSize);
+		try
+		{
+			cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
 
-			temp.seek(offset + cipher.getIV().length);
-			temp.writeLong(metaLength);
-			temp.seek(position);
+			// Write block's frame, the data length is only patched if it was not known in advance
+			final byte[] encryptedMetadata = cipher.doFinal(GSON.toJson(metadata).getBytes());
+			final BlockFrame frame = new BlockFrame(destination.getFilePointer(), cipher.getIV(), encryptedMetadata, getEncryptedLength(metadata, cipher, clearLength));
+			frame.write(destination);
 
 			// Write block's data
-			position = temp.getFilePointer();
-			temp.writeLong(0);
+			final long dataLength;
+			if(ChunkedData.isChunked(metadata))
+				dataLength = ChunkedData.encrypt(data, clearLength, ChunkedData.deriveKey(this.encryptionKey, cipher.getIV()), ChunkedData.getChunkSize(metadata), destination, threads,
+						probe);
+			else
+				dataLength = SafeIO.encrypt(data, cipher, destination, buffer, bufferDecrypted, probe);
 
-			final long dataOffset = temp.getFilePointer();
+			if(dataLength != frame.getDataLength())
+				frame.writeDataLength(destination.getChannel(), dataLength);
 
-			final long dataLength = SafeIO.encrypt(data, cipher, temp, buffer, bufferDecrypted, probe);
+			return new Block(metadata.get(Block.PATH_LABEL), metadata, frame.getOffset(), frame.getFrameLength() + dataLength, frame.getMetaOffset(), frame.getMetaLength(),
+					frame.getDataOffset(), dataLength, parent);
+		} finally
+		{
+			release(cipher);
+			BufferPool.DEFAULT.release(buffer);
+			BufferPool.DEFAULT.release(bufferDecrypted);
+		}
+	}
 
-			temp.seek(position);
-			temp.writeLong(dataLength);
-			temp.seek(temp.length());
+	/**
+	 * Get the length of the encrypted data of a new block
+	 *
+	 * @param metadata:    metadata of the block
+	 * @param cipher:      cipher of the block, initialized in encryption mode
+	 * @param clearLength: length of the clear data if known, negative otherwise
+	 * @return the length of the encrypted data or 0 if it is not known in advance
+	 */
+	private static long getEncryptedLength(final Map<String, String> metadata, final Cipher cipher, final long clearLength)
+	{
+		if(clearLength < 0)
+			return 0;
 
-			final Block block = new Block(path, properties, offset, temp.getFilePointer() - offset, metaOffset, metaLength, dataOffset, dataLength, destinationFolder);
-			this.tempBlocks.put(block.getComparablePath(), block);
+		if(ChunkedData.isChunked(metadata))
+			return ChunkedData.getEncryptedLength(clearLength, ChunkedData.getChunkSize(metadata));
 
-			destinationFolder.add(block);
+		return clearLength <= Integer.MAX_VALUE - cipher.getBlockSize() ? cipher.getOutputSize((int) clearLength) : 0;
+	}
 
-			return block;
+	/**
+	 * Append the blocks written by {@link Safe#write(Map, InputStream, long, RandomAccessFile, int, Folder, TaskProbe)} into <code>segment</code> to the temporary safe file and link them into the
+	 * {@link Safe}. The batch is linked atomically: if one block cannot be added, none is
+	 *
+	 * @param blocks:  blocks located in <code>segment</code>
+	 * @param segment: file containing the blocks only
+	 * @return the linked blocks
+	 * @throws Exception
+	 */
+	List<Block> link(final List<Block> blocks, final RandomAccessFile segment) throws Exception
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			final List<Folder> folders = new ArrayList<>(blocks.size());
+			final Set<String> paths = new HashSet<>();
+			for(final Block block : blocks)
+			{
+				folders.add(getDestinationFolder(block.getProperties()));
+				if(!paths.add(block.getComparablePath()))
+					throw new Exception("Block path " + block.getPath() + " already exist");
+			}
 
-		} catch(final CancellationException e)
+			final RandomAccessFile temp = getTemp();
+			final long delta = temp.length();
+			final FileChannel source = segment.getChannel();
+			final FileChannel destination = temp.getChannel();
+			long position = 0;
+			while(position < segment.length())
+				position += source.transferTo(position, segment.length() - position, destination.position(delta + position));
+			temp.seek(temp.length());
+
+			final List<Block> linkeds = new ArrayList<>(blocks.size());
+			for(int i = 0; i < blocks.size(); i++)
+			{
+				final Block block = blocks.get(i);
+				final Block linked = new Block(block.getPath(), block.getProperties(), block.getOffset() + delta, block.getLength(), block.getMetaOffset() + delta,
+						block.getMetaLength(), block.getDataOffset() + delta, block.getDataLength(), folders.get(i));
+				this.tempBlocks.put(linked.getComparablePath(), linked);
+				indexContent(linked);
+				folders.get(i).add(linked);
+				linkeds.add(linked);
+			}
+
+			return linkeds;
+		} finally
 		{
-			throw e;
-		} catch(final Exception e)
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the live {@link Block} holding a content
+	 *
+	 * @param contentHash
+	 * @return the block or <code>null</code> if no live block holds the content
+	 */
+	private Block getContentOwner(final String contentHash)
+	{
+		this.lock.readLock().lock();
+		try
 		{
-			probe.fireException(e);
-			throw e;
+			final Block owner = getContents().get(contentHash);
+			return owner != null && isLive(owner) ? owner : null;
 		} finally
 		{
-			probe.fireTerminated();
+			this.lock.readLock().unlock();
 		}
 	}
 
 	/**
-	 * Delete data from the {@link Safe}. <b>Note that the data wont be deleted until a call to {@link Safe#save()} is made</b>
+	 * Get the {@link Block} holding the data of <code>block</code>: the block itself or the block holding the content it references
 	 *
-	 * @param path: path of the data to delete
+	 * @param block
+	 * @return
+	 * @throws Exception if the referenced content is not found
 	 */
-	public synchronized void delete(final String path)
+	private Block getContent(final Block block) throws Exception
 	{
-		final String comparablePath = Environment.comparableString(path);
-		Block deleted = this.blocks.get(comparablePath);
+		final String reference = Deduplication.getContentReference(block.getProperties());
+		if(reference == null)
+			return block;
 
-		if(deleted != null)
+		final Block owner = getContents().get(reference);
+		if(owner == null)
+			throw new Exception("Content of block " + block.getPath() + " not found");
+
+		return owner;
+	}
+
+	/**
+	 * Get the content index. The caller must hold the read or the write lock
+	 */
+	private Map<String, Block> getContents()
+	{
+		Map<String, Block> contents = this.contents;
+		if(contents == null)
 		{
-			final Folder folder = deleted.getParent();
-			folder.remove(deleted.getName());
-			this.deletedBlocks.put(comparablePath, deleted);
+			contents = new HashMap<>();
+
+			// live blocks take precedence over the deleted ones
+			for(final Block block : this.roBlocks.values())
+				if(!isLive(block))
+					indexContent(contents, block);
+			for(final Block block : this.deletedBlocks.values())
+				indexContent(contents, block);
+			for(final Block block : this.roBlocks.values())
+				if(isLive(block))
+					indexContent(contents, block);
+			for(final Block block : this.tempBlocks.values())
+				indexContent(contents, block);
+
+			this.contents = contents;
 		}
 
-		deleted = this.tempBlocks.remove(comparablePath);
+		return contents;
+	}
+
+	/**
+	 * Index the content of a new {@link Block}. The caller must hold the write lock
+	 */
+	private void indexContent(final Block block)
+	{
+		final Map<String, Block> contents = this.contents;
+		if(contents != null)
+			indexContent(contents, block);
+	}
+
+	private static void indexContent(final Map<String, Block> contents, final Block block)
+	{
+		final String contentHash = Deduplication.getContentHash(block.getProperties());
+		if(contentHash != null)
+			contents.put(contentHash, block);
+	}
 
-		if(deleted != null)
+	/**
+	 * Drop the content index once blocks are deleted or replaced. The caller must hold the write lock
+	 */
+	private void invalidateContents()
+	{
+		this.contents = null;
+	}
+
+	/**
+	 * Copy the content of deleted blocks still referenced by live blocks. For each such content, the first reference is replaced by a full copy which becomes the new owner of the content, the
+	 * other references are left untouched
+	 *
+	 * @param probe
+	 * @throws Exception
+	 */
+	private void materializeReferences(final TaskProbe probe) throws Exception
+	{
+		final Map<String, Block> references = new LinkedHashMap<>();
+		for(final Block block : this.roBlocks.values())
+			if(isLive(block) && Deduplication.isReference(block.getProperties()))
+				references.putIfAbsent(Deduplication.getContentReference(block.getProperties()), block);
+		for(final Block block : this.tempBlocks.values())
+			if(Deduplication.isReference(block.getProperties()))
+				references.putIfAbsent(Deduplication.getContentReference(block.getProperties()), block);
+
+		boolean materialized = false;
+		for(final Block reference : references.values())
 		{
-			final Folder folder = deleted.getParent();
-			folder.remove(deleted.getName());
-			this.deletedBlocks.put(comparablePath, deleted);
+			final Block owner = getContent(reference);
+			if(isLive(owner))
+				continue;
+
+			probe.fireMessage("Copying content of block " + reference.getPath());
+
+			final boolean temp = isTemp(owner);
+			final ByteBuffer iv = ByteBuffer.allocate(this.ivLength);
+			read(temp, owner.getOffset(), iv);
+
+			final Map<String, String> properties = new LinkedHashMap<>(reference.getProperties());
+			properties.remove(Deduplication.CONTENT_REFERENCE_LABEL);
+
+			final Block copy;
+			try(final InputStream data = new BlockInputStream(this, owner, temp, getCipher(), this.encryptionKey, iv.array(), getBufferSize(owner.getDataLength())))
+			{
+				final RandomAccessFile destination = getTemp();
+				destination.seek(destination.length());
+				copy = write(properties, data, -1, destination, Runtime.getRuntime().availableProcessors(), reference.getParent(), true, probe);
+			}
+
+			final Folder folder = reference.getParent();
+			folder.remove(reference.getName());
+			if(this.tempBlocks.get(reference.getComparablePath()) != reference)
+				this.deletedBlocks.put(reference.getComparablePath(), reference);
+			this.tempBlocks.put(copy.getComparablePath(), copy);
+			folder.add(copy);
+			materialized = true;
 		}
+
+		if(materialized)
+			invalidateContents();
 	}
 
-	public synchronized <D extends Collection<SafeFile>> D getDeleted(final D destination)
+	/**
+	 * Check if a {@link Block} is neither deleted nor replaced
+	 */
+	private boolean isLive(final Block block)
 	{
-		destination.addAll(this.deletedBlocks.values());
-		return destination;
+		final String comparablePath = block.getComparablePath();
+		return this.tempBlocks.get(comparablePath) == block || (this.roBlocks.get(comparablePath) == block && !this.deletedBlocks.containsKey(comparablePath));
+	}
+
+	/**
+	 * Check if the data of a {@link Block} is stored in the temporary safe file
+	 */
+	private boolean isTemp(final Block block)
+	{
+		return this.roBlocks.get(block.getComparablePath()) != block;
+	}
+
+	/**
+	 * Delete data from the {@link Safe}. <b>Note that the data wont be deleted until a call to {@link Safe#save()} is made</b>
+	 *
+	 * @param path: path of the data to delete
+	 */
+	public void delete(final String path)
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			final String comparablePath = Environment.comparableString(path);
+			Block deleted = this.blocks.get(comparablePath);
+
+			if(deleted != null)
+			{
+				final Folder folder = deleted.getParent();
+				folder.remove(deleted.getName());
+				this.deletedBlocks.put(comparablePath, deleted);
+			}
+
+			deleted = this.tempBlocks.remove(comparablePath);
+
+			if(deleted != null)
+			{
+				final Folder folder = deleted.getParent();
+				folder.remove(deleted.getName());
+				this.deletedBlocks.put(comparablePath, deleted);
+			}
+
+			invalidateContents();
+		} finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	public <D extends Collection<SafeFile>> D getDeleted(final D destination)
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			destination.addAll(this.deletedBlocks.values());
+			return destination;
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
 	}
 
 	/**
@@ -363,240 +880,819 @@ public class Safe implements Closeable
 	 * @param outputStream: destination of extracted block
 	 * @throws Exception
 	 */
-	public synchronized void extract(String path, final boolean tempBlock, final OutputStream outputStream) throws Exception
+	public void extract(final String path, final boolean tempBlock, final OutputStream outputStream) throws Exception
+	{
+		extract(path, tempBlock, outputStream, TaskProbe.DULL_PROBE);
+	}
+
+	/**
+	 * Extract data from the {@link Safe}
+	 *
+	 * @param path:         path of the block to extract
+	 * @param tempBlock:    extract temp block if any
+	 * @param outputStream: destination of extracted block
+	 * @param probe:        probe checked for cancellation while the data is decrypted
+	 * @throws Exception
+	 */
+	public void extract(String path, final boolean tempBlock, final OutputStream outputStream, final TaskProbe probe) throws Exception
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			path = Environment.comparableString(path);
+
+			Block block = this.roBlocks.get(path);
+			final FileChannel channel;
+
+			if(block == null)
+			{
+				block = this.tempBlocks.get(path);
+				channel = this.temp.getChannel();
+			}
+			else if(tempBlock)
+			{
+				final Block tmpBlock = this.tempBlocks.get(path);
+				if(tmpBlock == null)
+					channel = this.original.getChannel();
+				else
+				{
+					block = tmpBlock;
+					channel = this.temp.getChannel();
+				}
+			}
+			else
+				channel = this.original.getChannel();
+
+			if(block == null)
+				throw new Exception("Block " + path + " not found");
+
+			// references read the data of the block holding their content
+			final Block content = getContent(block);
+			final FileChannel contentChannel = content == block ? channel : isTemp(content) ? this.temp.getChannel() : this.original.getChannel();
+
+			final Compression.Codec codec = Compression.getBlockCodec(content.getProperties());
+			if(codec == null)
+				decrypt(content, contentChannel, outputStream, probe);
+			else
+				try(final OutputStream destination = codec.decompress(outputStream))
+				{
+					decrypt(content, contentChannel, destination, probe);
+				}
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Decrypt the stored data of a {@link Block}
+	 */
+	private void decrypt(final Block block, final FileChannel channel, final OutputStream outputStream, final TaskProbe probe) throws Exception
 	{
-		path = Environment.comparableString(path);
+		// positional reads do not move the shared file pointer so blocks can be extracted concurrently
+		final boolean mapped = this.mapped != null && channel == this.original.getChannel();
+		final ByteBuffer ivBytes = ByteBuffer.allocate(this.ivLength);
+		if(mapped)
+			this.mapped.read(block.getOffset(), ivBytes);
+		else
+			SafeIO.readFully(channel, block.getOffset(), ivBytes);
 
-		Block block = this.roBlocks.get(path);
-		final RandomAccessFile raf;
+		final IvParameterSpec iv = new IvParameterSpec(ivBytes.array());
 
-		if(block == null)
+		if(ChunkedData.isChunked(block.getProperties()))
 		{
-			block = this.tempBlocks.get(path);
-			raf = this.temp;
+			final SafeIO.Source source = mapped ? this.mapped::read : SafeIO.source(channel);
+			ChunkedData.decrypt(source, block.getDataOffset(), block.getDataLength(), ChunkedData.deriveKey(this.encryptionKey, ivBytes.array()),
+					ChunkedData.getChunkSize(block.getProperties()), outputStream, probe);
+			return;
 		}
-		else if(tempBlock)
+
+		final Cipher cipher = getCipher();
+		try
 		{
-			final Block tmpBlock = this.tempBlocks.get(path);
-			if(tmpBlock == null)
-				raf = this.original;
-			else
+			if(isParallelDecryption(cipher, block.getDataLength()))
+			{
+				final SafeIO.Source source = mapped ? this.mapped::read : SafeIO.source(channel);
+				SafeIO.decrypt(source, block.getDataOffset(), block.getDataLength(), cipher.getAlgorithm(), this.encryptionKey, iv.getIV(), outputStream,
+						SafeIO.PARALLEL_SEGMENT_SIZE, ForkJoinPool.commonPool(), probe);
+				return;
+			}
+
+			cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, iv);
+			final int bufferSize = getBufferSize(block.getDataLength());
+			final byte[] bufferEncrypted = mapped ? null : BufferPool.DEFAULT.acquire(bufferSize);
+			final byte[] bufferDecrypted = BufferPool.DEFAULT.acquire(bufferSize);
+			try
 			{
-				block = tmpBlock;
-				raf = this.temp;
+				if(mapped)
+					SafeIO.decrypt(this.mapped, block.getDataOffset(), block.getDataLength(), cipher, outputStream, bufferDecrypted, probe);
+				else
+					SafeIO.decrypt(channel, block.getDataOffset(), block.getDataLength(), cipher, outputStream, bufferEncrypted, bufferDecrypted, probe);
+			} finally
+			{
+				BufferPool.DEFAULT.release(bufferEncrypted);
+				BufferPool.DEFAULT.release(bufferDecrypted);
 			}
+		} finally
+		{
+			release(cipher);
 		}
-		else
-			raf = this.original;
+	}
 
-		if(block == null)
-			throw new Exception("Block " + path + " not found");
+	/**
+	 * Check if data of <code>length</code> bytes encrypted with <code>cipher</code> is worth decrypting by segments on the common {@link ForkJoinPool}
+	 */
+	private static boolean isParallelDecryption(final Cipher cipher, final long length)
+	{
+		return length >= 2L * SafeIO.PARALLEL_SEGMENT_SIZE && ForkJoinPool.getCommonPoolParallelism() > 1 && SafeIO.isSegmentable(cipher.getAlgorithm());
+	}
+
+	/**
+	 * Open a stream decrypting the data of a {@link Block} on demand. If the {@link Block} is a temporary block, the data is read from the temporary safe file. The stream becomes unusable once
+	 * the {@link Safe} is closed
+	 *
+	 * @param block: block to read
+	 * @return
+	 * @throws Exception
+	 */
+	public BlockInputStream openInputStream(final Block block) throws Exception
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			final boolean temp = this.tempBlocks.get(block.getComparablePath()) == block;
+			if(!temp && this.roBlocks.get(block.getComparablePath()) != block)
+				throw new Exception("Block " + block.getPath() + " not found");
 
-		raf.seek(block.getOffset());
+			// references read the data of the block holding their content
+			final Block content = getContent(block);
+			final boolean contentTemp = content == block ? temp : isTemp(content);
 
-		final byte[] ivBytes = new byte[this.ivLength];
-		raf.read(ivBytes);
+			final ByteBuffer iv = ByteBuffer.allocate(this.ivLength);
+			read(contentTemp, content.getOffset(), iv);
 
-		final Cipher cipher = getCipher();
+			return new BlockInputStream(this, content, contentTemp, getCipher(), this.encryptionKey, iv.array(), getBufferSize(content.getDataLength()));
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
 
-		final IvParameterSpec iv = new IvParameterSpec(ivBytes);
+	/**
+	 * Fill <code>destination</code> with the bytes of the safe file (or the temporary safe file) starting at <code>position</code>
+	 */
+	void read(final boolean temp, final long position, final ByteBuffer destination) throws IOException
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			final FileChannel channel = temp ? this.temp.getChannel() : this.original.getChannel();
+			if(!channel.isOpen())
+				throw new ClosedChannelException();
 
-		cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, iv);
-		raf.seek(block.getDataOffset());
-		SafeIO.decrypt(raf, block.getDataLength(), cipher, outputStream, new byte[this.bufferSize], new byte[this.bufferSize]);
+			if(!temp && this.mapped != null)
+				this.mapped.read(position, destination);
+			else
+				SafeIO.readFully(channel, position, destination);
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
 	}
 
 	/**
 	 * Read the metadata of a {@link Block}
 	 *
-	 * @param block: block to read
+	 * @param block: block to read
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<String, String> readMetadata(final Block block) throws Exception
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			final FileChannel channel = this.original.getChannel();
+			final ByteBuffer ivBytes = ByteBuffer.allocate(this.ivLength);
+			if(this.mapped != null)
+				this.mapped.read(block.getOffset(), ivBytes);
+			else
+				SafeIO.readFully(channel, block.getOffset(), ivBytes);
+
+			final Cipher cipher = getCipher();
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			final int bufferSize = getBufferSize(block.getMetaLength());
+			final byte[] bufferEncrypted = this.mapped != null ? null : BufferPool.DEFAULT.acquire(bufferSize);
+			final byte[] bufferDecrypted = BufferPool.DEFAULT.acquire(bufferSize);
+			try
+			{
+				cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, new IvParameterSpec(ivBytes.array()));
+				if(this.mapped != null)
+					SafeIO.decrypt(this.mapped, block.getMetaOffset(), block.getMetaLength(), cipher, baos, bufferDecrypted, TaskProbe.DULL_PROBE);
+				else
+					SafeIO.decrypt(channel, block.getMetaOffset(), block.getMetaLength(), cipher, baos, bufferEncrypted, bufferDecrypted, TaskProbe.DULL_PROBE);
+			} finally
+			{
+				release(cipher);
+				BufferPool.DEFAULT.release(bufferEncrypted);
+				BufferPool.DEFAULT.release(bufferDecrypted);
+			}
+
+			final String metadata = new String(baos.toByteArray());
+
+			final Map<String, String> jsonMap = GSON.fromJson(metadata, MAP_STRING_STRING_TYPE);
+			return new TreeMap<>(jsonMap);
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Discard pending modification
+	 */
+	public void discardChanges() throws Exception
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			for(final Map.Entry<String, Block> temp : this.tempBlocks.entrySet())
+			{
+				Folder folder = temp.getValue().getParent();
+				folder.remove(temp.getValue().getName());
+			}
+
+			this.tempBlocks.clear();
+
+			for(final Map.Entry<String, Block> deleted : this.deletedBlocks.entrySet())
+			{
+				Folder folder = deleted.getValue().getParent();
+				folder.add(deleted.getValue());
+			}
+
+			this.deletedBlocks.clear();
+
+			invalidateContents();
+		} finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Save the modification into the safe file. The current file is renamed and a new file is written. This is to reduce the risk of data loss. This method calls the {@link Safe#close()} before returning
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	public Safe save() throws Exception
+	{
+		return save(null);
+	}
+
+	public Safe save(TaskProbe probe) throws Exception
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			if(probe == null)
+				probe = TaskProbe.DULL_PROBE;
+			try
+			{
+				double progress = 0;
+				probe.fireProgress(progress);
+
+				materializeReferences(probe);
+
+				probe.fireMessage("Creating temporary file");
+				final File newFile = Files.createTempFile(originalFile.getParentFile().toPath(), null, null).toFile();
+
+				final Cipher cipher = getCipher();
+				final byte[] buffer = BufferPool.DEFAULT.acquire(this.bufferSize);
+				try(RandomAccessFile destination = new RandomAccessFile(newFile, "rw"))
+				{
+					probe.checkCancel();
+
+					destination.write(HASHER.getEmptyHash());// skip hash
+
+					// public properties
+					probe.fireMessage("Writing public header");
+
+					// no IV and no data in header
+					String json = GSON.toJson(this.publicHeader);
+					new BlockFrame(destination.getFilePointer(), new byte[0], json.getBytes(StandardCharsets.UTF_8), 0).write(destination);
+
+					probe.checkCancel();
+
+					// private properties
+					probe.fireMessage("Writing private properties");
+
+					// no data in properties
+					cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
+					json = GSON.toJson(this.privateProperties);
+					new BlockFrame(destination.getFilePointer(), cipher.getIV(), cipher.doFinal(json.getBytes()), 0).write(destination);
+
+					probe.checkCancel();
+
+					final double steps = this.roBlocks.size() + this.tempBlocks.size() + 1;
+					int completed = 0;
+
+					final List<TableOfContents.Entry> entries = new ArrayList<>();
+
+					for(final Block block : this.roBlocks.values())
+					{
+						// only add non deleted block
+						if(this.deletedBlocks.containsKey(block.getComparablePath()))
+						{
+							probe.fireMessage("Skipping deleted block " + block.getPath());
+							continue;
+						}
+
+						probe.fireMessage("Writing block " + block.getPath());
+						entries.add(new TableOfContents.Entry(block, destination.getFilePointer()));
+						this.original.seek(block.getOffset());
+						SafeIO.copy(this.original, block.getLength(), destination, buffer, probe);
+						completed++;
+						progress = completed / steps;
+						probe.fireProgress(progress);
+					}
+
+					final RandomAccessFile temp = getTemp();
+					for(final Block block : this.tempBlocks.values())
+					{
+						probe.fireMessage("Writing block " + block.getPath());
+						entries.add(new TableOfContents.Entry(block, destination.getFilePointer()));
+						temp.seek(block.getOffset());
+
+						SafeIO.copy(temp, block.getLength(), destination, buffer, probe);
+						completed++;
+						progress = completed / steps;
+						probe.fireProgress(progress);
+					}
+
+					if(this.publicHeader.containsKey(TOC_OFFSET_LABEL))
+					{
+						probe.fireMessage("Writing table of contents");
+						cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
+						final long tocOffset = TableOfContents.write(entries, destination, cipher);
+						writeTableOfContentsOffset(destination, this.publicHeader, tocOffset);
+					}
+
+					probe.checkCancel();
+
+					probe.fireMessage("Computing hash");
+					final byte[] hash = computeHash(destination, cipher, this.ivLength, this.encryptionKey, this.bufferSize, probe);
+					destination.seek(0);
+					destination.write(hash);
+
+					probe.fireMessage("Closing IO streams");
+					destination.close();
+
+					close();
+
+					probe.fireMessage("Deleting old file");
+
+					if(!this.originalFile.delete())
+						throw new IOException("Unable to delete " + this.originalFile.getAbsolutePath());
+
+					probe.fireMessage("Renaming file");
+
+					if(!newFile.renameTo(this.originalFile))
+						throw new IOException("Unable to rename " + newFile.getAbsolutePath());
+
+					probe.checkCancel();
+
+					probe.fireMessage("Opening new safe");
+					probe.fireProgress(1);
+
+					return new Safe(this.originalFile, encryptionKey, this.bufferSize, isMemoryMapped());
+				} finally
+				{
+					release(cipher);
+					BufferPool.DEFAULT.release(buffer);
+				}
+			} catch(final CancellationException e)
+			{
+				throw e;
+			} catch(final Exception e)
+			{
+				probe.fireException(e);
+				throw e;
+			} finally
+			{
+				probe.fireTerminated();
+			}
+		} finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Save the modification by appending them to the safe file instead of rewriting it. New blocks and tombstones of the deleted blocks are written after the committed data, followed by a new
+	 * table of contents. The modification are committed by updating the table of contents offset in the header once everything else has been flushed to the disk: an interrupted save leaves the
+	 * committed data untouched and its leftover is discarded by the next save. The integrity hash is cleared just before the commit and written after it, it is left pending if the save is
+	 * interrupted in between (see {@link Safe#isHashPending()}). Cancellation is ignored once committed. If the {@link Safe} was not opened from a table of contents, a full {@link Safe#save(TaskProbe)} is made instead. This
+	 * method calls the {@link Safe#close()} before returning
+	 *
+	 * @param probe
+	 * @return
+	 * @throws Exception
+	 */
+	public Safe saveIncremental(TaskProbe probe) throws Exception
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			if(!this.tableOfContentsLoaded)
+				return save(probe);
+
+			if(probe == null)
+				probe = TaskProbe.DULL_PROBE;
+			boolean committed = false;
+			try
+			{
+				double progress = 0;
+				probe.fireProgress(progress);
+
+				materializeReferences(probe);
+
+				final Cipher cipher = getCipher();
+				final byte[] buffer = BufferPool.DEFAULT.acquire(this.bufferSize);
+				try
+				{
+					probe.checkCancel();
+
+					// discard leftover of an interrupted save
+					this.original.setLength(this.committedLength);
+					this.original.seek(this.committedLength);
+
+					final List<Block> deleted = new ArrayList<>();
+					for(final Block block : this.roBlocks.values())
+						if(this.deletedBlocks.containsKey(block.getComparablePath()))
+							deleted.add(block);
+
+					final double steps = deleted.size() + this.tempBlocks.size() + 2;
+					int completed = 0;
+
+					// tombstones are written first so a block deleted then added again is restored by a sequential read
+					for(final Block block : deleted)
+					{
+						probe.fireMessage("Writing tombstone of block " + block.getPath());
+						cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
+						TableOfContents.writeTombstone(block, this.original, cipher);
+						completed++;
+						progress = completed / steps;
+						probe.fireProgress(progress);
+					}
+
+					final List<TableOfContents.Entry> entries = new ArrayList<>();
+					for(final Block block : this.roBlocks.values())
+						if(!this.deletedBlocks.containsKey(block.getComparablePath()))
+							entries.add(new TableOfContents.Entry(block, block.getOffset()));
+
+					final RandomAccessFile temp = getTemp();
+					for(final Block block : this.tempBlocks.values())
+					{
+						probe.fireMessage("Writing block " + block.getPath());
+						entries.add(new TableOfContents.Entry(block, this.original.getFilePointer()));
+						temp.seek(block.getOffset());
+						SafeIO.copy(temp, block.getLength(), this.original, buffer, probe);
+						completed++;
+						progress = completed / steps;
+						probe.fireProgress(progress);
+					}
+
+					probe.fireMessage("Writing table of contents");
+					cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
+					final long tocOffset = TableOfContents.write(entries, this.original, cipher);
+
+					probe.checkCancel();
+
+					probe.fireMessage("Flushing file");
+					this.original.getFD().sync();
+
+					// commit, the hash is pending until the new one is written
+					probe.fireMessage("Committing table of contents");
+					clearHash();
+					writeTableOfContentsOffset(this.original, this.publicHeader, tocOffset);
+					this.original.getFD().sync();
+					committed = true;
+					completed++;
+					probe.fireProgress(completed / steps);
+
+					probe.fireMessage("Computing hash");
+					writeHash();
+
+					probe.fireMessage("Closing IO streams");
+					close();
+
+					probe.fireMessage("Opening new safe");
+					probe.fireProgress(1);
+
+					return new Safe(this.originalFile, encryptionKey, this.bufferSize, isMemoryMapped());
+				} finally
+				{
+					release(cipher);
+					BufferPool.DEFAULT.release(buffer);
+				}
+
+			} catch(final CancellationException e)
+			{
+				throw e;
+			} catch(final Exception e)
+			{
+				// the loaded blocks no longer match the committed table of contents
+				if(committed)
+					close();
+				probe.fireException(e);
+				throw e;
+			} finally
+			{
+				probe.fireTerminated();
+			}
+		} finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of bytes of the safe file that are not used by a live {@link Block} or by the current table of contents: deleted blocks, tombstones and older tables of contents
+	 *
 	 * @return
-	 * @throws Exception
 	 */
-	public synchronized Map<String, String> readMetadata(final Block block) throws Exception
+	public long getDeadLength()
 	{
-		this.original.seek(block.getOffset());
-		final byte[] ivBytes = new byte[this.ivLength];
-		this.original.read(ivBytes);
-
-		final Cipher cipher = getCipher();
-
-		final IvParameterSpec iv = new IvParameterSpec(ivBytes);
-		cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, iv);
-
-		this.original.seek(block.getMetaOffset());
-
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		SafeIO.decrypt(this.original, block.getMetaLength(), cipher, baos, new byte[this.bufferSize], new byte[this.bufferSize]);
-
-		final String metadata = new String(baos.toByteArray());
+		long live = 0;
+		for(final Block block : this.roBlocks.values())
+			live += block.getLength();
 
-		final Map<String, String> jsonMap = GSON.fromJson(metadata, MAP_STRING_STRING_TYPE);
-		return new TreeMap<>(jsonMap);
+		return this.committedLength - this.blocksOffset - this.tableOfContentsLength - live;
 	}
 
 	/**
-	 * Discard pending modification
+	 * Get the ratio of dead bytes in the block region of the safe file
+	 *
+	 * @return a value between 0 and 1
 	 */
-	public synchronized void discardChanges() throws Exception
+	public double getDeadRatio()
 	{
-		for(final Map.Entry<String, Block> temp : this.tempBlocks.entrySet())
-		{
-			Folder folder = temp.getValue().getParent();
-			folder.remove(temp.getValue().getName());
-		}
-
-		this.tempBlocks.clear();
-
-		for(final Map.Entry<String, Block> deleted : this.deletedBlocks.entrySet())
-		{
-			Folder folder = deleted.getValue().getParent();
-			folder.add(deleted.getValue());
-		}
+		final long region = this.committedLength - this.blocksOffset;
+		if(region <= 0)
+			return 0;
 
-		this.deletedBlocks.clear();
+		return getDeadLength() / (double) region;
 	}
 
 	/**
-	 * Save the modification into the safe file. The current file is renamed and a new file is written. This is to reduce the risk of data loss. This method calls the {@link Safe#close()} before returning
+	 * Reclaim the dead bytes of the safe file. The blocks located before the first dead region are left in place, only the following blocks are moved. To never overwrite committed data, the moved
+	 * blocks are first copied after the committed data and committed, then copied back into the fragmented region and committed again before the file is truncated. If the {@link Safe} was not
+	 * opened from a table of contents, a full {@link Safe#save(TaskProbe)} is made instead. Pending modifications must be saved before compaction. Unless there is nothing to reclaim, this
+	 * method calls the {@link Safe#close()} before returning, including on failure. Cancellation is ignored once the first table of contents is committed: from then on, the integrity hash is
+	 * pending until the end of the compaction (see {@link Safe#isHashPending()})
 	 *
-	 * @return
+	 * @param probe: progress is reported as the ratio of copied bytes
+	 * @return the compacted {@link Safe} or this {@link Safe} if there is nothing to reclaim
 	 * @throws Exception
 	 */
-	public Safe save() throws Exception
-	{
-		return save(null);
-	}
-
-	public synchronized Safe save(TaskProbe probe) throws Exception
+	public Safe compact(TaskProbe probe) throws Exception
 	{
-		if(probe == null)
-			probe = TaskProbe.DULL_PROBE;
+		this.lock.writeLock().lock();
 		try
 		{
-			double progress = 0;
-			probe.fireProgress(progress);
-
-			probe.fireMessage("Creating temporary file");
-			final File newFile = Files.createTempFile(originalFile.getParentFile().toPath(), null, null).toFile();
-
-			try(RandomAccessFile destination = new RandomAccessFile(newFile, "rw"))
-			{
-				final byte[] buffer = new byte[this.bufferSize];
-				final byte[] bufferDecrypted = new byte[this.bufferSize];
-
-				Cipher cipher = getCipher();
-
-				probe.checkCancel();
-
-				destination.write(HASHER.getEmptyHash());// skip hash
+			if(!this.tempBlocks.isEmpty() || !this.deletedBlocks.isEmpty())
+				throw new IllegalStateException("Pending modifications must be saved before compaction");
 
-				// public properties
-				probe.fireMessage("Writing public header");
+			if(!this.tableOfContentsLoaded)
+				return save(probe);
 
-				String json = GSON.toJson(this.publicHeader);
+			if(getDeadLength() == 0)
+				return this;
 
-				long previousPosition = destination.getFilePointer();
-
-				destination.writeLong(0);
-				long total = SafeIO.copy(new ByteArrayInputStream(json.getBytes()), destination, buffer, probe);
-				destination.writeLong(0);// no data in header
-				long position = destination.getFilePointer();
-				destination.seek(previousPosition);
-				destination.writeLong(total);
-				destination.seek(position);
+			if(probe == null)
+				probe = TaskProbe.DULL_PROBE;
+			try
+			{
+				probe.fireProgress(0);
 
-				probe.checkCancel();
+				final List<Block> sorted = new ArrayList<>(this.roBlocks.values());
+				sorted.sort(Comparator.comparingLong(Block::getOffset));
 
-				// private properties
-				probe.fireMessage("Writing private properties");
+				// blocks before the first dead region stay in place
+				long start = this.blocksOffset;
+				int first = 0;
+				while(first < sorted.size() && sorted.get(first).getOffset() == start)
+					start += sorted.get(first++).getLength();
 
-				cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
-				destination.write(cipher.getIV());
+				final List<TableOfContents.Entry> kept = new ArrayList<>();
+				for(final Block block : sorted.subList(0, first))
+					kept.add(new TableOfContents.Entry(block, block.getOffset()));
 
-				json = GSON.toJson(this.privateProperties);
+				final List<Block> moved = sorted.subList(first, sorted.size());
+				long movedLength = 0;
+				for(final Block block : moved)
+					movedLength += block.getLength();
 
-				previousPosition = destination.getFilePointer();
-				destination.writeLong(0);
-				total = SafeIO.encrypt(new ByteArrayInputStream(json.getBytes()), cipher, destination, buffer, bufferDecrypted, probe);
-				destination.writeLong(0);// no data in header
-				position = destination.getFilePointer();
-				destination.seek(previousPosition);
-				destination.writeLong(total);
-				destination.seek(position);
+				probe.fireMessage("Compacting " + Utils.humanReadableByteCount(getDeadLength()) + " of dead bytes by moving " + moved.size() + " block(s) ("
+						+ Utils.humanReadableByteCount(movedLength) + ")");
 
-				probe.checkCancel();
+				final FileChannel channel = this.original.getChannel();
+				final ByteBuffer buffer = ByteBuffer.allocate(this.bufferSize);
+				final double total = 2 * movedLength + 1;
+				long completed = 0;
 
-				final double steps = this.roBlocks.size() + this.tempBlocks.size() + 1;
-				int completed = 0;
+				// discard leftover of an interrupted save
+				this.original.setLength(this.committedLength);
 
-				for(final Block block : this.roBlocks.values())
+				// copy the moved blocks after the committed data
+				final List<TableOfContents.Entry> relocated = new ArrayList<>(kept);
+				long position = this.committedLength;
+				for(final Block block : moved)
 				{
-					// only add non deleted block
-					if(this.deletedBlocks.containsKey(block.getComparablePath()))
-					{
-						probe.fireMessage("Skipping deleted block " + block.getPath());
-						continue;
-					}
+					probe.fireMessage("Relocating block " + block.getPath());
+					relocated.add(new TableOfContents.Entry(block, position));
+					SafeIO.copy(channel, block.getOffset(), block.getLength(), position, buffer, probe);
+					position += block.getLength();
+					completed += block.getLength();
+					probe.fireProgress(completed / total);
+				}
 
-					probe.fireMessage("Writing block " + block.getPath());
-					this.original.seek(block.getOffset());
-					SafeIO.copy(this.original, block.getLength(), destination, buffer, probe);
-					completed++;
-					progress = completed / steps;
-					probe.fireProgress(progress);
+				if(!moved.isEmpty())
+				{
+					commitTableOfContents(relocated, position, probe);
+					// the relocated blocks are committed, stopping now would leave the hash pending
+					probe = uncancellable(probe);
 				}
 
-				final RandomAccessFile temp = getTemp();
-				for(final Block block : this.tempBlocks.values())
+				// copy them back into the fragmented region
+				final List<TableOfContents.Entry> compacted = new ArrayList<>(kept);
+				position = start;
+				for(int i = 0; i < moved.size(); i++)
 				{
-					probe.fireMessage("Writing block " + block.getPath());
-					temp.seek(block.getOffset());
+					final Block block = moved.get(i);
+					final TableOfContents.Entry entry = relocated.get(kept.size() + i);
+					probe.fireMessage("Moving block " + block.getPath());
+					compacted.add(new TableOfContents.Entry(block, position));
+					SafeIO.copy(channel, entry.getOffset(), entry.getLength(), position, buffer, probe);
+					position += entry.getLength();
+					completed += entry.getLength();
+					probe.fireProgress(completed / total);
+				}
 
-					SafeIO.copy(temp, block.getLength(), destination, buffer, probe);
-					completed++;
-					progress = completed / steps;
-					probe.fireProgress(progress);
+				final long end = position;
+				final long tocOffset = commitTableOfContents(compacted, this.original.length(), probe);
+				probe = uncancellable(probe);
+				final long tocLength = this.original.length() - tocOffset;
+
+				// move the table of contents after the compacted blocks and truncate
+				if(end + tocLength <= tocOffset)
+				{
+					probe.fireMessage("Moving table of contents");
+					SafeIO.copy(channel, tocOffset, tocLength, end, buffer, probe);
+					this.original.getFD().sync();
+					writeTableOfContentsOffset(this.original, this.publicHeader, end);
+					this.original.getFD().sync();
+					this.original.setLength(end + tocLength);
 				}
 
 				probe.fireMessage("Computing hash");
-				final byte[] hash = computeHash(destination, cipher, this.ivLength, this.encryptionKey, this.bufferSize, probe);
-				destination.seek(0);
-				destination.write(hash);
+				writeHash();
 
 				probe.fireMessage("Closing IO streams");
-				destination.close();
-
 				close();
 
-				probe.fireMessage("Deleting old file");
-
-				if(!this.originalFile.delete())
-					throw new IOException("Unable to delete " + this.originalFile.getAbsolutePath());
-
-				probe.fireMessage("Renaming file");
-
-				if(!newFile.renameTo(this.originalFile))
-					throw new IOException("Unable to rename " + newFile.getAbsolutePath());
-
-				probe.checkCancel();
-
 				probe.fireMessage("Opening new safe");
 				probe.fireProgress(1);
 
-				return new Safe(this.originalFile, encryptionKey, this.bufferSize);
+				return new Safe(this.originalFile, encryptionKey, this.bufferSize, isMemoryMapped());
+
+			} catch(final CancellationException e)
+			{
+				close();
+				throw e;
+			} catch(final Exception e)
+			{
+				close();
+				probe.fireException(e);
+				throw e;
+			} finally
+			{
+				probe.fireTerminated();
 			}
-		} catch(final CancellationException e)
+		} finally
 		{
-			throw e;
-		} catch(final Exception e)
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Write a table of contents at <code>offset</code> and commit it once everything has been flushed to the disk. The integrity hash is cleared before the commit and must be written by
+	 * {@link #writeHash()}
+	 *
+	 * @return the offset of the table of contents
+	 */
+	private long commitTableOfContents(final List<TableOfContents.Entry> entries, final long offset, final TaskProbe probe) throws Exception
+	{
+		probe.fireMessage("Committing table of contents");
+		final Cipher cipher = getCipher();
+		try
 		{
-			probe.fireException(e);
-			throw e;
+			cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, getSecureRandom());
+			this.original.seek(offset);
+			final long tocOffset = TableOfContents.write(entries, this.original, cipher);
+			this.original.getFD().sync();
+			clearHash();
+			writeTableOfContentsOffset(this.original, this.publicHeader, tocOffset);
+			this.original.getFD().sync();
+
+			return tocOffset;
 		} finally
 		{
-			probe.fireTerminated();
+			release(cipher);
+		}
+	}
+
+	/**
+	 * Clear the integrity hash of the safe file before committing a table of contents. Until {@link #writeHash()} succeeds, the hash is pending instead of being the one of the previous
+	 * content
+	 *
+	 * @throws IOException
+	 */
+	private void clearHash() throws IOException
+	{
+		this.original.seek(0);
+		this.original.write(new byte[this.hash.length]);
+		this.original.getFD().sync();
+	}
+
+	/**
+	 * Write the integrity hash of the safe file once a table of contents is committed. The computation cannot be cancelled: the commit is already done
+	 *
+	 * @throws Exception
+	 */
+	private void writeHash() throws Exception
+	{
+		final byte[] hash;
+		final Cipher cipher = getCipher();
+		try
+		{
+			hash = computeHash(this.original, cipher, this.ivLength, this.encryptionKey, this.bufferSize, TaskProbe.DULL_PROBE);
+		} finally
+		{
+			release(cipher);
 		}
+		this.original.seek(0);
+		this.original.write(hash);
+		this.original.getFD().sync();
+	}
+
+	/**
+	 * Wrap a probe to ignore the cancellation requests, once a task can no longer be stopped safely
+	 *
+	 * @param probe
+	 * @return
+	 */
+	private static TaskProbe uncancellable(final TaskProbe probe)
+	{
+		return new TaskProbe()
+		{
+			@Override
+			public void fireProgress(final double progress)
+			{
+				probe.fireProgress(progress);
+			}
+
+			@Override
+			public void fireMessage(final String message)
+			{
+				probe.fireMessage(message);
+			}
+
+			@Override
+			public boolean isCancelRequested()
+			{
+				return false;
+			}
+
+			@Override
+			public void fireCanceled()
+			{
+				probe.fireCanceled();
+			}
+
+			@Override
+			public void fireException(final Exception exception)
+			{
+				probe.fireException(exception);
+			}
+
+			@Override
+			public void fireTerminated()
+			{
+				probe.fireTerminated();
+			}
+		};
 	}
 
 	/**
@@ -605,10 +1701,24 @@ public class Safe implements Closeable
 	 * @return
 	 * @throws Exception
 	 */
-	public synchronized byte[] computeHash(final TaskProbe probe) throws Exception
+	public byte[] computeHash(final TaskProbe probe) throws Exception
 	{
-		final byte[] hash = computeHash(this.original, getCipher(), this.ivLength, this.encryptionKey, this.bufferSize, probe);
-		return hash;
+		this.lock.readLock().lock();
+		try
+		{
+			// use a dedicated file handle to leave the shared file pointer untouched
+			final Cipher cipher = getCipher();
+			try(final RandomAccessFile source = new RandomAccessFile(this.originalFile, "r"))
+			{
+				return computeHash(source, this.committedLength, cipher, this.ivLength, this.encryptionKey, this.bufferSize, probe);
+			} finally
+			{
+				release(cipher);
+			}
+		} finally
+		{
+			this.lock.readLock().unlock();
+		}
 	}
 
 	/**
@@ -623,23 +1733,103 @@ public class Safe implements Closeable
 		return destination;
 	}
 
+	/**
+	 * Check if the integrity hash of the safe file is pending: a save was interrupted after committing its table of contents but before writing the new hash. The content is consistent but
+	 * cannot be verified until the next save
+	 *
+	 * @return
+	 */
+	public boolean isHashPending()
+	{
+		for(final byte b : this.hash)
+			if(b != 0)
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Check if the {@link Safe} was opened from its table of contents
+	 *
+	 * @return
+	 */
+	public boolean isTableOfContentsLoaded()
+	{
+		return tableOfContentsLoaded;
+	}
+
+	/**
+	 * Check if the committed data of the {@link Safe} are memory-mapped
+	 *
+	 * @return
+	 */
+	public boolean isMemoryMapped()
+	{
+		return this.mapped != null;
+	}
+
+	/**
+	 * Get the upper bound of the io buffers
+	 *
+	 * @return
+	 */
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	/**
+	 * Get the size of the buffer processing <code>length</code> bytes
+	 */
+	private int getBufferSize(final long length)
+	{
+		return BufferSize.get(length, this.fileSystemBlockSize, this.bufferSize);
+	}
+
+	/**
+	 * Get a {@link Cipher} from the cache of the current thread. It must be given back with {@link #release(Cipher)}
+	 *
+	 * @return
+	 * @throws Exception
+	 */
 	private Cipher getCipher() throws Exception
 	{
 		final String encryption = this.publicHeader.get(ENCRYPTION_LABEL);
 		if(encryption == null)
 			throw new Exception("Public property '" + ENCRYPTION_LABEL + "' must be set");
-		return javax.crypto.Cipher.getInstance(encryption);
+		return Ciphers.acquire(encryption);
+	}
+
+	/**
+	 * Give back a {@link Cipher} obtained from {@link #getCipher()}. It is dropped from the cache when the {@link Safe} is closed, and not cached at all once closed
+	 *
+	 * @param cipher
+	 */
+	void release(final Cipher cipher)
+	{
+		if(this.original.getChannel().isOpen())
+			Ciphers.release(cipher, this.encryptionKey);
 	}
 
 	@Override
-	public synchronized void close() throws IOException
+	public void close() throws IOException
 	{
-		this.original.close();
-		final RandomAccessFile temp = getTemp();
-		if(temp != null)
+		this.lock.writeLock().lock();
+		try
 		{
-			temp.close();
-			tempFile.delete();
+			this.original.close();
+			final RandomAccessFile temp = getTemp();
+			if(temp != null)
+			{
+				temp.close();
+				tempFile.delete();
+			}
+
+			// the cached instances still hold the key
+			Ciphers.clear(this.encryptionKey);
+		} finally
+		{
+			this.lock.writeLock().unlock();
 		}
 	}
 
@@ -754,7 +1944,41 @@ public class Safe implements Closeable
 
 	private static SecureRandom getSecureRandom()
 	{
-		return new SecureRandom();
+		return Ciphers.getSecureRandom();
+	}
+
+	/**
+	 * Format the offset of the table of contents. The value has a fixed width so the header can be updated in place
+	 *
+	 * @param offset
+	 * @return
+	 */
+	public static String formatTableOfContentsOffset(final long offset)
+	{
+		return String.format("%019d", offset);
+	}
+
+	/**
+	 * Update the offset of the table of contents in the header of the safe file
+	 *
+	 * @param safeFile:  the safe file
+	 * @param header:    the header written in the safe file
+	 * @param tocOffset: offset of the table of contents
+	 * @throws Exception
+	 */
+	private static void writeTableOfContentsOffset(final RandomAccessFile safeFile, final Map<String, String> header, final long tocOffset) throws Exception
+	{
+		final Map<String, String> updated = new LinkedHashMap<>(header);
+		updated.put(TOC_OFFSET_LABEL, formatTableOfContentsOffset(tocOffset));
+		final byte[] json = GSON.toJson(updated).getBytes(StandardCharsets.UTF_8);
+
+		final long position = safeFile.getFilePointer();
+		safeFile.seek(HASHER.getHashLength());
+		if(safeFile.readLong() != json.length)
+			throw new IllegalStateException("Header length mismatch. Table of contents offset cannot be written");
+
+		safeFile.write(json);
+		safeFile.seek(position);
 	}
 
 	/**
@@ -814,6 +2038,24 @@ public class Safe implements Closeable
 	 */
 	public static byte[] computeHash(final RandomAccessFile safeFile, final Cipher cipher, final int ivLength, final Key encryptionKey, final int bufferSize,
 			TaskProbe probe) throws Exception
+	{
+		return computeHash(safeFile, safeFile.length(), cipher, ivLength, encryptionKey, bufferSize, probe);
+	}
+
+	/**
+	 * Compute the hash value of the first <code>end</code> bytes of {@link Safe} file
+	 *
+	 * @param safeFile
+	 * @param end:          end of the committed data
+	 * @param cipher
+	 * @param ivLength
+	 * @param encryptionKey
+	 * @param bufferSize
+	 * @return
+	 * @throws Exception
+	 */
+	public static byte[] computeHash(final RandomAccessFile safeFile, final long end, final Cipher cipher, final int ivLength, final Key encryptionKey, final int bufferSize,
+			TaskProbe probe) throws Exception
 	{
 		if(probe == null)
 			probe = TaskProbe.DULL_PROBE;
@@ -822,69 +2064,103 @@ public class Safe implements Closeable
 		{
 			final long previousPosition = safeFile.getFilePointer();
 
-			final byte[] buffer = new byte[bufferSize];
-			final byte[] bufferDecrypted = new byte[bufferSize];
-
-			safeFile.seek(HASHER.getHashLength());
-			final ByteBuffer byteBuffer = ByteBuffer.allocate((int) (safeFile.length() - safeFile.getFilePointer()));
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-			long length = safeFile.readLong();
-			byteBuffer.putLong(length);
-
-			// header
-			baos.reset();
-			SafeIO.copy(safeFile, length, baos, buffer, probe);
-			byteBuffer.put(baos.toByteArray());
-			byteBuffer.putLong(safeFile.readLong());// header's data length 0
-
-			probe.checkCancel();
-
-			// properties
-			safeFile.read(buffer, 0, ivLength);// read properties iv
-			byteBuffer.put(buffer, 0, ivLength);
+			final byte[] buffer = BufferPool.DEFAULT.acquire(bufferSize);
+			final byte[] bufferDecrypted = BufferPool.DEFAULT.acquire(bufferSize);
+			try
+			{
+				final Hasher hasher = new SHA256();
 
-			IvParameterSpec iv = new IvParameterSpec(Arrays.copyOf(buffer, ivLength));
-			cipher.init(Cipher.DECRYPT_MODE, encryptionKey, iv);
+				safeFile.seek(HASHER.getHashLength());
+				final long hashedLength = end - safeFile.getFilePointer();
+				long total = 0;
 
-			length = safeFile.readLong();
-			byteBuffer.putLong(length);
+				long length = safeFile.readLong();
+				hasher.update(length);
+				total += Long.BYTES;
 
-			baos.reset();
-			SafeIO.decrypt(safeFile, length, cipher, baos, buffer, bufferDecrypted);
-			byteBuffer.put(baos.toByteArray());
-			byteBuffer.putLong(safeFile.readLong());// properties data length 0
+				// header
+				total += SafeIO.copy(safeFile, length, hasher, buffer, probe);
+				hasher.update(safeFile.readLong());// header's data length 0
+				total += Long.BYTES;
 
-			probe.checkCancel();
+				probe.checkCancel();
 
-			// blocks
-			while(safeFile.getFilePointer() < safeFile.length())
-			{
+				// properties
 				safeFile.read(buffer, 0, ivLength);// read properties iv
-				byteBuffer.put(buffer, 0, ivLength);
-				iv = new IvParameterSpec(Arrays.copyOf(buffer, ivLength));
+				hasher.update(buffer, 0, ivLength);
+				total += ivLength;
+
+				IvParameterSpec iv = new IvParameterSpec(Arrays.copyOf(buffer, ivLength));
 				cipher.init(Cipher.DECRYPT_MODE, encryptionKey, iv);
 
-				// read metadata
 				length = safeFile.readLong();
-				byteBuffer.putLong(length);
-				baos.reset();
-				SafeIO.decrypt(safeFile, length, cipher, baos, buffer, bufferDecrypted);
-				byteBuffer.put(baos.toByteArray());
+				hasher.update(length);
+				total += Long.BYTES;
+
+				total += SafeIO.decrypt(safeFile, length, cipher, hasher, buffer, bufferDecrypted, probe);
+				hasher.update(safeFile.readLong());// properties data length 0
+				total += Long.BYTES;
 
 				probe.checkCancel();
 
-				// read data
-				length = safeFile.readLong();
-				byteBuffer.putLong(length);
-				baos.reset();
-				SafeIO.decrypt(safeFile, length, cipher, baos, buffer, bufferDecrypted);
-				byteBuffer.put(baos.toByteArray());
-			}
+				// blocks
+				final FileChannel channel = safeFile.getChannel();
+				final ByteBuffer frameBuffer = ByteBuffer.allocate(BlockFrame.DEFAULT_READ_SIZE);
+				long offset = safeFile.getFilePointer();
+				while(offset < end)
+				{
+					final BlockFrame frame = BlockFrame.read(channel, offset, end, ivLength, frameBuffer);
+					hasher.update(frame.getIV());
+					total += ivLength;
+					iv = new IvParameterSpec(frame.getIV());
+					cipher.init(Cipher.DECRYPT_MODE, encryptionKey, iv);
+
+					// metadata
+					hasher.update(frame.getMetaLength());
+					total += Long.BYTES;
+					final byte[] metadata = cipher.doFinal(frame.getMetadata());
+					hasher.update(metadata);
+					total += metadata.length;
+					final Map<String, String> properties = GSON.fromJson(new String(metadata), MAP_STRING_STRING_TYPE);
+
+					// data
+					length = frame.getDataLength();
+					hasher.update(length);
+					total += Long.BYTES;
+					final long dataOffset = frame.getDataOffset();
+					if(ChunkedData.isChunked(properties))
+						total += ChunkedData.decrypt(SafeIO.source(channel), dataOffset, length, ChunkedData.deriveKey(encryptionKey, iv.getIV()),
+								ChunkedData.getChunkSize(properties), SafeIO.toOutputStream(hasher), probe);
+					else if(isParallelDecryption(cipher, length))
+						total += SafeIO.decrypt(SafeIO.source(channel), dataOffset, length, cipher.getAlgorithm(), encryptionKey, iv.getIV(), SafeIO.toOutputStream(hasher),
+								SafeIO.PARALLEL_SEGMENT_SIZE, ForkJoinPool.commonPool(), probe);
+					else
+					{
+						safeFile.seek(dataOffset);
+						total += SafeIO.decrypt(safeFile, length, cipher, hasher, buffer, bufferDecrypted, probe);
+					}
+
+					offset = dataOffset + length;
+				}
+
+				// The hash covers a region as long as the file (minus the hash itself). Clear data being shorter than encrypted data because of padding, the remaining is zero filled
+				Arrays.fill(buffer, (byte) 0);
+				long remaining = hashedLength - total;
+				while(remaining > 0)
+				{
+					final int chunk = remaining < buffer.length ? (int) remaining : buffer.length;
+					hasher.update(buffer, 0, chunk);
+					remaining -= chunk;
+				}
 
-			safeFile.seek(previousPosition);
+				safeFile.seek(previousPosition);
 
-			return HASHER.hash(byteBuffer.array());
+				return hasher.digest();
+			} finally
+			{
+				BufferPool.DEFAULT.release(buffer);
+				BufferPool.DEFAULT.release(bufferDecrypted);
+			}
 
 		} catch(final CancellationException e)
 		{
@@ -910,6 +2186,22 @@ public class Safe implements Closeable
 	 * @throws Exception
 	 */
 	public static Safe open(final String safeFilePath, final char[] password, final int bufferSize, final Logger log) throws Exception
+	{
+		return open(safeFilePath, password, bufferSize, false, log);
+	}
+
+	/**
+	 * Open a {@link Safe}
+	 *
+	 * @param safeFilePath: path of the safe file
+	 * @param password:     password of the safe
+	 * @param bufferSize:   size of IO buffers
+	 * @param memoryMapped: extract blocks from a memory mapping of the safe file. See {@link Safe#Safe(File, SecretKey, int, boolean)}
+	 * @param log
+	 * @return
+	 * @throws Exception
+	 */
+	public static Safe open(final String safeFilePath, final char[] password, final int bufferSize, final boolean memoryMapped, final Logger log) throws Exception
 	{
 		final File file = new File(safeFilePath);
 
@@ -952,7 +2244,7 @@ public class Safe implements Closeable
 
 		final SecretKeySpec keySpec = new SecretKeySpec(key, header.get(Safe.KEY_ALGO_LABEL));
 
-		return new Safe(file, keySpec, bufferSize);
+		return new Safe(file, keySpec, bufferSize, memoryMapped);
 	}
 
 	/**
@@ -998,42 +2290,29 @@ public class Safe implements Closeable
 		if(!file.createNewFile())
 			throw new IOException("Could not create file " + file);
 
-		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
-
-		final byte[] buffer = new byte[bufferSize];
-		final byte[] bufferDecrypted = new byte[bufferSize];
+		final Map<String, String> header = new LinkedHashMap<>(publicHeader);
+		if(header.containsKey(TOC_OFFSET_LABEL))
+			header.put(TOC_OFFSET_LABEL, formatTableOfContentsOffset(0));
 
-		long total, position, previousPosition;
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
 
 		cipher.init(Cipher.ENCRYPT_MODE, keySpec, getSecureRandom());
 
 		raf.write(HASHER.getEmptyHash());// global hash
 
-		// header
-		position = raf.getFilePointer();
-		// no IV in header
-		raf.writeLong(0);
-		final String header = GSON.toJson(publicHeader);
-		total = SafeIO.copy(new ByteArrayInputStream(header.getBytes(StandardCharsets.UTF_8)), raf, buffer, TaskProbe.DULL_PROBE);
-		raf.writeLong(0);// no data in header block
+		// header, no IV and no data
+		new BlockFrame(raf.getFilePointer(), new byte[0], GSON.toJson(header).getBytes(StandardCharsets.UTF_8), 0).write(raf);
 
-		previousPosition = raf.getFilePointer();
-		raf.seek(position);
-		raf.writeLong(total);
-
-		raf.seek(previousPosition);
-
-		// properties
-		position = raf.getFilePointer();
-		raf.write(cipher.getIV());
+		// properties, no data
 		final String privatePropsJson = GSON.toJson(privateProperties == null ? new HashMap<>() : privateProperties);
-		previousPosition = raf.getFilePointer();
-		raf.writeLong(0L);
-		total = SafeIO.encrypt(new ByteArrayInputStream(privatePropsJson.getBytes(StandardCharsets.UTF_8)), cipher, raf, buffer, bufferDecrypted, TaskProbe.DULL_PROBE);
-		raf.writeLong(0);// no data in properties block
+		new BlockFrame(raf.getFilePointer(), cipher.getIV(), cipher.doFinal(privatePropsJson.getBytes(StandardCharsets.UTF_8)), 0).write(raf);
 
-		raf.seek(previousPosition);
-		raf.writeLong(total);
+		if(header.containsKey(TOC_OFFSET_LABEL))
+		{
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, getSecureRandom());
+			final long tocOffset = TableOfContents.write(new ArrayList<>(), raf, cipher);
+			writeTableOfContentsOffset(raf, header, tocOffset);
+		}
 
 		// write global hash
 		final byte[] hash = computeHash(raf, cipher, cipher.getIV().length, keySpec, bufferSize, null);
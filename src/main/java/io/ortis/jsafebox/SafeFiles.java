@@ -18,7 +18,6 @@
 package io.ortis.jsafebox;
 
 import java.util.Collection;
-import java.util.regex.Pattern;
 
 /**
  * Utility class for {@link SafeFile} handling
@@ -67,7 +66,7 @@ public abstract class SafeFiles
 	}
 
 	/**
-	 * Search all match of a path. To be used in case the path contains wildcard
+	 * Search all match of a path. To be used in case the path contains wildcard. The path is compiled into a {@link Glob}
 	 * 
 	 * @param path
 	 * @param current
@@ -93,19 +92,19 @@ public abstract class SafeFiles
 			final String [] comparableTokens = Environment.comparableString(path).split(Folder.REGEX_DELIMITER);
 
 			if (comparableTokens[0].trim().equals(Folder.ROOT_NAME))
-				searchSafePath(root, comparableTokens, 1, destination);
+				new Glob(comparableTokens, 1).match(root, destination);
 			else if (tokens[0].trim().equals("."))
 			{
 				// relative to current folder
-				searchSafePath(current, comparableTokens, 1, destination);
+				new Glob(comparableTokens, 1).match(current, destination);
 
 			} else if (tokens[0].trim().equals(".."))
 			{
 				// relative to parent folder
-				searchSafePath(current.getParent(), comparableTokens, 1, destination);
+				new Glob(comparableTokens, 1).match(current.getParent(), destination);
 			} else
 				// relative to current folder
-				searchSafePath(current, comparableTokens, 0, destination);
+				new Glob(comparableTokens, 0).match(current, destination);
 
 		}
 
@@ -113,45 +112,6 @@ public abstract class SafeFiles
 
 	}
 
-	private static <D extends Collection<SafeFile>> void searchSafePath(final Folder folder, final String [] tokens, final int index, final D destination)
-	{
-
-		final String token = tokens[index];
-		if (token.contains(Folder.WILDCARD))
-		{
-
-			for (final SafeFile sf : folder.listFiles())
-			{
-
-				final Pattern regex = Pattern.compile(token.toUpperCase(Environment.getLocale()).replace(Folder.WILDCARD, Folder.WILDCARD_REGEX));
-
-				if (regex.matcher(sf.getComparableName()).matches() && !destination.contains(sf))
-				{
-					if (index == tokens.length - 1)
-						destination.add(sf);
-					else if (sf.isFolder())
-						searchSafePath(((Folder) sf), tokens, index + 1, destination);
-
-				}
-			}
-
-		} else
-		{
-
-			for (final SafeFile sf : folder.listFiles())
-
-				if (sf.getComparableName().equals(token) && !destination.contains(sf))
-				{
-					if (index == tokens.length - 1)
-						destination.add(sf);
-					else if (sf.isFolder())
-						searchSafePath(((Folder) sf), tokens, index + 1, destination);
-				}
-
-		}
-
-	}
-
 	/**
 	 * Create all {@link Folder} required for the path
 	 * 
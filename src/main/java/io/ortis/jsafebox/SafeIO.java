@@ -18,12 +18,25 @@
 
 package io.ortis.jsafebox;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.Key;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
 
+import io.ortis.jsafebox.hash.Hasher;
 import io.ortis.jsafebox.task.TaskProbe;
 
 /**
@@ -34,6 +47,30 @@ import io.ortis.jsafebox.task.TaskProbe;
  */
 public abstract class SafeIO
 {
+	/**
+	 * Size of the segments decrypted concurrently by {@link SafeIO#decrypt(Source, long, long, String, Key, byte[], OutputStream, int, ForkJoinPool, TaskProbe)}
+	 */
+	public final static int PARALLEL_SEGMENT_SIZE = 1024 * 1024;
+
+	/**
+	 * Readable source of encrypted data
+	 */
+	public interface Source
+	{
+		/**
+		 * Fill <code>destination</code> with the bytes starting at <code>position</code>. Implementations must support concurrent reads
+		 */
+		void read(long position, ByteBuffer destination) throws IOException;
+	}
+
+	/**
+	 * Get a {@link Source} using positional reads of <code>channel</code>
+	 */
+	public static Source source(final FileChannel channel)
+	{
+		return (position, destination) -> readFully(channel, position, destination);
+	}
+
 	public static long encrypt(final InputStream data, final Cipher cipher, final RandomAccessFile destination, final byte [] buffer, final byte [] bufferDecrypted, final TaskProbe probe)
 			throws Exception
 	{
@@ -81,6 +118,223 @@ public abstract class SafeIO
 		destination.write(bufferDecrypted, 0, read);
 	}
 
+	/**
+	 * Decrypt <code>length</code> bytes of <code>source</code> starting at <code>position</code>. The position of the channel is not modified, which allows concurrent reads of the same file
+	 */
+	public static void decrypt(final FileChannel source, final long position, final long length, final Cipher cipher, final OutputStream destination, final byte [] bufferEncrypted,
+			final byte [] bufferDecrypted, final TaskProbe probe) throws Exception
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(bufferEncrypted);
+		long remaining = length;
+		int read;
+		while (remaining > 0)
+		{
+			buffer.clear();
+			if (remaining < bufferEncrypted.length)
+				buffer.limit((int) remaining);
+
+			read = source.read(buffer, position + length - remaining);
+			if (read < 0)
+				throw new EOFException("Unexpected end of file at " + (position + length - remaining));
+
+			remaining -= read;
+
+			read = cipher.update(bufferEncrypted, 0, read, bufferDecrypted);
+			destination.write(bufferDecrypted, 0, read);
+
+			probe.checkCancel();
+		}
+
+		read = cipher.doFinal(bufferDecrypted, 0);
+		destination.write(bufferDecrypted, 0, read);
+	}
+
+	/**
+	 * Decrypt <code>length</code> bytes of the mapped file <code>source</code> starting at <code>position</code>. The mapped segments are fed directly to the {@link Cipher}
+	 */
+	public static void decrypt(final MappedFile source, final long position, final long length, final Cipher cipher, final OutputStream destination, final byte [] bufferDecrypted,
+			final TaskProbe probe) throws Exception
+	{
+		final ByteBuffer output = ByteBuffer.wrap(bufferDecrypted);
+		long remaining = length;
+		while (remaining > 0)
+		{
+			// keep room for the bytes buffered by the cipher
+			int size = (int) Math.min(remaining, bufferDecrypted.length);
+			size -= Math.max(0, cipher.getOutputSize(size) - bufferDecrypted.length);
+			if (size <= 0)
+				throw new IllegalArgumentException("Buffer size " + bufferDecrypted.length + " is too small");
+
+			final ByteBuffer input = source.slice(position + length - remaining, size);
+			remaining -= input.remaining();
+
+			output.clear();
+			cipher.update(input, output);
+			destination.write(bufferDecrypted, 0, output.position());
+
+			probe.checkCancel();
+		}
+
+		final int read = cipher.doFinal(bufferDecrypted, 0);
+		destination.write(bufferDecrypted, 0, read);
+	}
+
+	/**
+	 * Check if data encrypted with <code>transformation</code> can be decrypted by segments. This is the case of the CBC mode where the IV of a segment is the last ciphertext block of the
+	 * previous segment
+	 */
+	public static boolean isSegmentable(final String transformation)
+	{
+		return transformation.toUpperCase(Locale.ENGLISH).contains("/CBC/");
+	}
+
+	/**
+	 * Decrypt <code>length</code> bytes of CBC encrypted data starting at <code>position</code> by segments of <code>segmentSize</code> bytes. Segments are read and decrypted concurrently on
+	 * <code>pool</code> and written in order to <code>destination</code>. At most twice the parallelism of the pool segments are in flight, the segments beyond the
+	 * first one being reserved from the budget of {@link BufferPool#DEFAULT}
+	 *
+	 * @param source:         encrypted data
+	 * @param position:       position of the encrypted data
+	 * @param length:         length of the encrypted data
+	 * @param transformation: transformation of the data, only the last segment is unpadded
+	 * @param key:            encryption key
+	 * @param iv:             IV of the data
+	 * @param destination:    destination of the clear data
+	 * @param segmentSize:    must be a multiple of the cipher block size
+	 * @param pool
+	 * @param probe
+	 * @return the number of decrypted bytes
+	 * @throws Exception
+	 */
+	public static long decrypt(final Source source, final long position, final long length, final String transformation, final Key key, final byte [] iv,
+			final OutputStream destination, final int segmentSize, final ForkJoinPool pool, final TaskProbe probe) throws Exception
+	{
+		final Cipher probeCipher = Ciphers.acquire(transformation);
+		final int blockSize = probeCipher.getBlockSize();
+		Ciphers.release(probeCipher);
+		if (!isSegmentable(transformation) || blockSize <= 0 || segmentSize % blockSize != 0)
+			throw new IllegalArgumentException("Transformation " + transformation + " cannot be decrypted by segments of " + segmentSize + " bytes");
+
+		final String unpadded = transformation.substring(0, transformation.lastIndexOf('/')) + "/NoPadding";
+		final long count = (length + segmentSize - 1) / segmentSize;
+		// every segment buffer has the same length so that the pooled buffers are reused, the clear segment is about as long
+		final int bufferLength = blockSize + segmentSize;
+		final long slot = 2L * bufferLength;
+		final int reserved = BufferPool.DEFAULT.reserve(slot, 2 * pool.getParallelism() - 1);
+		final int window = 1 + reserved;
+		final Deque<ForkJoinTask<byte []>> pending = new ArrayDeque<>();
+
+		long total = 0;
+		long next = 0;
+		try
+		{
+			while (next < count || !pending.isEmpty())
+			{
+				while (next < count && pending.size() < window)
+				{
+					final long start = next++ * segmentSize;
+					final int segmentLength = (int) Math.min(segmentSize, length - start);
+					final String segmentTransformation = start + segmentLength == length ? transformation : unpadded;
+					pending.add(pool.submit(() -> {
+						// the IV of a segment is the last ciphertext block of the previous one
+						final int ivLength = start == 0 ? 0 : blockSize;
+						final byte [] encrypted = BufferPool.DEFAULT.acquire(bufferLength);
+						final Cipher cipher = Ciphers.acquire(segmentTransformation);
+						try
+						{
+							source.read(position + start - ivLength, ByteBuffer.wrap(encrypted, 0, ivLength + segmentLength));
+							cipher.init(Cipher.DECRYPT_MODE, key, start == 0 ? new IvParameterSpec(iv) : new IvParameterSpec(encrypted, 0, blockSize));
+							return cipher.doFinal(encrypted, ivLength, segmentLength);
+						} finally
+						{
+							Ciphers.release(cipher, key);
+							BufferPool.DEFAULT.release(encrypted);
+						}
+					}));
+				}
+
+				final byte [] clear;
+				try
+				{
+					clear = pending.poll().get();
+				} catch (final ExecutionException e)
+				{
+					// checked exceptions of the segment are wrapped by the pool
+					Throwable cause = e.getCause();
+					while (cause instanceof RuntimeException && cause.getCause() != null)
+						cause = cause.getCause();
+					if (cause instanceof Exception)
+						throw (Exception) cause;
+					throw e;
+				}
+
+				destination.write(clear);
+				total += clear.length;
+
+				probe.checkCancel();
+			}
+		} finally
+		{
+			for (final ForkJoinTask<byte []> task : pending)
+				task.cancel(true);
+			// running segments still hold their buffers
+			for (final ForkJoinTask<byte []> task : pending)
+				task.quietlyJoin();
+			BufferPool.DEFAULT.unreserve(slot, reserved);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Fill <code>destination</code> with the bytes of <code>source</code> starting at <code>position</code> without modifying the position of the channel
+	 */
+	public static void readFully(final FileChannel source, final long position, final ByteBuffer destination) throws IOException
+	{
+		long offset = position;
+		while (destination.hasRemaining())
+		{
+			final int read = source.read(destination, offset);
+			if (read < 0)
+				throw new EOFException("Unexpected end of file at " + offset);
+			offset += read;
+		}
+	}
+
+	/**
+	 * Decrypt <code>length</code> bytes from <code>source</code> and feed the clear data into <code>hasher</code>
+	 * 
+	 * @return the number of decrypted bytes fed into the {@link Hasher}
+	 */
+	public static long decrypt(final RandomAccessFile source, final long length, final Cipher cipher, final Hasher hasher, final byte [] bufferEncrypted, final byte [] bufferDecrypted,
+			final TaskProbe probe) throws Exception
+	{
+		long total = 0;
+		long remaining = length;
+		int read;
+		while (remaining > 0)
+		{
+			if (remaining < bufferEncrypted.length)
+				read = source.read(bufferEncrypted, 0, (int) remaining);
+			else
+				read = source.read(bufferEncrypted, 0, bufferEncrypted.length);
+
+			remaining -= read;
+
+			read = cipher.update(bufferEncrypted, 0, read, bufferDecrypted);
+			hasher.update(bufferDecrypted, 0, read);
+			total += read;
+
+			probe.checkCancel();
+		}
+
+		read = cipher.doFinal(bufferDecrypted, 0);
+		hasher.update(bufferDecrypted, 0, read);
+		total += read;
+
+		return total;
+	}
+
 	public static long copy(final InputStream data, final RandomAccessFile destination, final byte [] buffer, final TaskProbe probe) throws Exception
 	{
 		long total = 0;
@@ -133,4 +387,76 @@ public abstract class SafeIO
 			probe.checkCancel();
 		}
 	}
+
+	public static long copy(final RandomAccessFile source, final long length, final Hasher hasher, final byte [] buffer, final TaskProbe probe) throws Exception
+	{
+		long remaining = length;
+		int read;
+		while (remaining > 0)
+		{
+			if (remaining < buffer.length)
+				read = source.read(buffer, 0, (int) remaining);
+			else
+				read = source.read(buffer, 0, buffer.length);
+
+			hasher.update(buffer, 0, read);
+
+			remaining -= read;
+
+			probe.checkCancel();
+		}
+
+		return length;
+	}
+
+	/**
+	 * Copy <code>length</code> bytes from <code>from</code> to <code>to</code> within the same file using positional IO. The copy is made forward so the regions may overlap as long as
+	 * <code>to</code> is lower than <code>from</code>
+	 */
+	public static long copy(final FileChannel channel, final long from, final long length, final long to, final ByteBuffer buffer, final TaskProbe probe) throws Exception
+	{
+		long done = 0;
+		while (done < length)
+		{
+			buffer.clear();
+			if (length - done < buffer.capacity())
+				buffer.limit((int) (length - done));
+
+			final int read = channel.read(buffer, from + done);
+			if (read < 0)
+				throw new EOFException("Unexpected end of file at " + (from + done));
+
+			buffer.flip();
+			long position = to + done;
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+
+			done += read;
+
+			probe.checkCancel();
+		}
+
+		return length;
+	}
+
+	/**
+	 * Get an {@link OutputStream} feeding the written bytes into <code>hasher</code>
+	 */
+	public static OutputStream toOutputStream(final Hasher hasher)
+	{
+		return new OutputStream()
+		{
+			@Override
+			public void write(final int b)
+			{
+				hasher.update(new byte[] { (byte) b });
+			}
+
+			@Override
+			public void write(final byte [] b, final int off, final int len)
+			{
+				hasher.update(b, off, len);
+			}
+		};
+	}
 }
@@ -0,0 +1,319 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.task.TaskProbe;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Generate realistic {@link Safe} content without real data, to size hardware and reproduce slowness. Blocks are spread over a tree of folders, their length and type are drawn from weighted
+ * {@link Distribution}s. Text types hold compressible words, the other types hold random bytes. The content only depends on the seed so a safe can be generated again identically
+ */
+public abstract class SyntheticSafe
+{
+	/**
+	 * Default block lengths and their weights
+	 */
+	public final static String DEFAULT_SIZES = "1K:40,16K:40,256K:18,4M:2";
+	/**
+	 * Default file extensions and their weights
+	 */
+	public final static String DEFAULT_TYPES = "txt:25,json:10,jpg:35,pdf:20,mp4:10";
+
+	private final static Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList("txt", "csv", "json", "xml", "html", "log", "md"));
+	private final static byte[][] WORDS;
+
+	static
+	{
+		final String[] words = {"safe ", "block ", "folder ", "the ", "of ", "and ", "data ", "key ", "encrypted ", "file ", "to ", "a ", "is ", "in ", "password ", "header ", "value ",
+				"length ", "offset ", "table ", "content ", "hash ", "save ", "open ", "chunk ", "stream ", "buffer ", "read ", "write ", "for ", "with ", "on ", "by ", "this ", "that ",
+				"metadata\n", "properties.\n", "{\"path\": ", "\"name\": ", "},\n"};
+		WORDS = new byte[words.length][];
+		for(int i = 0; i < words.length; i++)
+			WORDS[i] = words[i].getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Add <code>blockCount</code> synthetic blocks to the temporary safe file of <code>safe</code>, encrypting up to <code>threads</code> blocks concurrently. <b>The blocks are only written by a
+	 * save</b>
+	 *
+	 * @param fanOut:  number of sub folders per folder
+	 * @param depth:   depth of the folders holding the blocks. The blocks are stored in the root folder if 0
+	 * @param lengths: distribution of the block lengths
+	 * @param types:   distribution of the file extensions, defining the MIME type and the compressibility of the blocks
+	 * @param seed:    seed of the generation
+	 * @return the generated blocks
+	 * @throws Exception
+	 */
+	public static List<Block> generate(final Safe safe, final int blockCount, final int fanOut, final int depth, final Distribution<Long> lengths, final Distribution<String> types,
+			final long seed, final int threads, final TaskProbe probe) throws Exception
+	{
+		final long leafCount = getLeafCount(fanOut, depth);
+		for(long leaf = 0; leaf < Math.min(blockCount, leafCount); leaf++)
+		{
+			final String path = getFolderPath(leaf, fanOut, depth);
+			if(!path.equals(Folder.ROOT_NAME))
+				safe.getRootFolder().mkdir(path.split(Folder.REGEX_DELIMITER), 1, false);
+		}
+
+		final Random random = new Random(seed);
+		final List<BulkImport.Entry> entries = new ArrayList<>(blockCount);
+		for(int i = 0; i < blockCount; i++)
+		{
+			final long length = lengths.pick(random);
+			final String extension = types.pick(random);
+			final long dataSeed = random.nextLong();
+			final String path = getFolderPath(i % leafCount, fanOut, depth) + Folder.DELIMITER + "file" + i + "." + extension;
+
+			entries.add(new BulkImport.Entry(null, getProperties(path))
+			{
+				@Override
+				public InputStream openInputStream()
+				{
+					return new SyntheticInputStream(length, dataSeed, isText(extension));
+				}
+
+				@Override
+				public long getLength()
+				{
+					return length;
+				}
+			});
+		}
+
+		return BulkImport.add(safe, entries, threads, probe);
+	}
+
+	/**
+	 * Get the metadata of a synthetic block
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static Map<String, String> getProperties(final String path)
+	{
+		final String name = SafeFiles.getName(path);
+		final Map<String, String> properties = new LinkedHashMap<>();
+		properties.put(Block.PATH_LABEL, path);
+		properties.put(Block.NAME_LABEL, name);
+		properties.put(Block.MIME_LABEL, Utils.getMIMEType(name));
+		return properties;
+	}
+
+	/**
+	 * Get the path of a folder holding blocks
+	 *
+	 * @param leaf:   index of the folder
+	 * @param fanOut: number of sub folders per folder
+	 * @param depth:  depth of the folder
+	 * @return
+	 */
+	public static String getFolderPath(long leaf, final int fanOut, final int depth)
+	{
+		final StringBuilder sb = new StringBuilder(Folder.ROOT_NAME);
+		for(int level = 0; level < depth; level++)
+		{
+			sb.append(Folder.DELIMITER).append("folder").append(leaf % fanOut);
+			leaf /= fanOut;
+		}
+		return sb.toString();
+	}
+
+	private static long getLeafCount(final int fanOut, final int depth)
+	{
+		if(fanOut < 1)
+			throw new IllegalArgumentException("Fan-out must be greater than 0");
+		if(depth < 0)
+			throw new IllegalArgumentException("Depth must be positive");
+
+		long count = 1;
+		for(int level = 0; level < depth && count < Integer.MAX_VALUE; level++)
+			count *= fanOut;
+		return count;
+	}
+
+	/**
+	 * Check if the data of a file extension is text
+	 *
+	 * @param extension
+	 * @return
+	 */
+	public static boolean isText(final String extension)
+	{
+		return TEXT_EXTENSIONS.contains(extension.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Parse a length with an optional K, M or G binary suffix
+	 *
+	 * @param length
+	 * @return
+	 */
+	public static long parseLength(final String length)
+	{
+		final String value = length.trim().toUpperCase(Locale.ROOT);
+		final int shift;
+		switch(value.isEmpty() ? ' ' : value.charAt(value.length() - 1))
+		{
+			case 'K':
+				shift = 10;
+				break;
+			case 'M':
+				shift = 20;
+				break;
+			case 'G':
+				shift = 30;
+				break;
+			default:
+				return Long.parseLong(value);
+		}
+
+		return Long.parseLong(value.substring(0, value.length() - 1).trim()) << shift;
+	}
+
+	/**
+	 * Data of a synthetic block
+	 */
+	public static class SyntheticInputStream extends InputStream
+	{
+		private final Random random;
+		private final boolean text;
+		private long remaining;
+		private byte[] word = new byte[0];
+		private int wordPosition;
+
+		public SyntheticInputStream(final long length, final long seed, final boolean text)
+		{
+			this.random = new Random(seed);
+			this.text = text;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read()
+		{
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+		{
+			if(this.remaining <= 0)
+				return -1;
+
+			final int count = (int) Math.min(len, this.remaining);
+			if(this.text)
+				for(int i = 0; i < count; i++)
+				{
+					if(this.wordPosition >= this.word.length)
+					{
+						this.word = WORDS[this.random.nextInt(WORDS.length)];
+						this.wordPosition = 0;
+					}
+					b[off + i] = this.word[this.wordPosition++];
+				}
+			else
+				for(int i = 0; i < count; )
+					for(long value = this.random.nextLong(), n = 0; n < 8 && i < count; n++, value >>>= 8)
+						b[off + i++] = (byte) value;
+
+			this.remaining -= count;
+			return count;
+		}
+	}
+
+	/**
+	 * Weighted distribution of values, parsed from a list of <code>value:weight</code> separated by commas. The weight defaults to 1
+	 */
+	public static class Distribution<T>
+	{
+		private final List<T> values;
+		private final double[] cumulativeWeights;
+
+		public Distribution(final List<T> values, final double[] weights)
+		{
+			if(values.isEmpty() || values.size() != weights.length)
+				throw new IllegalArgumentException("Each value must have a weight");
+
+			this.values = new ArrayList<>(values);
+			this.cumulativeWeights = new double[weights.length];
+			double total = 0;
+			for(int i = 0; i < weights.length; i++)
+			{
+				if(!(weights[i] > 0))
+					throw new IllegalArgumentException("Weight of " + values.get(i) + " must be greater than 0");
+				total += weights[i];
+				this.cumulativeWeights[i] = total;
+			}
+		}
+
+		/**
+		 * Draw a value
+		 *
+		 * @param random
+		 * @return
+		 */
+		public T pick(final Random random)
+		{
+			final double target = random.nextDouble() * this.cumulativeWeights[this.cumulativeWeights.length - 1];
+			int index = Arrays.binarySearch(this.cumulativeWeights, target);
+			if(index < 0)
+				index = -index - 1;
+			return this.values.get(Math.min(index, this.values.size() - 1));
+		}
+
+		public List<T> getValues()
+		{
+			return this.values;
+		}
+
+		public static <T> Distribution<T> parse(final String specification, final Function<String, T> parser)
+		{
+			final List<T> values = new ArrayList<>();
+			final String[] entries = specification.split(",");
+			final double[] weights = new double[entries.length];
+			for(int i = 0; i < entries.length; i++)
+			{
+				final int separator = entries[i].lastIndexOf(':');
+				try
+				{
+					values.add(parser.apply((separator < 0 ? entries[i] : entries[i].substring(0, separator)).trim()));
+					weights[i] = separator < 0 ? 1 : Double.parseDouble(entries[i].substring(separator + 1).trim());
+				} catch(final RuntimeException e)
+				{
+					throw new IllegalArgumentException("Invalid distribution entry '" + entries[i].trim() + "'", e);
+				}
+			}
+
+			return new Distribution<>(values, weights);
+		}
+	}
+}
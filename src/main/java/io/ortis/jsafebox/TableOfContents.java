@@ -0,0 +1,249 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import com.google.gson.reflect.TypeToken;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.*;
+
+/**
+ * Utility class for the encrypted table of contents of a {@link Safe}. The table of contents is stored as a block of the safe file: [ IV | metadata length | metadata | data length | data ]
+ * where 'metadata' only contains the {@link TableOfContents#TOC_LABEL} entry and 'data' is the JSON list of the location and metadata of every live block. The current table of contents marks
+ * the end of the committed data: anything written after it belongs to an interrupted save. Deletions made by incremental saves are recorded as tombstone blocks whose metadata only contains the
+ * {@link TableOfContents#TOMBSTONE_LABEL} entry
+ */
+public abstract class TableOfContents
+{
+	public final static String TOC_LABEL = "table of contents";
+	public final static String TOC_VERSION = "1";
+	public final static String TOMBSTONE_LABEL = "deleted";
+
+	private static final Type MAP_STRING_STRING_TYPE = new TypeToken<Map<String, String>>()
+	{
+	}.getType();
+	private static final Type ENTRY_LIST_TYPE = new TypeToken<List<Entry>>()
+	{
+	}.getType();
+
+	/**
+	 * Location and metadata of a {@link Block}
+	 */
+	public static class Entry
+	{
+		private final long offset;
+		private final long length;
+		private final long metaOffset;
+		private final long metaLength;
+		private final long dataOffset;
+		private final long dataLength;
+		private final Map<String, String> properties;
+
+		/**
+		 * Create an entry for a {@link Block} relocated at <code>offset</code>
+		 *
+		 * @param block:  the block
+		 * @param offset: offset of the block in the destination file
+		 */
+		public Entry(final Block block, final long offset)
+		{
+			final long delta = offset - block.getOffset();
+			this.offset = offset;
+			this.length = block.getLength();
+			this.metaOffset = block.getMetaOffset() + delta;
+			this.metaLength = block.getMetaLength();
+			this.dataOffset = block.getDataOffset() + delta;
+			this.dataLength = block.getDataLength();
+			this.properties = new LinkedHashMap<>(block.getProperties());
+		}
+
+		public String getPath()
+		{
+			return this.properties == null ? null : this.properties.get(Block.PATH_LABEL);
+		}
+
+		public long getOffset()
+		{
+			return offset;
+		}
+
+		public long getLength()
+		{
+			return length;
+		}
+
+		public long getMetaOffset()
+		{
+			return metaOffset;
+		}
+
+		public long getMetaLength()
+		{
+			return metaLength;
+		}
+
+		public long getDataOffset()
+		{
+			return dataOffset;
+		}
+
+		public long getDataLength()
+		{
+			return dataLength;
+		}
+
+		public Map<String, String> getProperties()
+		{
+			return properties;
+		}
+	}
+
+	/**
+	 * Check if the metadata of a block are the one of a table of contents
+	 *
+	 * @param metadata
+	 * @return
+	 */
+	public static boolean isTableOfContents(final Map<String, String> metadata)
+	{
+		return metadata != null && metadata.containsKey(TOC_LABEL) && !metadata.containsKey(Block.PATH_LABEL);
+	}
+
+	/**
+	 * Check if the metadata of a block are the one of a tombstone
+	 *
+	 * @param metadata
+	 * @return
+	 */
+	public static boolean isTombstone(final Map<String, String> metadata)
+	{
+		return metadata != null && metadata.containsKey(TOMBSTONE_LABEL) && !metadata.containsKey(Block.PATH_LABEL);
+	}
+
+	/**
+	 * Write a tombstone for the {@link Block} at the current position of <code>destination</code>
+	 *
+	 * @param block:       the deleted block
+	 * @param destination: the safe file
+	 * @param cipher:      cipher initialized in encryption mode
+	 * @return the offset of the tombstone
+	 * @throws Exception
+	 */
+	public static long writeTombstone(final Block block, final RandomAccessFile destination, final Cipher cipher) throws Exception
+	{
+		final Map<String, String> metadata = new LinkedHashMap<>();
+		metadata.put(TOMBSTONE_LABEL, block.getPath());
+
+		return write(metadata, new byte[0], destination, cipher);
+	}
+
+	/**
+	 * Write the table of contents at the current position of <code>destination</code>
+	 *
+	 * @param entries:     entries of the table of contents
+	 * @param destination: the safe file
+	 * @param cipher:      cipher initialized in encryption mode
+	 * @return the offset of the table of contents
+	 * @throws Exception
+	 */
+	public static long write(final Collection<Entry> entries, final RandomAccessFile destination, final Cipher cipher) throws Exception
+	{
+		final Map<String, String> metadata = new LinkedHashMap<>();
+		metadata.put(TOC_LABEL, TOC_VERSION);
+
+		return write(metadata, Safe.GSON.toJson(entries, ENTRY_LIST_TYPE).getBytes(StandardCharsets.UTF_8), destination, cipher);
+	}
+
+	private static long write(final Map<String, String> metadata, final byte[] data, final RandomAccessFile destination, final Cipher cipher) throws Exception
+	{
+		final byte[] encryptedMetadata = cipher.doFinal(Safe.GSON.toJson(metadata).getBytes(StandardCharsets.UTF_8));
+		final byte[] encryptedData = cipher.doFinal(data);
+
+		final BlockFrame frame = new BlockFrame(destination.getFilePointer(), cipher.getIV(), encryptedMetadata, encryptedData.length);
+		frame.write(destination);
+		destination.write(encryptedData);
+
+		return frame.getOffset();
+	}
+
+	/**
+	 * Read and validate the table of contents. The table of contents is considered stale if its entries are overlapping or out of the block region. On success, the file pointer is left at the end
+	 * of the table of contents, which is the end of the committed data
+	 *
+	 * @param source:       the safe file
+	 * @param offset:       offset of the table of contents
+	 * @param blocksOffset: offset of the first block
+	 * @param cipher
+	 * @param key
+	 * @param ivLength
+	 * @return
+	 * @throws Exception if the table of contents cannot be read or is stale
+	 */
+	public static List<Entry> read(final RandomAccessFile source, final long offset, final long blocksOffset, final Cipher cipher, final Key key, final int ivLength,
+			final byte[] buffer, final byte[] bufferDecrypted) throws Exception
+	{
+		if(offset < blocksOffset || offset >= source.length())
+			throw new IllegalStateException("Table of contents offset " + offset + " is out of bound");
+
+		final BlockFrame frame = BlockFrame.read(source.getChannel(), offset, source.length(), ivLength, ByteBuffer.wrap(buffer));
+		cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(frame.getIV()));
+		final Map<String, String> metadata = Safe.GSON.fromJson(new String(cipher.doFinal(frame.getMetadata()), StandardCharsets.UTF_8), MAP_STRING_STRING_TYPE);
+
+		if(!isTableOfContents(metadata))
+			throw new IllegalStateException("Block at " + offset + " is not a table of contents");
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		source.seek(frame.getDataOffset());
+		SafeIO.decrypt(source, frame.getDataLength(), cipher, baos, buffer, bufferDecrypted);
+		final List<Entry> entries = Safe.GSON.fromJson(new String(baos.toByteArray(), StandardCharsets.UTF_8), ENTRY_LIST_TYPE);
+
+		if(entries == null)
+			throw new IllegalStateException("Table of contents is empty");
+
+		// check that entries are within the block region and do not overlap
+		final List<Entry> sorted = new ArrayList<>(entries);
+		sorted.sort(Comparator.comparingLong(Entry::getOffset));
+		final Set<String> paths = new HashSet<>();
+		long end = blocksOffset;
+		for(final Entry entry : sorted)
+		{
+			if(entry.getPath() == null)
+				throw new IllegalStateException("Path of entry starting at " + entry.getOffset() + " is not set");
+
+			if(!paths.add(Environment.comparableString(entry.getPath())))
+				throw new IllegalStateException("Entry " + entry.getPath() + " is duplicated");
+
+			if(entry.getOffset() < end || entry.getLength() <= 0 || entry.getOffset() + entry.getLength() > offset)
+				throw new IllegalStateException("Entry " + entry.getPath() + " is out of bound");
+
+			if(entry.getMetaOffset() < entry.getOffset() || entry.getDataOffset() + entry.getDataLength() != entry.getOffset() + entry.getLength())
+				throw new IllegalStateException("Entry " + entry.getPath() + " is not consistent");
+
+			end = entry.getOffset() + entry.getLength();
+		}
+
+		return entries;
+	}
+}
@@ -26,6 +26,7 @@ import picocli.CommandLine.Parameters;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
@@ -38,7 +39,7 @@ import java.util.logging.Logger;
  * 2018 Apr 26 8:17:40 PM <br>
  */
 @Command(description = "Add file", name = "add", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
-public class Add implements Callable<Void>
+public class Add implements Callable<Void>, SafeCommand
 {
 	@Option(names = {"-pw", "-pwd", "--password"}, required = true, description = "Password")
 	private String password;
@@ -49,8 +50,14 @@ public class Add implements Callable<Void>
 	@Option(names = {"-m", "--mkdir"}, description = "Create destination folder if necessary")
 	private boolean mkdir;
 
-	@Option(names = {"-b", "--buffer"}, description = "Read buffer size")
-	private int bufferSize = 1024;
+	@Option(names = {"-b", "--buffer"}, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = {"-t", "--threads"}, description = "Number of files encrypted concurrently")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Option(names = {"-c", "--compact"}, description = "Compact the safe file when the ratio of dead bytes exceeds this threshold")
+	private double compactRatio = CompactionPolicy.DEFAULT_DEAD_RATIO;
 
 	@Parameters(index = "0", description = "System path of safe file")
 	private String safeFile;
@@ -66,63 +73,167 @@ public class Add implements Callable<Void>
 
 		try(final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
 		{
+			run(safe, log, System.out).close();
+		} catch(final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
 
-			final String destination = this.paths[this.paths.length - 1];
+		return null;
+	}
 
-			SafeFile file = SafeFiles.get(destination, safe.getRootFolder(), safe.getRootFolder());
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		add(safe, this.paths, this.properties, this.mkdir, this.threads, log);
 
-			if(file == null)
-				if(this.mkdir)
-				{
-					SafeFiles.mkdir(destination, false, safe.getRootFolder(), safe.getRootFolder());
-					file = SafeFiles.get(destination, safe.getRootFolder(), safe.getRootFolder());
-				}
-				else
-					throw new Exception("Destination folder '" + destination + "' does not exists");
+		log.info("Writing safebox file...");
+		final Safe savedSafe = safe.saveIncremental(null);
+		final CompactionPolicy policy = new CompactionPolicy(this.compactRatio, CompactionPolicy.DEFAULT_MIN_DEAD_LENGTH);
+		if(policy.isCompactionRequired(savedSafe))
+			log.info("Compacting safebox file...");
+		final Safe compacted = policy.apply(savedSafe, null);
+		log.info("Done");
 
-			final Folder folder = (Folder) file;
+		return compacted;
+	}
 
-			final Map<String, String> properties = new HashMap<>();
-			if(this.properties != null)
-				for(int i = 0; i < this.properties.length; i += 2)
-				{
-					final String key = this.properties[i];
-					final String value = this.properties[i + 1];
-					log.info("Adding property entry '" + key + "' -> '" + value + "'");
-					properties.put(key, value);
-				}
+	/**
+	 * Add the system files matching <code>paths</code>. <b>The files are only written by a save</b>
+	 *
+	 * @param paths:      paths of system's source files followed by the safe's destination folder
+	 * @param properties: property keys and values, may be <code>null</code>
+	 * @param mkdir:      create the destination folder if necessary
+	 */
+	public static void add(final Safe safe, final String[] paths, final String[] properties, final boolean mkdir, final int threads, final Logger log) throws Exception
+	{
+		final String destination = paths[paths.length - 1];
 
-			final java.util.List<File> sources = new ArrayList<>();
+		SafeFile file = SafeFiles.get(destination, safe.getRootFolder(), safe.getRootFolder());
 
-			for(int i = 0; i < this.paths.length - 1; i++)
-				Utils.parseSystemPath(this.paths[i], sources);
+		if(file == null)
+			if(mkdir)
+			{
+				SafeFiles.mkdir(destination, false, safe.getRootFolder(), safe.getRootFolder());
+				file = SafeFiles.get(destination, safe.getRootFolder(), safe.getRootFolder());
+			}
+			else
+				throw new Exception("Destination folder '" + destination + "' does not exists");
 
-			for(final File source : sources)
-				if(!source.exists())
-					throw new Exception("File '" + source + "' does not exist");
+		final Folder folder = (Folder) file;
 
-			for(final File source : sources)
+		final Map<String, String> fileProperties = new HashMap<>();
+		if(properties != null)
+			for(int i = 0; i < properties.length; i += 2)
 			{
-				final Map<String, String> props = new TreeMap<>(properties);
-				log.info("Encrypting " + source);
-				add(source, props, safe, folder, null, null);
+				final String key = properties[i];
+				final String value = properties[i + 1];
+				log.info("Adding property entry '" + key + "' -> '" + value + "'");
+				fileProperties.put(key, value);
 			}
 
-			log.info("Writing safebox file...");
-			safe.save().close();
-			log.info("Done");
+		final java.util.List<File> sources = new ArrayList<>();
 
-		} catch(final Exception e)
+		for(int i = 0; i < paths.length - 1; i++)
+			Utils.parseSystemPath(paths[i], sources);
+
+		for(final File source : sources)
+			if(!source.exists())
+				throw new Exception("File '" + source + "' does not exist");
+
+		log.info("Encrypting " + sources.size() + " source(s) using " + threads + " thread(s)");
+		add(sources, new TreeMap<>(fileProperties), safe, folder, null, threads, null);
+	}
+
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+		// the last path is the destination folder of the safe
+		for(int i = 0; i < this.paths.length - 1; i++)
+			this.paths[i] = SafeCommand.resolve(workingDirectory, this.paths[i]);
+	}
+
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
+
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return false;
+	}
+
+	/**
+	 * Add <code>sources</code> recursively into <code>folder</code>, encrypting up to <code>threads</code> files concurrently
+	 *
+	 * @return <code>destination</code>, filled with the created folders and blocks
+	 */
+	public static <D extends Collection<SafeFile>> D add(final java.util.List<File> sources, final Map<String, String> properties, final Safe safe, final Folder folder, final D destination,
+			final int threads, TaskProbeAdapter adapter) throws CancellationException, Exception
+	{
+		if(adapter == null)
+			adapter = new TaskProbeAdapter();
+
+		if(threads <= 1)
 		{
-			log.severe(Utils.formatException(e));
+			for(final File source : sources)
+				add(source, properties, safe, folder, destination, adapter);
+			return destination;
 		}
 
-		return null;
+		try
+		{
+			final java.util.List<BulkImport.Entry> entries = new ArrayList<>();
+			for(final File source : sources)
+				listEntries(source, properties, folder, destination, entries);
+
+			final java.util.List<Block> blocks = BulkImport.add(safe, entries, threads, adapter);
+			if(destination != null)
+				destination.addAll(blocks);
+
+			return destination;
+		} catch(final CancellationException e)
+		{
+			if(!adapter.isCancelled())
+				adapter.fireCanceled();
+			throw e;
+		} catch(final Exception e)
+		{
+			if(adapter.getException() == null)
+				adapter.fireException(e);
+			throw e;
+		}
 	}
 
+	private static <D extends Collection<SafeFile>> void listEntries(final File source, final Map<String, String> properties, final Folder folder, final D destination,
+			final java.util.List<BulkImport.Entry> entries) throws Exception
+	{
+		if(source.isDirectory())
+		{
+			final Folder currentFolder = recursiveMkdir(source, folder, destination);
+			for(final File file : source.listFiles())
+				listEntries(file, properties, currentFolder, destination, entries);
+		}
+		else
+			entries.add(new BulkImport.Entry(source, getProperties(source.getName(), properties, folder)));
+	}
 
-	public static SafeFile add(final InputStream sourceInputStream, final String sourceName, final Map<String, String> properties, final Safe safe, final Folder folder,
-			TaskProbeAdapter adapter) throws CancellationException, Exception
+	private static Map<String, String> getProperties(final String sourceName, final Map<String, String> properties, final Folder folder)
 	{
 		final Map<String, String> props = properties == null ? new LinkedHashMap<>() : new LinkedHashMap<>(properties);
 
@@ -130,9 +241,23 @@ public class Add implements Callable<Void>
 		props.put(Block.NAME_LABEL, Utils.sanitizeToken(sourceName, Environment.getSubstitute()));
 		props.put(Block.MIME_LABEL, Utils.getMIMEType(sourceName));
 
+		return props;
+	}
+
+	public static SafeFile add(final InputStream sourceInputStream, final String sourceName, final Map<String, String> properties, final Safe safe, final Folder folder,
+			TaskProbeAdapter adapter) throws CancellationException, Exception
+	{
+		return add(sourceInputStream, -1, sourceName, properties, safe, folder, adapter);
+	}
+
+	public static SafeFile add(final InputStream sourceInputStream, final long sourceLength, final String sourceName, final Map<String, String> properties, final Safe safe,
+			final Folder folder, TaskProbeAdapter adapter) throws CancellationException, Exception
+	{
+		final Map<String, String> props = getProperties(sourceName, properties, folder);
+
 		adapter.fireMessage("Encrypting " + sourceName + " to " + props.get(Block.PATH_LABEL));
 
-		final Block block = safe.add(props, sourceInputStream, adapter);
+		final Block block = safe.add(props, sourceInputStream, sourceLength, adapter);
 
 		return block;
 	}
@@ -192,7 +317,7 @@ public class Add implements Callable<Void>
 
 				try(final FileInputStream fis = new FileInputStream(source))
 				{
-					final SafeFile safeFile = add(fis, source.getName(), properties, safe, folder, adapter);
+					final SafeFile safeFile = add(fis, source.length(), source.getName(), properties, safe, folder, adapter);
 					if(destination != null)
 						destination.add(safeFile);
 				}
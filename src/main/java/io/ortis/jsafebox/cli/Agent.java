@@ -0,0 +1,560 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.cli;
+
+import io.ortis.jsafebox.CLIHandler;
+import io.ortis.jsafebox.Ciphers;
+import io.ortis.jsafebox.Environment;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.Utils;
+import io.ortis.jsafebox.Version;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-running process keeping {@link Safe} opened across CLI calls, so that the key derivation and the reading of the metadata are only paid once per safe. The agent listens on the
+ * loopback interface. Its port and a random token are written in the agent file, readable by the owner only: {@link Bootstrap} forwards the arguments of every {@link SafeCommand} to the
+ * agent when the file exists and the agent answers. A {@link Safe} unused for the idle timeout is closed: the {@link Ciphers} cached for its key are dropped on every thread and the agent releases its
+ * references to the safe. The key and the forwarded passwords are not wiped, they stay on the heap until garbage collected
+ */
+@Command(description = "Keep safes unlocked and serve the other commands", name = "agent", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
+public class Agent implements Callable<Void>
+{
+	public final static String AGENT_FILE_PROPERTY = "jsafebox.agent.file";
+	public final static long DEFAULT_IDLE_TIMEOUT = 15 * 60;
+
+	private final static String PORT_LABEL = "port";
+	private final static String TOKEN_LABEL = "token";
+	private final static String PASSWORD_VERIFIER = "HmacSHA256";
+	private final static int CONNECT_TIMEOUT = 1000;
+	private final static int MAX_ARGUMENTS = 4096;
+
+	@Option(names = {"-p", "--port"}, description = "Port listened on the loopback interface, 0 for any free port")
+	private int port = 0;
+
+	@Option(names = {"-i", "--idle"}, description = "Number of seconds after which an unused safe is closed and its cached ciphers dropped")
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	@Option(names = {"-s", "--stop"}, description = "Stop the running agent")
+	private boolean stop;
+
+	private final Map<String, Session> sessions = new LinkedHashMap<>();
+	private final byte[] secret = new byte[32];
+	private String token;
+	private ServerSocket server;
+	private ExecutorService executor;
+	private ScheduledExecutorService sweeper;
+
+	public Agent()
+	{
+	}
+
+	/**
+	 * @param port:        port listened on the loopback interface, 0 for any free port
+	 * @param idleTimeout: number of seconds after which an unused safe is closed
+	 */
+	public Agent(final int port, final long idleTimeout)
+	{
+		this.port = port;
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Override
+	public Void call() throws Exception
+	{
+		final Logger log = Environment.getLogger();
+
+		try
+		{
+			if(this.stop)
+			{
+				if(!forward(new String[]{"agent", "--stop"}, System.out))
+					log.info("No agent running");
+				return null;
+			}
+
+			start();
+			log.info("Agent listening on port " + this.server.getLocalPort());
+			serve();
+		} catch(final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Listen on the loopback interface and write the agent file
+	 *
+	 * @throws Exception if an agent is already running
+	 */
+	public synchronized void start() throws Exception
+	{
+		final File agentFile = getAgentFile();
+		if(agentFile.exists())
+		{
+			if(isRunning(agentFile))
+				throw new Exception("An agent is already running (" + agentFile + ")");
+			Files.delete(agentFile.toPath());
+		}
+
+		Ciphers.getSecureRandom().nextBytes(this.secret);
+		final byte[] token = new byte[32];
+		Ciphers.getSecureRandom().nextBytes(token);
+		this.token = Utils.bytesToHex(token);
+
+		this.server = new ServerSocket();
+		this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port));
+		this.executor = Executors.newCachedThreadPool();
+		this.sweeper = Executors.newSingleThreadScheduledExecutor();
+		final long period = Math.max(1, Math.min(this.idleTimeout, 60));
+		this.sweeper.scheduleAtFixedRate(this::sweep, period, period, TimeUnit.SECONDS);
+
+		final Properties properties = new Properties();
+		properties.setProperty(PORT_LABEL, Integer.toString(this.server.getLocalPort()));
+		properties.setProperty(TOKEN_LABEL, this.token);
+		writeOwnerOnly(agentFile, properties);
+	}
+
+	/**
+	 * Serve the requests until {@link Agent#stop()} is called
+	 */
+	public void serve()
+	{
+		final Thread hook = new Thread(this::shutdown);
+		Runtime.getRuntime().addShutdownHook(hook);
+		try
+		{
+			while(!this.server.isClosed())
+			{
+				final Socket socket;
+				try
+				{
+					socket = this.server.accept();
+				} catch(final IOException e)
+				{
+					// closed by stop
+					break;
+				}
+				this.executor.submit(() -> handle(socket));
+			}
+		} finally
+		{
+			shutdown();
+			try
+			{
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch(final IllegalStateException e)
+			{
+				// shutting down
+			}
+		}
+	}
+
+	/**
+	 * Stop listening. {@link Agent#serve()} returns once the opened safes are closed
+	 */
+	public synchronized void stop()
+	{
+		try
+		{
+			if(this.server != null)
+				this.server.close();
+		} catch(final IOException e)
+		{
+			Environment.getLogger().warning(Utils.formatException(e));
+		}
+	}
+
+	/**
+	 * Get the number of {@link Safe} currently opened
+	 *
+	 * @return
+	 */
+	public int getOpenedSafeCount()
+	{
+		int count = 0;
+		for(final Session session : getSessions())
+			if(session.isOpened())
+				count++;
+		return count;
+	}
+
+	private synchronized void shutdown()
+	{
+		stop();
+		if(this.sweeper != null)
+			this.sweeper.shutdownNow();
+		if(this.executor != null)
+			this.executor.shutdown();
+
+		for(final Session session : getSessions())
+			session.close();
+
+		getAgentFile().delete();
+		Ciphers.clear(new SecretKeySpec(this.secret, PASSWORD_VERIFIER));
+		Arrays.fill(this.secret, (byte) 0);
+	}
+
+	private void sweep()
+	{
+		final long now = System.nanoTime();
+		for(final Session session : getSessions())
+			session.expire(now);
+	}
+
+	private Session[] getSessions()
+	{
+		synchronized(this.sessions)
+		{
+			return this.sessions.values().toArray(new Session[0]);
+		}
+	}
+
+	private void handle(final Socket socket)
+	{
+		try(final Socket s = socket)
+		{
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			final PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false, StandardCharsets.UTF_8.name());
+
+			if(!MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.UTF_8), this.token.getBytes(StandardCharsets.UTF_8)))
+				return;
+
+			final File workingDirectory = new File(in.readUTF());
+			final int count = in.readInt();
+			if(count < 0 || count > MAX_ARGUMENTS)
+				return;
+			final String[] args = new String[count];
+			for(int i = 0; i < args.length; i++)
+				args[i] = in.readUTF();
+
+			final Logger log = Logger.getAnonymousLogger();
+			log.setUseParentHandlers(false);
+			log.setLevel(Level.INFO);
+			log.addHandler(new CLIHandler(out));
+			try
+			{
+				execute(args, workingDirectory, log, out);
+			} catch(final Exception e)
+			{
+				log.severe(Utils.formatException(e));
+			}
+			out.flush();
+		} catch(final IOException e)
+		{
+			Environment.getLogger().warning(Utils.formatException(e));
+		}
+	}
+
+	private void execute(final String[] args, final File workingDirectory, final Logger log, final PrintStream out) throws Exception
+	{
+		final java.util.List<CommandLine> parsed = new CommandLine(new Bootstrap()).parse(args);
+		final Object command = parsed.get(parsed.size() - 1).getCommand();
+
+		if(command instanceof Agent && ((Agent) command).stop)
+		{
+			log.info("Agent stopped");
+			stop();
+			return;
+		}
+
+		if(!(command instanceof SafeCommand))
+			throw new Exception("Command " + Arrays.toString(args) + " is not served by the agent");
+
+		final SafeCommand safeCommand = (SafeCommand) command;
+		safeCommand.resolve(workingDirectory);
+		final File file = new File(safeCommand.getSafeFile()).getCanonicalFile();
+
+		final Session session;
+		synchronized(this.sessions)
+		{
+			session = this.sessions.computeIfAbsent(file.getPath(), path -> new Session(file));
+		}
+		session.run(safeCommand, log, out);
+	}
+
+	private byte[] getPasswordVerifier(final String password) throws Exception
+	{
+		final Mac mac = Ciphers.acquireMac(PASSWORD_VERIFIER);
+		final SecretKeySpec key = new SecretKeySpec(this.secret, PASSWORD_VERIFIER);
+		final byte[] bytes = Utils.passwordToBytes(password.toCharArray());
+		try
+		{
+			mac.init(key);
+			return mac.doFinal(bytes);
+		} finally
+		{
+			Arrays.fill(bytes, (byte) 0);
+			Ciphers.release(mac, key);
+		}
+	}
+
+	/**
+	 * Forward <code>args</code> to the running agent, if any. Only the {@link SafeCommand} and the stop request are forwarded
+	 *
+	 * @param args: arguments of the command line
+	 * @param out:  destination of the output of the command
+	 * @return <code>true</code> if the command was run by the agent
+	 */
+	public static boolean forward(final String[] args, final PrintStream out)
+	{
+		final File agentFile = getAgentFile();
+		if(!agentFile.exists() || !isForwarded(args))
+			return false;
+
+		final Properties properties = new Properties();
+		final Socket socket = new Socket();
+		try
+		{
+			try(final InputStream is = new FileInputStream(agentFile))
+			{
+				properties.load(is);
+			}
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(properties.getProperty(PORT_LABEL))), CONNECT_TIMEOUT);
+		} catch(final Exception e)
+		{
+			// stale agent file
+			try
+			{
+				socket.close();
+			} catch(final IOException ce)
+			{
+			}
+			return false;
+		}
+
+		try(final Socket s = socket)
+		{
+			final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			dos.writeUTF(properties.getProperty(TOKEN_LABEL));
+			dos.writeUTF(new File("").getAbsolutePath());
+			dos.writeInt(args.length);
+			for(final String arg : args)
+				dos.writeUTF(arg);
+			dos.flush();
+
+			final InputStream is = s.getInputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while((read = is.read(buffer)) >= 0)
+				out.write(buffer, 0, read);
+			out.flush();
+		} catch(final IOException e)
+		{
+			Environment.getLogger().severe(Utils.formatException(e));
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the agent file, set by the system property {@link Agent#AGENT_FILE_PROPERTY} or in the home directory of the user
+	 *
+	 * @return
+	 */
+	public static File getAgentFile()
+	{
+		final String path = System.getProperty(AGENT_FILE_PROPERTY);
+		if(path != null)
+			return new File(path);
+
+		return new File(System.getProperty("user.home"), ".jsafebox" + File.separator + "agent");
+	}
+
+	private static boolean isForwarded(final String[] args)
+	{
+		final java.util.List<CommandLine> parsed;
+		try
+		{
+			parsed = new CommandLine(new Bootstrap()).parse(args);
+		} catch(final Exception e)
+		{
+			// let the local command line report the error
+			return false;
+		}
+
+		for(final CommandLine commandLine : parsed)
+			if(commandLine.isUsageHelpRequested() || commandLine.isVersionHelpRequested())
+				return false;
+
+		final Object command = parsed.get(parsed.size() - 1).getCommand();
+		return command instanceof SafeCommand || (command instanceof Agent && ((Agent) command).stop);
+	}
+
+	private static boolean isRunning(final File agentFile)
+	{
+		final Properties properties = new Properties();
+		try(final InputStream is = new FileInputStream(agentFile); final Socket socket = new Socket())
+		{
+			properties.load(is);
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(properties.getProperty(PORT_LABEL))), CONNECT_TIMEOUT);
+			return true;
+		} catch(final Exception e)
+		{
+			return false;
+		}
+	}
+
+	private static void writeOwnerOnly(final File file, final Properties properties) throws IOException
+	{
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.exists() && !parent.mkdirs())
+			throw new IOException("Could not create directory " + parent);
+
+		try
+		{
+			Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch(final UnsupportedOperationException e)
+		{
+			Files.createFile(file.toPath());
+			file.setReadable(false, false);
+			file.setWritable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(true, true);
+		}
+
+		try(final OutputStream os = Files.newOutputStream(file.toPath()))
+		{
+			properties.store(os, "jsafebox agent");
+		}
+	}
+
+	/**
+	 * A {@link Safe} kept opened by the agent. Commands on the same safe are run one at a time
+	 */
+	private final class Session
+	{
+		private final File file;
+		private Safe safe;
+		private byte[] passwordVerifier;
+		private int bufferSize;
+		private boolean memoryMapped;
+		private long lastModified;
+		private long length;
+		private long lastUse;
+
+		private Session(final File file)
+		{
+			this.file = file;
+		}
+
+		private synchronized void run(final SafeCommand command, final Logger log, final PrintStream out) throws Exception
+		{
+			final byte[] passwordVerifier = getPasswordVerifier(command.getPassword());
+
+			if(this.safe != null && !MessageDigest.isEqual(passwordVerifier, this.passwordVerifier))
+				throw new Exception("Invalid password");
+
+			if(this.safe != null && (this.file.lastModified() != this.lastModified || this.file.length() != this.length))
+			{
+				log.fine("Safe file " + this.file + " was modified by another process");
+				close();
+			}
+
+			if(this.safe != null && (command.getBufferSize() != this.bufferSize || command.isMemoryMapped() != this.memoryMapped))
+			{
+				log.fine("Reopening safe file " + this.file + " with the options of the command");
+				close();
+			}
+
+			if(this.safe == null)
+			{
+				this.safe = Safe.open(this.file.getPath(), command.getPassword().toCharArray(), command.getBufferSize(), command.isMemoryMapped(), log);
+				this.passwordVerifier = passwordVerifier;
+				this.bufferSize = command.getBufferSize();
+				this.memoryMapped = command.isMemoryMapped();
+			}
+
+			try
+			{
+				this.safe = command.run(this.safe, log, out);
+				this.lastModified = this.file.lastModified();
+				this.length = this.file.length();
+				this.lastUse = System.nanoTime();
+			} catch(final Exception e)
+			{
+				// the state of the safe is unknown
+				close();
+				throw e;
+			}
+		}
+
+		private synchronized boolean isOpened()
+		{
+			return this.safe != null;
+		}
+
+		private synchronized void expire(final long now)
+		{
+			if(this.safe != null && now - this.lastUse >= TimeUnit.SECONDS.toNanos(idleTimeout))
+				close();
+		}
+
+		private synchronized void close()
+		{
+			if(this.safe != null)
+				try
+				{
+					this.safe.close();
+				} catch(final IOException e)
+				{
+					Environment.getLogger().warning(Utils.formatException(e));
+				}
+			this.safe = null;
+
+			if(this.passwordVerifier != null)
+				Arrays.fill(this.passwordVerifier, (byte) 0);
+			this.passwordVerifier = null;
+		}
+	}
+}
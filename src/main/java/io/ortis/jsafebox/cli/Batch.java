@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.cli;
+
+import io.ortis.jsafebox.*;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Run a list of operations on a {@link Safe} opened once, with a single save at the end. Operations are read one per line, with the arguments of the matching subcommand but without the
+ * password and the safe file:
+ *
+ * <pre>
+ * add [-m] [-pp key value] system/path... /safe/folder
+ * rm [-f] /safe/path...
+ * extract /safe/path... system/folder
+ * mkdir /safe/folder
+ * ls /safe/path...
+ * </pre>
+ * <p>
+ * Blank lines and lines starting with # are ignored, arguments containing spaces are quoted. Folders only exist in the safe through the files they hold. Unless told to keep going, the
+ * first failed operation aborts the batch and nothing is written
+ */
+@Command(description = "Run a list of operations with a single save", name = "batch", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
+public class Batch implements Callable<Void>
+{
+	@Option(names = {"-pw", "-pwd", "--password"}, required = true, description = "Password")
+	private String password;
+
+	@Option(names = {"-b", "--buffer"}, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = {"-t", "--threads"}, description = "Number of files encrypted or extracted concurrently")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Option(names = {"-c", "--compact"}, description = "Compact the safe file when the ratio of dead bytes exceeds this threshold")
+	private double compactRatio = CompactionPolicy.DEFAULT_DEAD_RATIO;
+
+	@Option(names = {"-k", "--keep-going"}, description = "Run the remaining operations after a failure and save the successful ones")
+	private boolean keepGoing;
+
+	@Parameters(index = "0", description = "System path of safe file")
+	private String safeFile;
+
+	@Parameters(index = "1", arity = "0...1", description = "File listing the operations, one per line. The standard input is read if omitted")
+	private String operationFile;
+
+	@Override
+	public Void call() throws Exception
+	{
+		final Logger log = Environment.getLogger();
+
+		try
+		{
+			final java.util.List<Operation> operations;
+			try(final InputStream is = this.operationFile == null ? System.in : Files.newInputStream(Paths.get(this.operationFile)))
+			{
+				operations = parse(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+			}
+
+			final long start = System.nanoTime();
+			try(final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
+			{
+				final long opened = System.nanoTime();
+				log.info("Safe opened in " + toMillis(opened - start) + " ms");
+				run(safe, operations, log).close();
+				log.info(operations.size() + " operation(s) in " + toMillis(System.nanoTime() - start) + " ms");
+			}
+		} catch(final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Run <code>operations</code> then save the {@link Safe} if any of them modified it
+	 *
+	 * @return the {@link Safe} to use afterward: <code>safe</code>, or the {@link Safe} returned by the save
+	 */
+	public Safe run(final Safe safe, final java.util.List<Operation> operations, final Logger log) throws Exception
+	{
+		boolean modified = false;
+		int failed = 0;
+		for(final Operation operation : operations)
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				modified |= operation.apply(safe, this.threads, log);
+				log.info(operation + " (" + toMillis(System.nanoTime() - start) + " ms)");
+			} catch(final Exception e)
+			{
+				failed++;
+				log.severe(operation + " failed (" + toMillis(System.nanoTime() - start) + " ms): " + Utils.formatException(e));
+				if(!this.keepGoing)
+				{
+					log.severe("Batch aborted, nothing written");
+					return safe;
+				}
+			}
+		}
+
+		if(failed > 0)
+			log.warning(failed + " operation(s) failed");
+
+		if(!modified)
+			return safe;
+
+		final long start = System.nanoTime();
+		log.info("Writing safebox file...");
+		final Safe savedSafe = safe.saveIncremental(null);
+		final CompactionPolicy policy = new CompactionPolicy(this.compactRatio, CompactionPolicy.DEFAULT_MIN_DEAD_LENGTH);
+		if(policy.isCompactionRequired(savedSafe))
+			log.info("Compacting safebox file...");
+		final Safe compacted = policy.apply(savedSafe, null);
+		log.info("Safe written in " + toMillis(System.nanoTime() - start) + " ms");
+
+		return compacted;
+	}
+
+	/**
+	 * Parse the operations, one per line
+	 *
+	 * @param reader
+	 * @return
+	 * @throws Exception if a line is not a valid operation
+	 */
+	public static java.util.List<Operation> parse(final BufferedReader reader) throws Exception
+	{
+		final java.util.List<Operation> operations = new ArrayList<>();
+		String line;
+		int number = 0;
+		while((line = reader.readLine()) != null)
+		{
+			number++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			try
+			{
+				final java.util.List<String> tokens = tokenize(line);
+				final Operation operation;
+				switch(tokens.get(0))
+				{
+					case "add":
+						operation = new AddOperation();
+						break;
+					case "rm":
+						operation = new DeleteOperation();
+						break;
+					case "extract":
+						operation = new ExtractOperation();
+						break;
+					case "mkdir":
+						operation = new MkdirOperation();
+						break;
+					case "ls":
+						operation = new ListOperation();
+						break;
+					default:
+						throw new Exception("Unknown operation '" + tokens.get(0) + "'");
+				}
+
+				CommandLine.populateCommand(operation, tokens.subList(1, tokens.size()).toArray(new String[0]));
+				operation.line = number;
+				operation.text = line;
+				operations.add(operation);
+			} catch(final Exception e)
+			{
+				throw new Exception("Invalid operation at line " + number + ": " + e.getMessage(), e);
+			}
+		}
+
+		return operations;
+	}
+
+	/**
+	 * Split a line on whitespaces. Single or double quotes group an argument containing whitespaces
+	 */
+	static java.util.List<String> tokenize(final String line) throws Exception
+	{
+		final java.util.List<String> tokens = new ArrayList<>();
+		final StringBuilder token = new StringBuilder();
+		boolean inToken = false;
+		char quote = 0;
+		for(int i = 0; i < line.length(); i++)
+		{
+			final char c = line.charAt(i);
+			if(quote != 0)
+			{
+				if(c == quote)
+					quote = 0;
+				else
+					token.append(c);
+			}
+			else if(c == '"' || c == '\'')
+			{
+				quote = c;
+				inToken = true;
+			}
+			else if(Character.isWhitespace(c))
+			{
+				if(inToken)
+					tokens.add(token.toString());
+				token.setLength(0);
+				inToken = false;
+			}
+			else
+			{
+				token.append(c);
+				inToken = true;
+			}
+		}
+
+		if(quote != 0)
+			throw new Exception("Unclosed quote");
+		if(inToken)
+			tokens.add(token.toString());
+
+		return tokens;
+	}
+
+	private static long toMillis(final long nanos)
+	{
+		return nanos / 1_000_000;
+	}
+
+	/**
+	 * Operation of a batch
+	 */
+	public static abstract class Operation
+	{
+		private int line;
+		private String text;
+
+		/**
+		 * Apply the operation
+		 *
+		 * @return <code>true</code> if the {@link Safe} must be saved
+		 */
+		public abstract boolean apply(Safe safe, int threads, Logger log) throws Exception;
+
+		@Override
+		public String toString()
+		{
+			return "[" + this.line + "] " + this.text;
+		}
+	}
+
+	private static class AddOperation extends Operation
+	{
+		@Option(names = {"-p", "-pp", "--property"}, arity = "2")
+		private String[] properties;
+
+		@Option(names = {"-m", "--mkdir"})
+		private boolean mkdir;
+
+		@Parameters(arity = "2...*")
+		private String[] paths;
+
+		@Override
+		public boolean apply(final Safe safe, final int threads, final Logger log) throws Exception
+		{
+			Add.add(safe, this.paths, this.properties, this.mkdir, threads, log);
+			return true;
+		}
+	}
+
+	private static class DeleteOperation extends Operation
+	{
+		@Option(names = {"-f", "--force"})
+		private boolean force;
+
+		@Parameters(arity = "1...*")
+		private String[] paths;
+
+		@Override
+		public boolean apply(final Safe safe, final int threads, final Logger log) throws Exception
+		{
+			return Delete.delete(safe, this.paths, this.force, log);
+		}
+	}
+
+	private static class ExtractOperation extends Operation
+	{
+		@Parameters(arity = "2...*")
+		private String[] paths;
+
+		@Override
+		public boolean apply(final Safe safe, final int threads, final Logger log) throws Exception
+		{
+			Extract.extract(safe, this.paths, threads, log);
+			return false;
+		}
+	}
+
+	private static class MkdirOperation extends Operation
+	{
+		@Parameters(arity = "1")
+		private String path;
+
+		@Override
+		public boolean apply(final Safe safe, final int threads, final Logger log) throws Exception
+		{
+			SafeFiles.mkdir(this.path, false, safe.getRootFolder(), safe.getRootFolder());
+			return false;
+		}
+	}
+
+	private static class ListOperation extends Operation
+	{
+		@Parameters(arity = "1...*")
+		private String[] paths;
+
+		@Override
+		public boolean apply(final Safe safe, final int threads, final Logger log) throws Exception
+		{
+			List.list(safe, this.paths, log);
+			return false;
+		}
+	}
+}
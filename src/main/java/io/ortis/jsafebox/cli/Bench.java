@@ -0,0 +1,339 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.cli;
+
+import io.ortis.jsafebox.*;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Load test a {@link Safe}. If the safe file does not exist, it is first filled with synthetic blocks generated by {@link SyntheticSafe}. A random mix of operations is then run on the safe and
+ * the latency percentiles and throughput of each operation are printed:
+ * <ul>
+ * <li>open: open and close the safe file</li>
+ * <li>ls: list a random folder</li>
+ * <li>extract: extract a random block</li>
+ * <li>add: add a synthetic block and save the safe</li>
+ * <li>hash: compute the hash of the safe</li>
+ * </ul>
+ */
+@Command(description = "Generate a synthetic safe and load test it", name = "bench", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
+public class Bench implements Callable<Void>
+{
+	public final static String OPEN = "open";
+	public final static String LS = "ls";
+	public final static String EXTRACT = "extract";
+	public final static String ADD = "add";
+	public final static String HASH = "hash";
+	public final static String DEFAULT_WORKLOAD = "open:1,ls:20,extract:60,add:10,hash:1";
+
+	@Option(names = {"-pw", "-pwd", "--password"}, required = true, description = "Password")
+	private String password;
+
+	@Option(names = {"-b", "--buffer"}, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = {"-t", "--threads"}, description = "Number of blocks generated concurrently")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Option(names = {"-n", "--blocks"}, description = "Number of blocks generated when the safe file does not exist")
+	private int blockCount = 1000;
+
+	@Option(names = {"-f", "--fan-out"}, description = "Number of sub folders per generated folder")
+	private int fanOut = 16;
+
+	@Option(names = {"-d", "--depth"}, description = "Depth of the generated folders holding the blocks")
+	private int depth = 2;
+
+	@Option(names = {"-s", "--sizes"}, description = "Block lengths (K, M and G suffixes allowed) and their weights")
+	private String sizes = SyntheticSafe.DEFAULT_SIZES;
+
+	@Option(names = {"-m", "--types"}, description = "File extensions, defining the MIME type and the compressibility, and their weights")
+	private String types = SyntheticSafe.DEFAULT_TYPES;
+
+	@Option(names = {"-w", "--workload"}, description = "Operations (" + OPEN + ", " + LS + ", " + EXTRACT + ", " + ADD + ", " + HASH + ") and their weights")
+	private String workload = DEFAULT_WORKLOAD;
+
+	@Option(names = {"-o", "--operations"}, description = "Number of operations run. The safe is only generated if 0")
+	private int operationCount = 200;
+
+	@Option(names = {"--seed"}, description = "Seed of the generation and of the workload")
+	private long seed = 1;
+
+	@Parameters(index = "0", description = "System path of safe file")
+	private String safeFile;
+
+	@Override
+	public Void call() throws Exception
+	{
+		final Logger log = Environment.getLogger();
+
+		try
+		{
+			final SyntheticSafe.Distribution<Long> lengths = SyntheticSafe.Distribution.parse(this.sizes, SyntheticSafe::parseLength);
+			final SyntheticSafe.Distribution<String> extensions = SyntheticSafe.Distribution.parse(this.types, String::trim);
+			final SyntheticSafe.Distribution<String> operations = SyntheticSafe.Distribution.parse(this.workload, Bench::parseOperation);
+
+			final File file = new File(this.safeFile);
+			if(!file.exists())
+			{
+				log.info("Creating new safebox " + file.getAbsolutePath() + "...");
+				Init.init(file, this.password.toCharArray(), null, null, this.bufferSize);
+				try(final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
+				{
+					final long start = System.nanoTime();
+					log.info("Generating " + this.blockCount + " block(s) using " + this.threads + " thread(s)...");
+					SyntheticSafe.generate(safe, this.blockCount, this.fanOut, this.depth, lengths, extensions, this.seed, this.threads, null);
+					log.info("Writing safebox file...");
+					safe.saveIncremental(null).close();
+					log.info("Safe generated in " + (System.nanoTime() - start) / 1_000_000 + " ms (" + Utils.humanReadableByteCount(file.length()) + ")");
+				}
+			}
+
+			if(this.operationCount > 0)
+			{
+				log.info("Running " + this.operationCount + " operation(s)...");
+				final Map<String, Latencies> latencies = run(file, this.password.toCharArray(), this.bufferSize, operations, this.operationCount, lengths, extensions, this.seed, log);
+				print(latencies, System.out);
+			}
+
+			log.info("Done");
+		} catch(final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Run <code>operationCount</code> random operations on a {@link Safe}
+	 *
+	 * @param operations: distribution of the operations
+	 * @param lengths:    distribution of the lengths of the added blocks
+	 * @param types:      distribution of the file extensions of the added blocks
+	 * @return the latencies of each operation
+	 * @throws Exception
+	 */
+	public static Map<String, Latencies> run(final File file, final char[] password, final int bufferSize, final SyntheticSafe.Distribution<String> operations, final int operationCount,
+			final SyntheticSafe.Distribution<Long> lengths, final SyntheticSafe.Distribution<String> types, final long seed, final Logger log) throws Exception
+	{
+		final Map<String, Latencies> latencies = new LinkedHashMap<>();
+		for(final String operation : operations.getValues())
+			latencies.put(operation, new Latencies());
+
+		final Random random = new Random(seed);
+		final long[] extracted = new long[1];
+		final OutputStream sink = new OutputStream()
+		{
+			@Override
+			public void write(final int b)
+			{
+				extracted[0]++;
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len)
+			{
+				extracted[0] += len;
+			}
+		};
+
+		Safe safe = Safe.open(file.getPath(), password, bufferSize, log);
+		try
+		{
+			java.util.List<Block> blocks = new ArrayList<>(safe.getBlocks().values());
+			java.util.List<Folder> folders = listFolders(safe.getRootFolder(), new ArrayList<>());
+			int added = 0;
+
+			for(int i = 0; i < operationCount; i++)
+			{
+				final String operation = operations.pick(random);
+				final long start;
+				final long bytes;
+				switch(operation)
+				{
+					case OPEN:
+						start = System.nanoTime();
+						Safe.open(file.getPath(), password, bufferSize, log).close();
+						bytes = 0;
+						break;
+
+					case LS:
+						final Folder folder = folders.get(random.nextInt(folders.size()));
+						start = System.nanoTime();
+						SafeFiles.match(folder.getPath() + Folder.DELIMITER + Folder.WILDCARD, safe.getRootFolder(), safe.getRootFolder(), new ArrayList<SafeFile>());
+						bytes = 0;
+						break;
+
+					case EXTRACT:
+						if(blocks.isEmpty())
+							throw new Exception("No block to extract");
+						final Block block = blocks.get(random.nextInt(blocks.size()));
+						extracted[0] = 0;
+						start = System.nanoTime();
+						safe.extract(block, false, sink);
+						bytes = extracted[0];
+						break;
+
+					case ADD:
+						final long length = lengths.pick(random);
+						final String extension = types.pick(random);
+						final String path = folders.get(random.nextInt(folders.size())).getPath() + Folder.DELIMITER + "bench" + seed + "-" + added++ + "." + extension;
+						start = System.nanoTime();
+						safe.add(SyntheticSafe.getProperties(path), new SyntheticSafe.SyntheticInputStream(length, random.nextLong(), SyntheticSafe.isText(extension)), length, null);
+						safe = safe.saveIncremental(null);
+						bytes = length;
+						break;
+
+					case HASH:
+						start = System.nanoTime();
+						safe.computeHash(null);
+						bytes = file.length();
+						break;
+
+					default:
+						throw new IllegalArgumentException("Unknown operation '" + operation + "'");
+				}
+
+				latencies.get(operation).add(System.nanoTime() - start, bytes);
+
+				if(operation.equals(ADD))
+				{
+					// the saved safe has a new folder tree
+					blocks = new ArrayList<>(safe.getBlocks().values());
+					folders = listFolders(safe.getRootFolder(), new ArrayList<>());
+				}
+			}
+		} finally
+		{
+			safe.close();
+		}
+
+		return latencies;
+	}
+
+	/**
+	 * Print the latency percentiles and the throughput of each operation
+	 *
+	 * @param latencies
+	 * @param out
+	 */
+	public static void print(final Map<String, Latencies> latencies, final PrintStream out)
+	{
+		out.println(String.format("%-8s %6s %10s %10s %10s %10s %10s %10s %12s", "op", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms", "op/s", "bytes/s"));
+		for(final Map.Entry<String, Latencies> entry : latencies.entrySet())
+		{
+			final Latencies l = entry.getValue();
+			if(l.getCount() == 0)
+				continue;
+
+			final double seconds = l.getTotal() / 1e9;
+			out.println(String.format("%-8s %6d %10.3f %10.3f %10.3f %10.3f %10.3f %10.1f %12s", entry.getKey(), l.getCount(), l.getTotal() / 1e6 / l.getCount(),
+					l.getPercentile(50) / 1e6, l.getPercentile(90) / 1e6, l.getPercentile(99) / 1e6, l.getPercentile(100) / 1e6, l.getCount() / seconds,
+					l.getBytes() == 0 ? "-" : Utils.humanReadableByteCount((long) (l.getBytes() / seconds))));
+		}
+	}
+
+	private static String parseOperation(final String operation)
+	{
+		if(!Arrays.asList(OPEN, LS, EXTRACT, ADD, HASH).contains(operation))
+			throw new IllegalArgumentException("Unknown operation '" + operation + "'");
+		return operation;
+	}
+
+	private static java.util.List<Folder> listFolders(final Folder folder, final java.util.List<Folder> destination)
+	{
+		destination.add(folder);
+		for(final SafeFile file : folder.listFiles())
+			if(file.isFolder())
+				listFolders((Folder) file, destination);
+		return destination;
+	}
+
+	/**
+	 * Latencies of an operation, in nanoseconds
+	 */
+	public static class Latencies
+	{
+		private long[] latencies = new long[16];
+		private int count;
+		private long total;
+		private long bytes;
+		private boolean sorted = true;
+
+		public void add(final long latency, final long bytes)
+		{
+			if(this.count == this.latencies.length)
+				this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+
+			this.latencies[this.count++] = latency;
+			this.total += latency;
+			this.bytes += bytes;
+			this.sorted = false;
+		}
+
+		/**
+		 * Get a percentile using the nearest rank method
+		 *
+		 * @param percentile: between 0 and 100
+		 * @return
+		 */
+		public long getPercentile(final double percentile)
+		{
+			if(this.count == 0)
+				return 0;
+
+			if(!this.sorted)
+			{
+				Arrays.sort(this.latencies, 0, this.count);
+				this.sorted = true;
+			}
+
+			final int rank = (int) Math.ceil(percentile / 100 * this.count);
+			return this.latencies[Math.max(0, Math.min(this.count, rank) - 1)];
+		}
+
+		public int getCount()
+		{
+			return this.count;
+		}
+
+		public long getTotal()
+		{
+			return this.total;
+		}
+
+		public long getBytes()
+		{
+			return this.bytes;
+		}
+	}
+}
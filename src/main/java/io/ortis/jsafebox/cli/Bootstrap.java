@@ -36,8 +36,8 @@ import picocli.CommandLine.Command;
  * @author Ortis <br>
  *         2018 Apr 26 8:14:45 PM <br>
  */
-@Command(description = "Bootstrap", mixinStandardHelpOptions = true, version = Version.VERSION, subcommands = { Init.class, Hash.class, List.class, Add.class, Delete.class, Cat.class, Extract.class,
-		StartGui.class })
+@Command(description = "Bootstrap", mixinStandardHelpOptions = true, version = Version.VERSION, subcommands = { Init.class, Hash.class, List.class, Add.class, Delete.class, Compact.class, Cat.class, Extract.class, Batch.class, Bench.class,
+		Agent.class, StartGui.class })
 public class Bootstrap implements Callable<Void>
 {
 
@@ -76,7 +76,7 @@ public class Bootstrap implements Callable<Void>
 			{
 				e.printStackTrace();
 			}
-		else
+		else if (!Agent.forward(args, System.out))// run by the agent when available
 			CommandLine.call(new Bootstrap(), System.err, args);
 
 	}
@@ -17,7 +17,9 @@
 
 package io.ortis.jsafebox.cli;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -36,14 +38,17 @@ import picocli.CommandLine.Parameters;
  *         2018 Apr 26 8:16:54 PM <br>
  */
 @Command(description = "Output file content as text", name = "cat", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
-public class Cat implements Callable<Void>
+public class Cat implements Callable<Void>, SafeCommand
 {
 
 	@Option(names = { "-pw", "-pwd", "--password" }, description = "Password")
 	private String password;
 
-	@Option(names = { "-b", "--buffer" }, description = "Read buffer size")
-	private int bufferSize = 1024;
+	@Option(names = { "-b", "--buffer" }, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = { "-mm", "--mmap" }, description = "Read the safe file through a memory mapping")
+	private boolean memoryMapped;
 
 	@Parameters(index = "0", arity = "0...1", description = "File path of safe file")
 	private String safeFile;
@@ -57,45 +62,86 @@ public class Cat implements Callable<Void>
 
 		final Logger log = Environment.getLogger();
 
-		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
+		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, this.memoryMapped, log))
+		{
+			run(safe, log, System.out);
+		} catch (final Exception e)
 		{
+			log.severe(Utils.formatException(e));
+		}
 
-			final Set<SafeFile> matches = new LinkedHashSet<>();
+		return null;
+	}
 
-			for (int i = 0; i < this.paths.length; i++)
-				SafeFiles.match(this.paths[i], safe.getRootFolder(), safe.getRootFolder(), matches);
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		final Set<SafeFile> matches = new LinkedHashSet<>();
 
-			if (matches.isEmpty())
-			{
-				log.info("No file found");
-				return null;
-			}
+		for (int i = 0; i < this.paths.length; i++)
+			SafeFiles.match(this.paths[i], safe.getRootFolder(), safe.getRootFolder(), matches);
 
-			for (final SafeFile safeFile : matches)
+		if (matches.isEmpty())
+		{
+			log.info("No file found");
+			return safe;
+		}
+
+		for (final SafeFile safeFile : matches)
+		{
+
+			if (!safeFile.isBlock())
 			{
+				log.warning(safeFile + " is not a block");
 
-				if (!safeFile.isBlock())
-				{
-					log.warning(safeFile + " is not a block");
+			} else
+			{
+				log.info(safeFile + " -> ");
 
-				} else
+				// stream the decrypted data instead of buffering the whole block
+				try (final InputStream is = safe.openInputStream((Block) safeFile))
 				{
-					final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-					safe.extract(safeFile.getPath(),true, baos);
-					final StringBuilder sb = new StringBuilder("\n");
-					sb.append(new String(baos.toByteArray()));
-					log.info(safeFile + " -> " + sb.toString());
+					final byte [] buffer = new byte[this.bufferSize];
+					int read;
+					while ((read = is.read(buffer)) >= 0)
+						out.write(buffer, 0, read);
 				}
-
+				out.println();
 			}
 
-		} catch (final Exception e)
-		{
-			log.severe(Utils.formatException(e));
 		}
 
-		return null;
+		return safe;
+	}
+
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+	}
+
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
+
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return this.memoryMapped;
 	}
 
 }
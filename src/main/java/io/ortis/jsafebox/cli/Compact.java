@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.cli;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import io.ortis.jsafebox.*;
+import io.ortis.jsafebox.task.Task;
+import io.ortis.jsafebox.task.TaskListener;
+import io.ortis.jsafebox.task.TaskProbeAdapter;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Reclaim the space of deleted {@link Block}
+ */
+@Command(description = "Reclaim the space of deleted files", name = "compact", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
+public class Compact implements Callable<Void>, SafeCommand
+{
+
+	@Option(names = { "-pw", "-pwd", "--password" }, required = true, description = "Password")
+	private String password;
+
+	@Option(names = { "-b", "--buffer" }, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = { "-r", "--ratio" }, description = "Only compact when the ratio of dead bytes exceeds this threshold")
+	private double ratio = 0;
+
+	@Parameters(index = "0", description = "System path of safe file")
+	private String safeFile;
+
+	@Override
+	public Void call() throws Exception
+	{
+
+		final Logger log = Environment.getLogger();
+
+		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
+		{
+			run(safe, log, System.out).close();
+		} catch (final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
+
+		return null;
+	}
+
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		log.info("Dead bytes: " + Utils.humanReadableByteCount(safe.getDeadLength()) + " (" + String.format("%.1f", safe.getDeadRatio() * 100) + "%)");
+
+		final CompactionPolicy policy = new CompactionPolicy(this.ratio, 1);
+		if (!policy.isCompactionRequired(safe))
+		{
+			log.info("Nothing to compact");
+			return safe;
+		}
+
+		final TaskProbeAdapter adapter = new TaskProbeAdapter();
+
+		adapter.addListener(new TaskListener()
+		{
+
+			@Override
+			public void onTerminated(Task task)
+			{
+			}
+
+			@Override
+			public void onProgress(Task task, double progress)
+			{
+			}
+
+			@Override
+			public void onMessage(final Task task, final String message)
+			{
+				log.info(message);
+			}
+
+			@Override
+			public void onException(Task task, Exception exception)
+			{
+			}
+
+			@Override
+			public void onCancelled(Task task)
+			{
+			}
+
+			@Override
+			public void onCancellationRequested(Task task)
+			{
+			}
+		});
+
+		final Safe compacted = policy.apply(safe, adapter);
+		log.info("Done");
+
+		return compacted;
+	}
+
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+	}
+
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
+
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return false;
+	}
+
+}
@@ -17,6 +17,8 @@
 
 package io.ortis.jsafebox.cli;
 
+import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -41,7 +43,7 @@ import picocli.CommandLine.Parameters;
  *         2018 Apr 26 8:17:40 PM <br>
  */
 @Command(description = "Delete file", name = "rm", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
-public class Delete implements Callable<Void>
+public class Delete implements Callable<Void>, SafeCommand
 {
 
 	@Option(names = { "-pw", "-pwd", "--password" }, required = true, description = "Password")
@@ -50,8 +52,11 @@ public class Delete implements Callable<Void>
 	@Option(names = { "-f", "--force" }, description = "Force delete")
 	private boolean force;
 
-	@Option(names = { "-b", "--buffer" }, description = "Read buffer size")
-	private int bufferSize = 1024;
+	@Option(names = { "-b", "--buffer" }, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = { "-c", "--compact" }, description = "Compact the safe file when the ratio of dead bytes exceeds this threshold")
+	private double compactRatio = CompactionPolicy.DEFAULT_DEAD_RATIO;
 
 	@Parameters(index = "0", description = "System path of safe file")
 	private String safeFile;
@@ -67,88 +72,141 @@ public class Delete implements Callable<Void>
 
 		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
 		{
+			run(safe, log, System.out).close();
+		} catch (final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
+
+		return null;
+	}
+
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		if (!delete(safe, this.paths, this.force, log))
+			return safe;
+
+		log.info("Writing safebox file...");
+		final Safe savedSafe = safe.saveIncremental(null);
+		final CompactionPolicy policy = new CompactionPolicy(this.compactRatio, CompactionPolicy.DEFAULT_MIN_DEAD_LENGTH);
+		if (policy.isCompactionRequired(savedSafe))
+			log.info("Compacting safebox file...");
+		final Safe compacted = policy.apply(savedSafe, null);
+		log.info("Done");
+
+		return compacted;
+	}
 
-			final java.util.Set<SafeFile> safeFiles = new LinkedHashSet<>();
+	/**
+	 * Delete the files matching <code>paths</code>. <b>The deletion is only written by a save</b>
+	 *
+	 * @return <code>false</code> if no file matched
+	 */
+	public static boolean delete(final Safe safe, final String [] paths, final boolean force, final Logger log) throws Exception
+	{
+		final java.util.Set<SafeFile> safeFiles = new LinkedHashSet<>();
 
-			for (final String path : this.paths)
+		for (final String path : paths)
+		{
+			log.fine("Lookup " + path + "...");
+			SafeFiles.match(path, safe.getRootFolder(), safe.getRootFolder(), safeFiles);
+		}
+
+		if (safeFiles.isEmpty())
+		{
+			log.info("No file found");
+			return false;
+		}
+
+		final TaskProbeAdapter adapter = new TaskProbeAdapter();
+
+		adapter.addListener(new TaskListener()
+		{
+
+			@Override
+			public void onTerminated(Task task)
 			{
-				log.fine("Lookup " + path + "...");
-				SafeFiles.match(path, safe.getRootFolder(), safe.getRootFolder(), safeFiles);
 			}
 
-			if (safeFiles.isEmpty())
+			@Override
+			public void onProgress(Task task, double progress)
 			{
-				log.info("No file found");
-				return null;
 			}
 
-			final TaskProbeAdapter adapter = new TaskProbeAdapter();
-
-			adapter.addListener(new TaskListener()
+			@Override
+			public void onMessage(final Task task, final String message)
 			{
+				log.info(message);
+			}
 
-				@Override
-				public void onTerminated(Task task)
-				{
-				}
+			@Override
+			public void onException(Task task, Exception exception)
+			{
+			}
 
-				@Override
-				public void onProgress(Task task, double progress)
-				{
-				}
+			@Override
+			public void onCancelled(Task task)
+			{
+			}
 
-				@Override
-				public void onMessage(final Task task, final String message)
-				{
-					log.info(message);
-				}
+			@Override
+			public void onCancellationRequested(Task task)
+			{
+			}
+		});
 
-				@Override
-				public void onException(Task task, Exception exception)
-				{
-				}
+		for (final SafeFile safeFile : safeFiles)
+		{
 
-				@Override
-				public void onCancelled(Task task)
-				{
-				}
+			if (safeFile.isBlock())
+				delete(safe, safeFile, adapter);
+			else if (safeFile.isFolder())
+			{
+				final Folder folder = (Folder) safeFile;
 
-				@Override
-				public void onCancellationRequested(Task task)
+				if (!folder.listFiles().isEmpty())
 				{
+					if (force)
+						delete(safe, safeFile, adapter);
+					else
+						log.severe("Cannot delete non empty folder '" + folder + "'");
 				}
-			});
 
-			for (final SafeFile safeFile : safeFiles)
-			{
+			}
+		}
 
-				if (safeFile.isBlock())
-					delete(safe, safeFile, adapter);
-				else if (safeFile.isFolder())
-				{
-					final Folder folder = (Folder) safeFile;
+		return true;
+	}
 
-					if (!folder.listFiles().isEmpty())
-					{
-						if (this.force)
-							delete(safe, safeFile, adapter);
-						else
-							log.severe("Cannot delete non empty folder '" + folder + "'");
-					}
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+	}
 
-				}
-			}
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
 
-			log.info("Writing safebox file...");
-			safe.save().close();
-			log.info("Done");
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
 
-		} catch (final Exception e)
-		{
-			log.severe(Utils.formatException(e));
-		}
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
 
-		return null;
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return false;
 	}
 
 	public static void delete(final Safe safe, final SafeFile safeFile, TaskProbe probe) throws Exception
@@ -20,6 +20,7 @@ package io.ortis.jsafebox.cli;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -43,14 +44,20 @@ import picocli.CommandLine.Parameters;
  *         2018 Apr 26 8:16:54 PM <br>
  */
 @Command(description = "Extract file from the safe", name = "extract", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
-public class Extract implements Callable<Void>
+public class Extract implements Callable<Void>, SafeCommand
 {
 
 	@Option(names = { "-pw", "-pwd", "--password" }, description = "Password")
 	private String password;
 
-	@Option(names = { "-b", "--buffer" }, description = "Read buffer size")
-	private int bufferSize = 1024;
+	@Option(names = { "-b", "--buffer" }, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = { "-mm", "--mmap" }, description = "Read the safe file through a memory mapping")
+	private boolean memoryMapped;
+
+	@Option(names = { "-t", "--threads" }, description = "Number of blocks extracted concurrently")
+	private int threads = Runtime.getRuntime().availableProcessors();
 
 	@Parameters(index = "0", description = "System path of safe file")
 	private String safeFile;
@@ -64,90 +71,127 @@ public class Extract implements Callable<Void>
 
 		final Logger log = Environment.getLogger();
 
-		try
+		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, this.memoryMapped, log))
+		{
+			run(safe, log, System.out);
+		} catch (final Exception e)
 		{
+			log.severe(Utils.formatException(e));
+		}
+
+		return null;
+	}
+
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		extract(safe, paths, threads, log);
+		return safe;
+	}
 
-			final String destinationPath = this.paths[this.paths.length - 1];
-			final File destinationFolder = new File(destinationPath);
+	/**
+	 * Extract the files matching <code>paths</code>
+	 *
+	 * @param paths: paths of safe's source files followed by the system's destination folder
+	 */
+	public static void extract(final Safe safe, final String [] paths, final int threads, final Logger log) throws Exception
+	{
+		final String destinationPath = paths[paths.length - 1];
+		final File destinationFolder = new File(destinationPath);
 
-			if (!destinationFolder.exists())
+		if (!destinationFolder.exists())
+		{
+			log.severe("Destination folder '" + destinationFolder + "' does not exists");
+			return;
+		}
+
+		if (!destinationFolder.isDirectory())
+		{
+			log.severe("Destination '" + destinationFolder + "' is not a directory");
+			return;
+		}
+
+		final Set<SafeFile> matches = new LinkedHashSet<>();
+
+		for (int i = 0; i < paths.length - 1; i++)
+			SafeFiles.match(paths[i], safe.getRootFolder(), safe.getRootFolder(), matches);
+
+		if (matches.isEmpty())
+		{
+			log.info("No file found");
+			return;
+		}
+
+		final TaskProbeAdapter adapater = new TaskProbeAdapter();
+		adapater.addListener(new TaskListener()
+		{
+
+			@Override
+			public void onTerminated(Task task)
 			{
-				log.severe("Destination folder '" + destinationFolder + "' does not exists");
-				return null;
 			}
 
-			if (!destinationFolder.isDirectory())
+			@Override
+			public void onProgress(Task task, double progress)
 			{
-				log.severe("Destination '" + destinationFolder + "' is not a directory");
-				return null;
 			}
 
-			try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
+			@Override
+			public void onMessage(final Task task, final String message)
 			{
+				log.info(message);
+			}
 
-				final Set<SafeFile> matches = new LinkedHashSet<>();
+			@Override
+			public void onException(Task task, Exception exception)
+			{
+			}
 
-				for (int i = 0; i < this.paths.length - 1; i++)
-					SafeFiles.match(this.paths[i], safe.getRootFolder(), safe.getRootFolder(), matches);
+			@Override
+			public void onCancelled(Task task)
+			{
+			}
 
-				if (matches.isEmpty())
-				{
-					log.info("No file found");
-					return null;
-				}
+			@Override
+			public void onCancellationRequested(Task task)
+			{
+			}
+		});
 
-				final TaskProbeAdapter adapater = new TaskProbeAdapter();
-				adapater.addListener(new TaskListener()
-				{
+		log.info("Extracting " + matches.size() + " file(s) to " + destinationFolder + " using " + threads + " thread(s)");
+		BulkExtract.extract(safe, matches, destinationFolder, threads, adapater);
+	}
 
-					@Override
-					public void onTerminated(Task task)
-					{
-					}
-
-					@Override
-					public void onProgress(Task task, double progress)
-					{
-					}
-
-					@Override
-					public void onMessage(final Task task, final String message)
-					{
-						log.info(message);
-					}
-
-					@Override
-					public void onException(Task task, Exception exception)
-					{
-					}
-
-					@Override
-					public void onCancelled(Task task)
-					{
-					}
-
-					@Override
-					public void onCancellationRequested(Task task)
-					{
-					}
-				});
-
-				for (final SafeFile safeFile : matches)
-				{
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+		// the last path is the destination folder of the system
+		this.paths[this.paths.length - 1] = SafeCommand.resolve(workingDirectory, this.paths[this.paths.length - 1]);
+	}
 
-					final File systemFile = new File(destinationFolder, safeFile.getName());
-					log.info("Extracting " + safeFile + " to " + systemFile);
-					extract(safe, safeFile, destinationFolder, adapater);
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
 
-				}
-			}
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
 
-		} catch (final Exception e)
-		{
-			log.severe(Utils.formatException(e));
-		}
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
 
-		return null;
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return this.memoryMapped;
 	}
 
 	public static void extract(final Safe safe, final SafeFile safeFile, final File directory, TaskProbe probe) throws Exception
@@ -17,6 +17,8 @@
 
 package io.ortis.jsafebox.cli;
 
+import java.io.File;
+import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
@@ -35,14 +37,14 @@ import picocli.CommandLine.Parameters;
  *         2018 Apr 26 8:16:54 PM <br>
  */
 @Command(description = "Check the integrity hash", name = "hash", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
-public class Hash implements Callable<Void>
+public class Hash implements Callable<Void>, SafeCommand
 {
 
 	@Option(names = { "-pw", "-pwd", "--password" }, description = "Password")
 	private String password;
 
-	@Option(names = { "-b", "--buffer" }, description = "Read buffer size")
-	private int bufferSize = 65536;
+	@Option(names = { "-b", "--buffer" }, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
 
 	@Parameters(index = "0", arity = "0...1", description = "File path of safe file")
 	private String safeFile;
@@ -55,22 +57,7 @@ public class Hash implements Callable<Void>
 
 		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
 		{
-			System.gc();// Somehow, it looks like the GC is having trouble detecting large heap when using ByteBuffer. So we just call it before and after hash computation
-			final byte [] hash = safe.computeHash(null);
-			System.gc();
-
-			final String readableHash = Utils.bytesToHex(hash);
-			if (Arrays.equals(hash, safe.getHash()))
-
-				log.info("Integrity hash " + readableHash + " sucessfully verified");
-			else 
-			{
-				
-				final String expectedHash = Utils.bytesToHex(safe.getHash());
-				log.warning("Integrity hash is "+readableHash+" but "+expectedHash+" was expected");
-				log.warning("The content of the file might have been altered. It is strongly advised to revert to a backup file");
-			}
-
+			run(safe, log, System.out);
 		} catch (final Exception e)
 		{
 			log.severe(Utils.formatException(e));
@@ -79,4 +66,56 @@ public class Hash implements Callable<Void>
 		return null;
 	}
 
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		final byte [] hash = safe.computeHash(null);
+
+		final String readableHash = Utils.bytesToHex(hash);
+		if (safe.isHashPending())
+			log.warning("Integrity hash " + readableHash + " cannot be verified: the last save was interrupted before writing it. The next save will write a new integrity hash");
+		else if (Arrays.equals(hash, safe.getHash()))
+
+			log.info("Integrity hash " + readableHash + " sucessfully verified");
+		else 
+		{
+			
+			final String expectedHash = Utils.bytesToHex(safe.getHash());
+			log.warning("Integrity hash is "+readableHash+" but "+expectedHash+" was expected");
+			log.warning("The content of the file might have been altered. It is strongly advised to revert to a backup file");
+		}
+
+		return safe;
+	}
+
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+	}
+
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
+
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return false;
+	}
+
 }
@@ -17,6 +17,10 @@
 
 package io.ortis.jsafebox.cli;
 
+import io.ortis.jsafebox.BufferSize;
+import io.ortis.jsafebox.ChunkedData;
+import io.ortis.jsafebox.Compression;
+import io.ortis.jsafebox.Deduplication;
 import io.ortis.jsafebox.Environment;
 import io.ortis.jsafebox.Safe;
 import io.ortis.jsafebox.Utils;
@@ -54,8 +58,14 @@ public class Init implements Callable<Void>
 	@Option(names = {"-pw", "-pwd", "--password"}, required = true, description = "Password")
 	private String password;
 
-	@Option(names = {"-b", "--buffer"}, description = "Read buffer size")
-	private int bufferSize = 1024;
+	@Option(names = {"-b", "--buffer"}, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
+
+	@Option(names = {"-nc", "--no-compression"}, description = "Do not compress the data of new blocks")
+	private boolean noCompression;
+
+	@Option(names = {"-d", "--dedup"}, description = "Store the data of new blocks only once when several blocks have the same content")
+	private boolean deduplication;
 
 	@Parameters(index = "0", description = "File path of safe file")
 	private String filePath;
@@ -82,6 +92,12 @@ public class Init implements Callable<Void>
 					header.put(key, value);
 				}
 
+			if(this.noCompression)
+				header.put(Compression.COMPRESSION_LABEL, "");
+
+			if(this.deduplication)
+				header.put(Deduplication.DEDUPLICATION_LABEL, Deduplication.CONTENT_HASH);
+
 			final Map<String, String> properties = new LinkedHashMap<>();
 			if(this.properties != null)
 				for(int i = 0; i < this.properties.length; i += 2)
@@ -126,6 +142,14 @@ public class Init implements Callable<Void>
 
 		innerHeader.put(Safe.PBKDF2_SALT_LABEL, Safe.GSON.toJson(salt));
 
+		innerHeader.put(Safe.TOC_OFFSET_LABEL, Safe.formatTableOfContentsOffset(0));
+
+		if(!innerHeader.containsKey(ChunkedData.CHUNK_SIZE_LABEL))
+			innerHeader.put(ChunkedData.CHUNK_SIZE_LABEL, Integer.toString(ChunkedData.DEFAULT_CHUNK_SIZE));
+
+		if(!innerHeader.containsKey(Compression.COMPRESSION_LABEL))
+			innerHeader.put(Compression.COMPRESSION_LABEL, Compression.DEFLATE);
+
 		if(!innerHeader.containsKey(Safe.PBKDF2_ITERATION_LABEL))
 			innerHeader.put(Safe.PBKDF2_ITERATION_LABEL, Integer.toString(Safe.PBKDF2_DEFAULT_ITERATIONS));
 
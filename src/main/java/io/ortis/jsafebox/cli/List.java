@@ -17,6 +17,8 @@
 
 package io.ortis.jsafebox.cli;
 
+import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.concurrent.Callable;
@@ -35,14 +37,14 @@ import picocli.CommandLine.Parameters;
  *         2018 Apr 26 8:16:31 PM <br>
  */
 @Command(description = "List content", name = "ls", mixinStandardHelpOptions = true, version = Version.VERSION, showDefaultValues = true)
-public class List implements Callable<Void>
+public class List implements Callable<Void>, SafeCommand
 {
 
 	@Option(names = { "-pw", "-pwd", "--password" }, required = true, description = "Password")
 	private String password;
 
-	@Option(names = { "-b", "--buffer" }, description = "Read buffer size")
-	private int bufferSize = 1024;
+	@Option(names = { "-b", "--buffer" }, description = "Upper bound of the io buffer size, buffers are sized per operation")
+	private int bufferSize = BufferSize.DEFAULT_UPPER_BOUND;
 
 	@Parameters(index = "0", description = "File path of safe file")
 	private String safeFile;
@@ -57,71 +59,114 @@ public class List implements Callable<Void>
 
 		try (final Safe safe = Safe.open(this.safeFile, this.password.toCharArray(), this.bufferSize, log))
 		{
+			run(safe, log, System.out);
+		} catch (final Exception e)
+		{
+			log.severe(Utils.formatException(e));
+		}
 
-			final java.util.Set<SafeFile> safeFiles = new LinkedHashSet<>();
-			final java.util.List<SafeFile> buffer = new ArrayList<>();
+		return null;
+	}
 
-			for (String path : this.paths)
-			{
-				log.fine("Lookup " + path + "...");
-				buffer.clear();
-				SafeFiles.match(path, safe.getRootFolder(), safe.getRootFolder(), buffer);
-				safeFiles.addAll(buffer);
-			}
+	@Override
+	public Safe run(final Safe safe, final Logger log, final PrintStream out) throws Exception
+	{
+		list(safe, this.paths, log);
+		return safe;
+	}
 
-			int bCount = 0;
-			long size = 0;
-			int fCount = 0;
+	/**
+	 * List the content of <code>paths</code>
+	 */
+	public static void list(final Safe safe, final String [] paths, final Logger log) throws Exception
+	{
+		final java.util.Set<SafeFile> safeFiles = new LinkedHashSet<>();
+		final java.util.List<SafeFile> buffer = new ArrayList<>();
 
-			final StringBuilder sb = new StringBuilder("\n");
+		for (String path : paths)
+		{
+			log.fine("Lookup " + path + "...");
+			buffer.clear();
+			SafeFiles.match(path, safe.getRootFolder(), safe.getRootFolder(), buffer);
+			safeFiles.addAll(buffer);
+		}
 
-			for (final SafeFile sf : safeFiles)
-			{
-				if (sf.isBlock())
-				{
-					final Block block = (Block) sf;
-
-					sb.append(sf.getPath() + "\t" + Utils.humanReadableByteCount(block.getDataLength()) + "\n");
-					size += block.getDataLength();
-					bCount++;
-				} else
-				{
-					final Folder folder = (Folder) sf;
-
-					for (final SafeFile ssf : folder.listFiles())
-						if (ssf.isBlock())
-						{
-							final Block block = (Block) ssf;
-							sb.append(ssf.getPath() + "\t" + Utils.humanReadableByteCount(block.getDataLength()) + "\n");
-							bCount++;
-							size += block.getDataLength();
-						} else
-						{
-							sb.append(ssf.getPath() + "\t" + ((Folder) ssf).listFiles().size() + " child(s)\n");
-							fCount++;
-						}
-				}
-			}
+		int bCount = 0;
+		long size = 0;
+		int fCount = 0;
 
-			sb.append("\n");
+		final StringBuilder sb = new StringBuilder("\n");
 
-			if (bCount > 0)
-				sb.append(bCount + " file(s) - Total " + Utils.humanReadableByteCount(size) + "");
+		for (final SafeFile sf : safeFiles)
+		{
+			if (sf.isBlock())
+			{
+				final Block block = (Block) sf;
 
-			if (fCount > 0)
+				sb.append(sf.getPath() + "\t" + Utils.humanReadableByteCount(block.getDataLength()) + "\n");
+				size += block.getDataLength();
+				bCount++;
+			} else
 			{
-				if (bCount > 0)
-					sb.append("\n");
-				sb.append(fCount + " folder(s)");
+				final Folder folder = (Folder) sf;
+
+				for (final SafeFile ssf : folder.listFiles())
+					if (ssf.isBlock())
+					{
+						final Block block = (Block) ssf;
+						sb.append(ssf.getPath() + "\t" + Utils.humanReadableByteCount(block.getDataLength()) + "\n");
+						bCount++;
+						size += block.getDataLength();
+					} else
+					{
+						sb.append(ssf.getPath() + "\t" + ((Folder) ssf).listFiles().size() + " child(s)\n");
+						fCount++;
+					}
 			}
+		}
 
-			log.info(sb.toString());
+		sb.append("\n");
 
-		} catch (final Exception e)
+		if (bCount > 0)
+			sb.append(bCount + " file(s) - Total " + Utils.humanReadableByteCount(size) + "");
+
+		if (fCount > 0)
 		{
-			log.severe(Utils.formatException(e));
+			if (bCount > 0)
+				sb.append("\n");
+			sb.append(fCount + " folder(s)");
 		}
 
-		return null;
+		log.info(sb.toString());
+	}
+
+	@Override
+	public void resolve(final File workingDirectory)
+	{
+		this.safeFile = SafeCommand.resolve(workingDirectory, this.safeFile);
+	}
+
+	@Override
+	public String getSafeFile()
+	{
+		return this.safeFile;
+	}
+
+	@Override
+	public String getPassword()
+	{
+		return this.password;
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return false;
 	}
 }
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.cli;
+
+import io.ortis.jsafebox.Safe;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.logging.Logger;
+
+/**
+ * Subcommand operating on an opened {@link Safe}. Run by the command itself, or by the {@link Agent} on the {@link Safe} it keeps opened
+ */
+public interface SafeCommand
+{
+	/**
+	 * Get the system path of the safe file
+	 *
+	 * @return
+	 */
+	String getSafeFile();
+
+	String getPassword();
+
+	int getBufferSize();
+
+	boolean isMemoryMapped();
+
+	/**
+	 * Resolve the relative system paths of the command against <code>workingDirectory</code>. Needed when the command is run by an {@link Agent} started from another directory
+	 *
+	 * @param workingDirectory
+	 */
+	void resolve(File workingDirectory);
+
+	/**
+	 * Run the command
+	 *
+	 * @param safe: the opened safe
+	 * @param log:  destination of the messages
+	 * @param out:  destination of the output
+	 * @return the {@link Safe} to use afterward: <code>safe</code>, or the {@link Safe} returned by a save
+	 * @throws Exception
+	 */
+	Safe run(Safe safe, Logger log, PrintStream out) throws Exception;
+
+	/**
+	 * Resolve <code>systemPath</code> against <code>workingDirectory</code>
+	 *
+	 * @param workingDirectory
+	 * @param systemPath
+	 * @return <code>systemPath</code> if absolute or <code>null</code>
+	 */
+	static String resolve(final File workingDirectory, final String systemPath)
+	{
+		if(systemPath == null || new File(systemPath).isAbsolute())
+			return systemPath;
+
+		return new File(workingDirectory, systemPath).getPath();
+	}
+}
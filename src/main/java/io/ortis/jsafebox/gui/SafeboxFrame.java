@@ -36,8 +36,9 @@ import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -361,7 +362,11 @@ public class SafeboxFrame extends javax.swing.JFrame implements MouseListener, K
 		if(hashTask.getException() == null)
 		{
 			final String hash = Utils.bytesToHex(this.safe.getHash());
-			if(hashTask.getHash().equals(hash))
+			if(this.safe.isHashPending())
+				new ResultFrame(this, new ExceptionTask(new Exception(
+						"Integrity hash " + hashTask.getHash() + " cannot be verified.\n\nThe last save was interrupted before writing it. The next save will write a new integrity hash.\n"),
+						GUI.getLogger()));
+			else if(hashTask.getHash().equals(hash))
 			{
 				if(!quiet)
 					new ResultFrame(this, new AdapterTask("Integrity hash successfully verified", hash, GUI.getLogger())
@@ -446,10 +451,11 @@ public class SafeboxFrame extends javax.swing.JFrame implements MouseListener, K
 						case Image:
 							try
 							{
-								final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-								safe.extract(block, true, baos);
-								final ImagePreview imagePreview = new ImagePreview(ImageIO.read(new ByteArrayInputStream(baos.toByteArray())));
-								topRightPanel.add(imagePreview, BorderLayout.CENTER);
+								try(final InputStream is = safe.openInputStream(block))
+								{
+									final ImagePreview imagePreview = new ImagePreview(ImageIO.read(is));
+									topRightPanel.add(imagePreview, BorderLayout.CENTER);
+								}
 							} catch(final Exception e)
 							{
 								topRightPanel.removeAll();
@@ -460,11 +466,11 @@ public class SafeboxFrame extends javax.swing.JFrame implements MouseListener, K
 						case Text:
 							try
 							{
-								final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-								safe.extract(block, true, baos);
-								final String text = new String(baos.toByteArray());// use local charset
-								final TextPreview textPreview = new TextPreview(text);
-								topRightPanel.add(textPreview, BorderLayout.CENTER);
+								try(final Reader reader = new InputStreamReader(safe.openInputStream(block)))// use local charset
+								{
+									final TextPreview textPreview = new TextPreview(reader);
+									topRightPanel.add(textPreview, BorderLayout.CENTER);
+								}
 							} catch(final Exception e)
 							{
 								topRightPanel.removeAll();
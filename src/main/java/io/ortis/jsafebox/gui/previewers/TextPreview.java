@@ -19,6 +19,8 @@ package io.ortis.jsafebox.gui.previewers;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
+import java.io.Reader;
 
 public class TextPreview extends JPanel
 {
@@ -30,6 +32,27 @@ public class TextPreview extends JPanel
 	private JTextArea editArea;
 
 	public TextPreview(final String text)
+	{
+		this();
+		editArea.setText(text);
+		editArea.setCaretPosition(0);
+	}
+
+	/**
+	 * Preview the text read from <code>reader</code> without buffering it first
+	 *
+	 * @param reader
+	 * @throws IOException
+	 */
+	public TextPreview(final Reader reader) throws IOException
+	{
+		this();
+		editArea.read(reader, null);
+		editArea.setEditable(false);
+		editArea.setCaretPosition(0);
+	}
+
+	private TextPreview()
 	{
 
 		super(new BorderLayout());
@@ -37,8 +60,6 @@ public class TextPreview extends JPanel
 		editArea = new JTextArea();
 		editArea.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
 		editArea.setEditable(false);
-		editArea.setText(text);
-		editArea.setCaretPosition(0);
 
 		JScrollPane scrollingText = new JScrollPane(editArea);
 
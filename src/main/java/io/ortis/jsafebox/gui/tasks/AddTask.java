@@ -64,11 +64,8 @@ public class AddTask extends AbstractGUITask implements TaskListener
 			log.info("Initializing transfer");
 			final TaskProbeAdapter adapter = new TaskProbeAdapter();
 			adapter.addListener(this);
-			for(final File source : this.sources)
-			{
-				log.info("Copying " + source);
-				Add.add(source, null, safe, folder, this.addeds, adapter);
-			}
+			log.info("Copying " + this.sources.size() + " source(s)");
+			Add.add(this.sources, null, safe, folder, this.addeds, Runtime.getRuntime().availableProcessors(), adapter);
 
 		} catch(final Exception e)
 		{
@@ -17,14 +17,15 @@
 
 package io.ortis.jsafebox.gui.tasks;
 
+import io.ortis.jsafebox.BulkExtract;
 import io.ortis.jsafebox.Safe;
 import io.ortis.jsafebox.SafeFile;
-import io.ortis.jsafebox.cli.Extract;
 import io.ortis.jsafebox.task.Task;
 import io.ortis.jsafebox.task.TaskListener;
 import io.ortis.jsafebox.task.TaskProbeAdapter;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.logging.Logger;
 
 /**
@@ -65,7 +66,7 @@ public class ExtractTask extends AbstractGUITask implements TaskListener
 			adapter.addListener(this);
 
 			log.info("Extracting " + safeFile.getName());
-			Extract.extract(this.safe, this.safeFile, this.destination, adapter);
+			BulkExtract.extract(this.safe, Collections.singletonList(this.safeFile), this.destination, Runtime.getRuntime().availableProcessors(), adapter);
 
 		}finally
 		{
@@ -56,9 +56,7 @@ public class HashTask extends AbstractGUITask implements TaskListener
 			final TaskProbeAdapter adapter = new TaskProbeAdapter();
 			adapter.addListener(this);
 
-			System.gc();
 			final byte[] hash = safe.computeHash(adapter);
-			System.gc();
 
 			this.hash = Utils.bytesToHex(hash) ;
 
@@ -17,6 +17,7 @@
 
 package io.ortis.jsafebox.gui.tasks;
 
+import io.ortis.jsafebox.CompactionPolicy;
 import io.ortis.jsafebox.Safe;
 import io.ortis.jsafebox.gui.GUI;
 import io.ortis.jsafebox.task.Task;
@@ -58,7 +59,7 @@ public class SaveTask extends AbstractGUITask implements TaskListener
 			log.info("Writing safe file");
 			final TaskProbeAdapter adapter = new TaskProbeAdapter();
 			adapter.addListener(this);
-			this.newSafe = safe.save(adapter);
+			this.newSafe = CompactionPolicy.DEFAULT.apply(safe.saveIncremental(adapter), adapter);
 
 
 		} catch(final Exception e)
@@ -33,8 +33,7 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -132,9 +131,10 @@ public class ImageViewer extends JFrame implements KeyListener
 			BufferedImage img = this.cache.get(block);
 			if(img == null)
 			{
-				final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				safe.extract(block, true, baos);
-				img = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+				try(final InputStream is = safe.openInputStream(block))
+				{
+					img = ImageIO.read(is);
+				}
 				this.cache.put(block, img);
 			}
 
@@ -33,8 +33,9 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 /**
  * @author Ortis
@@ -70,11 +71,9 @@ public class TextViewer extends JFrame implements ActionListener
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
 
-		try(final ByteArrayOutputStream baos = new ByteArrayOutputStream())
+		try(final Reader reader = new InputStreamReader(this.safeboxFrame.getSafe().openInputStream((Block) node.getSafeFile())))// Use local Charset
 		{
-			this.safeboxFrame.getSafe().extract((Block) node.getSafeFile(), true, baos);
-			final String text = new String(baos.toByteArray());// Use local Charset
-			this.textArea.setText(text);
+			this.textArea.read(reader, null);
 		}
 
 
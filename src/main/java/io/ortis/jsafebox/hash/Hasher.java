@@ -23,8 +23,42 @@ public interface Hasher
 
 	public byte [] hash(final byte [] data);
 
+	/**
+	 * Feed data into the running digest
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void update(final byte [] data, final int offset, final int length);
+
+	/**
+	 * Complete the running digest and reset it
+	 * 
+	 * @return
+	 */
+	public byte [] digest();
+
 	public int getHashLength();
 
+	default void update(final byte [] data)
+	{
+		update(data, 0, data.length);
+	}
+
+	/**
+	 * Feed a 64 bits integer into the running digest, big-endian
+	 * 
+	 * @param value
+	 */
+	default void update(final long value)
+	{
+		final byte [] bytes = new byte[Long.BYTES];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) (value >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+		update(bytes, 0, bytes.length);
+	}
+
 	default byte [] getEmptyHash()
 	{
 		return new byte[getHashLength()];
@@ -42,7 +42,18 @@ public class SHA256 implements Hasher
 		return md.digest(data);
 	}
 
-	
+	@Override
+	public void update(final byte [] data, final int offset, final int length)
+	{
+		md.update(data, offset, length);
+	}
+
+	@Override
+	public byte [] digest()
+	{
+		return md.digest();
+	}
+
 
 	@Override
 	public int getHashLength()
@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.cli.Agent;
+import io.ortis.jsafebox.cli.Bootstrap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import picocli.CommandLine;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AgentTest
+{
+	private File folder;
+	private String previousAgentFile;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.folder = Files.createTempDirectory("agent").toFile();
+		this.previousAgentFile = System.getProperty(Agent.AGENT_FILE_PROPERTY);
+		System.setProperty(Agent.AGENT_FILE_PROPERTY, new File(this.folder, "agent").getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		if(this.previousAgentFile == null)
+			System.clearProperty(Agent.AGENT_FILE_PROPERTY);
+		else
+			System.setProperty(Agent.AGENT_FILE_PROPERTY, this.previousAgentFile);
+
+		final File[] files = this.folder.listFiles();
+		if(files != null)
+			for(final File file : files)
+				file.delete();
+		this.folder.delete();
+	}
+
+	@Test
+	public void test() throws Exception
+	{
+		final String safeFile = new File(this.folder, "agent.safe").getAbsolutePath();
+		CommandLine.call(new Bootstrap(), System.err, "init", "--password", "mypassword", safeFile);
+
+		final File systemFile = new File(this.folder, "file.txt");
+		Files.write(systemFile.toPath(), "agent content".getBytes(StandardCharsets.UTF_8));
+		final String safeFolderPath = Folder.ROOT_NAME + Folder.DELIMITER + "folder";
+		final SecretKeySpec safeKey = deriveKey(new File(safeFile), "mypassword");
+
+		// a cipher cached by this thread for another key
+		final SecretKeySpec otherKey = new SecretKeySpec(new byte[16], "AES");
+		final Cipher other = Ciphers.acquire("AES/CBC/PKCS5Padding");
+		other.init(Cipher.ENCRYPT_MODE, otherKey);
+		Ciphers.release(other, otherKey);
+
+		// no agent running
+		assertFalse(Agent.forward(new String[]{"ls", "--password", "mypassword", safeFile, safeFolderPath}, System.out));
+
+		final Agent agent = new Agent(0, 1);
+		agent.start();
+		final Thread thread = new Thread(agent::serve);
+		thread.start();
+		try
+		{
+			assertTrue(Agent.getAgentFile().exists());
+
+			// commands not operating on a safe are run locally
+			assertFalse(Agent.forward(new String[]{"init", "--password", "mypassword", safeFile + ".other"}, System.out));
+			assertFalse(Agent.forward(new String[]{"ls", "--help"}, System.out));
+
+			String output = forward("add", "--password", "mypassword", safeFile, "-m", systemFile.getAbsolutePath(), safeFolderPath);
+			assertTrue(output, output.contains("Done"));
+			assertEquals(1, agent.getOpenedSafeCount());
+
+			// the opened safe is reused
+			output = forward("ls", "--password", "mypassword", safeFile, safeFolderPath);
+			assertTrue(output, output.contains(systemFile.getName()));
+			output = forward("cat", "--password", "mypassword", safeFile, safeFolderPath + Folder.DELIMITER + systemFile.getName());
+			assertTrue(output, output.contains("agent content"));
+			assertEquals(1, agent.getOpenedSafeCount());
+
+			// the safe is reopened when a command asks for other open options
+			output = forward("cat", "--password", "mypassword", "-mm", safeFile, safeFolderPath + Folder.DELIMITER + systemFile.getName());
+			assertTrue(output, output.contains("agent content"));
+			assertEquals(1, agent.getOpenedSafeCount());
+
+			// the password is checked against the one that opened the safe
+			output = forward("ls", "--password", "wrongpassword", safeFile, safeFolderPath);
+			assertTrue(output, output.contains("Invalid password"));
+			assertFalse(output, output.contains(systemFile.getName()));
+
+			// the safe is closed once idle
+			final long deadline = System.currentTimeMillis() + 10000;
+			while(agent.getOpenedSafeCount() > 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(100);
+			assertEquals(0, agent.getOpenedSafeCount());
+			// no cipher keyed by the safe remains cached, the ones of other keys are left alone
+			assertEquals(0, Ciphers.size(safeKey));
+			assertEquals(1, Ciphers.size(otherKey));
+
+			// and opened again on demand
+			output = forward("ls", "--password", "mypassword", safeFile, safeFolderPath);
+			assertTrue(output, output.contains(systemFile.getName()));
+
+			output = forward("agent", "--stop");
+			assertTrue(output, output.contains("Agent stopped"));
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		} finally
+		{
+			agent.stop();
+			thread.join(10000);
+		}
+
+		assertFalse(Agent.getAgentFile().exists());
+		assertEquals(0, agent.getOpenedSafeCount());
+		assertEquals(0, Ciphers.size(safeKey));
+		assertEquals(1, Ciphers.size(otherKey));
+		Ciphers.clear(otherKey);
+		assertFalse(Agent.forward(new String[]{"ls", "--password", "mypassword", safeFile, safeFolderPath}, System.out));
+	}
+
+	private static SecretKeySpec deriveKey(final File file, final String password) throws Exception
+	{
+		final Map<String, String> header = Safe.readHeader(file, 1024);
+		final byte[] salt = Safe.GSON.fromJson(header.get(Safe.PBKDF2_SALT_LABEL), byte[].class);
+		final int iterations = Integer.parseInt(header.get(Safe.PBKDF2_ITERATION_LABEL).trim());
+		final byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(new PBEKeySpec(password.toCharArray(), salt, iterations, 128)).getEncoded();
+		return new SecretKeySpec(key, header.get(Safe.KEY_ALGO_LABEL));
+	}
+
+	private static String forward(final String... args) throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		assertTrue(Agent.forward(args, new PrintStream(baos, true, StandardCharsets.UTF_8.name())));
+		return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.cli.Batch;
+import io.ortis.jsafebox.cli.Bootstrap;
+import org.junit.Test;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class BatchTest
+{
+	@Test
+	public void parseTest() throws Exception
+	{
+		final java.util.List<Batch.Operation> operations = Batch.parse(new BufferedReader(new StringReader(
+				"# comment\n\nadd -m -pp key value \"/tmp/a file\" /folder\n  rm -f '/folder/a file'\nmkdir /other\nls /folder\nextract /folder/x /tmp\n")));
+		assertEquals(5, operations.size());
+		assertEquals("[3] add -m -pp key value \"/tmp/a file\" /folder", operations.get(0).toString());
+		assertEquals("[4] rm -f '/folder/a file'", operations.get(1).toString());
+
+		for(final String invalid : Arrays.asList("unknown /folder", "add /folder", "rm", "add \"/tmp/a /folder"))
+			try
+			{
+				Batch.parse(new BufferedReader(new StringReader("ls /folder\n" + invalid)));
+				fail("Operation '" + invalid + "' must be rejected");
+			} catch(final Exception e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid operation at line 2"));
+			}
+	}
+
+	@Test
+	public void batchTest() throws Exception
+	{
+		final File folder = Files.createTempDirectory("batch").toFile();
+		final String safeFile = new File(folder, "batch.safe").getAbsolutePath();
+		CommandLine.call(new Bootstrap(), System.err, "init", "--password", "mypassword", safeFile);
+
+		final StringBuilder operations = new StringBuilder("mkdir /folder\n");
+		for(int i = 0; i < 10; i++)
+		{
+			final File file = new File(folder, "file " + i + ".txt");
+			Files.write(file.toPath(), ("content " + i).getBytes(StandardCharsets.UTF_8));
+			operations.append("add \"").append(file.getAbsolutePath()).append("\" /folder\n");
+		}
+		operations.append("rm \"/folder/file 0.txt\"\nls /folder\n");
+
+		final File operationFile = new File(folder, "operations");
+		Files.write(operationFile.toPath(), operations.toString().getBytes(StandardCharsets.UTF_8));
+		final long length = new File(safeFile).length();
+		CommandLine.call(new Bootstrap(), System.err, "batch", "--password", "mypassword", safeFile, operationFile.getAbsolutePath());
+		assertTrue(new File(safeFile).length() > length);
+
+		try(final Safe safe = Safe.open(safeFile, "mypassword".toCharArray(), 1024, Logger.getAnonymousLogger()))
+		{
+			assertNull(SafeFiles.get("/folder/file 0.txt", safe.getRootFolder(), safe.getRootFolder()));
+			for(int i = 1; i < 10; i++)
+				assertNotNull(SafeFiles.get("/folder/file " + i + ".txt", safe.getRootFolder(), safe.getRootFolder()));
+		}
+
+		// a failed operation aborts the batch without writing anything
+		final byte[] before = Files.readAllBytes(new File(safeFile).toPath());
+		Files.write(operationFile.toPath(), ("rm \"/folder/file 1.txt\"\nadd " + operationFile.getAbsolutePath() + " /missing\n").getBytes(StandardCharsets.UTF_8));
+		CommandLine.call(new Bootstrap(), System.err, "batch", "--password", "mypassword", safeFile, operationFile.getAbsolutePath());
+		assertArrayEquals(before, Files.readAllBytes(new File(safeFile).toPath()));
+
+		// unless told to keep going
+		CommandLine.call(new Bootstrap(), System.err, "batch", "--password", "mypassword", "--keep-going", safeFile, operationFile.getAbsolutePath());
+		try(final Safe safe = Safe.open(safeFile, "mypassword".toCharArray(), 1024, Logger.getAnonymousLogger()))
+		{
+			assertNull(SafeFiles.get("/folder/file 1.txt", safe.getRootFolder(), safe.getRootFolder()));
+			assertNotNull(SafeFiles.get("/folder/file 2.txt", safe.getRootFolder(), safe.getRootFolder()));
+		}
+
+		for(final File file : folder.listFiles())
+			file.delete();
+		folder.delete();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.cli.Bench;
+import io.ortis.jsafebox.cli.Bootstrap;
+import org.junit.Test;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class BenchTest
+{
+	@Test
+	public void distributionTest() throws Exception
+	{
+		assertEquals(1024L, SyntheticSafe.parseLength("1K"));
+		assertEquals(3L * 1024 * 1024, SyntheticSafe.parseLength(" 3m"));
+		assertEquals(123L, SyntheticSafe.parseLength("123"));
+
+		final SyntheticSafe.Distribution<Long> distribution = SyntheticSafe.Distribution.parse("1K:1,2K:3,4K", SyntheticSafe::parseLength);
+		assertEquals(Arrays.asList(1024L, 2048L, 4096L), distribution.getValues());
+		final Random random = new Random(0);
+		final int[] counts = new int[3];
+		for(int i = 0; i < 10000; i++)
+			counts[distribution.getValues().indexOf(distribution.pick(random))]++;
+		assertTrue(counts[1] > counts[0] * 2 && counts[1] > counts[2] * 2);
+
+		for(final String invalid : Arrays.asList("1K:0", "1K:x", "x:1"))
+			try
+			{
+				SyntheticSafe.Distribution.parse(invalid, SyntheticSafe::parseLength);
+				fail("Distribution '" + invalid + "' must be rejected");
+			} catch(final IllegalArgumentException e)
+			{
+			}
+	}
+
+	@Test
+	public void syntheticInputStreamTest() throws Exception
+	{
+		final byte[] text = read(new SyntheticSafe.SyntheticInputStream(10000, 42, true));
+		assertEquals(10000, text.length);
+		assertArrayEquals(text, read(new SyntheticSafe.SyntheticInputStream(10000, 42, true)));
+		assertTrue(new String(text, "UTF-8").contains(" "));
+
+		final byte[] binary = read(new SyntheticSafe.SyntheticInputStream(10001, 42, false));
+		assertEquals(10001, binary.length);
+		assertArrayEquals(binary, read(new SyntheticSafe.SyntheticInputStream(10001, 42, false)));
+		assertFalse(Arrays.equals(binary, read(new SyntheticSafe.SyntheticInputStream(10001, 43, false))));
+	}
+
+	@Test
+	public void benchTest() throws Exception
+	{
+		final File folder = Files.createTempDirectory("bench").toFile();
+		final File safeFile = new File(folder, "bench.safe");
+
+		CommandLine.call(new Bootstrap(), System.err, "bench", "--password", "mypassword", "--blocks", "50", "--fan-out", "3", "--depth", "2", "--sizes", "1K:3,16K", "--operations",
+				"0", safeFile.getAbsolutePath());
+
+		try(final Safe safe = Safe.open(safeFile.getAbsolutePath(), "mypassword".toCharArray(), 1024, Logger.getAnonymousLogger()))
+		{
+			assertEquals(50, safe.getBlocks().size());
+			// block 7 is in the folder 7 % 9 whatever its drawn extension
+			assertEquals(1, SafeFiles.match(SyntheticSafe.getFolderPath(7, 3, 2) + Folder.DELIMITER + "file7.*", safe.getRootFolder(), safe.getRootFolder(), new ArrayList<>()).size());
+			for(final Block b : safe.getBlocks().values())
+				assertNotNull(b.getProperties().get(Block.MIME_LABEL));
+		}
+
+		final Map<String, Bench.Latencies> latencies = Bench.run(safeFile, "mypassword".toCharArray(), 1024,
+				SyntheticSafe.Distribution.parse("ls:5,extract:10,add:3,hash:1,open:1", String::trim), 60, SyntheticSafe.Distribution.parse("2K", SyntheticSafe::parseLength),
+				SyntheticSafe.Distribution.parse("txt", String::trim), 1, Logger.getAnonymousLogger());
+
+		int count = 0;
+		for(final Bench.Latencies l : latencies.values())
+		{
+			count += l.getCount();
+			assertTrue(l.getPercentile(50) <= l.getPercentile(99));
+		}
+		assertEquals(60, count);
+		assertTrue(latencies.get(Bench.EXTRACT).getBytes() > 0);
+
+		try(final Safe safe = Safe.open(safeFile.getAbsolutePath(), "mypassword".toCharArray(), 1024, Logger.getAnonymousLogger()))
+		{
+			assertEquals(50 + latencies.get(Bench.ADD).getCount(), safe.getBlocks().size());
+		}
+
+		for(final File file : folder.listFiles())
+			file.delete();
+		folder.delete();
+	}
+
+	private static byte[] read(final java.io.InputStream is) throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[777];
+		int read;
+		while((read = is.read(buffer)) > -1)
+			baos.write(buffer, 0, read);
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockFrameTest
+{
+	@Test
+	public void readWriteTest() throws Exception
+	{
+		final Random random = new Random(0);
+		final File file = File.createTempFile("frame", ".bin");
+		file.deleteOnExit();
+
+		try(final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.write(new byte[7]);
+
+			final BlockFrame[] frames = new BlockFrame[3];
+			final int[] metaLengths = {0, 100, 10000};
+			for(int i = 0; i < frames.length; i++)
+			{
+				final byte[] iv = new byte[16];
+				random.nextBytes(iv);
+				final byte[] metadata = new byte[metaLengths[i]];
+				random.nextBytes(metadata);
+
+				// the data length is patched after the data is written
+				frames[i] = new BlockFrame(raf.getFilePointer(), iv, metadata, 0);
+				frames[i].write(raf);
+				assertEquals(frames[i].getDataOffset(), raf.getFilePointer());
+				raf.write(new byte[10 * i]);
+				frames[i].writeDataLength(raf.getChannel(), 10 * i);
+				assertEquals(frames[i].getDataOffset() + 10 * i, raf.getFilePointer());
+			}
+
+			final ByteBuffer buffer = ByteBuffer.allocate(256);
+			long offset = 7;
+			for(int i = 0; i < frames.length; i++)
+			{
+				final BlockFrame frame = BlockFrame.read(raf.getChannel(), offset, raf.length(), 16, buffer);
+				assertEquals(offset, frame.getOffset());
+				assertArrayEquals(frames[i].getIV(), frame.getIV());
+				assertArrayEquals(frames[i].getMetadata(), frame.getMetadata());
+				assertEquals(frames[i].getMetaOffset(), frame.getMetaOffset());
+				assertEquals(10 * i, frame.getDataLength());
+				assertEquals(16 + Long.BYTES + metaLengths[i] + Long.BYTES + 10 * i, frame.getLength());
+				offset += frame.getLength();
+			}
+			assertEquals(raf.length(), offset);
+
+			// frames out of the readable region are rejected
+			try
+			{
+				BlockFrame.read(raf.getChannel(), frames[2].getOffset(), raf.length() - 1, 16, buffer);
+				fail("Truncated block must be rejected");
+			} catch(final IOException e)
+			{
+			}
+			try
+			{
+				BlockFrame.read(raf.getChannel(), frames[2].getOffset(), frames[2].getOffset() + 100, 16, buffer);
+				fail("Truncated block must be rejected");
+			} catch(final IOException e)
+			{
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BlockPropertiesTest
+{
+	@Test
+	public void orderTest() throws Exception
+	{
+		final Folder root = new Folder(null, Folder.ROOT_NAME);
+		final Folder folder = root.mkdir("folder");
+
+		final Map<String, String> properties = new LinkedHashMap<>();
+		properties.put(Block.MIME_LABEL, "text/plain");
+		properties.put(Block.NAME_LABEL, "previous name");
+		properties.put("custom", "value");
+		properties.put("empty", null);
+
+		final Block block = new Block("/folder/file.txt", properties, 0, 0, 0, 0, 0, 0, folder);
+		final Map<String, String> expected = new LinkedHashMap<>(properties);
+		expected.put(Block.PATH_LABEL, "/folder/file.txt");
+		expected.put(Block.NAME_LABEL, "file.txt");
+
+		assertEquals(expected, block.getProperties());
+		assertEquals(expected.toString(), block.getProperties().toString());
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(block.getProperties().keySet()));
+		assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(block.getProperties().values()));
+		assertEquals(expected, new LinkedHashMap<>(block.getProperties()));
+		assertEquals(expected.hashCode(), block.getProperties().hashCode());
+
+		assertTrue(block.getProperties().containsKey("empty"));
+		assertNull(block.getProperties().get("empty"));
+		assertNull(block.getProperties().get("missing"));
+		assertEquals("/folder/file.txt", block.getPath());
+
+		try
+		{
+			block.getProperties().put("custom", "other");
+			fail("Properties should be immutable");
+		} catch(final UnsupportedOperationException e)
+		{
+		}
+	}
+
+	@Test
+	public void pathTest() throws Exception
+	{
+		final Folder root = new Folder(null, Folder.ROOT_NAME);
+		final Folder folder = root.mkdir("Folder");
+
+		for(final String path : Arrays.asList("/Folder/file", "/FOLDER/file", "/other/file"))
+		{
+			final Block block = new Block(path, new LinkedHashMap<>(), 0, 0, 0, 0, 0, 0, folder);
+			assertEquals(path, block.getPath());
+			assertEquals(path, block.getProperties().get(Block.PATH_LABEL));
+			assertEquals(Environment.comparableString(path), block.getComparablePath());
+		}
+
+		final Block block = new Block("/file", new LinkedHashMap<>(), 0, 0, 0, 0, 0, 0, root);
+		assertEquals("/file", block.getPath());
+	}
+
+	@Test
+	public void sharingTest()
+	{
+		final Map<String, String> properties = new LinkedHashMap<>();
+		properties.put(new String(Block.MIME_LABEL), new String("application/pdf"));
+		properties.put(new String("custom"), new String("value"));
+		final Block block1 = new Block("/a", properties, 0, 0, 0, 0, 0, 0, null);
+
+		properties.clear();
+		properties.put(new String(Block.MIME_LABEL), new String("application/pdf"));
+		properties.put(new String("custom"), new String("value"));
+		final Block block2 = new Block("/b", properties, 0, 0, 0, 0, 0, 0, null);
+
+		final ArrayList<String> keys1 = new ArrayList<>(block1.getProperties().keySet());
+		final ArrayList<String> keys2 = new ArrayList<>(block2.getProperties().keySet());
+		assertEquals(keys1, keys2);
+		// labels of the protocol are replaced by their constant, other keys are kept as is
+		assertSame(Block.MIME_LABEL, keys1.get(0));
+		assertSame(Block.MIME_LABEL, keys2.get(0));
+		assertNotSame(keys1.get(1), keys2.get(1));
+
+		assertSame(block1.getProperties().get(Block.MIME_LABEL), block2.getProperties().get(Block.MIME_LABEL));
+		// values of the other labels are kept as is
+		assertNotSame(block1.getProperties().get("custom"), block2.getProperties().get("custom"));
+	}
+}
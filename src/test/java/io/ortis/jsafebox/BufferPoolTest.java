@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest
+{
+	@Test
+	public void poolTest() throws Exception
+	{
+		final BufferPool pool = new BufferPool(3000);
+
+		final byte[] first = pool.acquire(1000);
+		assertEquals(1000, first.length);
+		assertEquals(0, pool.getHits());
+		assertEquals(1, pool.getMisses());
+
+		// released buffers are wiped and reused
+		Arrays.fill(first, (byte) 1);
+		pool.release(first);
+		assertEquals(1000, pool.getPooledBytes());
+		final byte[] second = pool.acquire(1000);
+		assertSame(first, second);
+		assertArrayEquals(new byte[1000], second);
+		assertEquals(1, pool.getHits());
+		assertEquals(0, pool.getPooledBytes());
+
+		// buffers are pooled by length
+		pool.release(second);
+		assertNotSame(second, pool.acquire(500));
+		assertEquals(2, pool.getMisses());
+
+		// idle buffers never exceed the capacity
+		final List<byte[]> buffers = new ArrayList<>();
+		for(int i = 0; i < 5; i++)
+			buffers.add(pool.acquire(1000));
+		for(final byte[] buffer : buffers)
+			pool.release(buffer);
+		assertEquals(3000, pool.getPooledBytes());
+		assertEquals(2, pool.getDrops());
+
+		pool.release(null);
+		assertEquals(2, pool.getDrops());
+	}
+
+	@Test
+	public void budgetTest() throws Exception
+	{
+		final BufferPool pool = new BufferPool(0, 5000);
+
+		// slots are granted while the budget allows
+		assertEquals(3, pool.reserve(1000, 3));
+		assertEquals(3000, pool.getReservedBytes());
+		assertEquals(2, pool.reserve(1000, 4));
+		assertEquals(0, pool.reserve(1000, 1));
+		assertEquals(0, pool.reserve(0, 1));
+
+		// buffers are still served beyond the budget
+		assertEquals(1000, pool.acquire(1000).length);
+
+		pool.unreserve(1000, 2);
+		assertEquals(1, pool.reserve(2000, 2));
+		pool.unreserve(1000, 3);
+		pool.unreserve(2000, 1);
+		assertEquals(0, pool.getReservedBytes());
+	}
+
+	@Test
+	public void concurrentTest() throws Exception
+	{
+		final BufferPool pool = new BufferPool(16 * 1024);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			final List<Future<?>> futures = new ArrayList<>();
+			for(int t = 0; t < 8; t++)
+			{
+				final int length = 1024 * (1 + t % 3);
+				futures.add(executor.submit(() -> {
+					for(int i = 0; i < 10000; i++)
+					{
+						final byte[] buffer = pool.acquire(length);
+						assertEquals(length, buffer.length);
+						pool.release(buffer);
+					}
+					return null;
+				}));
+			}
+			for(final Future<?> future : futures)
+				future.get();
+		} finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals(80000, pool.getHits() + pool.getMisses());
+		assertTrue(pool.getPooledBytes() <= pool.getCapacity());
+	}
+}
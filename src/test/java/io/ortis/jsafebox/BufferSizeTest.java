@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class BufferSizeTest
+{
+	@Test
+	public void sizeTest()
+	{
+		// small lengths get a single file system block
+		assertEquals(4096, BufferSize.get(0, 4096, 1024 * 1024));
+		assertEquals(4096, BufferSize.get(100, 4096, 1024 * 1024));
+		assertEquals(4096, BufferSize.get(4096, 4096, 1024 * 1024));
+
+		// power of two multiple of the file system block holding the length
+		assertEquals(8192, BufferSize.get(4097, 4096, 1024 * 1024));
+		assertEquals(65536, BufferSize.get(50000, 4096, 1024 * 1024));
+		assertEquals(65536, BufferSize.get(50000, 512, 1024 * 1024));
+
+		// bounded by the upper bound
+		assertEquals(1024 * 1024, BufferSize.get(100 * 1024 * 1024, 4096, 1024 * 1024));
+		assertEquals(1024 * 1024, BufferSize.get(Long.MAX_VALUE, 4096, 1024 * 1024));
+		assertEquals(64, BufferSize.get(100, 4096, 64));
+		assertEquals(1000, BufferSize.get(5000, 4096, 1000));
+		assertEquals(BufferSize.DEFAULT_UPPER_BOUND, BufferSize.get(Long.MAX_VALUE, 4096, 0));
+	}
+
+	@Test
+	public void fileSystemBlockSizeTest() throws Exception
+	{
+		final File file = File.createTempFile("buffer", ".size");
+		try
+		{
+			final int blockSize = BufferSize.getFileSystemBlockSize(file);
+			assertTrue(blockSize >= 512);
+			assertEquals(1, Integer.bitCount(blockSize));
+
+			assertEquals(BufferSize.DEFAULT_FILE_SYSTEM_BLOCK_SIZE, BufferSize.getFileSystemBlockSize(new File(file.getParentFile(), "missing" + System.nanoTime() + "/file")));
+		} finally
+		{
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import io.ortis.jsafebox.task.TaskProbe;
+import io.ortis.jsafebox.task.TaskProbeAdapter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class ChunkedDataTest
+{
+	private static File folder;
+	private static Random random;
+
+	@Test
+	public void pipelineTest() throws Exception
+	{
+		final byte[] masterKey = new byte[16];
+		random.nextBytes(masterKey);
+		final byte[] iv = new byte[16];
+		random.nextBytes(iv);
+		final SecretKey key = ChunkedData.deriveKey(new SecretKeySpec(masterKey, "AES"), iv);
+
+		for(final int size : new int[]{0, 99, 100, 101, 1000, 100 * 64, 100 * 64 + 1, 12345})
+		{
+			final byte[] data = new byte[size];
+			random.nextBytes(data);
+
+			final byte[] sequential = encrypt(data, key, 1);
+			for(final int threads : new int[]{2, 3, 8})
+			{
+				// chunks are independent so the pipeline must produce the same bytes
+				final byte[] parallel = encrypt(data, key, threads);
+				assertArrayEquals(sequential, parallel);
+			}
+
+			assertEquals(size / 100 + 1, ChunkedData.getChunkCount(sequential.length, 100));
+			assertEquals(size, ChunkedData.getClearLength(sequential.length, 100));
+
+			final ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+			ChunkedData.decrypt((position, destination) -> destination.put(sequential, (int) position, destination.remaining()), 0, sequential.length, key, 100, decrypted,
+					TaskProbe.DULL_PROBE);
+			assertArrayEquals(data, decrypted.toByteArray());
+		}
+	}
+
+	@Test
+	public void progressTest() throws Exception
+	{
+		final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+		final byte[] data = new byte[10000];
+		final double[] progress = {0};
+
+		final TaskProbeAdapter adapter = new TaskProbeAdapter()
+		{
+			@Override
+			public void fireProgress(final double value)
+			{
+				assertTrue(value >= progress[0]);
+				progress[0] = value;
+			}
+		};
+
+		final File file = Files.createTempFile(folder.toPath(), null, null).toFile();
+		try(final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			ChunkedData.encrypt(new ByteArrayInputStream(data), data.length, key, 100, raf, 4, adapter);
+		}
+		assertEquals(1, progress[0], 0);
+	}
+
+	@Test
+	public void failureTest() throws Exception
+	{
+		final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+		final File file = Files.createTempFile(folder.toPath(), null, null).toFile();
+
+		// reader failure is reported to the caller
+		final InputStream failing = new InputStream()
+		{
+			private int count;
+
+			@Override
+			public int read()
+			{
+				if(++this.count > 1000)
+					throw new IllegalStateException("Read failure");
+				return 0;
+			}
+		};
+
+		try(final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			ChunkedData.encrypt(failing, -1, key, 100, raf, 4, TaskProbe.DULL_PROBE);
+			fail("Read failure must be reported");
+		} catch(final IllegalStateException e)
+		{
+			assertEquals("Read failure", e.getMessage());
+		}
+
+		// cancellation stops the pipeline
+		final TaskProbeAdapter adapter = new TaskProbeAdapter();
+		adapter.cancel();
+		try(final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			ChunkedData.encrypt(new ByteArrayInputStream(new byte[100000]), -1, key, 100, raf, 4, adapter);
+			fail("Cancellation must stop the encryption");
+		} catch(final CancellationException e)
+		{
+		}
+	}
+
+	@Test
+	public void safeTest() throws Exception
+	{
+		final byte[] key = TestUtils.randomKey(random);
+
+		final Map<String, String> header = new HashMap<>();
+		header.put(ChunkedData.CHUNK_SIZE_LABEL, "100");
+
+		final File safeFile = new File(folder, "chunked.jsafe");
+		final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+
+		final int[] sizes = {0, 1, 99, 100, 101, 200, 250, 5000};
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, header, 64);
+		for(final int size : sizes)
+		{
+			final byte[] data = new byte[size];
+			random.nextBytes(data);
+			final String path = Folder.ROOT_NAME + Folder.DELIMITER + "file" + size;
+			final Map<String, String> properties = new HashMap<>();
+			properties.put(Block.PATH_LABEL, path);
+			properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+			safe.add(properties, new ByteArrayInputStream(data), null);
+			datas.put(path, data);
+		}
+
+		try
+		{
+			TestUtils.checkBlockInputStreams(safe, safe.getTempBlocks().values(), datas, random);
+
+			safe = safe.saveIncremental(null);
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+			TestUtils.checkBlockInputStreams(safe, safe.getBlocks().values(), datas, random);
+
+			for(final Block block : safe.getBlocks().values())
+			{
+				final byte[] data = datas.get(block.getPath());
+				assertTrue(ChunkedData.isChunked(block.getProperties()));
+				assertEquals(100, ChunkedData.getChunkSize(block.getProperties()));
+				assertEquals(data.length / 100 + 1, ChunkedData.getChunkCount(block.getDataLength(), 100));
+				assertEquals(data.length, ChunkedData.getClearLength(block.getDataLength(), 100));
+				assertArrayEquals(data, TestUtils.extract(safe, block.getPath()));
+			}
+		} finally
+		{
+			safe.close();
+		}
+
+		// corruption is detected at the chunk level
+		final String corruptedPath = Folder.ROOT_NAME + Folder.DELIMITER + "file5000";
+		try(final Safe readSafe = new Safe(safeFile, keySpec, 64))
+		{
+			final Block block = readSafe.getBlock(corruptedPath);
+			try(final RandomAccessFile raf = new RandomAccessFile(safeFile, "rw"))
+			{
+				final long position = block.getDataOffset() + (100 + ChunkedData.TAG_LENGTH) * 3 + 10;
+				raf.seek(position);
+				final int b = raf.read();
+				raf.seek(position);
+				raf.write(b ^ 1);
+			}
+
+			try
+			{
+				TestUtils.extract(readSafe, corruptedPath);
+				fail("Corrupted chunk must be detected");
+			} catch(final AEADBadTagException e)
+			{
+			}
+
+			final byte[] data = datas.get(corruptedPath);
+			try(final BlockInputStream is = readSafe.openInputStream(block))
+			{
+				final byte[] read = new byte[300];
+				int total = 0;
+				while(total < read.length)
+					total += is.read(read, total, read.length - total);
+				assertArrayEquals(Arrays.copyOfRange(data, 0, 300), read);
+
+				is.seek(4000);
+				assertEquals(data[4000] & 0xFF, is.read());
+
+				try
+				{
+					is.seek(350);
+					fail("Corrupted chunk must be detected");
+				} catch(final IOException e)
+				{
+				}
+			}
+		}
+
+		// layout entries of the metadata cannot be forged when chunking is disabled
+		header.remove(ChunkedData.CHUNK_SIZE_LABEL);
+		assertTrue(safeFile.delete());
+		safe = TestUtils.createSafe(safeFile, key, header, 64);
+		try
+		{
+			final byte[] data = new byte[1000];
+			random.nextBytes(data);
+			final String path = Folder.ROOT_NAME + Folder.DELIMITER + "legacy";
+			final Map<String, String> properties = new HashMap<>();
+			properties.put(Block.PATH_LABEL, path);
+			properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+			ChunkedData.setChunked(properties, 100);
+			safe.add(properties, new ByteArrayInputStream(data), null);
+
+			safe = safe.saveIncremental(null);
+			assertFalse(ChunkedData.isChunked(safe.getBlock(path).getProperties()));
+			assertArrayEquals(data, TestUtils.extract(safe, path));
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+		} finally
+		{
+			safe.close();
+		}
+	}
+
+	private static byte[] encrypt(final byte[] data, final SecretKey key, final int threads) throws Exception
+	{
+		final File file = Files.createTempFile(folder.toPath(), null, null).toFile();
+		try(final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			final long length = ChunkedData.encrypt(new ByteArrayInputStream(data), data.length, key, 100, raf, threads, TaskProbe.DULL_PROBE);
+			assertEquals(raf.length(), length);
+		}
+
+		final byte[] encrypted = Files.readAllBytes(file.toPath());
+		assertTrue(file.delete());
+		return encrypted;
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		random = TestUtils.getRandom();
+		folder = TestUtils.mkdir();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception
+	{
+		TestUtils.delete(folder);
+	}
+}
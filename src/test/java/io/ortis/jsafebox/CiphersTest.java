@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CiphersTest
+{
+	private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+	@Test
+	public void cacheTest() throws Exception
+	{
+		final Cipher cipher = Ciphers.acquire(TRANSFORMATION);
+		assertEquals(TRANSFORMATION, cipher.getAlgorithm());
+
+		// an instance in use is never handed out again
+		final Cipher nested = Ciphers.acquire(TRANSFORMATION);
+		assertNotSame(cipher, nested);
+		Ciphers.release(nested);
+
+		Ciphers.release(cipher);
+		assertSame(cipher, Ciphers.acquire(TRANSFORMATION));
+		assertNotSame(cipher, Ciphers.acquire(TRANSFORMATION));
+
+		// instances are cached per transformation
+		final Cipher gcm = Ciphers.acquire(ChunkedData.CHUNK_ENCRYPTION);
+		Ciphers.release(gcm);
+		Ciphers.release(cipher);
+		assertSame(cipher, Ciphers.acquire(TRANSFORMATION));
+		assertSame(gcm, Ciphers.acquire(ChunkedData.CHUNK_ENCRYPTION));
+
+		final Mac mac = Ciphers.acquireMac(Deduplication.CONTENT_HASH);
+		Ciphers.release(mac);
+		assertSame(mac, Ciphers.acquireMac(Deduplication.CONTENT_HASH));
+	}
+
+	@Test
+	public void threadTest() throws Exception
+	{
+		final Cipher cipher = Ciphers.acquire(TRANSFORMATION);
+		Ciphers.release(cipher);
+
+		// instances are never shared between threads
+		final AtomicReference<Object> other = new AtomicReference<>();
+		final Thread thread = new Thread(() -> {
+			try
+			{
+				other.set(Ciphers.acquire(TRANSFORMATION));
+			} catch(final Exception e)
+			{
+				other.set(e);
+			}
+		});
+		thread.start();
+		thread.join();
+
+		assertTrue(other.get() instanceof Cipher);
+		assertNotSame(cipher, other.get());
+		assertSame(cipher, Ciphers.acquire(TRANSFORMATION));
+		assertSame(Ciphers.getSecureRandom(), Ciphers.getSecureRandom());
+	}
+
+	@Test
+	public void keyTest() throws Exception
+	{
+		final SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+		final SecretKeySpec other = new SecretKeySpec(new byte[32], "AES");
+		final Cipher cipher = Ciphers.acquire(TRANSFORMATION);
+		final Cipher gcm = Ciphers.acquire(ChunkedData.CHUNK_ENCRYPTION);
+		final Mac mac = Ciphers.acquireMac(Deduplication.CONTENT_HASH);
+		Ciphers.release(cipher, key);
+		Ciphers.release(gcm, other);
+		Ciphers.release(mac, key);
+		assertEquals(2, Ciphers.size(key));
+
+		// only the instances holding the key are dropped
+		Ciphers.clear(key);
+		assertEquals(0, Ciphers.size(key));
+		assertNotSame(cipher, Ciphers.acquire(TRANSFORMATION));
+		assertNotSame(mac, Ciphers.acquireMac(Deduplication.CONTENT_HASH));
+		assertSame(gcm, Ciphers.acquire(ChunkedData.CHUNK_ENCRYPTION));
+	}
+
+	@Test
+	public void safeTest() throws Exception
+	{
+		final byte[] key = new byte[16];
+		new Random(15).nextBytes(key);
+		final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+		final File safeFile = File.createTempFile("ciphers", ".safe");
+		safeFile.delete();
+
+		final Map<String, String> header = new HashMap<>();
+		header.put(Deduplication.DEDUPLICATION_LABEL, Deduplication.CONTENT_HASH);
+		Safe safe = TestUtils.createSafe(safeFile, key, header, 1024);
+		try
+		{
+			final byte[] data = new byte[5000];
+			new Random(15).nextBytes(data);
+			final Map<String, String> properties = new HashMap<>();
+			properties.put(Block.PATH_LABEL, Folder.ROOT_NAME + Folder.DELIMITER + "file");
+			properties.put(Block.NAME_LABEL, "file");
+			safe.add(properties, new ByteArrayInputStream(data), null);
+			safe = safe.save();
+			safe.computeHash(null);
+			final ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+			safe.extract(properties.get(Block.PATH_LABEL), false, extracted);
+			try(final BlockInputStream is = safe.openInputStream(safe.getBlocks().values().iterator().next()))
+			{
+				assertEquals(data[0], (byte) is.read());
+			}
+			assertArrayEquals(data, extracted.toByteArray());
+
+			// the heavy paths give their instances back
+			assertTrue(Ciphers.size(keySpec) > 0);
+		} finally
+		{
+			safe.close();
+			safeFile.delete();
+		}
+
+		// nothing keyed by the safe outlives it
+		assertEquals(0, Ciphers.size(keySpec));
+	}
+
+	@Test
+	public void clearTest() throws Exception
+	{
+		final Cipher cipher = Ciphers.acquire(TRANSFORMATION);
+		final Mac mac = Ciphers.acquireMac(Deduplication.CONTENT_HASH);
+		Ciphers.release(cipher);
+		Ciphers.release(mac);
+
+		// instances cached by another thread
+		final Thread thread = new Thread(() -> {
+			try
+			{
+				Ciphers.release(Ciphers.acquire(TRANSFORMATION));
+				Ciphers.release(Ciphers.acquireMac(Deduplication.CONTENT_HASH));
+			} catch(final Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+		});
+		thread.start();
+		thread.join();
+		assertTrue(Ciphers.size() >= 4);
+
+		// an instance in use is cached again once released
+		final Cipher inUse = Ciphers.acquire(ChunkedData.CHUNK_ENCRYPTION);
+		Ciphers.clear();
+		assertEquals(0, Ciphers.size());
+		assertNotSame(cipher, Ciphers.acquire(TRANSFORMATION));
+		assertNotSame(mac, Ciphers.acquireMac(Deduplication.CONTENT_HASH));
+
+		Ciphers.release(inUse);
+		assertEquals(1, Ciphers.size());
+		Ciphers.clear();
+	}
+}
@@ -30,6 +30,8 @@ import java.util.Random;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class CommandTest
@@ -249,6 +251,41 @@ public class CommandTest
 
 	}
 
+	@Test
+	public void deepWildcardTest() throws Exception
+	{
+		final File safeFile = new File(folder, TestUtils.randomString(random, 10) + ".safe");
+		CommandLine.call(new Bootstrap(), System.err, "init", "--password", "mypassword", safeFile.getAbsolutePath());
+
+		final File source = new File(folder, TestUtils.randomString(random, 10));
+		new File(source, "sub").mkdirs();
+		Files.write(new File(source, "a.txt").toPath(), "a".getBytes());
+		Files.write(new File(source, "sub/b.txt").toPath(), "b".getBytes());
+		Bootstrap.main(new String[]{"add", "--password", "mypassword", safeFile.getAbsolutePath(), "-m", source.getAbsolutePath(), "/x"});
+
+		// nested files are extracted once, inside their folder
+		final File destination = new File(folder, TestUtils.randomString(random, 10) + ".extracted");
+		destination.mkdir();
+		Bootstrap.main(new String[]{"extract", "--password", "mypassword", safeFile.getAbsolutePath(), "/x/**", destination.getAbsolutePath()});
+		assertArrayEquals("b".getBytes(), Files.readAllBytes(new File(destination, source.getName() + "/sub/b.txt").toPath()));
+		assertArrayEquals("a".getBytes(), Files.readAllBytes(new File(destination, source.getName() + "/a.txt").toPath()));
+		assertFalse(new File(destination, "a.txt").exists());
+		assertFalse(new File(destination, "b.txt").exists());
+
+		// non empty folders are only deleted when forced
+		Bootstrap.main(new String[]{"rm", "--password", "mypassword", safeFile.getAbsolutePath(), "/x/**"});
+		try(final Safe safe = Safe.open(safeFile.getAbsolutePath(), "mypassword".toCharArray(), 1024, log))
+		{
+			assertEquals(2, safe.getBlocks().size());
+		}
+
+		Bootstrap.main(new String[]{"rm", "--password", "mypassword", "-f", safeFile.getAbsolutePath(), "/x/**"});
+		try(final Safe safe = Safe.open(safeFile.getAbsolutePath(), "mypassword".toCharArray(), 1024, log))
+		{
+			assertEquals(0, safe.getBlocks().size());
+		}
+	}
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception
 	{
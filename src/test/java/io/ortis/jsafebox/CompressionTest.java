@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest
+{
+	private static File folder;
+	private static Random random;
+
+	@Test
+	public void probeTest() throws Exception
+	{
+		final Random random = new Random(0);
+
+		final byte[] noise = new byte[Compression.PROBE_LENGTH];
+		random.nextBytes(noise);
+		assertFalse(Compression.isCompressible(noise, noise.length));
+
+		final byte[] text = text(Compression.PROBE_LENGTH);
+		assertTrue(Compression.isCompressible(text, text.length));
+		assertFalse(Compression.isCompressible(text, 0));
+
+		assertTrue(Compression.isCompressedType("image/png"));
+		assertTrue(Compression.isCompressedType("application/x-zip-compressed"));
+		assertFalse(Compression.isCompressedType("image/bmp"));
+		assertFalse(Compression.isCompressedType("text/plain"));
+		assertFalse(Compression.isCompressedType(null));
+	}
+
+	@Test
+	public void compressTest() throws Exception
+	{
+		final Random random = new Random(0);
+		final Compression.Codec codec = Compression.getCodec(Compression.DEFLATE);
+
+		// text longer than the probe is compressed
+		final byte[] text = text(3 * Compression.PROBE_LENGTH + 17);
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put(Block.MIME_LABEL, "text/plain");
+		byte[] compressed;
+		try(final InputStream is = Compression.compress(new ByteArrayInputStream(text), codec, metadata))
+		{
+			compressed = readAll(is);
+		}
+		assertEquals(Compression.DEFLATE, metadata.get(Compression.COMPRESSION_LABEL));
+		assertTrue(compressed.length < text.length / 2);
+		try(final InputStream is = codec.decompress(new ByteArrayInputStream(compressed)))
+		{
+			assertArrayEquals(text, readAll(is));
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(final OutputStream os = codec.decompress(baos))
+		{
+			os.write(compressed);
+		}
+		assertArrayEquals(text, baos.toByteArray());
+
+		// incompressible data is left untouched
+		final byte[] noise = new byte[Compression.PROBE_LENGTH + 100];
+		random.nextBytes(noise);
+		metadata = new HashMap<>();
+		metadata.put(Compression.COMPRESSION_LABEL, "forged");
+		assertArrayEquals(noise, readAll(Compression.compress(new ByteArrayInputStream(noise), codec, metadata)));
+		assertFalse(Compression.isCompressed(metadata));
+
+		// compressed types are not probed
+		metadata = new HashMap<>();
+		metadata.put(Block.MIME_LABEL, "image/jpg");
+		final InputStream source = new ByteArrayInputStream(text);
+		assertSame(source, Compression.compress(source, codec, metadata));
+		assertFalse(Compression.isCompressed(metadata));
+
+		try
+		{
+			Compression.getCodec("unknown");
+			fail("Unknown codec must be rejected");
+		} catch(final IllegalArgumentException e)
+		{
+		}
+	}
+
+	@Test
+	public void safeTest() throws Exception
+	{
+		final byte[] key = TestUtils.randomKey(random);
+		final File safeFile = new File(folder, "compression.jsafe");
+
+		for(final String chunkSize : new String[]{null, "1000"})
+		{
+			final Map<String, String> header = new HashMap<>();
+			header.put(Compression.COMPRESSION_LABEL, Compression.DEFLATE);
+			if(chunkSize != null)
+				header.put(ChunkedData.CHUNK_SIZE_LABEL, chunkSize);
+
+			final byte[] noise = new byte[20000];
+			random.nextBytes(noise);
+			final Map<String, byte[]> datas = new HashMap<>();
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "empty.txt", new byte[0]);
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "log.txt", text(100000));
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "noise.bin", noise);
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "image.png", text(5000));
+
+			safeFile.delete();
+			Safe safe = TestUtils.createSafe(safeFile, key, header, 64);
+			try
+			{
+				for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				{
+					final Map<String, String> properties = new HashMap<>();
+					properties.put(Block.PATH_LABEL, entry.getKey());
+					properties.put(Block.NAME_LABEL, SafeFiles.getName(entry.getKey()));
+					properties.put(Block.MIME_LABEL, entry.getKey().endsWith(".png") ? "image/png" : "application/octet-stream");
+					safe.add(properties, new ByteArrayInputStream(entry.getValue()), null);
+				}
+
+				TestUtils.checkBlockInputStreams(safe, safe.getTempBlocks().values(), datas, random);
+
+				safe = safe.saveIncremental(null);
+				assertArrayEquals(safe.getHash(), safe.computeHash(null));
+				TestUtils.checkBlockInputStreams(safe, safe.getBlocks().values(), datas, random);
+
+				for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				{
+					final Block block = safe.getBlock(entry.getKey());
+					assertEquals(entry.getKey().endsWith("log.txt"), Compression.isCompressed(block.getProperties()));
+					assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+				}
+				assertTrue(safe.getBlock(Folder.ROOT_NAME + Folder.DELIMITER + "log.txt").getDataLength() < 100000 / 2);
+			} finally
+			{
+				safe.close();
+			}
+		}
+	}
+
+	static byte[] text(final int length)
+	{
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; sb.length() < length; i++)
+			sb.append("2026-10-17 12:00:").append(i % 60).append(" INFO Block ").append(i).append(" extracted\n");
+		return sb.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readAll(final InputStream is) throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		int read;
+		while((read = is.read(buffer)) > -1)
+			baos.write(buffer, 0, read);
+		return baos.toByteArray();
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		random = TestUtils.getRandom();
+		folder = TestUtils.mkdir();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception
+	{
+		TestUtils.delete(folder);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.security.Key;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeduplicationTest
+{
+	private static File folder;
+	private static Random random;
+
+	@Test
+	public void hashTest() throws Exception
+	{
+		final Random random = new Random(0);
+		final byte[] data = new byte[100000];
+		random.nextBytes(data);
+
+		final byte[] keyBytes = new byte[16];
+		random.nextBytes(keyBytes);
+		final Key key = new SecretKeySpec(keyBytes, "AES");
+		keyBytes[0]++;
+		final Key otherKey = new SecretKeySpec(keyBytes, "AES");
+
+		final String hash = hash(data, key, 1);
+		assertEquals(Deduplication.CONTENT_HASH_LENGTH, hash.length());
+		assertEquals(Deduplication.CONTENT_HASH_LENGTH, Deduplication.getPlaceholder().length());
+		assertTrue(hash.matches("[0-9a-f]+"));
+
+		// the hash does not depend on how the data is read
+		assertEquals(hash, hash(data, key, 7));
+		assertEquals(hash, hash(data, key, 4096));
+
+		// the hash depends on the key and on the data
+		assertNotEquals(hash, hash(data, otherKey, 4096));
+		data[data.length - 1]++;
+		assertNotEquals(hash, hash(data, key, 4096));
+	}
+
+	@Test
+	public void headerTest() throws Exception
+	{
+		final Map<String, String> header = new HashMap<>();
+		assertFalse(Deduplication.isEnabled(header));
+
+		header.put(Deduplication.DEDUPLICATION_LABEL, Deduplication.CONTENT_HASH);
+		assertTrue(Deduplication.isEnabled(header));
+
+		header.put(Deduplication.DEDUPLICATION_LABEL, "unknown");
+		try
+		{
+			Deduplication.isEnabled(header);
+			fail("Unknown content hash must be rejected");
+		} catch(final IllegalArgumentException e)
+		{
+		}
+
+		final Map<String, String> metadata = new HashMap<>();
+		assertFalse(Deduplication.isReference(metadata));
+		metadata.put(Deduplication.CONTENT_REFERENCE_LABEL, Deduplication.getPlaceholder());
+		assertTrue(Deduplication.isReference(metadata));
+		assertEquals(Deduplication.getPlaceholder(), Deduplication.getContentReference(metadata));
+	}
+
+	@Test
+	public void safeTest() throws Exception
+	{
+		final byte[] key = TestUtils.randomKey(random);
+		final File safeFile = new File(folder, "deduplication.jsafe");
+
+		for(final String chunkSize : new String[]{null, "1000"})
+		{
+			final Map<String, String> header = new HashMap<>();
+			header.put(Compression.COMPRESSION_LABEL, Compression.DEFLATE);
+			header.put(Deduplication.DEDUPLICATION_LABEL, Deduplication.CONTENT_HASH);
+			if(chunkSize != null)
+				header.put(ChunkedData.CHUNK_SIZE_LABEL, chunkSize);
+
+			final byte[] noise = new byte[20000];
+			random.nextBytes(noise);
+			final Map<String, byte[]> datas = new LinkedHashMap<>();
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "a.bin", noise);
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "b.bin", noise.clone());
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "c.bin", noise.clone());
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "log.txt", CompressionTest.text(10000));
+
+			safeFile.delete();
+			Safe safe = TestUtils.createSafe(safeFile, key, header, 64);
+			try
+			{
+				for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				{
+					final Map<String, String> properties = new HashMap<>();
+					properties.put(Block.PATH_LABEL, entry.getKey());
+					properties.put(Block.NAME_LABEL, SafeFiles.getName(entry.getKey()));
+					properties.put(Block.MIME_LABEL, "application/octet-stream");
+					safe.add(properties, new ByteArrayInputStream(entry.getValue()), null);
+				}
+
+				final Block owner = safe.getTempBlocks().get(Environment.comparableString(Folder.ROOT_NAME + Folder.DELIMITER + "a.bin"));
+				assertNotNull(Deduplication.getContentHash(owner.getProperties()));
+				assertFalse(Deduplication.isReference(owner.getProperties()));
+				for(final String name : new String[]{"b.bin", "c.bin"})
+				{
+					final Block reference = safe.getTempBlocks().get(Environment.comparableString(Folder.ROOT_NAME + Folder.DELIMITER + name));
+					assertEquals(Deduplication.getContentHash(owner.getProperties()), Deduplication.getContentReference(reference.getProperties()));
+					assertTrue(reference.getDataLength() <= 16);
+				}
+				TestUtils.checkBlockInputStreams(safe, safe.getTempBlocks().values(), datas, random);
+
+				safe = safe.saveIncremental(null);
+				assertArrayEquals(safe.getHash(), safe.computeHash(null));
+				TestUtils.checkBlockInputStreams(safe, safe.getBlocks().values(), datas, random);
+				for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+					assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+
+				// deleting the owner keeps the references readable
+				safe.delete(Folder.ROOT_NAME + Folder.DELIMITER + "a.bin");
+				datas.remove(Folder.ROOT_NAME + Folder.DELIMITER + "a.bin");
+				assertArrayEquals(noise, TestUtils.extract(safe, Folder.ROOT_NAME + Folder.DELIMITER + "b.bin"));
+
+				safe = chunkSize == null ? safe.save() : safe.saveIncremental(null);
+				assertArrayEquals(safe.getHash(), safe.computeHash(null));
+				TestUtils.checkBlockInputStreams(safe, safe.getBlocks().values(), datas, random);
+				for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+					assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+
+				final Block copy = safe.getBlock(Folder.ROOT_NAME + Folder.DELIMITER + "b.bin");
+				assertFalse(Deduplication.isReference(copy.getProperties()));
+				assertEquals(Deduplication.getContentHash(copy.getProperties()),
+						Deduplication.getContentReference(safe.getBlock(Folder.ROOT_NAME + Folder.DELIMITER + "c.bin").getProperties()));
+			} finally
+			{
+				safe.close();
+			}
+		}
+	}
+
+	private static String hash(final byte[] data, final Key key, final int bufferSize) throws Exception
+	{
+		final Deduplication.ContentHashInputStream is = Deduplication.hash(new ByteArrayInputStream(data), key);
+		final byte[] buffer = new byte[bufferSize];
+		while(is.read(buffer) >= 0)
+			;
+		return is.getContentHash();
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		random = TestUtils.getRandom();
+		folder = TestUtils.mkdir();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception
+	{
+		TestUtils.delete(folder);
+	}
+}
@@ -18,12 +18,15 @@
 package io.ortis.jsafebox;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.After;
@@ -238,4 +241,53 @@ public class FolderTest
 
 	}
 
+	@Test
+	public void indexTest() throws Exception
+	{
+		final Folder root = new Folder(null, Folder.ROOT_NAME);
+		final int count = 1000;
+		for (int i = count - 1; i >= 0; i--)
+		{
+			final String path = Folder.ROOT_NAME + Folder.DELIMITER + "block" + i;
+			root.add(new Block(path, new HashMap<>(), 0, 0, 0, 0, 0, 0, root));
+		}
+		root.mkdir("zfolder");
+		root.mkdir("afolder");
+
+		// folders first, then by name
+		final List<SafeFile> files = root.listFiles();
+		assertEquals(count + 2, files.size());
+		assertEquals("afolder", files.get(0).getName());
+		assertEquals("zfolder", files.get(1).getName());
+		for (int i = 3; i < files.size(); i++)
+			assertTrue(files.get(i - 1).getName().compareTo(files.get(i).getName()) < 0);
+		assertSame(files, root.listFiles());
+
+		// lookups ignore the case
+		assertEquals("block42", root.getChild("BLOCK42").getName());
+		assertEquals("zfolder", root.get(new String[] { "", "ZFolder" }, 1, 2).getName());
+		assertNull(root.getChild("block" + count));
+
+		try
+		{
+			root.add(new Block(Folder.ROOT_NAME + Folder.DELIMITER + "BLOCK42", new HashMap<>(), 0, 0, 0, 0, 0, 0, root));
+			fail("Duplicate block should not be allowed");
+		} catch (final Exception e)
+		{
+
+		}
+
+		// a folder hides a block with the same name
+		final Folder hiding = root.mkdir("block7");
+		assertSame(hiding, root.getChild("block7"));
+		assertTrue(root.remove("block7"));
+		assertTrue(root.getChild("block7").isBlock());
+		assertTrue(root.remove("block7"));
+		assertNull(root.getChild("block7"));
+		assertFalse(root.remove("block7"));
+
+		// listed files are not modified by later changes
+		assertEquals(count + 2, files.size());
+		assertEquals(count + 1, root.listFiles().size());
+	}
 }
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GlobTest
+{
+	@Test
+	public void nameTest()
+	{
+		assertTrue(Glob.matches("*", ""));
+		assertTrue(Glob.matches("*", "ANY"));
+		assertTrue(Glob.matches("A*", "A"));
+		assertTrue(Glob.matches("*.LOG", "2024.LOG"));
+		assertFalse(Glob.matches("*.LOG", "2024.LOGS"));
+		assertTrue(Glob.matches("A*B*C", "ABC"));
+		assertTrue(Glob.matches("A*B*C", "AXXBXXBXC"));
+		assertFalse(Glob.matches("A*B*C", "ACB"));
+		assertFalse(Glob.matches("AB*BA", "ABA"));
+		assertTrue(Glob.matches("**X", "X"));
+		// only the wildcard is special
+		assertTrue(Glob.matches("A.B*", "A.BC"));
+		assertFalse(Glob.matches("A.B*", "AXBC"));
+		assertTrue(Glob.matches("(X)[1]*", "(X)[1]"));
+		assertTrue(Glob.matches("NAME", "NAME"));
+		assertFalse(Glob.matches("NAME", "NAMES"));
+	}
+
+	@Test
+	public void matchTest() throws Exception
+	{
+		final Folder root = new Folder(null, Folder.ROOT_NAME);
+		final Folder logs = root.mkdir("logs");
+		for(final String day : new String[]{"day1", "day2", "other"})
+		{
+			final Folder folder = logs.mkdir(day);
+			for(final String name : new String[]{"2023-1.txt", "2024-1.log", "2024-2.log"})
+				add(folder, name);
+			folder.mkdir("archive");
+			add((Folder) folder.getChild("archive"), "2024-0.log");
+		}
+		add(root, "2024-root.log");
+		// a folder and a block with the same name
+		add(logs, "day1");
+
+		assertEquals(paths("/logs/day1/2024-1.log", "/logs/day1/2024-2.log", "/logs/day2/2024-1.log", "/logs/day2/2024-2.log", "/logs/other/2024-1.log", "/logs/other/2024-2.log"),
+				match(root, "/logs/*/2024*"));
+		assertEquals(paths("/logs/day1/2024-1.log", "/logs/day2/2024-1.log"), match(root, "/LOGS/DAY*/*-1.LOG"));
+		assertEquals(paths("/logs/day1", "/logs/day1"), match(root, "/logs/day1*"));
+		assertEquals(paths(), match(root, "/missing/*"));
+		assertEquals(paths(), match(root, "/logs/day1/2024-1.log/*"));
+
+		// deep patterns
+		assertEquals(paths("/2024-root.log", "/logs/day1/2024-1.log", "/logs/day1/2024-2.log", "/logs/day1/archive/2024-0.log", "/logs/day2/2024-1.log", "/logs/day2/2024-2.log",
+				"/logs/day2/archive/2024-0.log", "/logs/other/2024-1.log", "/logs/other/2024-2.log", "/logs/other/archive/2024-0.log"), sorted(match(root, "/**/2024*.log")));
+		assertEquals(paths("/logs/day1/archive/2024-0.log", "/logs/day2/archive/2024-0.log", "/logs/other/archive/2024-0.log"), match(root, "/logs/**/archive/*"));
+		// a trailing deep wildcard does not list the descendants of the matched folders again
+		assertEquals(paths("/logs/day2/2023-1.txt", "/logs/day2/2024-1.log", "/logs/day2/2024-2.log", "/logs/day2/archive"), sorted(match(root, "/logs/day2/**")));
+		assertEquals(match(root, "/logs/*"), match(root, "/logs/**"));
+		// reached through several expansions of the deep wildcards, listed once
+		assertEquals(paths("/logs/day1/archive/2024-0.log", "/logs/day2/archive/2024-0.log", "/logs/other/archive/2024-0.log"), match(root, "/**/**/archive/*.log"));
+
+		// matches already collected are not added again
+		final List<SafeFile> destination = SafeFiles.match("/logs/day1/*", root, root, new ArrayList<>());
+		SafeFiles.match("/logs/*/*", root, root, destination);
+		assertEquals(12, destination.size());
+
+		// relative patterns
+		assertEquals(paths("/logs/day1/2024-1.log", "/logs/day1/2024-2.log"), toPaths(SafeFiles.match("./2024*", (Folder) logs.getChild("day1"), root, new ArrayList<>())));
+		assertEquals(paths("/logs/day1/2024-1.log"), toPaths(SafeFiles.match("day1/*-1.log", logs, root, new ArrayList<>())));
+	}
+
+	private static void add(final Folder folder, final String name) throws Exception
+	{
+		final String path = folder.getPath() + Folder.DELIMITER + name;
+		folder.add(new Block(path, new HashMap<>(), 0, 0, 0, 0, 0, 0, folder));
+	}
+
+	private static List<String> match(final Folder root, final String pattern) throws Exception
+	{
+		return toPaths(SafeFiles.match(pattern, root, root, new ArrayList<>()));
+	}
+
+	private static List<String> toPaths(final List<SafeFile> safeFiles)
+	{
+		final List<String> paths = new ArrayList<>();
+		for(final SafeFile safeFile : safeFiles)
+			paths.add(safeFile.getPath());
+		return paths;
+	}
+
+	private static List<String> sorted(final List<String> paths)
+	{
+		paths.sort(null);
+		return paths;
+	}
+
+	private static List<String> paths(final String... paths)
+	{
+		final List<String> list = new ArrayList<>();
+		for(final String path : paths)
+			list.add(path);
+		return list;
+	}
+}
@@ -17,18 +17,40 @@
 
 package io.ortis.jsafebox;
 
+import io.ortis.jsafebox.hash.SHA256;
+import io.ortis.jsafebox.task.TaskProbe;
+import io.ortis.jsafebox.task.TaskProbeAdapter;
 import org.junit.*;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -40,6 +62,9 @@ public class SafeTest
 	private static File folder;
 	private static Random random;
 	private String filePath;
+	private File safeFile;
+	private byte[] key;
+	private SecretKeySpec keySpec;
 
 	/**
 	 * @throws java.lang.Exception
@@ -61,6 +86,10 @@ public class SafeTest
 		final File file = new File(this.filePath);
 		if(file.exists())
 			throw new Exception("Could not find non existing file");
+
+		this.safeFile = new File(folder, this.filePath);
+		this.key = TestUtils.randomKey(random);
+		this.keySpec = new SecretKeySpec(this.key, "AES");
 	}
 
 	/**
@@ -341,6 +370,7 @@ public class SafeTest
 
 				assertEquals(savedBlock.getProperties(), metadatas);
 				assertEquals(savedBlock.getProperties(), savedSafe.readMetadata(savedBlock));
+				assertArrayEquals(savedSafe.getHash(), savedSafe.computeHash(null));
 
 				extracted.reset();
 				savedSafe.extract(savedBlock, false, extracted);
@@ -381,6 +411,844 @@ public class SafeTest
 
 	}
 
+	/**
+	 * Open a safe written by the first release, before the table of contents and the streamed hash. The 8 blocks '/file{i}' (even i) and '/folder/file{i}' (odd i) hold random bytes
+	 * drawn from <code>new Random(2019)</code>
+	 */
+	@Test
+	public void legacyTest() throws Exception
+	{
+		try(final InputStream is = SafeTest.class.getResourceAsStream("/safe/legacy.safe"))
+		{
+			Files.copy(is, safeFile.toPath());
+		}
+
+		try(final Safe safe = Safe.open(safeFile.getAbsolutePath(), "legacy".toCharArray(), 1024, log))
+		{
+			assertEquals("858f49ddbc68546a9de5a0a1c764aef767963fec65e8a584fea886d5d28f4977", Utils.bytesToHex(safe.getHash()));
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+			assertEquals(8, safe.getBlocks().size());
+
+			final Random random = new Random(2019);
+			for(int i = 0; i < 8; i++)
+			{
+				final byte[] data = new byte[random.nextInt(3000)];
+				random.nextBytes(data);
+
+				final ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+				safe.extract((i % 2 == 0 ? "" : "/folder") + "/file" + i, false, extracted);
+				assertArrayEquals(data, extracted.toByteArray());
+			}
+		} finally
+		{
+			safeFile.delete();
+		}
+	}
+
+	@Test
+	public void tableOfContentsTest() throws Exception
+	{
+		final File legacyFile = new File(folder, TestUtils.randomString(random, 10) + ".jsafe");
+		final Map<String, String> legacyHeader = TestUtils.getHeader(key);
+		legacyHeader.remove(Safe.TOC_OFFSET_LABEL);
+
+		final Map<String, byte[]> datas = new HashMap<>();
+		for(int i = 0; i < 10; i++)
+		{
+			final byte[] data = new byte[random.nextInt(5000)];
+			random.nextBytes(data);
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + "folder" + i % 3 + Folder.DELIMITER + "file" + i, data);
+		}
+
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		assertTrue(safe.isTableOfContentsLoaded());
+		for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+		{
+			SafeFiles.mkdir(entry.getKey(), true, safe.getRootFolder(), safe.getRootFolder());
+			final Map<String, String> properties = new HashMap<>();
+			properties.put(Block.PATH_LABEL, entry.getKey());
+			properties.put(Block.NAME_LABEL, SafeFiles.getName(entry.getKey()));
+			safe.add(properties, new ByteArrayInputStream(entry.getValue()), null);
+		}
+
+		try(final Safe savedSafe = safe.save())
+		{
+			assertTrue(savedSafe.isTableOfContentsLoaded());
+			assertEquals(datas.size(), savedSafe.getBlocks().size());
+			assertArrayEquals(savedSafe.getHash(), savedSafe.computeHash(null));
+
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+			{
+				final Block block = savedSafe.getBlock(entry.getKey());
+				assertNotNull(block);
+				assertEquals(block.getProperties(), savedSafe.readMetadata(block));
+
+				final ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+				savedSafe.extract(block, false, extracted);
+				assertArrayEquals(entry.getValue(), extracted.toByteArray());
+			}
+		}
+
+		// legacy safe without table of contents
+		final String extraPath = Folder.ROOT_NAME + Folder.DELIMITER + "extra";
+		safe = Safe.create(legacyFile, key, legacyHeader, null, 1024);
+		assertFalse(safe.isTableOfContentsLoaded());
+		final Map<String, String> properties = new HashMap<>();
+		properties.put(Block.PATH_LABEL, extraPath);
+		properties.put(Block.NAME_LABEL, SafeFiles.getName(extraPath));
+		safe.add(properties, new ByteArrayInputStream(new byte[100]), null);
+
+		final Block extra;
+		try(final Safe legacySafe = safe.save())
+		{
+			assertFalse(legacySafe.isTableOfContentsLoaded());
+			extra = legacySafe.getBlock(extraPath);
+			assertNotNull(extra);
+		}
+
+		// a block written after the table of contents is the leftover of an interrupted save
+		try(final RandomAccessFile legacy = new RandomAccessFile(legacyFile, "r");
+				final RandomAccessFile raf = new RandomAccessFile(safeFile, "rw"))
+		{
+			final byte[] bytes = new byte[(int) extra.getLength()];
+			legacy.seek(extra.getOffset());
+			legacy.readFully(bytes);
+			raf.seek(raf.length());
+			raf.write(bytes);
+		} finally
+		{
+			legacyFile.delete();
+		}
+
+		final Block first;
+		try(final Safe interruptedSafe = new Safe(safeFile, keySpec, 1024))
+		{
+			assertTrue(interruptedSafe.isTableOfContentsLoaded());
+			assertEquals(datas.size(), interruptedSafe.getBlocks().size());
+			assertNull(interruptedSafe.getBlock(extraPath));
+			assertArrayEquals(interruptedSafe.getHash(), interruptedSafe.computeHash(null));
+			first = interruptedSafe.getBlocks().values().iterator().next();
+		}
+
+		// point the header to a block that is not a table of contents
+		writeTableOfContentsOffset(safeFile, first.getOffset());
+		try(final Safe staleSafe = new Safe(safeFile, keySpec, 1024))
+		{
+			assertFalse(staleSafe.isTableOfContentsLoaded());
+			assertEquals(datas.size() + 1, staleSafe.getBlocks().size());
+			assertNotNull(staleSafe.getBlock(extraPath));
+		}
+	}
+
+	@Test
+	public void saveIncrementalTest() throws Exception
+	{
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		for(int i = 0; i < 10; i++)
+			datas.put(add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file" + i, random), null);
+
+		safe = safe.saveIncremental(null);
+		try
+		{
+			assertTrue(safe.isTableOfContentsLoaded());
+			for(final String path : datas.keySet())
+				datas.put(path, TestUtils.extract(safe, path));
+
+			final Map<String, Long> offsets = new HashMap<>();
+			for(final Block block : safe.getBlocks().values())
+				offsets.put(block.getPath(), block.getOffset());
+
+			// delete, replace and add
+			final String deletedPath = Folder.ROOT_NAME + Folder.DELIMITER + "file0";
+			final String replacedPath = Folder.ROOT_NAME + Folder.DELIMITER + "file1";
+			safe.delete(deletedPath);
+			safe.delete(replacedPath);
+			datas.remove(deletedPath);
+			offsets.remove(deletedPath);
+			offsets.remove(replacedPath);
+			add(safe, replacedPath, random);
+			datas.put(replacedPath, TestUtils.extract(safe, replacedPath));
+			final String addedPath = add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file10", random);
+			datas.put(addedPath, TestUtils.extract(safe, addedPath));
+
+			final long previousLength = safeFile.length();
+			safe = safe.saveIncremental(null);
+
+			assertTrue(safe.isTableOfContentsLoaded());
+			assertTrue(safeFile.length() > previousLength);
+			assertEquals(datas.size(), safe.getBlocks().size());
+			assertNull(safe.getBlock(deletedPath));
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+
+			// committed blocks are not moved
+			for(final Map.Entry<String, Long> entry : offsets.entrySet())
+				assertEquals(entry.getValue().longValue(), safe.getBlock(entry.getKey()).getOffset());
+
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+		} finally
+		{
+			safe.close();
+		}
+
+		// leftover of an interrupted save is ignored then discarded
+		final long committedLength = safeFile.length();
+		try(final RandomAccessFile raf = new RandomAccessFile(safeFile, "rw"))
+		{
+			raf.seek(raf.length());
+			raf.write(new byte[1000]);
+		}
+
+		safe = new Safe(safeFile, keySpec, 1024);
+		try
+		{
+			assertTrue(safe.isTableOfContentsLoaded());
+			assertEquals(datas.size(), safe.getBlocks().size());
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+
+			safe = safe.saveIncremental(null);
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+			assertEquals(committedLength, Long.parseLong(Safe.readHeader(safeFile, 1024).get(Safe.TOC_OFFSET_LABEL)));
+		} finally
+		{
+			safe.close();
+		}
+
+		// sequential read applies the tombstones
+		writeTableOfContentsOffset(safeFile, 0);
+		try(final Safe scannedSafe = new Safe(safeFile, keySpec, 1024))
+		{
+			assertFalse(scannedSafe.isTableOfContentsLoaded());
+			assertEquals(datas.size(), scannedSafe.getBlocks().size());
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(scannedSafe, entry.getKey()));
+		}
+	}
+
+	@Test
+	public void saveIncrementalCancelTest() throws Exception
+	{
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file0", random);
+		safe = safe.saveIncremental(null);
+
+		// cancellation is ignored once the table of contents is committed
+		final String addedPath = add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file1", random);
+		final TaskProbeAdapter probe = cancelOn("Computing hash");
+		safe = safe.saveIncremental(probe);
+		try
+		{
+			assertTrue(probe.isCancelRequested());
+			assertNotNull(safe.getBlock(addedPath));
+			assertFalse(safe.isHashPending());
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+		} finally
+		{
+			safe.close();
+		}
+
+		// a save interrupted before writing the hash leaves it pending
+		try(final RandomAccessFile raf = new RandomAccessFile(safeFile, "rw"))
+		{
+			raf.write(new byte[new SHA256().getHashLength()]);
+		}
+
+		safe = new Safe(safeFile, keySpec, 1024);
+		try
+		{
+			assertTrue(safe.isHashPending());
+			assertEquals(2, safe.getBlocks().size());
+			safe = safe.saveIncremental(null);
+			assertFalse(safe.isHashPending());
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+		} finally
+		{
+			safe.close();
+		}
+	}
+
+	@Test
+	public void compactTest() throws Exception
+	{
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		for(int i = 0; i < 10; i++)
+			datas.put(add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file" + i, random), null);
+
+		safe = safe.saveIncremental(null);
+		try
+		{
+			// only the empty table of contents written on creation is dead
+			assertTrue(safe.getDeadLength() > 0);
+			assertTrue(safe.getDeadRatio() < 0.01);
+			assertSame(safe, CompactionPolicy.DEFAULT.apply(safe, null));
+
+			safe = safe.compact(null);
+			assertEquals(0, safe.getDeadLength());
+			assertEquals(0, safe.getDeadRatio(), 0);
+			assertSame(safe, safe.compact(null));
+
+			for(final String path : datas.keySet())
+				datas.put(path, TestUtils.extract(safe, path));
+
+			// blocks located before the first deleted block must not move
+			final List<Block> sorted = new ArrayList<>(safe.getBlocks().values());
+			sorted.sort(Comparator.comparingLong(Block::getOffset));
+			final Map<String, Long> offsets = new HashMap<>();
+			for(final Block block : sorted.subList(0, 3))
+				offsets.put(block.getPath(), block.getOffset());
+
+			for(final Block block : sorted.subList(3, 7))
+			{
+				safe.delete(block.getPath());
+				datas.remove(block.getPath());
+			}
+
+			safe = safe.saveIncremental(null);
+			assertTrue(safe.getDeadLength() > 0);
+			assertTrue(safe.getDeadRatio() > 0 && safe.getDeadRatio() < 1);
+			assertTrue(new CompactionPolicy(0, 1).isCompactionRequired(safe));
+			assertFalse(new CompactionPolicy(0.99, 1).isCompactionRequired(safe));
+
+			final long previousLength = safeFile.length();
+			safe = safe.compact(null);
+
+			assertTrue(safe.isTableOfContentsLoaded());
+			assertTrue(safeFile.length() < previousLength);
+			assertEquals(0, safe.getDeadLength());
+			assertEquals(datas.size(), safe.getBlocks().size());
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+
+			for(final Map.Entry<String, Long> entry : offsets.entrySet())
+				assertEquals(entry.getValue().longValue(), safe.getBlock(entry.getKey()).getOffset());
+
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+		} finally
+		{
+			safe.close();
+		}
+
+		// compacted file can still be read sequentially
+		writeTableOfContentsOffset(safeFile, 0);
+		try(final Safe scannedSafe = new Safe(safeFile, keySpec, 1024))
+		{
+			assertFalse(scannedSafe.isTableOfContentsLoaded());
+			assertEquals(datas.size(), scannedSafe.getBlocks().size());
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(scannedSafe, entry.getKey()));
+		}
+	}
+
+	@Test
+	public void compactCancelTest() throws Exception
+	{
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		for(int i = 0; i < 10; i++)
+			datas.put(add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file" + i, random), null);
+		safe = safe.saveIncremental(null);
+		for(final String path : datas.keySet())
+			datas.put(path, TestUtils.extract(safe, path));
+
+		for(final String message : new String[]{"Relocating block", "Moving block", "Computing hash"})
+		{
+			final String deletedPath = datas.keySet().iterator().next();
+			safe.delete(deletedPath);
+			datas.remove(deletedPath);
+			safe = safe.saveIncremental(null);
+
+			final TaskProbeAdapter probe = cancelOn(message);
+			try
+			{
+				safe = safe.compact(probe);
+				// cancellation is ignored once the relocated blocks are committed
+				assertNotEquals("Relocating block", message);
+				assertEquals(0, safe.getDeadLength());
+			} catch(final CancellationException e)
+			{
+				assertEquals("Relocating block", message);
+				safe = new Safe(safeFile, keySpec, 1024);
+			}
+
+			assertTrue(probe.isCancelRequested());
+			assertFalse(safe.isHashPending());
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+			assertEquals(datas.size(), safe.getBlocks().size());
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+		}
+		safe.close();
+	}
+
+	@Test
+	public void concurrentExtractTest() throws Exception
+	{
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		for(int i = 0; i < 20; i++)
+			datas.put(add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file" + i, random), null);
+
+		// temp blocks are read concurrently as well
+		for(final String path : datas.keySet())
+			datas.put(path, TestUtils.extract(safe, path));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			for(int pass = 0; pass < 2; pass++)
+			{
+				final Safe current = safe;
+				final List<Future<?>> futures = new ArrayList<>();
+				for(int i = 0; i < 8; i++)
+					futures.add(executor.submit(() -> {
+						for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+						{
+							assertArrayEquals(entry.getValue(), TestUtils.extract(current, entry.getKey()));
+							final Block block = current.getBlock(entry.getKey());
+							if(block != null)
+								assertEquals(entry.getKey(), current.readMetadata(block).get(Block.PATH_LABEL));
+						}
+						assertArrayEquals(current.getHash(), current.computeHash(null));
+						return null;
+					}));
+
+				for(final Future<?> future : futures)
+					future.get();
+
+				if(pass == 0)
+					safe = safe.saveIncremental(null);
+			}
+		} finally
+		{
+			executor.shutdown();
+			safe.close();
+		}
+	}
+
+	@Test
+	public void memoryMappedTest() throws Exception
+	{
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		for(int i = 0; i < 10; i++)
+			datas.put(add(safe, Folder.ROOT_NAME + Folder.DELIMITER + "file" + i, random), null);
+
+		safe = safe.saveIncremental(null);
+		try
+		{
+			assertFalse(safe.isMemoryMapped());
+			for(final String path : datas.keySet())
+				datas.put(path, TestUtils.extract(safe, path));
+		} finally
+		{
+			safe.close();
+		}
+
+		try(final Safe mappedSafe = new Safe(safeFile, keySpec, 1024, true))
+		{
+			assertTrue(mappedSafe.isMemoryMapped());
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+			{
+				assertArrayEquals(entry.getValue(), TestUtils.extract(mappedSafe, entry.getKey()));
+				assertEquals(entry.getKey(), mappedSafe.readMetadata(mappedSafe.getBlock(entry.getKey())).get(Block.PATH_LABEL));
+			}
+
+			// blocks spanning several segments
+			try(final RandomAccessFile raf = new RandomAccessFile(safeFile, "r"))
+			{
+				final MappedFile mappedFile = new MappedFile(raf.getChannel(), raf.length(), 100);
+				for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				{
+					final Block block = mappedSafe.getBlock(entry.getKey());
+					final ByteBuffer iv = ByteBuffer.allocate(16);
+					mappedFile.read(block.getOffset(), iv);
+
+					final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+					cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv.array()));
+					final ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+					SafeIO.decrypt(mappedFile, block.getDataOffset(), block.getDataLength(), cipher, extracted, new byte[64], TaskProbe.DULL_PROBE);
+					assertArrayEquals(entry.getValue(), extracted.toByteArray());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void blockInputStreamTest() throws Exception
+	{
+		final int[] sizes = {0, 1, 15, 16, 17, 31, 32, 33, 1024, 5000};
+		final Map<String, byte[]> datas = new HashMap<>();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 64);
+		for(final int size : sizes)
+		{
+			final byte[] data = new byte[size];
+			random.nextBytes(data);
+			final String path = Folder.ROOT_NAME + Folder.DELIMITER + "file" + size;
+			final Map<String, String> properties = new HashMap<>();
+			properties.put(Block.PATH_LABEL, path);
+			properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+			safe.add(properties, new ByteArrayInputStream(data), null);
+			datas.put(path, data);
+		}
+
+		try
+		{
+			// temporary blocks
+			TestUtils.checkBlockInputStreams(safe, safe.getTempBlocks().values(), datas, random);
+
+			safe = safe.saveIncremental(null);
+			TestUtils.checkBlockInputStreams(safe, safe.getBlocks().values(), datas, random);
+		} finally
+		{
+			safe.close();
+		}
+
+		try(final Safe mappedSafe = new Safe(safeFile, keySpec, 64, true))
+		{
+			TestUtils.checkBlockInputStreams(mappedSafe, mappedSafe.getBlocks().values(), datas, random);
+
+			// the cipher of the stream goes back to the cache of the thread
+			final Cipher cipher = Ciphers.acquire("AES/CBC/PKCS5Padding");
+			Ciphers.release(cipher);
+			final BlockInputStream is = mappedSafe.openInputStream(mappedSafe.getBlocks().values().iterator().next());
+			assertNotSame(cipher, Ciphers.acquire("AES/CBC/PKCS5Padding"));
+			is.close();
+			is.close();
+			assertSame(cipher, Ciphers.acquire("AES/CBC/PKCS5Padding"));
+
+			// the released cipher may be used by another operation, a closed stream must not drive it
+			try
+			{
+				is.read();
+				fail("A closed stream must not be readable");
+			} catch(final IOException e)
+			{
+			}
+			try
+			{
+				is.read(new byte[16], 0, 16);
+				fail("A closed stream must not be readable");
+			} catch(final IOException e)
+			{
+			}
+			try
+			{
+				is.skip(1);
+				fail("A closed stream must not be skippable");
+			} catch(final IOException e)
+			{
+			}
+			try
+			{
+				is.seek(0);
+				fail("A closed stream must not be seekable");
+			} catch(final IOException e)
+			{
+			}
+		}
+	}
+
+	@Test
+	public void parallelDecryptTest() throws Exception
+	{
+		final byte[] iv = new byte[16];
+
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			final int[] sizes = {0, 1, 15, 16, 17, 63, 64, 65, 1000, 5000};
+			for(final int size : sizes)
+			{
+				final byte[] data = new byte[size];
+				random.nextBytes(data);
+				random.nextBytes(iv);
+
+				final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+				cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+				final byte[] encrypted = cipher.doFinal(data);
+
+				// segments are read at their own position, prefix the data to check the offsets
+				final byte[] file = new byte[encrypted.length + 7];
+				System.arraycopy(encrypted, 0, file, 7, encrypted.length);
+				final SafeIO.Source source = (position, destination) -> destination.put(file, (int) position, destination.remaining());
+
+				for(final int segmentSize : new int[]{16, 32, 48, 1024})
+				{
+					final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					assertEquals(size, SafeIO.decrypt(source, 7, encrypted.length, cipher.getAlgorithm(), keySpec, iv, baos, segmentSize, pool,
+							TaskProbe.DULL_PROBE));
+					assertArrayEquals(data, baos.toByteArray());
+				}
+			}
+
+			try
+			{
+				SafeIO.decrypt((position, destination) -> {
+				}, 0, 64, "AES/CBC/PKCS5Padding", keySpec, iv, new ByteArrayOutputStream(), 20, pool, TaskProbe.DULL_PROBE);
+				fail("Segment size must be a multiple of the block size");
+			} catch(final IllegalArgumentException e)
+			{
+			}
+
+			// padding is checked on the last segment
+			final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+			final byte[] encrypted = cipher.doFinal(new byte[100]);
+			encrypted[encrypted.length - 1] ^= 1;
+			try
+			{
+				SafeIO.decrypt((position, destination) -> destination.put(encrypted, (int) position, destination.remaining()), 0, encrypted.length, cipher.getAlgorithm(),
+						keySpec, iv, new ByteArrayOutputStream(), 32, pool, TaskProbe.DULL_PROBE);
+				fail("Corrupted padding must be detected");
+			} catch(final BadPaddingException e)
+			{
+			}
+		} finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void bulkImportTest() throws Exception
+	{
+		final Map<String, String> header = new HashMap<>();
+		header.put(ChunkedData.CHUNK_SIZE_LABEL, "1000");
+
+		// enough files for several batches per worker
+		final File sourceFolder = Files.createTempDirectory(folder.toPath(), "bulk").toFile();
+		final File subFolder = new File(sourceFolder, "sub");
+		assertTrue(subFolder.mkdir());
+		final Map<String, byte[]> datas = new HashMap<>();
+		for(int i = 0; i < 3 * BulkImport.BATCH_COUNT; i++)
+		{
+			final byte[] data = new byte[random.nextInt(5000)];
+			random.nextBytes(data);
+			final File file = new File(i % 2 == 0 ? sourceFolder : subFolder, "file" + i);
+			Files.write(file.toPath(), data);
+			datas.put(Folder.ROOT_NAME + Folder.DELIMITER + sourceFolder.getName() + (i % 2 == 0 ? "" : Folder.DELIMITER + "sub") + Folder.DELIMITER + file.getName(), data);
+		}
+
+		Safe safe = TestUtils.createSafe(safeFile, key, header, 1024);
+		try
+		{
+			final List<SafeFile> addeds = io.ortis.jsafebox.cli.Add.add(Arrays.asList(sourceFolder), null, safe, safe.getRootFolder(), new ArrayList<>(), 4, null);
+			assertEquals(datas.size() + 2, addeds.size());
+			assertEquals(datas.size(), safe.getTempBlocks().size());
+
+			// paths already in the safe are rejected before any encryption
+			final long tempLength = safe.getTemp().length();
+			try
+			{
+				io.ortis.jsafebox.cli.Add.add(Arrays.asList(sourceFolder), null, safe, safe.getRootFolder(), new ArrayList<>(), 4, null);
+				fail("Duplicated paths must be rejected");
+			} catch(final Exception e)
+			{
+			}
+			assertEquals(tempLength, safe.getTemp().length());
+			assertEquals(datas.size(), safe.getTempBlocks().size());
+
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+
+			// progress is reported while the files are encrypted, before their single batch is linked
+			final List<BulkImport.Entry> slowEntries = new ArrayList<>();
+			for(int i = 0; i < 5; i++)
+			{
+				final byte[] data = new byte[1000];
+				random.nextBytes(data);
+				final String path = Folder.ROOT_NAME + Folder.DELIMITER + "slow" + i;
+				datas.put(path, data);
+
+				final Map<String, String> properties = new HashMap<>();
+				properties.put(Block.PATH_LABEL, path);
+				properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+				slowEntries.add(new BulkImport.Entry(null, properties)
+				{
+					@Override
+					public InputStream openInputStream() throws IOException
+					{
+						try
+						{
+							Thread.sleep(150);
+						} catch(final InterruptedException e)
+						{
+							throw new InterruptedIOException();
+						}
+						return new ByteArrayInputStream(data);
+					}
+
+					@Override
+					public long getLength()
+					{
+						return data.length;
+					}
+				});
+			}
+
+			final Safe importing = safe;
+			final List<Double> unlinkedProgresses = new ArrayList<>();
+			BulkImport.add(safe, slowEntries, 1, new TaskProbeAdapter()
+			{
+				@Override
+				public void fireProgress(final double progress)
+				{
+					super.fireProgress(progress);
+					if(importing.getTempBlock(Folder.ROOT_NAME + Folder.DELIMITER + "slow0") == null)
+						unlinkedProgresses.add(progress);
+				}
+			});
+			assertTrue(unlinkedProgresses.toString(), unlinkedProgresses.stream().anyMatch(progress -> progress > 0));
+
+			safe = safe.saveIncremental(null);
+			assertArrayEquals(safe.getHash(), safe.computeHash(null));
+			assertEquals(datas.size(), safe.getBlocks().size());
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), TestUtils.extract(safe, entry.getKey()));
+		} finally
+		{
+			safe.close();
+			for(final File file : subFolder.listFiles())
+				file.delete();
+			subFolder.delete();
+			for(final File file : sourceFolder.listFiles())
+				file.delete();
+			sourceFolder.delete();
+		}
+	}
+
+	@Test
+	public void bulkExtractTest() throws Exception
+	{
+		final File destination = Files.createTempDirectory(folder.toPath(), "extract").toFile();
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 1024);
+		try
+		{
+			final Map<String, byte[]> datas = new HashMap<>();
+			final Folder sub = safe.getRootFolder().mkdir("sub");
+			for(int i = 0; i < 100; i++)
+			{
+				final byte[] data = new byte[random.nextInt(5000)];
+				random.nextBytes(data);
+				final String path = (i % 3 == 0 ? sub.getPath() : Folder.ROOT_NAME) + Folder.DELIMITER + "file" + i;
+				final Map<String, String> properties = new HashMap<>();
+				properties.put(Block.PATH_LABEL, path);
+				properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+				safe.add(properties, new ByteArrayInputStream(data), null);
+				datas.put(path, data);
+
+				// mix saved and temporary blocks
+				if(i == 50)
+					safe = safe.saveIncremental(null);
+			}
+
+			final List<BulkExtract.Entry> plan = BulkExtract.plan(safe, safe.getRootFolder().listFiles(), destination, TaskProbe.DULL_PROBE);
+			assertEquals(datas.size(), plan.size());
+			for(int i = 1; i < plan.size(); i++)
+			{
+				final BulkExtract.Entry previous = plan.get(i - 1);
+				final BulkExtract.Entry entry = plan.get(i);
+				assertTrue(previous.isTemp() == entry.isTemp() ? previous.getBlock().getOffset() < entry.getBlock().getOffset() : entry.isTemp());
+			}
+
+			BulkExtract.extract(safe, safe.getRootFolder().listFiles(), destination, 4, null);
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				assertArrayEquals(entry.getValue(), Files.readAllBytes(new File(destination, entry.getKey()).toPath()));
+
+			// blocks flattened to the same destination are extracted once, the last one wins
+			final List<Block> homonyms = new ArrayList<>();
+			for(final String path : new String[]{sub.getPath() + Folder.DELIMITER + "same", Folder.ROOT_NAME + Folder.DELIMITER + "same"})
+			{
+				final byte[] data = new byte[10000 + random.nextInt(5000)];
+				random.nextBytes(data);
+				final Map<String, String> properties = new HashMap<>();
+				properties.put(Block.PATH_LABEL, path);
+				properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+				homonyms.add(safe.add(properties, new ByteArrayInputStream(data), null));
+				datas.put(path, data);
+			}
+			assertEquals(1, BulkExtract.plan(safe, homonyms, destination, TaskProbe.DULL_PROBE).size());
+			BulkExtract.extract(safe, homonyms, destination, 4, null);
+			assertArrayEquals(datas.get(Folder.ROOT_NAME + Folder.DELIMITER + "same"), Files.readAllBytes(new File(destination, "same").toPath()));
+
+			// a cancelled probe stops the decryption of the block in flight
+			final byte[] large = new byte[1000000];
+			random.nextBytes(large);
+			final Map<String, String> properties = new HashMap<>();
+			properties.put(Block.PATH_LABEL, Folder.ROOT_NAME + Folder.DELIMITER + "large");
+			properties.put(Block.NAME_LABEL, "large");
+			safe.add(properties, new ByteArrayInputStream(large), null);
+			final TaskProbeAdapter cancelled = new TaskProbeAdapter();
+			cancelled.cancel();
+			final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+			try
+			{
+				safe.extract(properties.get(Block.PATH_LABEL), true, partial, cancelled);
+				fail("Extraction of a cancelled probe must fail");
+			} catch(final CancellationException e)
+			{
+				assertTrue(partial.size() < large.length);
+			}
+		} finally
+		{
+			safe.close();
+			final File subDirectory = new File(destination, "sub");
+			if(subDirectory.exists())
+			{
+				for(final File file : subDirectory.listFiles())
+					file.delete();
+				subDirectory.delete();
+			}
+			for(final File file : destination.listFiles())
+				file.delete();
+			destination.delete();
+		}
+	}
+
+	private static String add(final Safe safe, final String path, final Random random) throws Exception
+	{
+		final byte[] data = new byte[random.nextInt(5000)];
+		random.nextBytes(data);
+
+		final Map<String, String> properties = new HashMap<>();
+		properties.put(Block.PATH_LABEL, path);
+		properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+		safe.add(properties, new ByteArrayInputStream(data), null);
+
+		return path;
+	}
+
+	/**
+	 * Get a probe requesting the cancellation of the task once a message starting with <code>message</code> is fired
+	 */
+	private static TaskProbeAdapter cancelOn(final String message)
+	{
+		return new TaskProbeAdapter()
+		{
+			@Override
+			public void fireMessage(final String fired)
+			{
+				super.fireMessage(fired);
+				if(fired.startsWith(message))
+					cancel();
+			}
+		};
+	}
+
+	private static void writeTableOfContentsOffset(final File safeFile, final long offset) throws Exception
+	{
+		final Map<String, String> header = Safe.readHeader(safeFile, 1024);
+		header.put(Safe.TOC_OFFSET_LABEL, Safe.formatTableOfContentsOffset(offset));
+
+		try(final RandomAccessFile raf = new RandomAccessFile(safeFile, "rw"))
+		{
+			raf.seek(new SHA256().getHashLength() + Long.BYTES);
+			raf.write(Safe.GSON.toJson(header).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception
 	{
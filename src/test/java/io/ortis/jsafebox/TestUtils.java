@@ -17,11 +17,19 @@
 
 package io.ortis.jsafebox;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 public class TestUtils
 {
 
@@ -104,4 +112,119 @@ public class TestUtils
 			throw new Exception("Could not delete file " + file.getAbsolutePath());
 
 	}
+
+	/**
+	 * Header of a safe encrypted with AES/CBC and holding a table of contents. The key is used as PBKDF2 salt with a single iteration, it is not derived from a password
+	 *
+	 * @param key: the encryption key
+	 * @return
+	 */
+	public static Map<String, String> getHeader(final byte[] key)
+	{
+		final Map<String, String> header = new HashMap<>();
+		header.put(Safe.ENCRYPTION_LABEL, "AES/CBC/PKCS5Padding");
+		header.put(Safe.KEY_ALGO_LABEL, "AES");
+		header.put(Safe.PBKDF2_SALT_LABEL, Safe.GSON.toJson(key));
+		header.put(Safe.PBKDF2_ITERATION_LABEL, Integer.toString(1));
+		header.put(Safe.ENCRYPTION_IV_LENGTH_LABEL, Integer.toString(key.length));
+		header.put(Safe.TOC_OFFSET_LABEL, "");
+		return header;
+	}
+
+	/**
+	 * Create a safe with the header of {@link #getHeader(byte[])}
+	 *
+	 * @param file:        the safe file
+	 * @param key:         the encryption key
+	 * @param extraHeader: entries added to the header, may be <code>null</code>
+	 * @param bufferSize:  upper bound of the io buffers
+	 * @return
+	 * @throws Exception
+	 */
+	public static Safe createSafe(final File file, final byte[] key, final Map<String, String> extraHeader, final int bufferSize) throws Exception
+	{
+		final Map<String, String> header = getHeader(key);
+		if (extraHeader != null)
+			header.putAll(extraHeader);
+
+		return Safe.create(file, key, header, null, bufferSize);
+	}
+
+	/**
+	 * Draw a random 128 bits AES key
+	 */
+	public static byte[] randomKey(final Random random)
+	{
+		final byte[] key = new byte[16];
+		random.nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * Extract the data of a block, temporary blocks included
+	 */
+	public static byte[] extract(final Safe safe, final String path) throws Exception
+	{
+		final ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+		safe.extract(path, true, extracted);
+		return extracted.toByteArray();
+	}
+
+	/**
+	 * Check sequential reads, skips and seeks of the {@link BlockInputStream} of every block against the expected data
+	 *
+	 * @param datas: expected data by block path
+	 */
+	public static void checkBlockInputStreams(final Safe safe, final Collection<Block> blocks, final Map<String, byte[]> datas, final Random random) throws Exception
+	{
+		assertEquals(datas.size(), blocks.size());
+		for(final Block block : blocks)
+		{
+			final byte[] data = datas.get(block.getPath());
+
+			// sequential read
+			try(final BlockInputStream is = safe.openInputStream(block))
+			{
+				final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				int b;
+				while((b = is.read()) >= 0)
+					baos.write(b);
+				assertArrayEquals(data, baos.toByteArray());
+				assertEquals(data.length, is.length());
+			}
+
+			// length is known before reading
+			try(final BlockInputStream is = safe.openInputStream(block))
+			{
+				assertEquals(data.length, is.length());
+				assertEquals(data.length, is.skip(data.length + 10));
+				assertEquals(-1, is.read());
+			}
+
+			// random skips and seeks
+			for(int i = 0; i < 10; i++)
+				try(final BlockInputStream is = safe.openInputStream(block))
+				{
+					final int start = data.length == 0 ? 0 : random.nextInt(data.length);
+					assertEquals(start, is.skip(start));
+					assertEquals(start, is.getPosition());
+
+					final int length = data.length == start ? 0 : random.nextInt(data.length - start);
+					final byte[] read = new byte[length];
+					int total = 0;
+					while(total < length)
+						total += is.read(read, total, length - total);
+					assertArrayEquals(Arrays.copyOfRange(data, start, start + length), read);
+
+					final int target = data.length == 0 ? 0 : random.nextInt(data.length);
+					is.seek(target);
+					final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					final byte[] buffer = new byte[7];
+					int r;
+					while((r = is.read(buffer)) >= 0)
+						baos.write(buffer, 0, r);
+					assertArrayEquals(Arrays.copyOfRange(data, target, data.length), baos.toByteArray());
+				}
+		}
+	}
 }
@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal benchmark harness following the JMH average time mode: each measurement runs warmup iterations then measured iterations, every iteration on a fresh {@link Fixture} whose setup
+ * and tear down are not timed. Results are exported in the JSON format of JMH so they can be compared with the usual tools
+ */
+public class BenchmarkHarness
+{
+	/**
+	 * Student t quantile of the 99.9% confidence interval, approximated by the normal distribution
+	 */
+	private static final double CONFIDENCE_QUANTILE = 3.291;
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final List<Result> results = new ArrayList<>();
+
+	public BenchmarkHarness(final int warmupIterations, final int measurementIterations)
+	{
+		if(measurementIterations < 1)
+			throw new IllegalArgumentException("At least one measurement iteration is required");
+
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+	}
+
+	/**
+	 * Measure the average time of an operation
+	 *
+	 * @param benchmark:  name of the benchmark
+	 * @param params:     parameters of the benchmark
+	 * @param operations: number of operations run by {@link Fixture#run()}
+	 * @param setup:      create the {@link Fixture} of an iteration
+	 * @return the result, also kept for {@link #export(File)}
+	 * @throws Exception
+	 */
+	public Result measure(final String benchmark, final Map<String, ?> params, final int operations, final Callable<Fixture> setup) throws Exception
+	{
+		final double[] samples = new double[this.measurementIterations];
+		for(int i = -this.warmupIterations; i < this.measurementIterations; i++)
+			try(final Fixture fixture = setup.call())
+			{
+				final long start = System.nanoTime();
+				fixture.run();
+				final long elapsed = System.nanoTime() - start;
+				if(i >= 0)
+					samples[i] = elapsed / 1_000.0 / operations;
+			}
+
+		final Map<String, String> parameters = new LinkedHashMap<>();
+		for(final Map.Entry<String, ?> entry : params.entrySet())
+			parameters.put(entry.getKey(), String.valueOf(entry.getValue()));
+
+		final Result result = new Result(benchmark, parameters, samples);
+		this.results.add(result);
+		System.out.println(result);
+		return result;
+	}
+
+	/**
+	 * Write the results in the JSON format of JMH
+	 *
+	 * @param file
+	 * @throws Exception
+	 */
+	public void export(final File file) throws Exception
+	{
+		final List<Map<String, Object>> json = new ArrayList<>();
+		for(final Result result : this.results)
+		{
+			final Map<String, Object> primaryMetric = new LinkedHashMap<>();
+			primaryMetric.put("score", result.getScore());
+			primaryMetric.put("scoreError", result.getScoreError());
+			primaryMetric.put("scoreUnit", Result.UNIT);
+			primaryMetric.put("rawData", Collections.singletonList(result.getSamples()));
+
+			final Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("benchmark", result.getBenchmark());
+			entry.put("mode", "avgt");
+			entry.put("warmupIterations", this.warmupIterations);
+			entry.put("measurementIterations", this.measurementIterations);
+			entry.put("params", result.getParams());
+			entry.put("primaryMetric", primaryMetric);
+			json.add(entry);
+		}
+
+		try(final Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))
+		{
+			new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson(json, writer);
+		}
+	}
+
+	public List<Result> getResults()
+	{
+		return Collections.unmodifiableList(this.results);
+	}
+
+	/**
+	 * State of a benchmark iteration. Only {@link #run()} is timed
+	 */
+	public interface Fixture extends AutoCloseable
+	{
+		void run() throws Exception;
+
+		@Override
+		default void close() throws Exception
+		{
+		}
+	}
+
+	/**
+	 * Average time of an operation, in microseconds
+	 */
+	public static class Result
+	{
+		public static final String UNIT = "us/op";
+
+		private final String benchmark;
+		private final Map<String, String> params;
+		private final double[] samples;
+		private final double score;
+		private final double scoreError;
+
+		public Result(final String benchmark, final Map<String, String> params, final double[] samples)
+		{
+			this.benchmark = benchmark;
+			this.params = params;
+			this.samples = samples;
+
+			double sum = 0;
+			for(final double sample : samples)
+				sum += sample;
+			this.score = sum / samples.length;
+
+			double variance = 0;
+			for(final double sample : samples)
+				variance += (sample - this.score) * (sample - this.score);
+			this.scoreError = samples.length < 2 ? Double.NaN : CONFIDENCE_QUANTILE * Math.sqrt(variance / (samples.length - 1)) / Math.sqrt(samples.length);
+		}
+
+		public String getBenchmark()
+		{
+			return this.benchmark;
+		}
+
+		public Map<String, String> getParams()
+		{
+			return this.params;
+		}
+
+		public double[] getSamples()
+		{
+			return this.samples;
+		}
+
+		public double getScore()
+		{
+			return this.score;
+		}
+
+		public double getScoreError()
+		{
+			return this.scoreError;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-24s %-40s %14.3f ± %10.3f %s", this.benchmark, this.params, this.score, this.scoreError, UNIT);
+		}
+	}
+}
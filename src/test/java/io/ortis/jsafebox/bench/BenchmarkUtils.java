@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Block;
+import io.ortis.jsafebox.Folder;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.SafeFiles;
+import io.ortis.jsafebox.TestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Shared fixtures of the benchmarks
+ */
+public class BenchmarkUtils
+{
+	public static final OutputStream NULL_OUTPUT = new OutputStream()
+	{
+		@Override
+		public void write(final int b)
+		{
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+		{
+		}
+	};
+
+	/**
+	 * Create a safe in a temporary file containing <code>blockCount</code> random blocks of <code>blockSize</code> bytes
+	 *
+	 * @param key:   filled with the random encryption key of the safe
+	 * @param paths: filled with the paths of the blocks
+	 * @return the safe file
+	 */
+	public static File createSafe(final int blockCount, final int blockSize, final byte[] key, final List<String> paths) throws Exception
+	{
+		return createSafe(blockCount, blockSize, 0, key, paths);
+	}
+
+	/**
+	 * Create a safe in a temporary file containing <code>blockCount</code> random blocks of <code>blockSize</code> bytes, spread over <code>fanOut</code> folders under the root
+	 *
+	 * @param fanOut: number of folders holding the blocks. The blocks are stored in the root folder if 0
+	 * @param key:    filled with the random encryption key of the safe
+	 * @param paths:  filled with the paths of the blocks
+	 * @return the safe file
+	 */
+	public static File createSafe(final int blockCount, final int blockSize, final int fanOut, final byte[] key, final List<String> paths) throws Exception
+	{
+		final Random random = new SecureRandom();
+		random.nextBytes(key);
+
+		final File safeFile = File.createTempFile("benchmark", ".safe");
+		safeFile.delete();
+		safeFile.deleteOnExit();
+
+		Safe safe = TestUtils.createSafe(safeFile, key, null, 65536);
+		final byte[] data = new byte[blockSize];
+		for(int i = 0; i < blockCount; i++)
+		{
+			random.nextBytes(data);
+			final String path = getPath(i, fanOut);
+			safe.getRootFolder().mkdir(path.split(Folder.REGEX_DELIMITER), 1, true);
+			safe.add(getProperties(path), new ByteArrayInputStream(data), null);
+			paths.add(path);
+		}
+		safe.saveIncremental(null).close();
+
+		return safeFile;
+	}
+
+	/**
+	 * Get the path of the <code>index</code>th generated block
+	 *
+	 * @param fanOut: number of folders holding the blocks. The blocks are stored in the root folder if 0
+	 * @return
+	 */
+	public static String getPath(final int index, final int fanOut)
+	{
+		if(fanOut <= 0)
+			return Folder.ROOT_NAME + Folder.DELIMITER + "file" + index;
+
+		return Folder.ROOT_NAME + Folder.DELIMITER + "folder" + (index % fanOut) + Folder.DELIMITER + "file" + index;
+	}
+
+	/**
+	 * Get the properties of a new block
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static Map<String, String> getProperties(final String path)
+	{
+		final Map<String, String> properties = new HashMap<>();
+		properties.put(Block.PATH_LABEL, path);
+		properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+		return properties;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.BufferSize;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.SyntheticSafe;
+import io.ortis.jsafebox.cli.Init;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Measure the heap retained per {@link io.ortis.jsafebox.Block} by an opened {@link Safe}. The safe is generated by {@link SyntheticSafe} with its default types, so blocks carry realistic
+ * metadata. Usage: BlockHeapBenchmark [blocks] [safe file]. An existing safe file is reused, its password must be 'benchmark'
+ */
+public class BlockHeapBenchmark
+{
+	private static final String PASSWORD = "benchmark";
+
+	public static void main(final String[] args) throws Exception
+	{
+		final int blockCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		final File safeFile = args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"), "heap-" + blockCount + ".safe");
+		final Logger log = Logger.getAnonymousLogger();
+
+		if(!safeFile.exists())
+		{
+			Init.init(safeFile, PASSWORD.toCharArray(), null, null, BufferSize.DEFAULT_UPPER_BOUND);
+			try(final Safe safe = Safe.open(safeFile.getAbsolutePath(), PASSWORD.toCharArray(), BufferSize.DEFAULT_UPPER_BOUND, log))
+			{
+				SyntheticSafe.generate(safe, blockCount, 32, 2, SyntheticSafe.Distribution.parse("64", SyntheticSafe::parseLength),
+						SyntheticSafe.Distribution.parse(SyntheticSafe.DEFAULT_TYPES, String::trim), 1, Runtime.getRuntime().availableProcessors(), null);
+				safe.saveIncremental(null).close();
+			}
+		}
+
+		final long before = usedHeap();
+		final long start = System.nanoTime();
+		final Safe safe = Safe.open(safeFile.getAbsolutePath(), PASSWORD.toCharArray(), BufferSize.DEFAULT_UPPER_BOUND, log);
+		final long opened = System.nanoTime() - start;
+		final long after = usedHeap();
+
+		System.out.println(String.format("blocks=%d open=%d ms heap=%d bytes/block", safe.getBlocks().size(), opened / 1_000_000, (after - before) / safe.getBlocks().size()));
+		safe.close();
+	}
+
+	private static long usedHeap() throws InterruptedException
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Block;
+import io.ortis.jsafebox.BufferSize;
+import io.ortis.jsafebox.Folder;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.SafeFiles;
+import io.ortis.jsafebox.Utils;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measure the add and extract throughput of a {@link Safe} for a matrix of block sizes and buffer upper bounds. Buffers are sized per operation by {@link BufferSize}: the throughput should
+ * grow with the upper bound until it exceeds the block size. Blocks of 2 MB and more are decrypted in parallel segments, regardless of the buffer size. Usage: BufferSizeBenchmark [bytes per
+ * block size] [rounds]
+ */
+public class BufferSizeBenchmark
+{
+	private static final int[] BLOCK_SIZES = {4 * 1024, 64 * 1024, 1024 * 1024};
+	private static final int[] UPPER_BOUNDS = {1024, 4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+	public static void main(final String[] args) throws Exception
+	{
+		final long total = args.length > 0 ? Long.parseLong(args[0]) : 64L * 1024 * 1024;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		System.out.println("bytes per block size=" + Utils.humanReadableByteCount(total));
+		for(final int blockSize : BLOCK_SIZES)
+		{
+			final int blockCount = (int) Math.max(1, total / blockSize);
+			final byte[] key = new byte[16];
+			final List<String> paths = new ArrayList<>();
+			final File safeFile = BenchmarkUtils.createSafe(blockCount, blockSize, key, paths);
+			final byte[] data = new byte[blockSize];
+			try
+			{
+				for(final int upperBound : UPPER_BOUNDS)
+				{
+					long add = Long.MAX_VALUE;
+					long extract = Long.MAX_VALUE;
+					for(int round = 0; round < rounds; round++)
+					{
+						// added blocks stay in the temporary file of the safe and are discarded on close
+						try(final Safe safe = new Safe(safeFile, new SecretKeySpec(key, "AES"), upperBound))
+						{
+							long start = System.nanoTime();
+							for(int i = 0; i < blockCount; i++)
+							{
+								final String path = Folder.ROOT_NAME + Folder.DELIMITER + "added" + i;
+								final Map<String, String> properties = new HashMap<>();
+								properties.put(Block.PATH_LABEL, path);
+								properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+								safe.add(properties, new ByteArrayInputStream(data), null);
+							}
+							add = Math.min(add, System.nanoTime() - start);
+
+							start = System.nanoTime();
+							for(final String path : paths)
+								safe.extract(path, false, BenchmarkUtils.NULL_OUTPUT);
+							extract = Math.min(extract, System.nanoTime() - start);
+						}
+					}
+
+					final long bytes = (long) blockCount * blockSize;
+					System.out.println(String.format("block=%8s bound=%8s buffer=%8s add=%10s/s extract=%10s/s", Utils.humanReadableByteCount(blockSize),
+							Utils.humanReadableByteCount(upperBound), Utils.humanReadableByteCount(BufferSize.get(blockSize, BufferSize.getFileSystemBlockSize(safeFile), upperBound)),
+							Utils.humanReadableByteCount((long) (bytes / (add / 1e9))), Utils.humanReadableByteCount((long) (bytes / (extract / 1e9)))));
+				}
+			} finally
+			{
+				safeFile.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Ciphers;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.Utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure the per-block cost of the encryption of small blocks with a new {@link Cipher} and {@link SecureRandom} per block versus the instances cached by {@link Ciphers}, then the time to
+ * add and extract small blocks with a {@link Safe}. Usage: CipherBenchmark [block count] [block size] [rounds]
+ */
+public class CipherBenchmark
+{
+	private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+	public static void main(final String[] args) throws Exception
+	{
+		final int blockCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		final byte[] keyBytes = new byte[16];
+		new SecureRandom().nextBytes(keyBytes);
+		final Key key = new SecretKeySpec(keyBytes, "AES");
+		final byte[] data = new byte[blockSize];
+
+		System.out.println("blocks=" + blockCount + " block size=" + Utils.humanReadableByteCount(blockSize));
+
+		long uncached = Long.MAX_VALUE;
+		long cached = Long.MAX_VALUE;
+		for(int round = 0; round < rounds; round++)
+		{
+			long start = System.nanoTime();
+			for(int i = 0; i < blockCount; i++)
+			{
+				final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+				cipher.init(Cipher.ENCRYPT_MODE, key, new SecureRandom());
+				cipher.doFinal(data);
+			}
+			uncached = Math.min(uncached, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for(int i = 0; i < blockCount; i++)
+			{
+				final Cipher cipher = Ciphers.acquire(TRANSFORMATION);
+				cipher.init(Cipher.ENCRYPT_MODE, key, Ciphers.getSecureRandom());
+				cipher.doFinal(data);
+				Ciphers.release(cipher);
+			}
+			cached = Math.min(cached, System.nanoTime() - start);
+		}
+		System.out.println(String.format("encrypt   new instances=%,dns/block cached instances=%,dns/block", uncached / blockCount, cached / blockCount));
+
+		// end to end
+		final List<String> paths = new ArrayList<>();
+		long start = System.nanoTime();
+		final File safeFile = BenchmarkUtils.createSafe(blockCount, blockSize, keyBytes, paths);
+		final long add = System.nanoTime() - start;
+
+		final Safe safe = new Safe(safeFile, new SecretKeySpec(keyBytes, "AES"), 65536);
+		try
+		{
+			long extract = Long.MAX_VALUE;
+			for(int round = 0; round < rounds; round++)
+			{
+				start = System.nanoTime();
+				for(final String path : paths)
+					safe.extract(path, false, BenchmarkUtils.NULL_OUTPUT);
+				extract = Math.min(extract, System.nanoTime() - start);
+			}
+			System.out.println(String.format("safe      add=%,dns/block extract=%,dns/block", add / blockCount, extract / blockCount));
+		} finally
+		{
+			safe.close();
+			safeFile.delete();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Block;
+import io.ortis.jsafebox.Compression;
+import io.ortis.jsafebox.Folder;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.SafeFiles;
+import io.ortis.jsafebox.TestUtils;
+import io.ortis.jsafebox.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measure the compression ratio and throughput of the {@link Compression#DEFLATE} codec on typical data, then the add and extract time of a {@link Safe} with and without compression. Usage:
+ * CompressionBenchmark [data size] [rounds]
+ */
+public class CompressionBenchmark
+{
+	public static void main(final String[] args) throws Exception
+	{
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 32 * 1024 * 1024;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		final Random random = new Random(0);
+		final Map<String, byte[]> datas = new LinkedHashMap<>();
+		datas.put("log", text(size, i -> String.format("2026-10-17 12:%02d:%02d.%03d INFO  [worker-%d] io.ortis.jsafebox.Safe - Block %d extracted in %d ms%n",
+				i / 60000 % 60, i / 1000 % 60, i % 1000, i % 8, random.nextInt(100000), random.nextInt(500))));
+		datas.put("csv", text(size, i -> i + "," + random.nextInt(1000000) + "," + (random.nextInt(10000) / 100.0) + ",item-" + random.nextInt(500) + ",EUR\n"));
+		datas.put("json", text(size, i -> "{\"id\":" + i + ",\"name\":\"user" + random.nextInt(10000) + "\",\"active\":" + random.nextBoolean() + ",\"score\":"
+				+ random.nextInt(100) + "},\n"));
+		final byte[] noise = new byte[size];
+		random.nextBytes(noise);
+		datas.put("random", noise);
+
+		final Compression.Codec codec = Compression.getCodec(Compression.DEFLATE);
+		System.out.println("data size=" + Utils.humanReadableByteCount(size));
+		for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+		{
+			final byte[] data = entry.getValue();
+			byte[] compressed = null;
+			long bestCompress = Long.MAX_VALUE;
+			long bestDecompress = Long.MAX_VALUE;
+			for(int round = 0; round < rounds; round++)
+			{
+				long start = System.nanoTime();
+				try(final InputStream is = codec.compress(new ByteArrayInputStream(data)))
+				{
+					compressed = readAll(is);
+				}
+				bestCompress = Math.min(bestCompress, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				try(final InputStream is = codec.decompress(new ByteArrayInputStream(compressed)))
+				{
+					readAll(is);
+				}
+				bestDecompress = Math.min(bestDecompress, System.nanoTime() - start);
+			}
+
+			System.out.println(String.format("%-6s probe=%-5s ratio=%5.2f compress=%s/s decompress=%s/s", entry.getKey(), Compression.isCompressible(data,
+					Math.min(data.length, Compression.PROBE_LENGTH)), data.length / (double) compressed.length, throughput(size, bestCompress),
+					throughput(size, bestDecompress)));
+		}
+
+		for(final String compression : new String[]{"", Compression.DEFLATE})
+			for(final Map.Entry<String, byte[]> entry : datas.entrySet())
+				benchmarkSafe(compression, entry.getKey(), entry.getValue(), random, rounds);
+	}
+
+	private static void benchmarkSafe(final String compression, final String name, final byte[] data, final Random random, final int rounds) throws Exception
+	{
+		final byte[] key = new byte[16];
+		random.nextBytes(key);
+
+		final Map<String, String> header = new HashMap<>();
+		header.put(Compression.COMPRESSION_LABEL, compression);
+
+		long bestAdd = Long.MAX_VALUE;
+		long bestExtract = Long.MAX_VALUE;
+		long fileLength = 0;
+		for(int round = 0; round < rounds; round++)
+		{
+			final File safeFile = File.createTempFile("benchmark", ".safe");
+			safeFile.delete();
+			try
+			{
+				final String path = Folder.ROOT_NAME + Folder.DELIMITER + name;
+				final Map<String, String> properties = new HashMap<>();
+				properties.put(Block.PATH_LABEL, path);
+				properties.put(Block.NAME_LABEL, SafeFiles.getName(path));
+
+				long start = System.nanoTime();
+				Safe safe = TestUtils.createSafe(safeFile, key, header, 65536);
+				safe.add(properties, new ByteArrayInputStream(data), data.length, null);
+				safe = safe.saveIncremental(null);
+				bestAdd = Math.min(bestAdd, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				safe.extract(path, false, BenchmarkUtils.NULL_OUTPUT);
+				bestExtract = Math.min(bestExtract, System.nanoTime() - start);
+
+				safe.close();
+				fileLength = safeFile.length();
+			} finally
+			{
+				safeFile.delete();
+			}
+		}
+
+		System.out.println(String.format("compression=%-7s %-6s file=%s add=%s/s extract=%s/s", compression.isEmpty() ? "none" : compression, name,
+				Utils.humanReadableByteCount(fileLength), throughput(data.length, bestAdd), throughput(data.length, bestExtract)));
+	}
+
+	private static byte[] text(final int size, final java.util.function.IntFunction<String> line)
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+		for(int i = 0; baos.size() < size; i++)
+		{
+			final byte[] bytes = line.apply(i).getBytes(StandardCharsets.UTF_8);
+			baos.write(bytes, 0, Math.min(bytes.length, size - baos.size()));
+		}
+		return baos.toByteArray();
+	}
+
+	private static byte[] readAll(final InputStream is) throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[65536];
+		int read;
+		while((read = is.read(buffer)) > -1)
+			baos.write(buffer, 0, read);
+		return baos.toByteArray();
+	}
+
+	private static String throughput(final long length, final long nanos)
+	{
+		return Utils.humanReadableByteCount((long) (length / (nanos / 1e9)));
+	}
+}
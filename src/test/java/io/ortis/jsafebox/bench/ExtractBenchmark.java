@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.Utils;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure the extraction throughput of a {@link Safe} shared by an increasing number of threads. Usage: ExtractBenchmark [block count] [block size] [rounds]
+ */
+public class ExtractBenchmark
+{
+	public static void main(final String[] args) throws Exception
+	{
+		final int blockCount = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		final int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 4 * 1024 * 1024;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		final int cores = Runtime.getRuntime().availableProcessors();
+
+		final byte[] key = new byte[16];
+		final List<String> paths = new ArrayList<>();
+		final File safeFile = BenchmarkUtils.createSafe(blockCount, blockSize, key, paths);
+		final Safe safe = new Safe(safeFile, new SecretKeySpec(key, "AES"), 65536);
+
+		System.out.println("blocks=" + blockCount + " block size=" + Utils.humanReadableByteCount(blockSize) + " cores=" + cores);
+		try
+		{
+			for(int threads = 1; threads <= cores; threads *= 2)
+			{
+				final ExecutorService executor = Executors.newFixedThreadPool(threads);
+				try
+				{
+					long best = Long.MAX_VALUE;
+					for(int round = 0; round < rounds; round++)
+					{
+						final AtomicInteger next = new AtomicInteger();
+						final List<Future<?>> futures = new ArrayList<>();
+						final long start = System.nanoTime();
+						for(int t = 0; t < threads; t++)
+							futures.add(executor.submit(() -> {
+								int i;
+								while((i = next.getAndIncrement()) < paths.size())
+									safe.extract(paths.get(i), false, BenchmarkUtils.NULL_OUTPUT);
+								return null;
+							}));
+
+						for(final Future<?> future : futures)
+							future.get();
+
+						best = Math.min(best, System.nanoTime() - start);
+					}
+
+					final double seconds = best / 1e9;
+					System.out.println(String.format("threads=%2d time=%.3fs throughput=%s/s", threads, seconds,
+							Utils.humanReadableByteCount((long) ((double) blockCount * blockSize / seconds))));
+				} finally
+				{
+					executor.shutdown();
+				}
+			}
+		} finally
+		{
+			safe.close();
+			safeFile.delete();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Block;
+import io.ortis.jsafebox.BufferSize;
+import io.ortis.jsafebox.Folder;
+import io.ortis.jsafebox.Safe;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measure the operations of a {@link Folder} holding many children: add, mkdir, lookup, remove and sorted listing, and the opening of a {@link Safe} whose blocks are all in the root folder.
+ * Usage: FolderBenchmark [children] [blocks of the opened safe] [warmup iterations] [measurement iterations] [result file]
+ */
+public class FolderBenchmark
+{
+	public static void main(final String[] args) throws Exception
+	{
+		final int children = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		final int blockCount = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+		final int warmups = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		final int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		final BenchmarkHarness harness = new BenchmarkHarness(warmups, iterations);
+		final Map<String, Object> params = new LinkedHashMap<>();
+		params.put("children", children);
+
+		harness.measure("folder.add", params, children, () -> {
+			final Folder wide = createFolder();
+			final List<Block> blocks = createBlocks(wide, children);
+			return () -> {
+				for(final Block block : blocks)
+					wide.add(block);
+			};
+		});
+
+		harness.measure("folder.mkdir", params, children, () -> {
+			final Folder wide = createFolder();
+			return () -> {
+				for(int i = 0; i < children; i++)
+					wide.mkdir("folder" + i);
+			};
+		});
+
+		harness.measure("folder.getChild", params, children, () -> {
+			final Folder wide = createWideFolder(children);
+			return () -> {
+				for(int i = 0; i < children; i++)
+					if(wide.getChild("FILE" + i) == null)
+						throw new IllegalStateException("Child file" + i + " not found");
+			};
+		});
+
+		harness.measure("folder.remove", params, children, () -> {
+			final Folder wide = createWideFolder(children);
+			return () -> {
+				for(int i = 0; i < children; i++)
+					if(!wide.remove("file" + i))
+						throw new IllegalStateException("Child file" + i + " not removed");
+			};
+		});
+
+		harness.measure("folder.listFiles", params, 1, () -> {
+			final Folder wide = createWideFolder(children);
+			return () -> {
+				if(wide.listFiles().size() != children)
+					throw new IllegalStateException("Missing children");
+			};
+		});
+
+		final byte[] key = new byte[16];
+		final File safeFile = BenchmarkUtils.createSafe(blockCount, 64, key, new ArrayList<>());
+		final SecretKey secretKey = new SecretKeySpec(key, "AES");
+		try
+		{
+			final Map<String, Object> openParams = new LinkedHashMap<>();
+			openParams.put("rootBlocks", blockCount);
+			harness.measure("open", openParams, 1, () -> () -> new Safe(safeFile, secretKey, BufferSize.DEFAULT_UPPER_BOUND).close());
+		} finally
+		{
+			safeFile.delete();
+		}
+
+		if(args.length > 4)
+			harness.export(new File(args[4]));
+	}
+
+	private static Folder createFolder()
+	{
+		return new Folder(new Folder(null, Folder.ROOT_NAME), "wide");
+	}
+
+	private static Folder createWideFolder(final int children) throws Exception
+	{
+		final Folder wide = createFolder();
+		for(final Block block : createBlocks(wide, children))
+			wide.add(block);
+		return wide;
+	}
+
+	private static List<Block> createBlocks(final Folder folder, final int count)
+	{
+		final List<Block> blocks = new ArrayList<>(count);
+		for(int i = 0; i < count; i++)
+		{
+			final String path = folder.getPath() + Folder.DELIMITER + "file" + i;
+			blocks.add(new Block(path, BenchmarkUtils.getProperties(path), 0, 0, 0, 0, 0, 0, folder));
+		}
+		return blocks;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Block;
+import io.ortis.jsafebox.Folder;
+import io.ortis.jsafebox.SafeFile;
+import io.ortis.jsafebox.SafeFiles;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measure {@link SafeFiles#match(String, Folder, Folder, java.util.Collection)} on a tree of log folders: <code>/logs/day{i}/{year}-{j}.{log|txt}</code>. Matches are collected into an
+ * {@link ArrayList}, as done by the commands. Usage: GlobBenchmark [folders] [files per folder] [warmup iterations] [measurement iterations] [result file]
+ */
+public class GlobBenchmark
+{
+	private static final String[] PATTERNS = {"/logs/*/2024*", "/logs/day1*/*", "/logs/*/*", "/*/*/*-1*.log", "/logs/day7/2023-7*", "/**/2024-1*.log"};
+
+	public static void main(final String[] args) throws Exception
+	{
+		final int folderCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		final int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		final int warmups = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		final int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		final Folder root = new Folder(null, Folder.ROOT_NAME);
+		final Folder logs = root.mkdir("logs");
+		for(int i = 0; i < folderCount; i++)
+		{
+			final Folder day = logs.mkdir("day" + i);
+			for(int j = 0; j < fileCount; j++)
+			{
+				final String path = day.getPath() + Folder.DELIMITER + (j % 2 == 0 ? "2024-" + j + ".log" : "2023-" + j + ".txt");
+				day.add(new Block(path, BenchmarkUtils.getProperties(path), 0, 0, 0, 0, 0, 0, day));
+			}
+		}
+
+		final BenchmarkHarness harness = new BenchmarkHarness(warmups, iterations);
+		for(final String pattern : PATTERNS)
+		{
+			final Map<String, Object> params = new LinkedHashMap<>();
+			params.put("files", folderCount * fileCount);
+			params.put("pattern", pattern);
+			final int[] matches = new int[1];
+			harness.measure("match", params, 1, () -> () -> matches[0] = SafeFiles.match(pattern, root, root, new ArrayList<SafeFile>()).size());
+			System.out.println("\t" + matches[0] + " match(es)");
+		}
+
+		if(args.length > 4)
+			harness.export(new File(args[4]));
+	}
+}
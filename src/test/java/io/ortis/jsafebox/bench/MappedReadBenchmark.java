@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.Utils;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compare the extraction throughput of the {@link java.nio.channels.FileChannel} and the memory-mapped read paths for small and large blocks. Usage: MappedReadBenchmark [rounds]
+ */
+public class MappedReadBenchmark
+{
+	public static void main(final String[] args) throws Exception
+	{
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		run(4096, 4 * 1024, rounds);
+		run(32, 8 * 1024 * 1024, rounds);
+	}
+
+	private static void run(final int blockCount, final int blockSize, final int rounds) throws Exception
+	{
+		final byte[] key = new byte[16];
+		final List<String> paths = new ArrayList<>();
+		final File safeFile = BenchmarkUtils.createSafe(blockCount, blockSize, key, paths);
+		try
+		{
+			System.out.println("blocks=" + blockCount + " block size=" + Utils.humanReadableByteCount(blockSize));
+			for(final boolean memoryMapped : new boolean[]{false, true})
+				try(final Safe safe = new Safe(safeFile, new SecretKeySpec(key, "AES"), 65536, memoryMapped))
+				{
+					long best = Long.MAX_VALUE;
+					for(int round = 0; round < rounds; round++)
+					{
+						final long start = System.nanoTime();
+						for(final String path : paths)
+							safe.extract(path, false, BenchmarkUtils.NULL_OUTPUT);
+						best = Math.min(best, System.nanoTime() - start);
+					}
+
+					final double seconds = best / 1e9;
+					System.out.println(String.format("%-7s time=%.3fs throughput=%s/s", memoryMapped ? "mmap" : "channel", seconds,
+							Utils.humanReadableByteCount((long) ((double) blockCount * blockSize / seconds))));
+				}
+		} finally
+		{
+			safeFile.delete();
+		}
+	}
+}
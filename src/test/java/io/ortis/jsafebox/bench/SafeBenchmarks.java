@@ -0,0 +1,313 @@
+/*
+ *  Copyright 2019 Ortis (ortis@ortis.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.ortis.jsafebox.bench;
+
+import io.ortis.jsafebox.Block;
+import io.ortis.jsafebox.BufferSize;
+import io.ortis.jsafebox.Folder;
+import io.ortis.jsafebox.Safe;
+import io.ortis.jsafebox.SafeFile;
+import io.ortis.jsafebox.SafeFiles;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark suite of the main operations of a {@link Safe}, run on synthetic safes generated by {@link BenchmarkUtils}:
+ * <ul>
+ * <li>open: by block count</li>
+ * <li>add and extract: by file size and buffer size</li>
+ * <li>save and saveIncremental: by block count and ratio of changed blocks</li>
+ * <li>hash: by block count</li>
+ * <li>match: globbing on a wide folder</li>
+ * <li>folder.add and folder.mkdir: on a wide folder</li>
+ * </ul>
+ * Results are printed and exported in the JSON format of JMH so regressions can be tracked across versions. Usage: SafeBenchmarks [result file] [warmup iterations] [measurement
+ * iterations]
+ */
+public class SafeBenchmarks
+{
+	private static final int[] BLOCK_COUNTS = {1_000, 10_000};
+	private static final int[] FILE_SIZES = {4 * 1024, 64 * 1024, 1024 * 1024};
+	private static final int[] BUFFER_SIZES = {4 * 1024, BufferSize.DEFAULT_UPPER_BOUND};
+	private static final double[] CHANGE_RATIOS = {0.01, 0.1};
+	private static final int[] WIDTHS = {1_000, 10_000};
+
+	/**
+	 * Number of folders under the root of the generated safes
+	 */
+	private static final int FAN_OUT = 100;
+	private static final int BLOCK_SIZE = 4 * 1024;
+	private static final long BYTES_PER_ITERATION = 8L * 1024 * 1024;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final File resultFile = new File(args.length > 0 ? args[0] : "jsafebox-benchmarks.json");
+		final int warmups = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		final BenchmarkHarness harness = new BenchmarkHarness(warmups, iterations);
+		final File folder = Files.createTempDirectory("benchmark").toFile();
+		try
+		{
+			open(harness);
+			addExtract(harness);
+			save(harness, folder);
+			hash(harness);
+			match(harness);
+			folder(harness);
+		} finally
+		{
+			delete(folder);
+		}
+
+		harness.export(resultFile);
+		System.out.println("Results written to " + resultFile.getAbsolutePath());
+	}
+
+	private static void open(final BenchmarkHarness harness) throws Exception
+	{
+		for(final int blockCount : BLOCK_COUNTS)
+		{
+			final byte[] key = new byte[16];
+			final File safeFile = BenchmarkUtils.createSafe(blockCount, BLOCK_SIZE, FAN_OUT, key, new ArrayList<>());
+			final SecretKey secretKey = new SecretKeySpec(key, "AES");
+			try
+			{
+				harness.measure("open", params("blocks", blockCount), 1, () -> () -> new Safe(safeFile, secretKey, BufferSize.DEFAULT_UPPER_BOUND).close());
+			} finally
+			{
+				safeFile.delete();
+			}
+		}
+	}
+
+	private static void addExtract(final BenchmarkHarness harness) throws Exception
+	{
+		for(final int fileSize : FILE_SIZES)
+		{
+			final int fileCount = (int) Math.max(1, BYTES_PER_ITERATION / fileSize);
+			final byte[] key = new byte[16];
+			final List<String> paths = new ArrayList<>();
+			final File safeFile = BenchmarkUtils.createSafe(fileCount, fileSize, FAN_OUT, key, paths);
+			final SecretKey secretKey = new SecretKeySpec(key, "AES");
+			final byte[] data = new byte[fileSize];
+			new Random().nextBytes(data);
+			try
+			{
+				for(final int bufferSize : BUFFER_SIZES)
+				{
+					// added blocks stay in the temporary file of the safe and are discarded on close
+					harness.measure("add", params("fileSize", fileSize, "bufferSize", bufferSize), fileCount, () -> {
+						final Safe safe = new Safe(safeFile, secretKey, bufferSize);
+						return new BenchmarkHarness.Fixture()
+						{
+							@Override
+							public void run() throws Exception
+							{
+								for(int i = 0; i < fileCount; i++)
+								{
+									final String path = Folder.ROOT_NAME + Folder.DELIMITER + "added" + BenchmarkUtils.getPath(i, FAN_OUT);
+									safe.getRootFolder().mkdir(path.split(Folder.REGEX_DELIMITER), 1, true);
+									safe.add(BenchmarkUtils.getProperties(path), new ByteArrayInputStream(data), null);
+								}
+							}
+
+							@Override
+							public void close() throws Exception
+							{
+								safe.close();
+							}
+						};
+					});
+
+					harness.measure("extract", params("fileSize", fileSize, "bufferSize", bufferSize), fileCount, () -> {
+						final Safe safe = new Safe(safeFile, secretKey, bufferSize);
+						return new BenchmarkHarness.Fixture()
+						{
+							@Override
+							public void run() throws Exception
+							{
+								for(final String path : paths)
+									safe.extract(path, false, BenchmarkUtils.NULL_OUTPUT);
+							}
+
+							@Override
+							public void close() throws Exception
+							{
+								safe.close();
+							}
+						};
+					});
+				}
+			} finally
+			{
+				safeFile.delete();
+			}
+		}
+	}
+
+	private static void save(final BenchmarkHarness harness, final File folder) throws Exception
+	{
+		final byte[] data = new byte[BLOCK_SIZE];
+		new Random().nextBytes(data);
+		for(final int blockCount : BLOCK_COUNTS)
+		{
+			final byte[] key = new byte[16];
+			final List<String> paths = new ArrayList<>();
+			final File safeFile = BenchmarkUtils.createSafe(blockCount, BLOCK_SIZE, FAN_OUT, key, paths);
+			final SecretKey secretKey = new SecretKeySpec(key, "AES");
+			try
+			{
+				for(final double changeRatio : CHANGE_RATIOS)
+				{
+					final int changed = (int) Math.max(1, blockCount * changeRatio);
+					for(final boolean incremental : new boolean[]{false, true})
+						harness.measure(incremental ? "saveIncremental" : "save", params("blocks", blockCount, "changeRatio", changeRatio), 1, () -> {
+							// each iteration modifies a fresh copy of the safe: the copy and the changes are not timed
+							final File copy = new File(folder, safeFile.getName());
+							Files.copy(safeFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+							final Safe safe = new Safe(copy, secretKey, BufferSize.DEFAULT_UPPER_BOUND);
+							for(int i = 0; i < changed; i++)
+							{
+								safe.delete(paths.get(i));
+								final String path = Folder.ROOT_NAME + Folder.DELIMITER + "changed" + BenchmarkUtils.getPath(i, FAN_OUT);
+								safe.getRootFolder().mkdir(path.split(Folder.REGEX_DELIMITER), 1, true);
+								safe.add(BenchmarkUtils.getProperties(path), new ByteArrayInputStream(data), null);
+							}
+
+							return new BenchmarkHarness.Fixture()
+							{
+								private Safe saved = safe;
+
+								@Override
+								public void run() throws Exception
+								{
+									this.saved = incremental ? safe.saveIncremental(null) : safe.save();
+								}
+
+								@Override
+								public void close() throws Exception
+								{
+									this.saved.close();
+									copy.delete();
+								}
+							};
+						});
+				}
+			} finally
+			{
+				safeFile.delete();
+			}
+		}
+	}
+
+	private static void hash(final BenchmarkHarness harness) throws Exception
+	{
+		for(final int blockCount : BLOCK_COUNTS)
+		{
+			final byte[] key = new byte[16];
+			final File safeFile = BenchmarkUtils.createSafe(blockCount, BLOCK_SIZE, FAN_OUT, key, new ArrayList<>());
+			final SecretKey secretKey = new SecretKeySpec(key, "AES");
+			try(final Safe safe = new Safe(safeFile, secretKey, BufferSize.DEFAULT_UPPER_BOUND))
+			{
+				harness.measure("hash", params("blocks", blockCount), 1, () -> () -> safe.computeHash(null));
+			} finally
+			{
+				safeFile.delete();
+			}
+		}
+	}
+
+	private static void match(final BenchmarkHarness harness) throws Exception
+	{
+		for(final int width : WIDTHS)
+		{
+			final Folder root = new Folder(null, Folder.ROOT_NAME);
+			final Folder wide = root.mkdir("wide");
+			for(final Block block : createBlocks(wide, width))
+				wide.add(block);
+
+			for(final String pattern : new String[]{"/wide/file1*", "/wide/*", "/*/*9"})
+				harness.measure("match", params("width", width, "pattern", pattern), 1, () -> () -> SafeFiles.match(pattern, root, root, new ArrayList<SafeFile>()));
+		}
+	}
+
+	private static void folder(final BenchmarkHarness harness) throws Exception
+	{
+		for(final int width : WIDTHS)
+		{
+			harness.measure("folder.add", params("width", width), width, () -> {
+				final Folder wide = new Folder(new Folder(null, Folder.ROOT_NAME), "wide");
+				final List<Block> blocks = createBlocks(wide, width);
+				return () -> {
+					for(final Block block : blocks)
+						wide.add(block);
+				};
+			});
+
+			harness.measure("folder.mkdir", params("width", width), width, () -> {
+				final Folder wide = new Folder(new Folder(null, Folder.ROOT_NAME), "wide");
+				return () -> {
+					for(int i = 0; i < width; i++)
+						wide.mkdir("folder" + i);
+				};
+			});
+		}
+	}
+
+	/**
+	 * Create <code>count</code> blocks without data belonging to <code>folder</code>
+	 */
+	private static List<Block> createBlocks(final Folder folder, final int count)
+	{
+		final List<Block> blocks = new ArrayList<>(count);
+		for(int i = 0; i < count; i++)
+		{
+			final String path = folder.getPath() + Folder.DELIMITER + "file" + i;
+			blocks.add(new Block(path, BenchmarkUtils.getProperties(path), 0, 0, 0, 0, 0, 0, folder));
+		}
+		return blocks;
+	}
+
+	private static Map<String, Object> params(final Object... keyValues)
+	{
+		final Map<String, Object> params = new LinkedHashMap<>();
+		for(int i = 0; i < keyValues.length; i += 2)
+			params.put((String) keyValues[i], keyValues[i + 1]);
+		return params;
+	}
+
+	private static void delete(final File file)
+	{
+		final File[] files = file.listFiles();
+		if(files != null)
+			for(final File f : files)
+				delete(f);
+		file.delete();
+	}
+}